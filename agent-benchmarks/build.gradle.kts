@@ -0,0 +1,19 @@
+plugins {
+	com.teamscale.`java-convention`
+	com.teamscale.`jmh-convention`
+}
+
+dependencies {
+	jmhImplementation(project(":agent"))
+	jmhImplementation(project(":report-generator"))
+	jmhImplementation(project(":teamscale-client"))
+	jmhImplementation(libs.jacoco.agent) {
+		artifact {
+			classifier = "runtime"
+		}
+	}
+	jmhImplementation(platform(libs.jersey.bom))
+	jmhImplementation(libs.jersey.server)
+	jmhImplementation(libs.slf4j.api)
+	jmhImplementation(libs.asm.core)
+}
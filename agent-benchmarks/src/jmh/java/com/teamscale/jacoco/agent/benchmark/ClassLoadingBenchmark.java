@@ -0,0 +1,62 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much each transformer of the agent adds to loading, initializing and instantiating application classes.
+ * Compare against the {@link Transformers#NONE} baseline. The transformers are created once, like in an instrumented
+ * JVM, whereas each operation loads all classes with a new class loader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ClassLoadingBenchmark {
+
+	@Param({Transformers.NONE, Transformers.COVERAGE, Transformers.CACHED_COVERAGE, Transformers.GIT_PROPERTIES,
+			Transformers.SAP_NWDI})
+	public String transformer;
+
+	@Param({"1000"})
+	public int classCount;
+
+	private Map<String, byte[]> classFiles;
+
+	private ClassFileTransformer classFileTransformer;
+
+	private ProtectionDomain protectionDomain;
+
+	@Setup
+	public void setUp() throws Exception {
+		classFiles = WorkloadClasses.create(classCount, 10);
+		classFileTransformer = Transformers.create(transformer);
+		protectionDomain = Transformers.createProtectionDomain();
+	}
+
+	@Benchmark
+	public void loadClasses(Blackhole blackhole) throws ReflectiveOperationException {
+		TransformingClassLoader classLoader = new TransformingClassLoader(classFiles, classFileTransformer,
+				protectionDomain);
+		for (String className : classFiles.keySet()) {
+			blackhole.consume(classLoader.createInstance(className));
+		}
+	}
+}
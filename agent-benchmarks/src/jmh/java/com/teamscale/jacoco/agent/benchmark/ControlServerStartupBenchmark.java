@@ -0,0 +1,60 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import com.teamscale.jacoco.agent.AgentResource;
+import com.teamscale.jacoco.agent.GenericExceptionMapper;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
+import com.teamscale.jacoco.agent.server.IControlServer;
+import com.teamscale.jacoco.agent.server.JdkControlServer;
+import com.teamscale.jacoco.agent.server.JettyControlServer;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long starting the HTTP server of the agent delays the start of the JVM. Each measurement uses a new JVM,
+ * so that loading and initializing the classes of the server is included, as it is in the premain of the agent.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ControlServerStartupBenchmark {
+
+	@Param({"JETTY", "JDK"})
+	public EHttpServerType type;
+
+	private IControlServer server;
+
+	@Benchmark
+	public IControlServer start() throws Exception {
+		if (type == EHttpServerType.JDK) {
+			server = JdkControlServer.start(0, new AgentResource(), 10, false);
+		} else {
+			ResourceConfig resourceConfig = new ResourceConfig();
+			resourceConfig.property(ServerProperties.WADL_FEATURE_DISABLE, Boolean.TRUE.toString());
+			server = JettyControlServer.start(0,
+					resourceConfig.register(AgentResource.class).register(GenericExceptionMapper.class));
+		}
+		return server;
+	}
+
+	@TearDown(Level.Iteration)
+	public void stop() throws Exception {
+		server.stop();
+	}
+}
@@ -0,0 +1,53 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Measures the execution time of code instrumented by the agent compared to the same code without instrumentation.
+ * The workload calls 100 small methods with a branch each, so the overhead of the probes is not hidden behind
+ * expensive computations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class InstrumentedCodeBenchmark {
+
+	@Param({"false", "true"})
+	public boolean instrumented;
+
+	private IntUnaryOperator workload;
+
+	private int input;
+
+	@Setup
+	public void setUp() throws Exception {
+		Map<String, byte[]> classFiles = WorkloadClasses.create(1, 100);
+		TransformingClassLoader classLoader = new TransformingClassLoader(classFiles,
+				instrumented ? Transformers.createCoverageTransformer() : null, Transformers.createProtectionDomain());
+		workload = (IntUnaryOperator) classLoader.createInstance(classFiles.keySet().iterator().next());
+	}
+
+	@Benchmark
+	public int run() {
+		// Alternating signs take both sides of the branches
+		input = -input + 1;
+		return workload.applyAsInt(input);
+	}
+}
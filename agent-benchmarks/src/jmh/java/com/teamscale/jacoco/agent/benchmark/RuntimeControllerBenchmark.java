@@ -0,0 +1,92 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import com.teamscale.jacoco.agent.JacocoRuntimeController;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.agent.rt.internal_0e20598.Agent;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.AgentOptions;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.RuntimeData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures dumping and resetting the coverage of the JaCoCo runtime depending on the number of loaded classes. The
+ * classes are registered in the runtime directly, as instrumented classes do when they are initialized.
+ * <p>
+ * Before each operation, probes of 10% of the classes are hit. Since this setup runs for each invocation, the results
+ * are only meaningful for operations that take considerably longer than a millisecond.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RuntimeControllerBenchmark {
+
+	/** Number of probes of each class. */
+	private static final int PROBE_COUNT = 40;
+
+	@Param({"1000", "10000", "50000"})
+	public int classCount;
+
+	/** Whether dumps create snapshots instead of resetting the probes, see the agent option snapshot-probes. */
+	@Param({"false", "true"})
+	public boolean snapshotProbes;
+
+	private final Random random = new Random(42);
+
+	private boolean[][] probes;
+
+	private JacocoRuntimeController controller;
+
+	@Setup
+	public void setUp() {
+		// The agent is a singleton, but JMH uses a new JVM for each combination of parameters
+		Agent agent = Agent.getInstance(new AgentOptions("output=none"));
+		RuntimeData data = agent.getData();
+		probes = new boolean[classCount][];
+		for (int i = 0; i < classCount; i++) {
+			probes[i] = data.getExecutionData((long) i, "com/example/Class" + i, PROBE_COUNT).getProbes();
+		}
+		controller = new JacocoRuntimeController(agent);
+		if (snapshotProbes) {
+			controller.enableProbeSnapshots();
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void hitProbes() {
+		controller.clearProbeSnapshots();
+		for (int i = 0; i < classCount / 10; i++) {
+			probes[random.nextInt(classCount)][random.nextInt(PROBE_COUNT)] = true;
+		}
+	}
+
+	@Benchmark
+	public Dump dumpAndReset() throws JacocoRuntimeController.DumpException {
+		return controller.dumpAndReset();
+	}
+
+	@Benchmark
+	public int countHitProbes() throws JacocoRuntimeController.DumpException {
+		return controller.countHitProbes();
+	}
+
+	@Benchmark
+	public void reset() {
+		controller.reset();
+	}
+}
@@ -0,0 +1,115 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import com.teamscale.jacoco.agent.InstrumentedClassCache;
+import com.teamscale.jacoco.agent.LenientCoverageTransformer;
+import com.teamscale.jacoco.agent.commit_resolution.CommitResolvingTransformer;
+import com.teamscale.jacoco.agent.commit_resolution.ICodeLocationHandler;
+import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocatingHandler;
+import com.teamscale.jacoco.agent.commit_resolution.sapnwdi.NwdiMarkerClassLocatingHandler;
+import com.teamscale.jacoco.agent.options.sapnwdi.DelayedSapNwdiMultiUploader;
+import com.teamscale.jacoco.agent.options.sapnwdi.SapNwdiApplication;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.AgentOptions;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.IRuntime;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.LoggerRuntime;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.RuntimeData;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.File;
+import java.lang.instrument.ClassFileTransformer;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Collections;
+
+/**
+ * Creates the {@link ClassFileTransformer}s the agent registers, configured as for an application whose classes are
+ * all included. Nothing is written to disk or sent over the network.
+ */
+public class Transformers {
+
+	/** Parameter value for defining classes without a transformer. */
+	public static final String NONE = "none";
+
+	/** Parameter value for the {@link LenientCoverageTransformer}. */
+	public static final String COVERAGE = "coverage";
+
+	/**
+	 * Parameter value for the {@link LenientCoverageTransformer} with an {@link InstrumentedClassCache}. Except for the
+	 * first operation, all classes are taken from the cache.
+	 */
+	public static final String CACHED_COVERAGE = "cached-coverage";
+
+	/** Parameter value for the {@link CommitResolvingTransformer} with the {@link GitPropertiesLocatingHandler}. */
+	public static final String GIT_PROPERTIES = "git-properties";
+
+	/** Parameter value for the {@link CommitResolvingTransformer} with the {@link NwdiMarkerClassLocatingHandler}. */
+	public static final String SAP_NWDI = "sap-nwdi";
+
+	private Transformers() {
+		// utility class
+	}
+
+	/** Returns the transformer for the given parameter value or null for {@link #NONE}. */
+	public static ClassFileTransformer create(String name) throws Exception {
+		ClasspathWildcardIncludeFilter includeAll = new ClasspathWildcardIncludeFilter(null, null);
+		switch (name) {
+			case NONE:
+				return null;
+			case COVERAGE:
+				return createCoverageTransformer();
+			case CACHED_COVERAGE:
+				return createCachedCoverageTransformer();
+			case GIT_PROPERTIES:
+				return createCommitResolvingTransformer(new GitPropertiesLocatingHandler((file, isJarFile) -> {
+					// searching happens asynchronously and is not part of the class loading
+				}), includeAll);
+			case SAP_NWDI:
+				return createCommitResolvingTransformer(new NwdiMarkerClassLocatingHandler(
+						new DelayedSapNwdiMultiUploader((commit, application) -> null),
+						SapNwdiApplication.parseApplications("com.example.Marker:project")), includeAll);
+			default:
+				throw new IllegalArgumentException("Unknown transformer " + name);
+		}
+	}
+
+	/**
+	 * Creates a transformer for a handler that never resolves a commit, since the marker class is never loaded and no
+	 * git.properties file is found. Thus, the transformer never removes itself and does not need an
+	 * {@link java.lang.instrument.Instrumentation}.
+	 */
+	private static CommitResolvingTransformer createCommitResolvingTransformer(ICodeLocationHandler handler,
+			ClasspathWildcardIncludeFilter includeFilter) {
+		return new CommitResolvingTransformer(null, includeFilter, Collections.singletonList(handler));
+	}
+
+	/**
+	 * Creates the transformer that instruments classes for coverage. The instrumented classes retrieve their probe
+	 * arrays from a runtime that works without an agent.
+	 */
+	public static LenientCoverageTransformer createCoverageTransformer() throws Exception {
+		IRuntime runtime = new LoggerRuntime();
+		runtime.startup(new RuntimeData());
+		return new LenientCoverageTransformer(runtime, new AgentOptions(), NOPLogger.NOP_LOGGER);
+	}
+
+	/**
+	 * Creates the transformer that instruments classes for coverage and caches them in a new temporary directory. The
+	 * cached classes are only valid for the runtime of this transformer, like the cache of an agent for its runtime.
+	 */
+	private static LenientCoverageTransformer createCachedCoverageTransformer() throws Exception {
+		IRuntime runtime = new LoggerRuntime();
+		runtime.startup(new RuntimeData());
+		InstrumentedClassCache cache = new InstrumentedClassCache(Files.createTempDirectory("instrumentation-cache"),
+				Long.MAX_VALUE, "benchmark");
+		return new LenientCoverageTransformer(runtime, new AgentOptions(), NOPLogger.NOP_LOGGER, cache);
+	}
+
+	/** Returns a protection domain for classes loaded from a jar file, as most application classes are. */
+	public static ProtectionDomain createProtectionDomain() throws MalformedURLException {
+		CodeSource codeSource = new CodeSource(new File("workload.jar").toURI().toURL(), (Certificate[]) null);
+		return new ProtectionDomain(codeSource, null);
+	}
+}
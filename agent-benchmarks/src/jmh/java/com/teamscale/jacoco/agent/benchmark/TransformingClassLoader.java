@@ -0,0 +1,58 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.Map;
+
+/**
+ * Defines classes from the given class files after passing them through a {@link ClassFileTransformer}, like the JVM
+ * does for classes loaded while an agent is attached.
+ */
+public class TransformingClassLoader extends ClassLoader {
+
+	private final Map<String, byte[]> classFiles;
+
+	private final ClassFileTransformer transformer;
+
+	private final ProtectionDomain protectionDomain;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param classFiles  The class files by internal class name.
+	 * @param transformer The transformer to apply or null to define the classes unchanged.
+	 */
+	public TransformingClassLoader(Map<String, byte[]> classFiles, ClassFileTransformer transformer,
+			ProtectionDomain protectionDomain) {
+		super(TransformingClassLoader.class.getClassLoader());
+		this.classFiles = classFiles;
+		this.transformer = transformer;
+		this.protectionDomain = protectionDomain;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String internalName = name.replace('.', '/');
+		byte[] classFile = classFiles.get(internalName);
+		if (classFile == null) {
+			throw new ClassNotFoundException(name);
+		}
+		if (transformer != null) {
+			try {
+				byte[] transformed = transformer.transform(this, internalName, null, protectionDomain, classFile);
+				if (transformed != null) {
+					classFile = transformed;
+				}
+			} catch (IllegalClassFormatException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		return defineClass(name, classFile, 0, classFile.length, protectionDomain);
+	}
+
+	/** Loads, initializes and instantiates the class with the given internal name. */
+	public Object createInstance(String internalName) throws ReflectiveOperationException {
+		return Class.forName(internalName.replace('/', '.'), true, this).getDeclaredConstructor().newInstance();
+	}
+}
@@ -0,0 +1,88 @@
+package com.teamscale.jacoco.agent.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates class files of an application. Each class implements {@link java.util.function.IntUnaryOperator} by
+ * calling all of its static methods, each of which spans three lines and contains a branch, i.e. "if (x > 0) { x++; }
+ * return x;".
+ */
+public class WorkloadClasses {
+
+	/** Number of generated packages. Classes are distributed evenly among them. */
+	private static final int PACKAGE_COUNT = 50;
+
+	private WorkloadClasses() {
+		// utility class
+	}
+
+	/** Returns the class files of the given number of classes by internal class name. */
+	public static Map<String, byte[]> create(int classCount, int methodsPerClass) {
+		Map<String, byte[]> classFiles = new LinkedHashMap<>();
+		for (int i = 0; i < classCount; i++) {
+			String name = "com/example/workload/package" + (i % PACKAGE_COUNT) + "/Workload" + i;
+			classFiles.put(name, createClass(name, methodsPerClass));
+		}
+		return classFiles;
+	}
+
+	private static byte[] createClass(String name, int methodCount) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object",
+				new String[]{"java/util/function/IntUnaryOperator"});
+		writer.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+
+		MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		visitLine(constructor, 1);
+		constructor.visitVarInsn(Opcodes.ALOAD, 0);
+		constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(Opcodes.RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+
+		MethodVisitor apply = writer.visitMethod(Opcodes.ACC_PUBLIC, "applyAsInt", "(I)I", null, null);
+		apply.visitCode();
+		apply.visitVarInsn(Opcodes.ILOAD, 1);
+		for (int i = 0; i < methodCount; i++) {
+			visitLine(apply, 3 + i);
+			apply.visitMethodInsn(Opcodes.INVOKESTATIC, name, "method" + i, "(I)I", false);
+		}
+		apply.visitInsn(Opcodes.IRETURN);
+		apply.visitMaxs(0, 0);
+		apply.visitEnd();
+
+		for (int i = 0; i < methodCount; i++) {
+			int firstLine = 4 + methodCount + i * 4;
+			MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "method" + i, "(I)I",
+					null, null);
+			method.visitCode();
+			visitLine(method, firstLine);
+			method.visitVarInsn(Opcodes.ILOAD, 0);
+			Label end = new Label();
+			method.visitJumpInsn(Opcodes.IFLE, end);
+			visitLine(method, firstLine + 1);
+			method.visitIincInsn(0, 1);
+			method.visitLabel(end);
+			method.visitLineNumber(firstLine + 2, end);
+			method.visitVarInsn(Opcodes.ILOAD, 0);
+			method.visitInsn(Opcodes.IRETURN);
+			method.visitMaxs(0, 0);
+			method.visitEnd();
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void visitLine(MethodVisitor method, int line) {
+		Label label = new Label();
+		method.visitLabel(label);
+		method.visitLineNumber(line, label);
+	}
+}
@@ -41,6 +41,7 @@ dependencies {
 
 	implementation(libs.jacoco.core)
 	implementation(libs.jacoco.report)
+	implementation(libs.asm.tree)
 	implementation(libs.jacoco.agent) {
 		artifact {
 			classifier = "runtime"
@@ -74,6 +75,8 @@ tasks.shadowJar {
 
 	manifest {
 		attributes["Premain-Class"] = "com.teamscale.jacoco.agent.PreMain"
+		// required to remove the probes from fully covered classes, see ClassDeinstrumenter
+		attributes["Can-Retransform-Classes"] = "true"
 	}
 }
 
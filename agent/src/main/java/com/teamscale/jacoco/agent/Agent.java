@@ -5,36 +5,40 @@
 +-------------------------------------------------------------------------*/
 package com.teamscale.jacoco.agent;
 
+import com.teamscale.client.EReportFormat;
+import com.teamscale.jacoco.agent.aggregator.AggregatorClient;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.jacoco.agent.options.AgentOptions;
+import com.teamscale.jacoco.agent.pipeline.CumulativeProbeStore;
+import com.teamscale.jacoco.agent.pipeline.DumpPipeline;
+import com.teamscale.jacoco.agent.pipeline.DumpScheduler;
+import com.teamscale.jacoco.agent.upload.ExecutionDataSpool;
 import com.teamscale.jacoco.agent.upload.IUploadRetry;
 import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.jacoco.agent.upload.LocalDiskUploader;
+import com.teamscale.jacoco.agent.upload.SpoolManager;
+import com.teamscale.jacoco.agent.upload.UploadRetryWorker;
 import com.teamscale.jacoco.agent.upload.UploaderException;
 import com.teamscale.jacoco.agent.util.AgentUtils;
 import com.teamscale.jacoco.agent.util.Benchmark;
-import com.teamscale.jacoco.agent.util.FileSystemUtilsClone;
-import com.teamscale.jacoco.agent.util.Timer;
+import com.teamscale.report.compact.CachingCompactCoverageReportGenerator;
 import com.teamscale.report.jacoco.CoverageFile;
 import com.teamscale.report.jacoco.EmptyReportException;
 import com.teamscale.report.jacoco.JaCoCoXmlReportGenerator;
 import com.teamscale.report.jacoco.dump.Dump;
-import org.conqat.lib.commons.string.StringUtils;
+import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.server.ServerProperties;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.instrument.Instrumentation;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.Duration;
-import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static com.teamscale.jacoco.agent.logging.LoggingUtils.wrap;
-import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
 
 /**
  * A wrapper around the JaCoCo Java agent that automatically triggers a dump and XML conversion based on a time
@@ -42,11 +46,37 @@ import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETR
  */
 public class Agent extends AgentBase {
 
-	/** Converts binary data to XML. */
-	private final JaCoCoXmlReportGenerator generator;
+	/** Converts binary data to the configured report format. */
+	private final IReportConverter converter;
 
 	/** Regular dump task. */
-	private Timer timer;
+	private DumpScheduler scheduler;
+
+	/** Converts and uploads dumps in the background or null if this happens synchronously. */
+	private DumpPipeline pipeline;
+
+	/**
+	 * Tracks which coverage has already been uploaded or null if every dump is uploaded completely.
+	 */
+	private CumulativeProbeStore probeStore;
+
+	/** Removes the probes from fully covered classes or null if classes keep their probes. */
+	private ClassDeinstrumenter deinstrumenter;
+
+	/** Pushes dumps to the aggregator on the same host or null if this JVM converts and uploads them itself. */
+	private AggregatorClient aggregatorClient;
+
+	/** Retries the uploads that failed in earlier runs or null if the uploader does not support retries. */
+	private UploadRetryWorker uploadRetryWorker;
+
+	/**
+	 * Keeps the execution data of failed uploads and converts it for the upload retries or null if the uploader does
+	 * not support retries.
+	 */
+	private ExecutionDataSpool executionDataSpool;
+
+	/** Bounds the disk space of the reports in the output directory or null if they are not limited. */
+	private SpoolManager spoolManager;
 
 	/** Stores the XML files. */
 	protected final IUploader uploader;
@@ -58,26 +88,131 @@ public class Agent extends AgentBase {
 
 		uploader = options.createUploader(instrumentation);
 		logger.info("Upload method: {}", uploader.describe());
-		retryUnsuccessfulUploads(options, uploader);
-		generator = new JaCoCoXmlReportGenerator(options.getClassDirectoriesOrZips(),
-				options.getLocationIncludeFilter(), options.getDuplicateClassFileBehavior(),
-				options.shouldIgnoreUncoveredClasses(), wrap(logger));
+		converter = createReportConverter(options);
+		if (uploader instanceof IUploadRetry) {
+			executionDataSpool = new ExecutionDataSpool(this::convertSpooledDump);
+		}
+		Path reportsDirectory = getReportsDirectory(options);
+		retryUnsuccessfulUploads(uploader, reportsDirectory);
+		manageReportsDirectory(uploader, reportsDirectory);
+
+		if (options.shouldSnapshotProbes()) {
+			controller.enableProbeSnapshots();
+			logger.info("Dumping copies of the probes without resetting them.");
+		}
+
+		if (options.shouldUploadNewCoverageOnly()) {
+			probeStore = new CumulativeProbeStore();
+			logger.info("Uploading only classes with new coverage since the last upload.");
+		}
+
+		if (options.shouldDeinstrumentCoveredClasses()) {
+			if (instrumentation.isRetransformClassesSupported()) {
+				deinstrumenter = ClassDeinstrumenter.register(instrumentation);
+				logger.info("Removing the probes from classes once they are fully covered.");
+			} else {
+				logger.warn("The JVM does not support retransforming classes. Fully covered classes keep their probes.");
+			}
+		}
+
+		if (options.getAggregatorPort() != null) {
+			aggregatorClient = new AggregatorClient(options.getAggregatorPort(), options.getAggregatorTokenFile());
+			logger.info("Pushing dumps to the {}.", aggregatorClient.describe());
+		}
+
+		if (options.shouldUseDumpPipeline()) {
+			pipeline = new DumpPipeline(this::createDump, this::convertDump, this::uploadReport,
+					options.getDumpPipelineQueueSize(), options.getDumpPipelineBackpressure());
+			logger.info("Converting and uploading dumps in the background with backpressure policy {}.",
+					options.getDumpPipelineBackpressure());
+		}
 
 		if (options.shouldDumpInIntervals()) {
-			timer = new Timer(this::dumpReport, Duration.ofMinutes(options.getDumpIntervalInMinutes()));
-			timer.start();
-			logger.info("Dumping every {} minutes.", options.getDumpIntervalInMinutes());
+			scheduler = new DumpScheduler(options, this::dumpReportInInterval, this::countHitProbes);
+			scheduler.start();
 		}
 		if (options.getTeamscaleServerOptions().partition != null) {
 			controller.setSessionId(options.getTeamscaleServerOptions().partition);
 		}
+		registerMetrics(options);
+	}
+
+	/** Registers the caches in the {@link AgentMetrics}. */
+	private void registerMetrics(AgentOptions options) {
+		AgentMetrics metrics = AgentMetrics.getInstance();
+		if (probeStore != null) {
+			metrics.registerCache("cumulative_probes", probeStore::estimateRetainedBytes);
+		}
+		if (options.shouldSnapshotProbes()) {
+			metrics.registerCache("probe_snapshots", controller::estimateProbeSnapshotBytes);
+		}
+		if (deinstrumenter != null) {
+			metrics.registerCache("deinstrumented_classes", deinstrumenter::estimateRetainedBytes);
+		}
+		if (options.shouldRegisterMetricsInJmx()) {
+			metrics.registerMBean();
+		}
+	}
+
+	/** Creates the converter for the configured report format. */
+	private IReportConverter createReportConverter(AgentOptions options) {
+		if (options.getReportFormat() == EReportFormat.TEAMSCALE_COMPACT_COVERAGE) {
+			Path probesCacheFile = options.getProbesCacheFile();
+			CachingCompactCoverageReportGenerator generator = new CachingCompactCoverageReportGenerator(
+					options.getClassDirectoriesOrZips(), options.getLocationIncludeFilter(),
+					options.getDuplicateClassFileBehavior(), wrap(logger),
+					probesCacheFile == null ? null : probesCacheFile.toFile(),
+					options.shouldAnalyzeClassesInBackground());
+			logger.info("Converting dumps to Teamscale compact coverage.");
+			return generator::convertSingleDumpToReport;
+		}
+
+		// uncovered classes would be part of every delta, so they are always ignored when uploading only new coverage
+		JaCoCoXmlReportGenerator generator = new JaCoCoXmlReportGenerator(options.getClassDirectoriesOrZips(),
+				options.getLocationIncludeFilter(), options.getDuplicateClassFileBehavior(),
+				options.shouldIgnoreUncoveredClasses() || options.shouldUploadNewCoverageOnly(), wrap(logger));
+		AgentMetrics.getInstance().registerCache("class_analysis", generator::getCachedBytes);
+		return generator::convertSingleDumpToReport;
 	}
 
 	/**
 	 * If we have coverage that was leftover because of previously unsuccessful coverage uploads, we retry to upload
-	 * them again with the same configuration as in the previous try.
+	 * them again with the same configuration as in the previous try. This happens in the background, so the start of
+	 * the application is not delayed.
+	 */
+	private void retryUnsuccessfulUploads(IUploader uploader, Path reportsDirectory) {
+		if (reportsDirectory == null) {
+			return;
+		}
+
+		if (!(uploader instanceof IUploadRetry)) {
+			logger.debug("Reupload not implemented for uploader {}", uploader.describe());
+			return;
+		}
+		uploadRetryWorker = new UploadRetryWorker((IUploadRetry) uploader, executionDataSpool, reportsDirectory,
+				options.getUploadRetryParallelism(), options.getUploadRetryMaxPerMinute(),
+				options.getUploadRetryAttempts());
+		uploadRetryWorker.start();
+	}
+
+	/**
+	 * Applies the configured limits to the reports in the output directory. The reports are only modified once the
+	 * retries of previously unsuccessful uploads are finished.
 	 */
-	private void retryUnsuccessfulUploads(AgentOptions options, IUploader uploader) {
+	private void manageReportsDirectory(IUploader uploader, Path reportsDirectory) {
+		if (reportsDirectory == null || !options.shouldManageOutput()) {
+			return;
+		}
+		spoolManager = new SpoolManager(reportsDirectory, options.getOutputMaxBytes(), options.getOutputMaxAge(),
+				options.shouldCompressOutput(), options.shouldCompactOutput(), uploader instanceof LocalDiskUploader,
+				() -> uploadRetryWorker == null || uploadRetryWorker.isFinished());
+		spoolManager.start();
+	}
+
+	/**
+	 * Returns the directory that contains the output directories of all runs of the agent or null if there is none.
+	 */
+	private Path getReportsDirectory(AgentOptions options) {
 		Path outputPath = options.getOutputDirectory();
 		if (outputPath == null) {
 			// Default fallback
@@ -86,36 +221,19 @@ public class Agent extends AgentBase {
 
 		Path parentPath = outputPath.getParent();
 		if (parentPath == null) {
-			logger.error("The output path '{}' does not have a parent path. Canceling upload retry.",
+			logger.error("The output path '{}' does not have a parent path. Canceling upload retry"
+					+ " and output limits.",
 					outputPath.toAbsolutePath());
-			return;
-		}
-
-		List<File> reuploadCandidates = FileSystemUtilsClone.listFilesRecursively(parentPath.toFile(),
-				filepath -> filepath.getName().endsWith(RETRY_UPLOAD_FILE_SUFFIX));
-		for (File file : reuploadCandidates) {
-			reuploadCoverageFromPropertiesFile(file, uploader);
 		}
+		return parentPath;
 	}
 
-	private void reuploadCoverageFromPropertiesFile(File file, IUploader uploader) {
-		logger.info("Retrying previously unsuccessful coverage upload for file {}.", file);
-		try (InputStreamReader reader = new InputStreamReader(Files.newInputStream(file.toPath()),
-				StandardCharsets.UTF_8)) {
-			Properties properties = new Properties();
-			properties.load(reader);
-			CoverageFile coverageFile = new CoverageFile(
-					new File(StringUtils.stripSuffix(file.getAbsolutePath(), RETRY_UPLOAD_FILE_SUFFIX)));
-
-			if (uploader instanceof IUploadRetry) {
-				((IUploadRetry) uploader).reupload(coverageFile, properties);
-			} else {
-				logger.info("Reupload not implemented for uploader {}", uploader.describe());
-			}
-			Files.deleteIfExists(file.toPath());
-		} catch (IOException e) {
-			logger.error("Reuploading coverage failed. " + e);
-		}
+	/**
+	 * Waits until the retries of previously unsuccessful uploads are finished and returns false if the timeout passed
+	 * before.
+	 */
+	public boolean awaitUploadRetries(long timeout, TimeUnit unit) throws InterruptedException {
+		return uploadRetryWorker == null || uploadRetryWorker.awaitCompletion(timeout, unit);
 	}
 
 	@Override
@@ -126,14 +244,29 @@ public class Agent extends AgentBase {
 		return resourceConfig.register(AgentResource.class).register(GenericExceptionMapper.class);
 	}
 
+	@Override
+	protected ResourceBase initResource() {
+		AgentResource.setAgent(this);
+		return new AgentResource();
+	}
+
 	@Override
 	protected void prepareShutdown() {
-		if (timer != null) {
-			timer.stop();
+		if (scheduler != null) {
+			scheduler.stop();
+		}
+		if (uploadRetryWorker != null) {
+			uploadRetryWorker.stop();
+		}
+		if (spoolManager != null) {
+			spoolManager.stop();
 		}
 		if (options.shouldDumpOnExit()) {
 			dumpReport();
 		}
+		if (pipeline != null) {
+			pipeline.close();
+		}
 
 		try {
 			deleteDirectoryIfEmpty(options.getOutputDirectory());
@@ -169,13 +302,40 @@ public class Agent extends AgentBase {
 	/**
 	 * Dumps the current execution data, converts it, writes it to the output directory defined in {@link #options} and
 	 * uploads it if an uploader is configured. Logs any errors, never throws an exception.
+	 * <p>
+	 * Returns only after the upload has finished, even if the {@link #pipeline} is used, since callers may change the
+	 * upload target afterwards.
 	 */
 	@Override
 	public void dumpReport() {
 		logger.debug("Starting dump");
 
 		try {
-			dumpReportUnsafe();
+			if (pipeline != null) {
+				pipeline.dumpAndWait();
+			} else {
+				dumpReportUnsafe();
+			}
+		} catch (Throwable t) {
+			// we want to catch anything in order to avoid crashing the whole system under
+			// test
+			logger.error("Dump job failed with an exception", t);
+		}
+	}
+
+	/**
+	 * Dumps the execution data in the regular interval. If the {@link #pipeline} is used, conversion and upload happen
+	 * in the background, so that slow uploads don't delay the next dump.
+	 */
+	private void dumpReportInInterval() {
+		if (pipeline == null) {
+			dumpReport();
+			return;
+		}
+
+		logger.debug("Starting interval dump");
+		try {
+			pipeline.dump();
 		} catch (Throwable t) {
 			// we want to catch anything in order to avoid crashing the whole system under
 			// test
@@ -183,23 +343,177 @@ public class Agent extends AgentBase {
 		}
 	}
 
+	/** Returns the number of probes hit since the last dump or -1 if counting them failed. */
+	private int countHitProbes() {
+		try {
+			return controller.countHitProbes();
+		} catch (JacocoRuntimeController.DumpException e) {
+			logger.error("Counting the hit probes failed", e);
+			return -1;
+		}
+	}
+
 	private void dumpReportUnsafe() {
+		Dump dump = createDump();
+		if (dump == null) {
+			return;
+		}
+
+		CoverageFile coverageFile = convertDump(dump);
+		if (coverageFile != null) {
+			uploadReport(coverageFile);
+		}
+	}
+
+	/**
+	 * Uploads the given report. If execution data is spooled, a report whose upload failed is replaced by its
+	 * execution data.
+	 */
+	private void uploadReport(CoverageFile coverageFile) {
+		uploader.upload(coverageFile);
+		if (shouldSpoolExecutionData()) {
+			executionDataSpool.replaceFailedUpload(coverageFile);
+		}
+	}
+
+	private boolean shouldSpoolExecutionData() {
+		return executionDataSpool != null && options.shouldSpoolExecutionData();
+	}
+
+	/**
+	 * Dumps and resets the current execution data. If the {@link #probeStore} is used, returns only the classes with
+	 * new coverage. Returns null if dumping failed or there is nothing to upload.
+	 */
+	private Dump createDump() {
 		Dump dump;
 		try {
+			long startNanos = System.nanoTime();
 			dump = controller.dumpAndReset();
+			AgentMetrics.getInstance().recordDump(startNanos, dump.getStore());
 		} catch (JacocoRuntimeController.DumpException e) {
 			logger.error("Dumping failed, retrying later", e);
-			return;
+			return null;
+		}
+		if (deinstrumenter != null) {
+			deinstrumenter.add(dump.getStore());
 		}
 
-		try (Benchmark ignored = new Benchmark("Generating the XML report")) {
-			File outputFile = options.createNewFileInOutputDirectory("jacoco", "xml");
-			CoverageFile coverageFile = generator.convertSingleDumpToReport(dump, outputFile);
-			uploader.upload(coverageFile);
-		} catch (IOException e) {
-			logger.error("Converting binary dump to XML failed", e);
+		if (probeStore == null) {
+			return dump;
+		}
+		probeStore.add(dump);
+		Dump newCoverage = probeStore.getNewCoverage();
+		if (newCoverage == null) {
+			logger.debug("No new coverage since the last upload. Skipping upload.");
+		}
+		return newCoverage;
+	}
+
+	/**
+	 * Converts the given dump to a report in the output directory. Returns null if the conversion failed or the dump
+	 * was pushed to the aggregator, which converts and uploads it.
+	 */
+	private CoverageFile convertDump(Dump dump) {
+		if (aggregatorClient != null && pushToAggregator(dump)) {
+			return null;
+		}
+
+		try (Benchmark ignored = new Benchmark("Generating the report")) {
+			File outputFile = createReportFile();
+			long startNanos = System.nanoTime();
+			CoverageFile coverageFile;
+			synchronized (converter) {
+				coverageFile = converter.convert(dump, outputFile);
+			}
+			AgentMetrics.getInstance().recordConversion(startNanos, dump.getStore().getContents().size());
+			markUploaded(dump);
+			if (shouldSpoolExecutionData()) {
+				executionDataSpool.write(dump, coverageFile);
+			}
+			return coverageFile;
+		} catch (IOException | CoverageGenerationException e) {
+			logger.error("Converting binary dump to a report failed", e);
 		} catch (EmptyReportException e) {
 			logger.error("No coverage was collected. " + e.getMessage(), e);
+			// converting the same classes again would not yield a different result
+			markUploaded(dump);
 		}
+		return null;
+	}
+
+	/**
+	 * Converts the merged execution data of previously unsuccessful uploads into a report in the output directory.
+	 * Conversions are serialized, since the converter is shared with the dumps of this JVM.
+	 */
+	private CoverageFile convertSpooledDump(Dump dump)
+			throws IOException, EmptyReportException, CoverageGenerationException {
+		File outputFile = createReportFile();
+		synchronized (converter) {
+			return converter.convert(dump, outputFile);
+		}
+	}
+
+	/** Pushes the given dump to the aggregator. Returns false if the push failed, so the dump must be converted here. */
+	private boolean pushToAggregator(Dump dump) {
+		try {
+			aggregatorClient.push(options.createCoveragePush(dump.getStore()));
+			markUploaded(dump);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Pushing the dump to the {} failed. Converting and uploading it in this JVM instead.",
+					aggregatorClient.describe(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the file for the next report. Uploaders derive the format from the extension, see
+	 * {@link CoverageFile#getReportFormat()}.
+	 */
+	private File createReportFile() throws IOException {
+		if (options.getReportFormat() == EReportFormat.TEAMSCALE_COMPACT_COVERAGE) {
+			return options.createNewFileInOutputDirectory("compact-coverage", "json");
+		}
+		return options.createNewFileInOutputDirectory("jacoco", "xml");
+	}
+
+	/**
+	 * Remembers the given dump as uploaded in the {@link #probeStore}. The report is handed to the {@link #uploader}
+	 * right after its conversion and uploaders keep reports that could not be uploaded, so this happens once the
+	 * conversion succeeded.
+	 */
+	private void markUploaded(Dump dump) {
+		if (probeStore != null) {
+			probeStore.markUploaded(dump);
+		}
+	}
+
+	@Override
+	protected void onUploadTargetChanged() {
+		if (probeStore != null) {
+			probeStore.clear();
+		}
+		// the new target has not received the coverage of previous snapshots yet
+		controller.clearProbeSnapshots();
+		if (deinstrumenter != null) {
+			deinstrumenter.reinstrumentAll();
+		}
+	}
+
+	/** Resets the coverage collected so far and restores the probes of all de-instrumented classes. */
+	/* package */ void resetCoverage() {
+		controller.reset();
+		if (deinstrumenter != null) {
+			deinstrumenter.reinstrumentAll();
+		}
+	}
+
+	/** Converts a dump into a report file. */
+	@FunctionalInterface
+	private interface IReportConverter {
+
+		/** Writes the report of the given dump to the output file. */
+		CoverageFile convert(Dump dump, File outputFile)
+				throws IOException, EmptyReportException, CoverageGenerationException;
 	}
 }
@@ -2,13 +2,11 @@ package com.teamscale.jacoco.agent;
 
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
 import com.teamscale.jacoco.agent.options.AgentOptions;
-import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.ServerConnector;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-import org.eclipse.jetty.servlet.ServletHolder;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
+import com.teamscale.jacoco.agent.server.IControlServer;
+import com.teamscale.jacoco.agent.server.JdkControlServer;
+import com.teamscale.jacoco.agent.server.JettyControlServer;
 import org.glassfish.jersey.server.ResourceConfig;
-import org.glassfish.jersey.servlet.ServletContainer;
 import org.jacoco.agent.rt.RT;
 import org.slf4j.Logger;
 
@@ -31,7 +29,7 @@ public abstract class AgentBase {
 	/** The agent options. */
 	protected AgentOptions options;
 
-	private Server server;
+	private IControlServer server;
 
 	/** Constructor. */
 	public AgentBase(AgentOptions options) throws IllegalStateException {
@@ -79,30 +77,12 @@ public abstract class AgentBase {
 	 */
 	private void initServer() throws Exception {
 		logger.info("Listening for test events on port {}.", options.getHttpServerPort());
-
-		// Jersey Implementation
-		ServletContextHandler handler = buildUsingResourceConfig();
-		QueuedThreadPool threadPool = new QueuedThreadPool();
-		threadPool.setMaxThreads(10);
-		threadPool.setDaemon(true);
-
-		// Create a server instance and set the thread pool
-		server = new Server(threadPool);
-		// Create a server connector, set the port and add it to the server
-		ServerConnector connector = new ServerConnector(server);
-		connector.setPort(options.getHttpServerPort());
-		server.addConnector(connector);
-		server.setHandler(handler);
-		server.start();
-	}
-
-	private ServletContextHandler buildUsingResourceConfig() {
-		ServletContextHandler handler = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
-		handler.setContextPath("/");
-
-		ResourceConfig resourceConfig = initResourceConfig();
-		handler.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), "/*");
-		return handler;
+		if (options.getHttpServerType() == EHttpServerType.JDK) {
+			server = JdkControlServer.start(options.getHttpServerPort(), initResource(),
+					options.getHttpServerThreads(), options.shouldUseHttpServerVirtualThreads());
+		} else {
+			server = JettyControlServer.start(options.getHttpServerPort(), initResourceConfig());
+		}
 	}
 
 	/**
@@ -110,6 +90,11 @@ public abstract class AgentBase {
 	 */
 	protected abstract ResourceConfig initResourceConfig();
 
+	/**
+	 * Initializes the resource served by the {@link JdkControlServer}. Must not load any Jersey classes.
+	 */
+	protected abstract ResourceBase initResource();
+
 	/**
 	 * Registers a shutdown hook that stops the timer and dumps coverage a final time.
 	 */
@@ -131,13 +116,11 @@ public abstract class AgentBase {
 
 	/** Stop the http server if it's running */
 	void stopServer() {
-		if (options.getHttpServerPort() != null) {
+		if (server != null) {
 			try {
 				server.stop();
 			} catch (Exception e) {
 				logger.error("Could not stop server so it is killed now.", e);
-			} finally {
-				server.destroy();
 			}
 		}
 	}
@@ -147,6 +130,14 @@ public abstract class AgentBase {
 		// Template method to be overridden by subclasses.
 	}
 
+	/**
+	 * Called after the partition, revision or commit to upload to was changed via the HTTP API. The coverage collected
+	 * until then has already been dumped via {@link #dumpReport()}.
+	 */
+	protected void onUploadTargetChanged() {
+		// Template method to be overridden by subclasses.
+	}
+
 	/**
 	 * Dumps the current execution data, converts it, writes it to the output
 	 * directory defined in {@link #options} and uploads it if an uploader is
@@ -2,7 +2,6 @@ package com.teamscale.jacoco.agent;
 
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
-import javax.ws.rs.core.Response;
 
 /**
  * The resource of the Jersey + Jetty http server holding all the endpoints specific for the {@link Agent}.
@@ -23,19 +22,17 @@ public class AgentResource extends ResourceBase {
 	/** Handles dumping a XML coverage report for coverage collected until now. */
 	@POST
 	@Path("/dump")
-	public Response handleDump() {
+	public void handleDump() {
 		logger.debug("Dumping report triggered via HTTP request");
 		agent.dumpReport();
-		return Response.noContent().build();
 	}
 
 	/** Handles resetting of coverage. */
 	@POST
 	@Path("/reset")
-	public Response handleReset() {
+	public void handleReset() {
 		logger.debug("Resetting coverage triggered via HTTP request");
-		agent.controller.reset();
-		return Response.noContent().build();
+		agent.resetCoverage();
 	}
 
 }
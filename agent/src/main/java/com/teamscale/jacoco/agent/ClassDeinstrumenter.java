@@ -0,0 +1,173 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.slf4j.Logger;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Removes the probes from classes once all of them have been hit, so the hottest code of long-running applications
+ * runs without the overhead of the instrumentation.
+ * <p>
+ * The probes of all dumps are accumulated. Once all probes of a class have been hit, the class is retransformed and the
+ * {@link ProbeRemovingTransformer} removes its probes. Teamscale merges all uploads to the same partition and commit,
+ * so the dump in which the class became fully covered already contains all of its coverage. When coverage must be
+ * collected again, e.g. after a reset or when the upload target changed, {@link #reinstrumentAll()} restores the
+ * probes of all de-instrumented classes.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class ClassDeinstrumenter {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final Instrumentation instrumentation;
+
+	/** The probes of all classes that are not fully covered yet, accumulated since the last reinstrumentation. */
+	private final Map<Long, boolean[]> collectedProbes = new HashMap<>();
+
+	/** The IDs of the de-instrumented classes. Read by the {@link ProbeRemovingTransformer} during retransformation. */
+	private final Set<Long> deinstrumentedClassIds = ConcurrentHashMap.newKeySet();
+
+	/** The VM names of the de-instrumented classes, used to find their loaded {@link Class} objects. */
+	private final Set<String> deinstrumentedClassNames = ConcurrentHashMap.newKeySet();
+
+	private ClassDeinstrumenter(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	/**
+	 * Creates a de-instrumenter and registers its transformer. The JVM must support retransformation, see
+	 * {@link Instrumentation#isRetransformClassesSupported()}.
+	 */
+	public static ClassDeinstrumenter register(Instrumentation instrumentation) {
+		ClassDeinstrumenter deinstrumenter = new ClassDeinstrumenter(instrumentation);
+		instrumentation.addTransformer(new ProbeRemovingTransformer(deinstrumenter), true);
+		return deinstrumenter;
+	}
+
+	/** Adds the probes of the given dump and removes the probes from all classes that are now fully covered. */
+	public synchronized void add(ExecutionDataStore store) {
+		Set<String> coveredClassNames = new HashSet<>();
+		for (ExecutionData data : store.getContents()) {
+			if (deinstrumentedClassIds.contains(data.getId())) {
+				continue;
+			}
+			boolean[] probes = collectedProbes.get(data.getId());
+			if (probes == null || probes.length != data.getProbes().length) {
+				probes = data.getProbes().clone();
+				collectedProbes.put(data.getId(), probes);
+			} else {
+				merge(probes, data.getProbes());
+			}
+			if (probes.length > 0 && isFullyCovered(probes)) {
+				collectedProbes.remove(data.getId());
+				deinstrumentedClassIds.add(data.getId());
+				deinstrumentedClassNames.add(data.getName());
+				coveredClassNames.add(data.getName());
+			}
+		}
+
+		if (!coveredClassNames.isEmpty()) {
+			logger.debug("Removing the probes from {} fully covered classes", coveredClassNames.size());
+			retransform(coveredClassNames);
+		}
+	}
+
+	/**
+	 * Restores the probes of all de-instrumented classes and forgets all collected probes. Must be called whenever
+	 * coverage must be collected again, i.e. when the coverage was reset or the upload target changed.
+	 */
+	public synchronized void reinstrumentAll() {
+		collectedProbes.clear();
+		if (deinstrumentedClassIds.isEmpty()) {
+			return;
+		}
+
+		Set<String> classNames = new HashSet<>(deinstrumentedClassNames);
+		logger.debug("Restoring the probes of {} classes", deinstrumentedClassIds.size());
+		deinstrumentedClassIds.clear();
+		deinstrumentedClassNames.clear();
+		retransform(classNames);
+	}
+
+	/** Returns the number of bytes taken by the collected probes, not counting object overhead. */
+	public synchronized long estimateRetainedBytes() {
+		long bytes = 0;
+		for (boolean[] probes : collectedProbes.values()) {
+			bytes += probes.length;
+		}
+		return bytes + deinstrumentedClassIds.size() * (long) Long.BYTES;
+	}
+
+	/** Whether a class with the given VM name has been de-instrumented. */
+	/* package */ boolean isDeinstrumentedClassName(String className) {
+		return deinstrumentedClassNames.contains(className);
+	}
+
+	/** Whether the class with the given ID has been de-instrumented. */
+	/* package */ boolean isDeinstrumentedClassId(long classId) {
+		return deinstrumentedClassIds.contains(classId);
+	}
+
+	/**
+	 * Retransforms all loaded classes with the given VM names. Several class loaders may load classes with the same
+	 * name, so the {@link ProbeRemovingTransformer} checks the class ID before removing any probes.
+	 */
+	private void retransform(Set<String> classNames) {
+		List<Class<?>> classes = new ArrayList<>();
+		for (Class<?> loadedClass : instrumentation.getAllLoadedClasses()) {
+			if (classNames.contains(loadedClass.getName().replace('.', '/'))
+					&& instrumentation.isModifiableClass(loadedClass)) {
+				classes.add(loadedClass);
+			}
+		}
+		if (classes.isEmpty()) {
+			return;
+		}
+
+		try {
+			instrumentation.retransformClasses(classes.toArray(new Class<?>[0]));
+		} catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+			// a single class fails the whole batch, so retry them one by one
+			logger.debug("Retransforming {} classes failed, retransforming them individually", classes.size(), e);
+			for (Class<?> loadedClass : classes) {
+				retransform(loadedClass);
+			}
+		}
+	}
+
+	private void retransform(Class<?> loadedClass) {
+		try {
+			instrumentation.retransformClasses(loadedClass);
+		} catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+			// the class keeps its previous bytecode, which records the same coverage
+			logger.debug("Retransforming {} failed", loadedClass.getName(), e);
+		}
+	}
+
+	private static void merge(boolean[] probes, boolean[] newProbes) {
+		for (int i = 0; i < probes.length; i++) {
+			probes[i] |= newProbes[i];
+		}
+	}
+
+	private static boolean isFullyCovered(boolean[] probes) {
+		for (boolean probe : probes) {
+			if (!probe) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,250 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.AgentOptions;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.IRuntime;
+import org.jacoco.core.JaCoCo;
+import org.jacoco.core.internal.data.CRC64;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caches instrumented class files on disk, so that restarted JVMs do not need to instrument unchanged classes again.
+ * <p>
+ * The instrumented class file depends on the original class file, the JaCoCo version and the runtime the instrumented
+ * code accesses. Entries are therefore stored in one subdirectory per configuration, i.e. per JaCoCo version, runtime
+ * and agent options, with one file per class named after the class ID (CRC64) of the original class file. Each file
+ * also contains the class name and the length of the original class file, which are checked before an entry is used.
+ * <p>
+ * Several JVMs may use the same cache directory concurrently: entries are written to a temporary file that is
+ * atomically moved into place, so readers never see partial entries. Each JVM writes at most the configured number of
+ * bytes. When the cache is opened, the oldest entries are evicted in the background until the whole cache directory is
+ * smaller than that limit again.
+ * <p>
+ * Format of an entry (all numbers big-endian):
+ * <pre>
+ * int     magic number
+ * UTF     class name
+ * int     length of the original class file
+ * int     length of the instrumented class file
+ * byte*   instrumented class file
+ * </pre>
+ */
+public class InstrumentedClassCache {
+
+	private static final int MAGIC_NUMBER = 0x54494343;
+
+	private static final String ENTRY_EXTENSION = ".class";
+
+	private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	/** Temporary files older than this have been left behind by JVMs that crashed while writing an entry. */
+	private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+	/** Eviction removes entries until the cache only takes this fraction of its limit, so it does not run every time. */
+	private static final double EVICTION_TARGET_RATIO = 0.75;
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final Path baseDirectory;
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	private final AtomicLong writtenBytes = new AtomicLong();
+
+	private final AtomicBoolean limitReached = new AtomicBoolean();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param baseDirectory The directory shared by all configurations.
+	 * @param maxBytes      The maximum size of the cache directory.
+	 * @param configuration Describes everything besides the original class file that influences the instrumented class
+	 *                      file.
+	 */
+	public InstrumentedClassCache(Path baseDirectory, long maxBytes, String configuration) {
+		this.baseDirectory = baseDirectory;
+		this.directory = baseDirectory.resolve(
+				String.format("%016x", CRC64.classId(configuration.getBytes(StandardCharsets.UTF_8))));
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Opens the cache for classes instrumented for the given runtime and evicts old entries in the background. The
+	 * runtime must use the same access code in every JVM, which is the case for the runtimes created by
+	 * {@link JaCoCoPreMain}.
+	 */
+	public static InstrumentedClassCache open(Path baseDirectory, long maxBytes, IRuntime runtime,
+			AgentOptions options) {
+		String configuration = "jacoco=" + JaCoCo.VERSION + ",runtime=" + runtime.getClass().getName()
+				+ ",includes=" + options.getIncludes() + ",excludes=" + options.getExcludes()
+				+ ",exclclassloader=" + options.getExclClassloader()
+				+ ",inclbootstrapclasses=" + options.getInclBootstrapClasses()
+				+ ",inclnolocationclasses=" + options.getInclNoLocationClasses();
+		InstrumentedClassCache cache = new InstrumentedClassCache(baseDirectory, maxBytes, configuration);
+		new DaemonThreadFactory(InstrumentedClassCache.class, "eviction thread").newThread(cache::evictOldEntries)
+				.start();
+		return cache;
+	}
+
+	/**
+	 * Returns the cached instrumented version of the given original class file or null if it has not been cached yet.
+	 */
+	public byte[] get(String className, byte[] classFile) {
+		Path file = getEntryFile(classFile);
+		try {
+			DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+			if (input.readInt() != MAGIC_NUMBER || !input.readUTF().equals(className)
+					|| input.readInt() != classFile.length) {
+				return null;
+			}
+			int length = input.readInt();
+			if (length < 0 || length != input.available()) {
+				return null;
+			}
+			byte[] instrumentedClassFile = new byte[length];
+			input.readFully(instrumentedClassFile);
+			return instrumentedClassFile;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			logger.debug("Could not read the cached instrumented class file of {} from {}", className, file, e);
+			return null;
+		}
+	}
+
+	/** Caches the instrumented version of the given original class file. */
+	public void put(String className, byte[] classFile, byte[] instrumentedClassFile) {
+		if (writtenBytes.addAndGet(instrumentedClassFile.length) > maxBytes) {
+			if (limitReached.compareAndSet(false, true)) {
+				logger.info("The instrumentation cache in {} is full. Further instrumented classes are not cached",
+						baseDirectory);
+			}
+			return;
+		}
+
+		Path file = getEntryFile(classFile);
+		Path tempFile = null;
+		try {
+			Files.createDirectories(directory);
+			tempFile = Files.createTempFile(directory, file.getFileName().toString(), TEMP_FILE_EXTENSION);
+			try (DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+				output.writeInt(MAGIC_NUMBER);
+				output.writeUTF(className);
+				output.writeInt(classFile.length);
+				output.writeInt(instrumentedClassFile.length);
+				output.write(instrumentedClassFile);
+			}
+			try {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			// e.g. another JVM replaced the same entry at the same time on Windows
+			logger.debug("Could not cache the instrumented class file of {} in {}", className, file, e);
+		} finally {
+			deleteQuietly(tempFile);
+		}
+	}
+
+	/**
+	 * Deletes the least recently written entries of all configurations until the cache directory is smaller than the
+	 * limit. Also deletes temporary files that crashed JVMs left behind.
+	 */
+	/* package */ void evictOldEntries() {
+		if (!Files.isDirectory(baseDirectory)) {
+			return;
+		}
+
+		List<Entry> entries = new ArrayList<>();
+		long totalBytes = 0;
+		long now = System.currentTimeMillis();
+		try (Stream<Path> files = Files.walk(baseDirectory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				String fileName = file.getFileName().toString();
+				if (fileName.endsWith(TEMP_FILE_EXTENSION)) {
+					if (now - Files.getLastModifiedTime(file).toMillis() > STALE_TEMP_FILE_MILLIS) {
+						deleteQuietly(file);
+					}
+				} else if (fileName.endsWith(ENTRY_EXTENSION)) {
+					BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+					entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+					totalBytes += attributes.size();
+				}
+			}
+		} catch (IOException e) {
+			// e.g. another JVM evicted a file while it was listed
+			logger.debug("Could not list the instrumentation cache in {}", baseDirectory, e);
+			return;
+		}
+
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+		long targetBytes = (long) (maxBytes * EVICTION_TARGET_RATIO);
+		for (Entry entry : entries) {
+			if (totalBytes <= targetBytes) {
+				break;
+			}
+			deleteQuietly(entry.file);
+			totalBytes -= entry.size;
+		}
+		logger.debug("Evicted old entries from the instrumentation cache in {}", baseDirectory);
+	}
+
+	private Path getEntryFile(byte[] classFile) {
+		return directory.resolve(String.format("%016x", CRC64.classId(classFile)) + ENTRY_EXTENSION);
+	}
+
+	private void deleteQuietly(Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.debug("Could not delete {} from the instrumentation cache", file, e);
+		}
+	}
+
+	/** A cached class file found during eviction. */
+	private static class Entry {
+
+		private final Path file;
+
+		private final long size;
+
+		private final long lastModified;
+
+		private Entry(Path file, long size, long lastModified) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+	}
+}
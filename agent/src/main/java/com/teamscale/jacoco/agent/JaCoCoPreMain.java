@@ -25,6 +25,7 @@ import org.jacoco.agent.rt.internal_0e20598.core.runtime.ModifiedSystemClassRunt
 import org.slf4j.Logger;
 
 import java.lang.instrument.Instrumentation;
+import java.nio.file.Path;
 
 /**
  * This is a copy of the {@link PreMain} class from the JaCoCo agent. The only changes are that we:
@@ -33,6 +34,7 @@ import java.lang.instrument.Instrumentation;
  * <li>pass a {@link Logger} to {@link #premain(String, Instrumentation, Logger)} which is passed to the
  * {@link LenientCoverageTransformer} instead of {@link IExceptionLogger}</li>
  * <li>Replaced "$JaCoCo" suffix with "$TeamscaleJaCoCo" to avoid conflicts in cases where jacoco is on the classpath as well.</li>
+ * <li>optionally pass an {@link InstrumentedClassCache} to the {@link LenientCoverageTransformer}</li>
  * </ul>
  */
 public final class JaCoCoPreMain {
@@ -46,9 +48,13 @@ public final class JaCoCoPreMain {
 	 *
 	 * @param options agent options
 	 * @param inst    instrumentation callback provided by the JVM
+	 * @param instrumentationCacheDirectory directory in which instrumented classes are cached or null to instrument
+	 *                                      all classes on every start
+	 * @param instrumentationCacheMaxBytes  maximum size of the instrumentation cache
 	 * @throws Exception in case initialization fails
 	 */
-	public static void premain(final String options, final Instrumentation inst, Logger logger)
+	public static void premain(final String options, final Instrumentation inst, Logger logger,
+			Path instrumentationCacheDirectory, long instrumentationCacheMaxBytes)
 			throws Exception {
 
 		final AgentOptions agentOptions = new AgentOptions(options);
@@ -57,8 +63,13 @@ public final class JaCoCoPreMain {
 
 		final IRuntime runtime = createRuntime(inst);
 		runtime.startup(agent.getData());
+		InstrumentedClassCache cache = null;
+		if (instrumentationCacheDirectory != null) {
+			cache = InstrumentedClassCache.open(instrumentationCacheDirectory, instrumentationCacheMaxBytes, runtime,
+					agentOptions);
+		}
 		inst.addTransformer(new LenientCoverageTransformer(runtime, agentOptions,
-				logger));
+				logger, cache));
 	}
 
 	private static IRuntime createRuntime(final Instrumentation inst)
@@ -8,15 +8,23 @@ package com.teamscale.jacoco.agent;
 import com.teamscale.report.jacoco.dump.Dump;
 import org.jacoco.agent.rt.IAgent;
 import org.jacoco.agent.rt.RT;
+import org.jacoco.agent.rt.internal_0e20598.Agent;
+import org.jacoco.agent.rt.internal_0e20598.core.data.ExecutionDataWriter;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.RuntimeData;
+import org.jacoco.core.data.ExecutionData;
 import org.jacoco.core.data.ExecutionDataReader;
 import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.data.ISessionInfoVisitor;
 import org.jacoco.core.data.SessionInfo;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Wrapper around JaCoCo's {@link RT} runtime interface.
@@ -41,18 +49,101 @@ public class JacocoRuntimeController {
 	/** JaCoCo's {@link RT} agent instance */
 	private final IAgent agent;
 
+	/**
+	 * The runtime data of the {@link #agent} which allows to access the probe arrays directly or null if the agent is
+	 * not JaCoCo's own implementation (e.g. in tests).
+	 */
+	private final RuntimeData runtimeData;
+
+	/** The probes reported by previous dumps or null if dumps reset the probes. See {@link ProbeSnapshots}. */
+	private volatile ProbeSnapshots snapshots;
+
 	/** Constructor. */
 	public JacocoRuntimeController(IAgent agent) {
 		this.agent = agent;
+		if (agent instanceof Agent) {
+			this.runtimeData = ((Agent) agent).getData();
+		} else {
+			this.runtimeData = null;
+		}
 	}
 
 	/**
 	 * Dumps execution data and resets it.
+	 * <p>
+	 * The probe arrays of all classes with hits are copied directly from the runtime into the returned store, i.e.
+	 * without serializing them to JaCoCo's binary exec format and parsing them again.
 	 *
 	 * @throws DumpException if dumping fails. This should never happen in real life. Dumping should simply be retried
 	 *                       later if this ever happens.
 	 */
 	public Dump dumpAndReset() throws DumpException {
+		if (runtimeData == null) {
+			return dumpAndResetViaBinaryData();
+		}
+		ProbeSnapshots currentSnapshots = snapshots;
+		if (currentSnapshots != null) {
+			SessionInfoVisitor sessionInfoVisitor = new SessionInfoVisitor();
+			List<ProbeSnapshots.LiveProbes> liveProbes = collectLiveProbes(sessionInfoVisitor);
+			return new Dump(sessionInfoVisitor.sessionInfo, currentSnapshots.snapshot(liveProbes));
+		}
+
+		ExecutionDataStore store = new ExecutionDataStore();
+		SessionInfoVisitor sessionInfoVisitor = new SessionInfoVisitor();
+		runtimeData.collect(data -> {
+			if (!data.hasHits()) {
+				return;
+			}
+			// The runtime resets the probe arrays in place after collecting them, so we must copy them here
+			store.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+		}, info -> sessionInfoVisitor.visitSessionInfo(
+				new SessionInfo(info.getId(), info.getStartTimeStamp(), info.getDumpTimeStamp())), true);
+		return new Dump(sessionInfoVisitor.sessionInfo, store);
+	}
+
+	/**
+	 * Makes {@link #dumpAndReset()} report only classes with new hits since the previous dump without resetting the
+	 * probes, see {@link ProbeSnapshots}. This way, dumps never write to the probe arrays that the application writes
+	 * to. Has no effect if the runtime data cannot be accessed directly.
+	 */
+	public void enableProbeSnapshots() {
+		if (runtimeData != null && snapshots == null) {
+			snapshots = new ProbeSnapshots();
+		}
+	}
+
+	/** Makes the next dump report all probes hit so far again if {@link #enableProbeSnapshots()} was called. */
+	public void clearProbeSnapshots() {
+		ProbeSnapshots currentSnapshots = snapshots;
+		if (currentSnapshots != null) {
+			currentSnapshots.clear();
+		}
+	}
+
+	/** Returns the number of bytes of probes retained for {@link #enableProbeSnapshots()} or 0 if it is disabled. */
+	public long estimateProbeSnapshotBytes() {
+		ProbeSnapshots currentSnapshots = snapshots;
+		if (currentSnapshots == null) {
+			return 0;
+		}
+		return currentSnapshots.estimateRetainedBytes();
+	}
+
+	/**
+	 * Returns references to the live probe arrays of all classes. The lock of the runtime, which class initialization
+	 * needs as well, is only held while the references are gathered and not while the probes are read.
+	 */
+	private List<ProbeSnapshots.LiveProbes> collectLiveProbes(SessionInfoVisitor sessionInfoVisitor) {
+		List<ProbeSnapshots.LiveProbes> liveProbes = new ArrayList<>();
+		runtimeData.collect(data -> liveProbes.add(
+						new ProbeSnapshots.LiveProbes(data.getId(), data.getName(), data.getProbes())),
+				info -> sessionInfoVisitor.visitSessionInfo(
+						new SessionInfo(info.getId(), info.getStartTimeStamp(), info.getDumpTimeStamp())), false);
+		return liveProbes;
+	}
+
+	/** Fallback for {@link #dumpAndReset()} if we have no direct access to the runtime data. */
+	private Dump dumpAndResetViaBinaryData() throws DumpException {
 		byte[] binaryData = agent.getExecutionData(true);
 
 		try (ByteArrayInputStream inputStream = new ByteArrayInputStream(binaryData)) {
@@ -71,14 +162,65 @@ public class JacocoRuntimeController {
 		}
 	}
 
+	/**
+	 * Returns the number of probes that were hit since the last reset (or that are not contained in any snapshot yet)
+	 * without resetting them. This requires a pass over the probes of all loaded classes.
+	 *
+	 * @throws DumpException if reading the execution data fails. This should never happen in real life.
+	 */
+	public int countHitProbes() throws DumpException {
+		ProbeSnapshots currentSnapshots = snapshots;
+		if (currentSnapshots != null) {
+			return currentSnapshots.countNewHits(collectLiveProbes(new SessionInfoVisitor()));
+		}
+
+		int[] hitProbes = {0};
+		if (runtimeData != null) {
+			runtimeData.collect(data -> hitProbes[0] += countHits(data.getProbes()), info -> {
+				// session infos are not needed
+			}, false);
+			return hitProbes[0];
+		}
+
+		try (ByteArrayInputStream inputStream = new ByteArrayInputStream(agent.getExecutionData(false))) {
+			ExecutionDataReader reader = new ExecutionDataReader(inputStream);
+			reader.setExecutionDataVisitor(data -> hitProbes[0] += countHits(data.getProbes()));
+			reader.setSessionInfoVisitor(info -> {
+				// session infos are not needed
+			});
+			reader.read();
+			return hitProbes[0];
+		} catch (IOException e) {
+			throw new DumpException("should never happen for the ByteArrayInputStream", e);
+		}
+	}
+
+	private static int countHits(boolean[] probes) {
+		int hits = 0;
+		for (boolean probe : probes) {
+			if (probe) {
+				hits++;
+			}
+		}
+		return hits;
+	}
+
 	/**
 	 * Dumps execution data to the given file and resets it afterwards.
 	 */
 	public void dumpToFileAndReset(File file) throws IOException {
-		byte[] binaryData = agent.getExecutionData(true);
+		if (runtimeData == null) {
+			byte[] binaryData = agent.getExecutionData(true);
+			try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+				outputStream.write(binaryData);
+			}
+			return;
+		}
 
-		try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
-			outputStream.write(binaryData);
+		// Stream the execution data directly into the file instead of buffering the whole dump in memory first
+		try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, true))) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(outputStream);
+			runtimeData.collect(writer, writer, true);
 		}
 	}
 
@@ -100,6 +242,7 @@ public class JacocoRuntimeController {
 	/** Resets already collected coverage. */
 	public void reset() {
 		agent.reset();
+		clearProbeSnapshots();
 	}
 
 	/** Returns the current sessionId. */
@@ -3,9 +3,16 @@ package com.teamscale.jacoco.agent;
 import org.jacoco.agent.rt.internal_0e20598.CoverageTransformer;
 import org.jacoco.agent.rt.internal_0e20598.core.runtime.AgentOptions;
 import org.jacoco.agent.rt.internal_0e20598.core.runtime.IRuntime;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.WildcardMatcher;
+import org.jacoco.core.internal.data.CRC64;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.IllegalClassFormatException;
+import java.nio.file.Files;
+import java.security.CodeSource;
 import java.security.ProtectionDomain;
 
 /**
@@ -13,22 +20,77 @@ import java.security.ProtectionDomain;
  * but treats instrumentation errors e.g. due to unsupported class file versions more lenient by only logging them, but
  * not bailing out completely. Those unsupported classes will not be instrumented and will therefore not be contained in
  * the collected coverage report.
+ * <p>
+ * Optionally, instrumented classes are taken from and written to an {@link InstrumentedClassCache}. Since JaCoCo only
+ * decides internally which classes to instrument, its filter is replicated here for looking up classes in the cache.
  */
 public class LenientCoverageTransformer extends CoverageTransformer {
 
+	/** Package of the JaCoCo runtime, whose classes are never instrumented. */
+	private static final String AGENT_PREFIX;
+
+	static {
+		String name = CoverageTransformer.class.getName();
+		AGENT_PREFIX = name.substring(0, name.lastIndexOf('.')).replace('.', '/');
+	}
+
 	private final Logger logger;
 
+	private final @Nullable InstrumentedClassCache cache;
+
+	private final WildcardMatcher includes;
+
+	private final WildcardMatcher excludes;
+
+	private final WildcardMatcher exclClassloader;
+
+	private final boolean inclBootstrapClasses;
+
+	private final boolean inclNoLocationClasses;
+
+	private final String classDumpDir;
+
 	public LenientCoverageTransformer(IRuntime runtime, AgentOptions options, Logger logger) {
+		this(runtime, options, logger, null);
+	}
+
+	public LenientCoverageTransformer(IRuntime runtime, AgentOptions options, Logger logger,
+			@Nullable InstrumentedClassCache cache) {
 		// The coverage transformer only uses the logger to print an error when the instrumentation fails.
 		// We want to show our more specific error message instead, so we only log this for debugging at trace.
 		super(runtime, options, e -> logger.trace(e.getMessage(), e));
 		this.logger = logger;
+		this.cache = cache;
+		this.includes = new WildcardMatcher(options.getIncludes());
+		this.excludes = new WildcardMatcher(options.getExcludes());
+		this.exclClassloader = new WildcardMatcher(options.getExclClassloader());
+		this.inclBootstrapClasses = options.getInclBootstrapClasses();
+		this.inclNoLocationClasses = options.getInclNoLocationClasses();
+		this.classDumpDir = options.getClassDumpDir();
 	}
 
 	@Override
 	public byte[] transform(ClassLoader loader, String classname, Class<?> classBeingRedefined,
 			ProtectionDomain protectionDomain,
 			byte[] classfileBuffer) {
+		if (cache == null || classBeingRedefined != null || !isInstrumented(loader, classname, protectionDomain)) {
+			return instrument(loader, classname, classBeingRedefined, protectionDomain, classfileBuffer);
+		}
+
+		byte[] cachedClassFile = cache.get(classname, classfileBuffer);
+		if (cachedClassFile != null) {
+			dumpClassFile(classname, classfileBuffer);
+			return cachedClassFile;
+		}
+		byte[] instrumentedClassFile = instrument(loader, classname, null, protectionDomain, classfileBuffer);
+		if (instrumentedClassFile != null) {
+			cache.put(classname, classfileBuffer, instrumentedClassFile);
+		}
+		return instrumentedClassFile;
+	}
+
+	private byte[] instrument(ClassLoader loader, String classname, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
 		try {
 			return super.transform(loader, classname, classBeingRedefined, protectionDomain, classfileBuffer);
 		} catch (IllegalClassFormatException e) {
@@ -41,6 +103,58 @@ public class LenientCoverageTransformer extends CoverageTransformer {
 		}
 	}
 
+	/** Same as the filter of the {@link CoverageTransformer}, which cannot be called from here. */
+	private boolean isInstrumented(ClassLoader loader, String classname, ProtectionDomain protectionDomain) {
+		if (loader == null) {
+			if (!inclBootstrapClasses) {
+				return false;
+			}
+		} else {
+			if (!inclNoLocationClasses && !hasSourceLocation(protectionDomain)) {
+				return false;
+			}
+			if (exclClassloader.matches(loader.getClass().getName())) {
+				return false;
+			}
+		}
+		String qualifiedName = classname.replace('/', '.');
+		return !classname.startsWith(AGENT_PREFIX) && includes.matches(qualifiedName) && !excludes.matches(
+				qualifiedName);
+	}
+
+	private static boolean hasSourceLocation(ProtectionDomain protectionDomain) {
+		if (protectionDomain == null) {
+			return false;
+		}
+		CodeSource codeSource = protectionDomain.getCodeSource();
+		return codeSource != null && codeSource.getLocation() != null;
+	}
+
+	/**
+	 * Writes the original class file to the class dump directory like the {@link CoverageTransformer} does for the
+	 * classes it instruments, since the reports are generated from these class files.
+	 */
+	private void dumpClassFile(String classname, byte[] classfileBuffer) {
+		if (classDumpDir == null) {
+			return;
+		}
+		File outputDirectory = new File(classDumpDir);
+		String localName = classname;
+		int packageEnd = classname.lastIndexOf('/');
+		if (packageEnd != -1) {
+			outputDirectory = new File(classDumpDir, classname.substring(0, packageEnd));
+			localName = classname.substring(packageEnd + 1);
+		}
+		File file = new File(outputDirectory,
+				String.format("%s.%016x.class", localName, CRC64.classId(classfileBuffer)));
+		try {
+			Files.createDirectories(outputDirectory.toPath());
+			Files.write(file.toPath(), classfileBuffer);
+		} catch (IOException e) {
+			logger.error("Failed to write the class file of {} to {}", classname, file, e);
+		}
+	}
+
 	private static String getRootCauseMessage(Throwable e) {
 		if (e.getCause() != null) {
 			return getRootCauseMessage(e.getCause());
@@ -4,6 +4,8 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.JCommander.Builder;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.teamscale.jacoco.agent.aggregator.AggregateCommand;
+import com.teamscale.jacoco.agent.commandline.ICommand;
 import com.teamscale.jacoco.agent.commandline.Validator;
 import com.teamscale.jacoco.agent.convert.ConvertCommand;
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
@@ -12,6 +14,8 @@ import org.conqat.lib.commons.string.StringUtils;
 import org.jacoco.core.JaCoCo;
 import org.slf4j.Logger;
 
+import java.util.Arrays;
+
 /** Provides a command line interface for interacting with JaCoCo. */
 public class Main {
 
@@ -21,12 +25,20 @@ public class Main {
 	/** The default arguments that will always be parsed. */
 	private final DefaultArguments defaultArguments = new DefaultArguments();
 
-	/** The arguments for the one-time conversion process. */
-	private final ConvertCommand command = new ConvertCommand();
+	/** The command to run, by default the one-time conversion process. */
+	private final ICommand command;
+
+	private Main(ICommand command) {
+		this.command = command;
+	}
 
 	/** Entry point. */
 	public static void main(String[] args) throws Exception {
-		new Main().parseCommandLineAndRun(args);
+		if (args.length > 0 && AggregateCommand.COMMAND_NAME.equals(args[0])) {
+			new Main(new AggregateCommand()).parseCommandLineAndRun(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		new Main(new ConvertCommand()).parseCommandLineAndRun(args);
 	}
 
 	/**
@@ -109,7 +109,8 @@ public class PreMain {
 		logger.info("Teamscale Java profiler version " + AgentUtils.VERSION);
 		logger.info("Starting JaCoCo's agent");
 		JacocoAgentOptionsBuilder agentBuilder = new JacocoAgentOptionsBuilder(agentOptions);
-		JaCoCoPreMain.premain(agentBuilder.createJacocoAgentOptions(), instrumentation, logger);
+		JaCoCoPreMain.premain(agentBuilder.createJacocoAgentOptions(), instrumentation, logger,
+				agentOptions.getInstrumentationCacheDirectory(), agentOptions.getInstrumentationCacheMaxBytes());
 
 		if (agentOptions.configurationViaTeamscale != null) {
 			agentOptions.configurationViaTeamscale.startHeartbeatThreadAndRegisterShutdownHook();
@@ -170,6 +171,7 @@ public class PreMain {
 		Logger logger = LoggingUtils.getLogger(Agent.class);
 		delayedLogger.logTo(logger);
 		HttpUtils.setShouldValidateSsl(agentOptions.shouldValidateSsl());
+		HttpUtils.setShouldCompressRequests(agentOptions.shouldCompressRequests());
 
 		return parseResult;
 	}
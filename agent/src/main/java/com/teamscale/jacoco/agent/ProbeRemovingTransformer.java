@@ -0,0 +1,208 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.slf4j.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+/**
+ * Removes the probes from the classes that the {@link ClassDeinstrumenter} de-instruments when they are retransformed.
+ * <p>
+ * JaCoCo's transformer cannot retransform classes, so the JVM passes the instrumented class file to this transformer.
+ * The JVM does not allow retransformation to add or remove fields and methods, so the <code>$jacocoData</code> field
+ * and the <code>$jacocoInit</code> method stay in place and only the instructions that set the probes are removed. All
+ * other classes are left untouched, so retransforming them restores the instrumented class file.
+ */
+/* package */ class ProbeRemovingTransformer implements ClassFileTransformer {
+
+	/** Name of the field and constant that hold the probe array, see JaCoCo's <code>InstrSupport</code>. */
+	private static final String DATA_FIELD_NAME = "$jacocoData";
+
+	/** Name of the method that initializes the probe array, see JaCoCo's <code>InstrSupport</code>. */
+	private static final String INIT_METHOD_NAME = "$jacocoInit";
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final ClassDeinstrumenter deinstrumenter;
+
+	/** Constructor. */
+	/* package */ ProbeRemovingTransformer(ClassDeinstrumenter deinstrumenter) {
+		this.deinstrumenter = deinstrumenter;
+	}
+
+	@Override
+	public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+			ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+		if (classBeingRedefined == null || className == null
+				|| !deinstrumenter.isDeinstrumentedClassName(className)) {
+			return null;
+		}
+		try {
+			return removeProbes(classfileBuffer, deinstrumenter::isDeinstrumentedClassId);
+		} catch (RuntimeException e) {
+			logger.debug("Could not remove the probes from {}", className, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the given instrumented class file without the instructions that set the probes or null if the class was
+	 * not instrumented with a probe array or the given filter rejects its class ID.
+	 */
+	/* package */ static byte[] removeProbes(byte[] instrumentedClassFile, ClassIdFilter filter) {
+		ClassReader reader = new ClassReader(instrumentedClassFile);
+		ClassNode node = new ClassNode();
+		reader.accept(node, 0);
+
+		Long classId = findClassId(node);
+		if (classId == null || !filter.accept(classId)) {
+			return null;
+		}
+
+		int removedProbes = 0;
+		for (MethodNode method : node.methods) {
+			if (!INIT_METHOD_NAME.equals(method.name)) {
+				removedProbes += removeProbes(method, node.name);
+			}
+		}
+		if (removedProbes == 0) {
+			return null;
+		}
+
+		ClassWriter writer = new ClassWriter(reader, 0);
+		node.accept(writer);
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Returns the class ID that the <code>$jacocoInit</code> method passes to the runtime or null if the class has no
+	 * such method.
+	 */
+	private static Long findClassId(ClassNode node) {
+		for (MethodNode method : node.methods) {
+			if (!INIT_METHOD_NAME.equals(method.name)) {
+				continue;
+			}
+			for (AbstractInsnNode instruction : method.instructions) {
+				if (instruction instanceof LdcInsnNode && ((LdcInsnNode) instruction).cst instanceof Long) {
+					return (Long) ((LdcInsnNode) instruction).cst;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Removes the probes from the given method and returns how many were removed. */
+	private static int removeProbes(MethodNode method, String owner) {
+		int probeArray = findProbeArrayVariable(method.instructions, owner);
+		if (probeArray < 0) {
+			return 0;
+		}
+
+		int removedProbes = 0;
+		AbstractInsnNode instruction = method.instructions.getFirst();
+		while (instruction != null) {
+			if (!isProbe(instruction, probeArray)) {
+				instruction = instruction.getNext();
+				continue;
+			}
+			// a probe consists of ALOAD, the probe index, ICONST_1 and BASTORE
+			for (int i = 0; i < 4; i++) {
+				AbstractInsnNode next = instruction.getNext();
+				method.instructions.remove(instruction);
+				instruction = next;
+			}
+			removedProbes++;
+		}
+		return removedProbes;
+	}
+
+	/**
+	 * Returns the local variable in which the method stores its probe array or -1 if the method does not access the
+	 * probe array, e.g. because it is abstract.
+	 */
+	private static int findProbeArrayVariable(InsnList instructions, String owner) {
+		for (AbstractInsnNode instruction : instructions) {
+			if (instruction.getOpcode() < 0) {
+				continue;
+			}
+			if (!isProbeArrayAccess(instruction, owner)) {
+				// JaCoCo initializes the probe array at the very beginning of each method
+				return -1;
+			}
+			AbstractInsnNode store = instruction.getNext();
+			if (store instanceof TypeInsnNode && store.getOpcode() == Opcodes.CHECKCAST) {
+				store = store.getNext();
+			}
+			if (store instanceof VarInsnNode && store.getOpcode() == Opcodes.ASTORE) {
+				return ((VarInsnNode) store).var;
+			}
+			return -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Whether the given instruction loads the probe array either by calling <code>$jacocoInit</code> or from the
+	 * dynamic constant <code>$jacocoData</code>.
+	 */
+	private static boolean isProbeArrayAccess(AbstractInsnNode instruction, String owner) {
+		if (instruction instanceof MethodInsnNode) {
+			MethodInsnNode call = (MethodInsnNode) instruction;
+			return call.getOpcode() == Opcodes.INVOKESTATIC && INIT_METHOD_NAME.equals(call.name)
+					&& owner.equals(call.owner);
+		}
+		return instruction instanceof LdcInsnNode && ((LdcInsnNode) instruction).cst instanceof ConstantDynamic
+				&& DATA_FIELD_NAME.equals(((ConstantDynamic) ((LdcInsnNode) instruction).cst).getName());
+	}
+
+	/** Whether the given instruction starts a probe, i.e. <code>probes[index] = true</code>. */
+	private static boolean isProbe(AbstractInsnNode instruction, int probeArray) {
+		if (instruction.getOpcode() != Opcodes.ALOAD || ((VarInsnNode) instruction).var != probeArray) {
+			return false;
+		}
+		AbstractInsnNode index = instruction.getNext();
+		if (index == null || !isIntegerPush(index)) {
+			return false;
+		}
+		AbstractInsnNode value = index.getNext();
+		if (value == null || value.getOpcode() != Opcodes.ICONST_1) {
+			return false;
+		}
+		AbstractInsnNode store = value.getNext();
+		return store != null && store.getOpcode() == Opcodes.BASTORE;
+	}
+
+	private static boolean isIntegerPush(AbstractInsnNode instruction) {
+		int opcode = instruction.getOpcode();
+		if (opcode >= Opcodes.ICONST_0 && opcode <= Opcodes.ICONST_5) {
+			return true;
+		}
+		if (instruction instanceof IntInsnNode) {
+			return opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH;
+		}
+		return instruction instanceof LdcInsnNode && ((LdcInsnNode) instruction).cst instanceof Integer;
+	}
+
+	/** Decides which classes to remove the probes from. */
+	@FunctionalInterface
+	/* package */ interface ClassIdFilter {
+
+		/** Whether the probes of the class with the given ID should be removed. */
+		boolean accept(long classId);
+	}
+}
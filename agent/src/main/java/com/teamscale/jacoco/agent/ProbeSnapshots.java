@@ -0,0 +1,101 @@
+package com.teamscale.jacoco.agent;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates dumps from the live probe arrays of the JaCoCo runtime without resetting them. Instead of clearing the
+ * arrays, the probes reported so far are kept as a retired generation and each snapshot reports the classes whose live
+ * probes contain hits that are not part of the retired generation. These classes are reported with all their probes
+ * and merged into the retired generation.
+ * <p>
+ * The live arrays are only read, so dumps never write to memory that application threads are writing to. A reset
+ * would lose hits that happen between copying and clearing an array, whereas hits that happen while a snapshot is
+ * taken are simply contained in the next one.
+ * <p>
+ * All methods are thread-safe.
+ */
+/* package */ class ProbeSnapshots {
+
+	/** The probes reported so far by class ID, i.e. the retired generation. */
+	private final Map<Long, boolean[]> retiredProbes = new HashMap<>();
+
+	/**
+	 * Returns a store with copies of the probes of all given classes that have new hits and adds them to the retired
+	 * generation.
+	 */
+	public synchronized ExecutionDataStore snapshot(List<LiveProbes> classes) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (LiveProbes liveProbes : classes) {
+			boolean[] retired = retiredProbes.get(liveProbes.id);
+			if (countNewHits(liveProbes.probes, retired) == 0) {
+				continue;
+			}
+			// Application threads may have hit more probes since counting, which must be reported as well
+			boolean[] copy = liveProbes.probes.clone();
+			store.put(new ExecutionData(liveProbes.id, liveProbes.name, copy));
+			if (retired == null || retired.length != copy.length) {
+				retiredProbes.put(liveProbes.id, copy.clone());
+				continue;
+			}
+			for (int i = 0; i < copy.length; i++) {
+				retired[i] |= copy[i];
+			}
+		}
+		return store;
+	}
+
+	/** Returns the number of probes of the given classes that were hit but are not part of the retired generation. */
+	public synchronized int countNewHits(List<LiveProbes> classes) {
+		int newHits = 0;
+		for (LiveProbes liveProbes : classes) {
+			newHits += countNewHits(liveProbes.probes, retiredProbes.get(liveProbes.id));
+		}
+		return newHits;
+	}
+
+	/** Forgets the retired generation, so that the next snapshot reports all hit probes again. */
+	public synchronized void clear() {
+		retiredProbes.clear();
+	}
+
+	/** Returns the number of bytes taken by the retired generation, not counting object overhead. */
+	public synchronized long estimateRetainedBytes() {
+		long bytes = 0;
+		for (boolean[] probes : retiredProbes.values()) {
+			bytes += probes.length;
+		}
+		return bytes;
+	}
+
+	private static int countNewHits(boolean[] probes, boolean[] retired) {
+		boolean hasRetired = retired != null && retired.length == probes.length;
+		int newHits = 0;
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i] && !(hasRetired && retired[i])) {
+				newHits++;
+			}
+		}
+		return newHits;
+	}
+
+	/** The live probe array of a class, which application threads may write to at any time. */
+	/* package */ static class LiveProbes {
+
+		private final long id;
+
+		private final String name;
+
+		private final boolean[] probes;
+
+		/* package */ LiveProbes(long id, String name, boolean[] probes) {
+			this.id = id;
+			this.name = name;
+			this.probes = probes;
+		}
+	}
+}
@@ -4,18 +4,17 @@ import com.teamscale.client.CommitDescriptor;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.jacoco.agent.testimpact.TestwiseCoverageAgent;
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.report.testwise.model.RevisionInfo;
 import org.conqat.lib.commons.string.StringUtils;
 import org.jetbrains.annotations.Contract;
 import org.slf4j.Logger;
 
-import javax.ws.rs.BadRequestException;
 import javax.ws.rs.GET;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
 import java.util.Optional;
 
 
@@ -64,10 +63,18 @@ public abstract class ResourceBase {
 		return this.getRevisionInfo();
 	}
 
+	/** Returns the metrics of the agent in the Prometheus text format. */
+	@GET
+	@Path("/metrics")
+	@Produces("text/plain; version=0.0.4")
+	public String getMetrics() {
+		return AgentMetrics.getInstance().toPrometheusText();
+	}
+
 	/** Handles setting the partition name. */
 	@PUT
 	@Path("/partition")
-	public Response setPartition(String partitionString) {
+	public void setPartition(String partitionString) {
 		String partition = StringUtils.removeDoubleQuotes(partitionString);
 		if (partition == null || partition.isEmpty()) {
 			handleBadRequest("The new partition name is missing in the request body! Please add it as plain text.");
@@ -77,13 +84,13 @@ public abstract class ResourceBase {
 		agentBase.dumpReport();
 		agentBase.controller.setSessionId(partition);
 		agentBase.options.getTeamscaleServerOptions().partition = partition;
-		return Response.noContent().build();
+		agentBase.onUploadTargetChanged();
 	}
 
 	/** Handles setting the upload message. */
 	@PUT
 	@Path("/message")
-	public Response setMessage(String messageString) {
+	public void setMessage(String messageString) {
 		String message = StringUtils.removeDoubleQuotes(messageString);
 		if (message == null || message.isEmpty()) {
 			handleBadRequest("The new message is missing in the request body! Please add it as plain text.");
@@ -92,14 +99,12 @@ public abstract class ResourceBase {
 		agentBase.dumpReport();
 		logger.debug("Changing message to " + message);
 		agentBase.options.getTeamscaleServerOptions().setMessage(message);
-
-		return Response.noContent().build();
 	}
 
 	/** Handles setting the revision. */
 	@PUT
 	@Path("/revision")
-	public Response setRevision(String revisionString) {
+	public void setRevision(String revisionString) {
 		String revision = StringUtils.removeDoubleQuotes(revisionString);
 		if (revision == null || revision.isEmpty()) {
 			handleBadRequest("The new revision name is missing in the request body! Please add it as plain text.");
@@ -108,14 +113,13 @@ public abstract class ResourceBase {
 		agentBase.dumpReport();
 		logger.debug("Changing revision name to " + revision);
 		agentBase.options.getTeamscaleServerOptions().revision = revision;
-
-		return Response.noContent().build();
+		agentBase.onUploadTargetChanged();
 	}
 
 	/** Handles setting the upload commit. */
 	@PUT
 	@Path("/commit")
-	public Response setCommit(String commitString) {
+	public void setCommit(String commitString) {
 		String commit = StringUtils.removeDoubleQuotes(commitString);
 		if (commit == null || commit.isEmpty()) {
 			handleBadRequest("The new upload commit is missing in the request body! Please add it as plain text.");
@@ -123,8 +127,7 @@ public abstract class ResourceBase {
 
 		agentBase.dumpReport();
 		agentBase.options.getTeamscaleServerOptions().commit = CommitDescriptor.parse(commit);
-
-		return Response.noContent().build();
+		agentBase.onUploadTargetChanged();
 	}
 
 	/** Returns revision information for the Teamscale upload. */
@@ -134,12 +137,15 @@ public abstract class ResourceBase {
 	}
 
 	/**
-	 * Handles bad requests to the endpoints.
+	 * Handles bad requests to the endpoints. Both servers answer all exceptions with status 500 and the message, see
+	 * {@link GenericExceptionMapper}. JAX-RS exceptions like <code>BadRequestException</code> are avoided, since
+	 * creating them loads the JAX-RS implementation, which the {@link com.teamscale.jacoco.agent.server.JdkControlServer}
+	 * does not need otherwise.
 	 */
 	@Contract(value = "_ -> fail")
-	protected void handleBadRequest(String message) throws BadRequestException {
+	protected void handleBadRequest(String message) {
 		logger.error(message);
-		throw new BadRequestException(message);
+		throw new IllegalArgumentException(message);
 	}
 
 }
@@ -0,0 +1,143 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.teamscale.client.TeamscaleServer;
+import com.teamscale.jacoco.agent.commandline.ICommand;
+import com.teamscale.jacoco.agent.commandline.Validator;
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.options.AgentOptionsParser;
+import com.teamscale.jacoco.agent.util.AgentUtils;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encapsulates all command line options for the aggregate command for parsing with {@link JCommander}.
+ * <p>
+ * Runs a {@link CoverageAggregator} that receives the coverage of all agents on the host that are configured with
+ * <code>aggregator-port</code> and converts and uploads it once per interval. Uploads the remaining coverage when the
+ * process is stopped.
+ * <p>
+ * Trust model: the aggregator uploads everything it receives with its own Teamscale credentials, to the project,
+ * commit and partition named in the push. The port is only reachable from the same host, but any local process could
+ * connect to it. Therefore, pushes must carry the {@link AggregatorToken}, which the aggregator writes to the token
+ * file readable only by its own user. Only agents whose user can read that file, i.e. the same user or users the file
+ * was explicitly shared with, can push coverage and thus upload with the aggregator's credentials. Everyone who can
+ * read the token file is trusted to upload to any project these credentials allow.
+ */
+@Parameters(commandNames = AggregateCommand.COMMAND_NAME, commandDescription = "Merges the coverage that the agents"
+		+ " on this host push and uploads it to Teamscale once per interval.")
+public class AggregateCommand implements ICommand {
+
+	/** The name of the command, which must be the first command line argument. */
+	public static final String COMMAND_NAME = "aggregate";
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** The port on which the agents push their coverage. */
+	@Parameter(names = {"--port", "-p"}, required = true, description = ""
+			+ "The port on the loopback interface on which the agents push their coverage. Configure the same port as"
+			+ " aggregator-port for the agents.")
+	/* package */ int port;
+
+	/** The URL of the Teamscale server. */
+	@Parameter(names = "--teamscale-server-url", required = true, description = "The URL of the Teamscale server.")
+	/* package */ String teamscaleServerUrl;
+
+	/** The user name for the upload. */
+	@Parameter(names = "--teamscale-user", required = true, description = "The user name for the upload.")
+	/* package */ String teamscaleUser;
+
+	/** The access token of the user. */
+	@Parameter(names = "--teamscale-access-token", required = true, description = ""
+			+ "The access token of the user.")
+	/* package */ String teamscaleAccessToken;
+
+	/** The file to which the token for the pushes is written. */
+	@Parameter(names = "--token-file", required = true, description = ""
+			+ "The file to which the aggregator writes a new secret token when it starts. Only its own user can read"
+			+ " the file. Configure the same file as aggregator-token-file for the agents.")
+	/* package */ String tokenFile;
+
+	/** The interval in minutes in which the merged coverage is uploaded. */
+	@Parameter(names = {"--interval", "-i"}, description = ""
+			+ "The interval in minutes in which the merged coverage is converted and uploaded. Defaults to 5.")
+	/* package */ int intervalMinutes = 5;
+
+	/** The number of threads receiving pushes. */
+	@Parameter(names = "--threads", description = ""
+			+ "The number of threads that receive pushes of the agents in parallel. Defaults to 4.")
+	/* package */ int threads = 4;
+
+	/** The directory in which the reports are written before the upload. */
+	@Parameter(names = {"--out", "-o"}, description = ""
+			+ "The directory in which the reports are written before they are uploaded. Reports that could not be"
+			+ " uploaded are kept there. Defaults to a directory in the temp directory.")
+	/* package */ String outputDirectory;
+
+	@Override
+	public Validator validate() {
+		Validator validator = new Validator();
+		validator.isTrue(port > 0 && port < 65536, "The port must be between 1 and 65535.");
+		validator.isTrue(intervalMinutes > 0, "The interval must be at least 1 minute.");
+		validator.isTrue(threads > 0, "There must be at least 1 thread.");
+		validator.ensure(() -> AgentOptionsParser.parseUrl("teamscale-server-url", teamscaleServerUrl));
+		return validator;
+	}
+
+	@Override
+	public void run() throws Exception {
+		TeamscaleServer connection = new TeamscaleServer();
+		connection.url = AgentOptionsParser.parseUrl("teamscale-server-url", teamscaleServerUrl);
+		connection.userName = teamscaleUser;
+		connection.userAccessToken = teamscaleAccessToken;
+
+		Path tokenFilePath = Paths.get(tokenFile);
+		String token = AggregatorToken.create(tokenFilePath);
+		CoverageAggregator aggregator = new CoverageAggregator(connection, getOutputDirectory());
+		AggregatorServer server = AggregatorServer.start(aggregator, port, token, threads);
+		logger.info("Aggregating coverage pushed to port {} and uploading it to {} every {} minutes", server.getPort(),
+				connection.url, intervalMinutes);
+
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(AggregateCommand.class, "upload thread"));
+		scheduler.scheduleWithFixedDelay(aggregator::flush, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			logger.info("Stopping the aggregator and uploading the remaining coverage");
+			try {
+				server.close();
+				scheduler.shutdown();
+				scheduler.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (Exception e) {
+				logger.error("Stopping the aggregator failed", e);
+			}
+			aggregator.flush();
+			try {
+				Files.deleteIfExists(tokenFilePath);
+			} catch (IOException e) {
+				logger.warn("Deleting the token file {} failed", tokenFilePath, e);
+			}
+			stopped.countDown();
+		}));
+		stopped.await();
+	}
+
+	private Path getOutputDirectory() {
+		if (outputDirectory == null) {
+			return AgentUtils.getMainTempDirectory().resolve("aggregated-coverage");
+		}
+		return Paths.get(outputDirectory);
+	}
+}
@@ -0,0 +1,102 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import com.teamscale.client.CommitDescriptor;
+import com.teamscale.client.TeamscaleServer;
+
+import java.util.Objects;
+
+/** Identifies the coverage that the {@link CoverageAggregator} merges and uploads together. */
+public class AggregationKey {
+
+	private final String project;
+
+	/** The commit as <code>branch:timestamp</code> or null if the coverage belongs to a {@link #revision}. */
+	private final String commit;
+
+	private final String revision;
+
+	private final String repository;
+
+	private final String partition;
+
+	/** Constructor. */
+	public AggregationKey(String project, String commit, String revision, String repository, String partition) {
+		this.project = project;
+		this.commit = commit;
+		this.revision = revision;
+		this.repository = repository;
+		this.partition = partition;
+	}
+
+	/** Creates the key for the upload target of the given server. */
+	public static AggregationKey of(TeamscaleServer server) {
+		String commit = server.commit == null ? null : server.commit.toString();
+		return new AggregationKey(server.project, commit, server.revision, server.repository, server.partition);
+	}
+
+	/**
+	 * Returns a copy of the given server that uploads to the project, commit and partition of this key.
+	 */
+	public TeamscaleServer toTeamscaleServer(TeamscaleServer connection) {
+		TeamscaleServer server = new TeamscaleServer();
+		server.url = connection.url;
+		server.userName = connection.userName;
+		server.userAccessToken = connection.userAccessToken;
+		server.project = project;
+		server.commit = commit == null ? null : CommitDescriptor.parse(commit);
+		server.revision = revision;
+		server.repository = repository;
+		server.partition = partition;
+		return server;
+	}
+
+	/** @see #project */
+	public String getProject() {
+		return project;
+	}
+
+	/** @see #commit */
+	public String getCommit() {
+		return commit;
+	}
+
+	/** @see #revision */
+	public String getRevision() {
+		return revision;
+	}
+
+	/** @see #repository */
+	public String getRepository() {
+		return repository;
+	}
+
+	/** @see #partition */
+	public String getPartition() {
+		return partition;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other == null || getClass() != other.getClass()) {
+			return false;
+		}
+		AggregationKey that = (AggregationKey) other;
+		return Objects.equals(project, that.project) && Objects.equals(commit, that.commit)
+				&& Objects.equals(revision, that.revision) && Objects.equals(repository, that.repository)
+				&& Objects.equals(partition, that.partition);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(project, commit, revision, repository, partition);
+	}
+
+	@Override
+	public String toString() {
+		return "project " + project + ", " + (commit == null ? "revision " + revision : "commit " + commit)
+				+ ", partition " + partition;
+	}
+}
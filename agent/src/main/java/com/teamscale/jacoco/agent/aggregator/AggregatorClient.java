@@ -0,0 +1,58 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/** Pushes the coverage of an agent to the {@link AggregatorServer} on the same host. */
+public class AggregatorClient {
+
+	private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(5);
+
+	/** Merging a push is fast, but the aggregator may be busy with other agents. */
+	private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.MINUTES.toMillis(1);
+
+	private final int port;
+
+	/** The file with the {@link AggregatorToken} of the aggregator. */
+	private final Path tokenFile;
+
+	/** Constructor. */
+	public AggregatorClient(int port, Path tokenFile) {
+		this.port = port;
+		this.tokenFile = tokenFile;
+	}
+
+	/**
+	 * Sends the given push and waits until the aggregator merged it.
+	 *
+	 * @throws IOException if the token cannot be read, the aggregator is not running or did not acknowledge the push.
+	 *                     The aggregator may or may not have merged the push in this case.
+	 */
+	public void push(CoveragePush push) throws IOException {
+		// the token is read for every push, since the aggregator generates a new one when it restarts
+		String token = AggregatorToken.read(tokenFile);
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			output.writeUTF(token);
+			push.writeTo(output);
+			output.flush();
+			socket.shutdownOutput();
+			if (socket.getInputStream().read() != AggregatorServer.ACKNOWLEDGEMENT) {
+				throw new IOException("The aggregator on port " + port + " did not acknowledge the coverage");
+			}
+		}
+	}
+
+	/** Returns a description of the aggregator for log messages. */
+	public String describe() {
+		return "aggregator on port " + port;
+	}
+}
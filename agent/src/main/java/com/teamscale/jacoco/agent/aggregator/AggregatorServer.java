@@ -0,0 +1,116 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts {@link CoveragePush}es from the agents on the same host and adds them to a {@link CoverageAggregator}. Only
+ * listens on the loopback interface. Each push uses its own connection, which starts with the {@link AggregatorToken}
+ * as a UTF string followed by the push. The push is acknowledged with a single byte once it has been merged, see
+ * {@link AggregatorClient}. Connections with a wrong token are closed without reading the push.
+ */
+public class AggregatorServer implements AutoCloseable {
+
+	/** Sent to the agent once its push has been merged. */
+	/* package */ static final int ACKNOWLEDGEMENT = 1;
+
+	/** Reading a push must not block a connection thread forever if an agent stops sending. */
+	private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.MINUTES.toMillis(1);
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final CoverageAggregator aggregator;
+
+	private final ServerSocket serverSocket;
+
+	/** The token that every connection must start with. */
+	private final String token;
+
+	private final ExecutorService connectionExecutor;
+
+	private AggregatorServer(CoverageAggregator aggregator, ServerSocket serverSocket, String token, int threads) {
+		this.aggregator = aggregator;
+		this.serverSocket = serverSocket;
+		this.token = token;
+		this.connectionExecutor = Executors.newFixedThreadPool(threads,
+				new DaemonThreadFactory(AggregatorServer.class, "connection thread"));
+	}
+
+	/**
+	 * Starts accepting pushes with the given token on the given port of the loopback interface. Port 0 picks a free
+	 * port, see {@link #getPort()}.
+	 */
+	public static AggregatorServer start(CoverageAggregator aggregator, int port, String token,
+			int threads) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		AggregatorServer server = new AggregatorServer(aggregator, serverSocket, token, threads);
+		new DaemonThreadFactory(AggregatorServer.class, "accept thread").newThread(server::acceptConnections).start();
+		return server;
+	}
+
+	/** Returns the port the server listens on. */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connectionExecutor.execute(() -> handleConnection(socket));
+			} catch (SocketException e) {
+				// the server socket was closed
+				return;
+			} catch (IOException e) {
+				logger.warn("Accepting a connection from an agent failed", e);
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		try (Socket ignored = socket) {
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			InputStream input = new BufferedInputStream(socket.getInputStream());
+			if (!AggregatorToken.matches(token, new DataInputStream(input).readUTF())) {
+				logger.warn("Rejected a push from a process on this host that does not know the aggregator token");
+				return;
+			}
+			CoveragePush push = CoveragePush.readFrom(input);
+			aggregator.add(push);
+			logger.debug("Received the coverage of {} classes for {}", push.getStore().getContents().size(),
+					push.getKey());
+			socket.getOutputStream().write(ACKNOWLEDGEMENT);
+			socket.getOutputStream().flush();
+		} catch (IOException | RuntimeException e) {
+			// without the acknowledgement, the agent keeps its coverage and converts it itself
+			logger.warn("Receiving coverage from an agent failed", e);
+		}
+	}
+
+	/** Stops accepting pushes and waits for the pushes that are currently received. */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connectionExecutor.shutdown();
+		try {
+			if (!connectionExecutor.awaitTermination(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				logger.warn("Some pushes were still being received when the aggregator stopped");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
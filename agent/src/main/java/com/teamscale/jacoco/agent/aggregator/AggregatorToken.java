@@ -0,0 +1,80 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+
+/**
+ * The shared secret with which agents authenticate their pushes to the {@link AggregatorServer}. The aggregator
+ * generates a new token whenever it starts and writes it to a file that only its own user can read. Agents read the
+ * token from that file for every push, so only processes with access to the file can push coverage.
+ */
+public final class AggregatorToken {
+
+	private static final int TOKEN_BYTES = 32;
+
+	private AggregatorToken() {
+		// static utility
+	}
+
+	/** Generates a new token and writes it to the given file, replacing the token of an earlier aggregator. */
+	public static String create(Path tokenFile) throws IOException {
+		byte[] bytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes(bytes);
+		String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+		Path directory = tokenFile.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		// the permissions are restricted before the token is written, so it is never readable by others
+		Path temporaryFile = Files.createTempFile(directory, "aggregator-", ".token");
+		try {
+			restrictToOwner(temporaryFile);
+			Files.write(temporaryFile, token.getBytes(StandardCharsets.UTF_8));
+			Files.move(temporaryFile, tokenFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+		return token;
+	}
+
+	/** Reads the token from the given file. */
+	public static String read(Path tokenFile) throws IOException {
+		return new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+	}
+
+	/** Compares the tokens in constant time, so the time of a failed attempt does not reveal the token. */
+	/* package */ static boolean matches(String expectedToken, String token) {
+		return MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8),
+				token.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void restrictToOwner(Path file) throws IOException {
+		PosixFileAttributeView posixView = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+		if (posixView != null) {
+			posixView.setPermissions(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+			return;
+		}
+		AclFileAttributeView aclView = Files.getFileAttributeView(file, AclFileAttributeView.class);
+		if (aclView != null) {
+			AclEntry ownerOnly = AclEntry.newBuilder().setType(AclEntryType.ALLOW).setPrincipal(aclView.getOwner())
+					.setPermissions(EnumSet.allOf(AclEntryPermission.class)).build();
+			aclView.setAcl(Collections.singletonList(ownerOnly));
+			return;
+		}
+		throw new IOException("Cannot restrict the access to " + file + " to its owner");
+	}
+}
@@ -0,0 +1,179 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import com.teamscale.client.TeamscaleServer;
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader;
+import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.EmptyReportException;
+import com.teamscale.report.jacoco.JaCoCoXmlReportGenerator;
+import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static com.teamscale.jacoco.agent.logging.LoggingUtils.wrap;
+
+/**
+ * Merges the execution data that many agents on the same host push and converts and uploads it once per
+ * {@link AggregationKey}. This saves the conversion and upload of every single agent.
+ * <p>
+ * Each key keeps its report generator as long as agents push coverage for it, so the class files are only analyzed
+ * once. Keys without new coverage since the last {@link #flush()} are forgotten.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class CoverageAggregator {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** Teamscale URL and credentials used for all uploads. */
+	private final TeamscaleServer connection;
+
+	/** The directory in which the reports are written before the upload. */
+	private final Path outputDirectory;
+
+	/** The merged coverage by key. Guarded by this. */
+	private final Map<AggregationKey, AggregatedCoverage> coverage = new HashMap<>();
+
+	/** Constructor. */
+	public CoverageAggregator(TeamscaleServer connection, Path outputDirectory) {
+		this.connection = connection;
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * Merges the given push into the coverage of its key.
+	 *
+	 * @throws IllegalStateException if the push contains a class whose probes do not match the probes that were pushed
+	 *                               for the same class ID before.
+	 */
+	public synchronized void add(CoveragePush push) {
+		AggregatedCoverage aggregated = coverage.computeIfAbsent(push.getKey(),
+				key -> new AggregatedCoverage(key, push));
+		aggregated.addClassDirectoriesOrZips(push.getClassDirectoriesOrZips());
+		for (ExecutionData data : push.getStore().getContents()) {
+			// the store merges data with the same class ID
+			aggregated.store.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+		}
+	}
+
+	/**
+	 * Converts and uploads the coverage merged since the last flush, one report per key. Logs all errors, never throws
+	 * an exception.
+	 */
+	public void flush() {
+		Map<AggregatedCoverage, ExecutionDataStore> stores = new HashMap<>();
+		synchronized (this) {
+			coverage.values().removeIf(aggregated -> aggregated.store.getContents().isEmpty());
+			for (AggregatedCoverage aggregated : coverage.values()) {
+				stores.put(aggregated, aggregated.store);
+				aggregated.store = new ExecutionDataStore();
+			}
+		}
+
+		for (Map.Entry<AggregatedCoverage, ExecutionDataStore> entry : stores.entrySet()) {
+			try {
+				convertAndUpload(entry.getKey(), entry.getValue());
+			} catch (Throwable t) {
+				// one broken key must not prevent the upload of the others
+				logger.error("Converting and uploading the coverage for {} failed", entry.getKey().key, t);
+			}
+		}
+	}
+
+	private void convertAndUpload(AggregatedCoverage aggregated, ExecutionDataStore store) throws IOException {
+		AggregationKey key = aggregated.key;
+		long now = System.currentTimeMillis();
+		Dump dump = new Dump(new SessionInfo("aggregated-" + UUID.randomUUID(), now, now), store);
+		File outputFile = outputDirectory.resolve("jacoco-" + now + "-" + UUID.randomUUID() + ".xml").toFile();
+		Files.createDirectories(outputDirectory);
+		try {
+			CoverageFile coverageFile = aggregated.getReportGenerator().convertSingleDumpToReport(dump, outputFile);
+			logger.debug("Uploading the coverage of {} classes for {}", store.getContents().size(), key);
+			aggregated.getUploader().upload(coverageFile);
+		} catch (EmptyReportException e) {
+			logger.warn("No coverage was collected for {}. {}", key, e.getMessage());
+		}
+	}
+
+	/** Returns the coverage merged for the given key since the last flush or null if there is none. */
+	/* package */ synchronized ExecutionDataStore getCoverage(AggregationKey key) {
+		AggregatedCoverage aggregated = coverage.get(key);
+		if (aggregated == null) {
+			return null;
+		}
+		return aggregated.store;
+	}
+
+	/** The coverage of one {@link AggregationKey}. */
+	private class AggregatedCoverage {
+
+		private final AggregationKey key;
+
+		/** The class files of all agents that pushed coverage for this key. */
+		private final Set<String> classDirectoriesOrZips = new LinkedHashSet<>();
+
+		/** The location filter of the first push. All agents for the same key are expected to use the same one. */
+		private final ClasspathWildcardIncludeFilter locationIncludeFilter;
+
+		private final boolean ignoreUncoveredClasses;
+
+		/** The probes merged since the last flush. Guarded by the {@link CoverageAggregator}. */
+		private ExecutionDataStore store = new ExecutionDataStore();
+
+		/** Created lazily and recreated once agents push new class directories. Only used during flushes. */
+		private JaCoCoXmlReportGenerator reportGenerator;
+
+		private List<File> reportGeneratorClassDirectoriesOrZips;
+
+		private IUploader uploader;
+
+		private AggregatedCoverage(AggregationKey key, CoveragePush push) {
+			this.key = key;
+			this.locationIncludeFilter = new ClasspathWildcardIncludeFilter(push.getLocationIncludes(),
+					push.getLocationExcludes());
+			this.ignoreUncoveredClasses = push.shouldIgnoreUncoveredClasses();
+		}
+
+		private void addClassDirectoriesOrZips(List<String> paths) {
+			classDirectoriesOrZips.addAll(paths);
+		}
+
+		private synchronized JaCoCoXmlReportGenerator getReportGenerator() {
+			List<File> paths;
+			synchronized (CoverageAggregator.this) {
+				paths = classDirectoriesOrZips.stream().map(File::new).collect(Collectors.toList());
+			}
+			if (reportGenerator == null || !paths.equals(reportGeneratorClassDirectoriesOrZips)) {
+				reportGenerator = new JaCoCoXmlReportGenerator(new ArrayList<>(paths), locationIncludeFilter,
+						EDuplicateClassFileBehavior.WARN, ignoreUncoveredClasses, wrap(logger));
+				reportGeneratorClassDirectoriesOrZips = paths;
+			}
+			return reportGenerator;
+		}
+
+		private synchronized IUploader getUploader() {
+			if (uploader == null) {
+				uploader = new TeamscaleUploader(key.toTeamscaleServer(connection));
+			}
+			return uploader;
+		}
+	}
+}
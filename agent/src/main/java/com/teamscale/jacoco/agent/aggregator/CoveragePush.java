@@ -0,0 +1,159 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The execution data that an agent pushes to the {@link CoverageAggregator}, together with everything the aggregator
+ * needs to convert and upload it.
+ * <p>
+ * Format on the wire (all numbers big-endian, empty strings for absent values):
+ * <pre>
+ * int     magic number
+ * int     protocol version
+ * UTF     project, commit, revision, repository, partition
+ * int     number of class directories or zips
+ * UTF*    class directories or zips
+ * UTF     location includes, location excludes
+ * boolean whether to ignore uncovered classes
+ * byte*   JaCoCo execution data until the end of the stream
+ * </pre>
+ * The execution data is the last part, so the sender must shut down its output once it has written the push.
+ */
+public class CoveragePush {
+
+	private static final int MAGIC_NUMBER = 0x54434147;
+
+	private static final int PROTOCOL_VERSION = 1;
+
+	private final AggregationKey key;
+
+	/** The class files of the application, which must be readable by the aggregator. */
+	private final List<String> classDirectoriesOrZips;
+
+	private final String locationIncludes;
+
+	private final String locationExcludes;
+
+	private final boolean ignoreUncoveredClasses;
+
+	private final ExecutionDataStore store;
+
+	/** Constructor. */
+	public CoveragePush(AggregationKey key, List<String> classDirectoriesOrZips, String locationIncludes,
+			String locationExcludes, boolean ignoreUncoveredClasses, ExecutionDataStore store) {
+		this.key = key;
+		this.classDirectoriesOrZips = classDirectoriesOrZips;
+		this.locationIncludes = locationIncludes;
+		this.locationExcludes = locationExcludes;
+		this.ignoreUncoveredClasses = ignoreUncoveredClasses;
+		this.store = store;
+	}
+
+	/** Writes this push to the given stream. */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream output = new DataOutputStream(outputStream);
+		output.writeInt(MAGIC_NUMBER);
+		output.writeInt(PROTOCOL_VERSION);
+		writeString(output, key.getProject());
+		writeString(output, key.getCommit());
+		writeString(output, key.getRevision());
+		writeString(output, key.getRepository());
+		writeString(output, key.getPartition());
+		output.writeInt(classDirectoriesOrZips.size());
+		for (String classDirectoryOrZip : classDirectoriesOrZips) {
+			output.writeUTF(classDirectoryOrZip);
+		}
+		writeString(output, locationIncludes);
+		writeString(output, locationExcludes);
+		output.writeBoolean(ignoreUncoveredClasses);
+
+		ExecutionDataWriter writer = new ExecutionDataWriter(output);
+		for (ExecutionData data : store.getContents()) {
+			writer.visitClassExecution(data);
+		}
+		writer.flush();
+	}
+
+	/** Reads a push from the given stream, which must end after the push. */
+	public static CoveragePush readFrom(InputStream inputStream) throws IOException {
+		DataInputStream input = new DataInputStream(inputStream);
+		if (input.readInt() != MAGIC_NUMBER) {
+			throw new IOException("The stream does not contain a coverage push");
+		}
+		int version = input.readInt();
+		if (version != PROTOCOL_VERSION) {
+			throw new IOException("Unsupported protocol version " + version + ". Please use the same version of the"
+					+ " Teamscale Java Profiler for the agents and the aggregator");
+		}
+		AggregationKey key = new AggregationKey(readString(input), readString(input), readString(input),
+				readString(input), readString(input));
+		int classDirectoryCount = input.readInt();
+		List<String> classDirectoriesOrZips = new ArrayList<>();
+		for (int i = 0; i < classDirectoryCount; i++) {
+			classDirectoriesOrZips.add(input.readUTF());
+		}
+		String locationIncludes = readString(input);
+		String locationExcludes = readString(input);
+		boolean ignoreUncoveredClasses = input.readBoolean();
+
+		ExecutionDataStore store = new ExecutionDataStore();
+		ExecutionDataReader reader = new ExecutionDataReader(input);
+		reader.setExecutionDataVisitor(store);
+		reader.read();
+		return new CoveragePush(key, classDirectoriesOrZips, locationIncludes, locationExcludes,
+				ignoreUncoveredClasses, store);
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeUTF(value == null ? "" : value);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		String value = input.readUTF();
+		if (value.isEmpty()) {
+			return null;
+		}
+		return value;
+	}
+
+	/** @see #key */
+	public AggregationKey getKey() {
+		return key;
+	}
+
+	/** @see #classDirectoriesOrZips */
+	public List<String> getClassDirectoriesOrZips() {
+		return classDirectoriesOrZips;
+	}
+
+	/** @see #locationIncludes */
+	public String getLocationIncludes() {
+		return locationIncludes;
+	}
+
+	/** @see #locationExcludes */
+	public String getLocationExcludes() {
+		return locationExcludes;
+	}
+
+	/** @see #ignoreUncoveredClasses */
+	public boolean shouldIgnoreUncoveredClasses() {
+		return ignoreUncoveredClasses;
+	}
+
+	/** @see #store */
+	public ExecutionDataStore getStore() {
+		return store;
+	}
+}
@@ -0,0 +1,110 @@
+package com.teamscale.jacoco.agent.commit_resolution;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.conqat.lib.commons.string.StringUtils;
+import org.slf4j.Logger;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link ClassFileTransformer} that doesn't change the loaded classes but passes their locations to the
+ * {@link ICodeLocationHandler}s that resolve the commit to upload to. Classes of the JDK and classes from locations
+ * that have already been seen are rejected before any handler is called. Once all handlers are done, the transformer
+ * removes itself from the {@link Instrumentation}, so that class loading is no longer slowed down.
+ */
+public class CommitResolvingTransformer implements ClassFileTransformer {
+
+	/** Packages of the JDK, whose locations never contain information about the commit of the application. */
+	private static final String[] JDK_PACKAGE_PREFIXES = {"java/", "jdk/", "sun/", "com/sun/"};
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final Instrumentation instrumentation;
+
+	private final ClasspathWildcardIncludeFilter locationIncludeFilter;
+
+	private final List<ICodeLocationHandler> handlers;
+
+	private final Set<String> seenLocations = ConcurrentHashMap.newKeySet();
+
+	private final AtomicBoolean removed = new AtomicBoolean();
+
+	public CommitResolvingTransformer(Instrumentation instrumentation,
+			ClasspathWildcardIncludeFilter locationIncludeFilter, List<ICodeLocationHandler> handlers) {
+		this.instrumentation = instrumentation;
+		this.locationIncludeFilter = locationIncludeFilter;
+		this.handlers = new CopyOnWriteArrayList<>(handlers);
+	}
+
+	@Override
+	public byte[] transform(ClassLoader classLoader, String className, Class<?> aClass,
+			ProtectionDomain protectionDomain, byte[] classFileContent) {
+		if (protectionDomain == null || StringUtils.isEmpty(className) || isJdkClass(className)) {
+			// happens for e.g. java.lang. We can ignore these classes
+			return null;
+		}
+
+		try {
+			removeFinishedHandlers();
+			if (handlers.isEmpty() || !locationIncludeFilter.isIncluded(className)) {
+				// only search in the locations of included classes
+				return null;
+			}
+
+			CodeSource codeSource = protectionDomain.getCodeSource();
+			if (codeSource == null || codeSource.getLocation() == null) {
+				// unknown when this can happen, we suspect when code is generated at runtime
+				// but there's nothing else we can do here in either case.
+				// codeSource.getLocation() is null e.g. when executing Pixelitor with Java14 for class sun/reflect/misc/Trampoline
+				logger.debug("Could not locate code source for class {}. Skipping commit resolution for this class",
+						className);
+				return null;
+			}
+
+			URL location = codeSource.getLocation();
+			boolean isNewLocation = seenLocations.add(location.toString());
+			for (ICodeLocationHandler handler : handlers) {
+				if (isNewLocation || handler.isRelevantClass(className)) {
+					handler.handle(className, location);
+				}
+			}
+			removeFinishedHandlers();
+		} catch (Throwable e) {
+			// we catch Throwable to be sure that we log all errors as anything thrown from this method is
+			// silently discarded by the JVM
+			logger.error("Failed to process class {} in search of the commit to upload to", className, e);
+		}
+		return null;
+	}
+
+	private static boolean isJdkClass(String className) {
+		for (String prefix : JDK_PACKAGE_PREFIXES) {
+			if (className.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the handlers that resolved their commit. Some handlers finish asynchronously, so this is checked for every
+	 * loaded class.
+	 */
+	private void removeFinishedHandlers() {
+		handlers.removeIf(ICodeLocationHandler::isDone);
+		if (handlers.isEmpty() && removed.compareAndSet(false, true)) {
+			logger.debug("Commit resolution finished. No longer inspecting loaded classes");
+			instrumentation.removeTransformer(this);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package com.teamscale.jacoco.agent.commit_resolution;
+
+import java.net.URL;
+
+/**
+ * Resolves the commit to upload to from the locations classes are loaded from. The loaded classes are passed on by the
+ * {@link CommitResolvingTransformer}.
+ */
+public interface ICodeLocationHandler {
+
+	/**
+	 * Returns whether the given class must be passed to {@link #handle(String, URL)} even if other classes have already
+	 * been loaded from its location.
+	 */
+	default boolean isRelevantClass(String className) {
+		return false;
+	}
+
+	/**
+	 * Handles a class that was loaded from the given location. This is called for the first included class of each
+	 * location and for all classes for which {@link #isRelevantClass(String)} returns true. Must be thread-safe.
+	 */
+	void handle(String className, URL location);
+
+	/** Returns whether the commit has been resolved, i.e. this handler does not need to see further classes. */
+	boolean isDone();
+}
@@ -0,0 +1,59 @@
+package com.teamscale.jacoco.agent.commit_resolution.git_properties;
+
+import com.teamscale.jacoco.agent.commit_resolution.ICodeLocationHandler;
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import org.conqat.lib.commons.collections.Pair;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * {@link ICodeLocationHandler} that searches the Jar/War/Ear/... files of the loaded classes for a git.properties
+ * file.
+ */
+public class GitPropertiesLocatingHandler implements ICodeLocationHandler {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+	private final Set<String> seenJars = new ConcurrentSkipListSet<>();
+	private final IGitPropertiesLocator locator;
+
+	public GitPropertiesLocatingHandler(IGitPropertiesLocator locator) {
+		this.locator = locator;
+	}
+
+	@Override
+	public void handle(String className, URL jarOrClassFolderUrl) {
+		try {
+			Pair<File, Boolean> searchRoot = GitPropertiesLocatorUtils.extractGitPropertiesSearchRoot(jarOrClassFolderUrl);
+			if (searchRoot == null || searchRoot.getFirst() == null) {
+				logger.warn("Not searching location for git.properties with unknown protocol or extension {}." +
+								" If this location contains your git.properties, please report this warning as a" +
+								" bug to CQSE. In that case, auto-discovery of git.properties will not work.",
+						jarOrClassFolderUrl);
+				return;
+			}
+
+			if (hasLocationAlreadyBeenSearched(searchRoot.getFirst())) {
+				return;
+			}
+
+			logger.debug("Scheduling asynchronous search for git.properties in {}", searchRoot);
+			locator.searchFileForGitPropertiesAsync(searchRoot.getFirst(), searchRoot.getSecond());
+		} catch (Throwable e) {
+			logger.error("Failed to process class {} in search of git.properties", className, e);
+		}
+	}
+
+	@Override
+	public boolean isDone() {
+		return locator.isDone();
+	}
+
+	private boolean hasLocationAlreadyBeenSearched(File location) {
+		return !seenJars.add(location.toString());
+	}
+
+}
@@ -21,7 +21,7 @@ public class GitSingleProjectPropertiesLocator<T> implements IGitPropertiesLocat
 
 	private final Logger logger = LoggingUtils.getLogger(this);
 	private final Executor executor;
-	private T foundData = null;
+	private volatile T foundData = null;
 	private File jarFileWithGitProperties = null;
 
 	private final DelayedUploader<T> uploader;
@@ -64,6 +64,15 @@ public class GitSingleProjectPropertiesLocator<T> implements IGitPropertiesLocat
 		executor.execute(() -> searchFile(file, isJarFile));
 	}
 
+	/**
+	 * Returns true once a git.properties file has been found. Files that are searched afterwards are only checked for
+	 * inconsistencies with the found git.properties file.
+	 */
+	@Override
+	public boolean isDone() {
+		return foundData != null;
+	}
+
 	private void searchFile(File file, boolean isJarFile) {
 		logger.debug("Searching jar file {} for a single git.properties", file);
 		try {
@@ -10,4 +10,12 @@ public interface IGitPropertiesLocator {
 	 * searched file is a JAR file or a plain directory.
 	 */
 	void searchFileForGitPropertiesAsync(File file, boolean isJarFile);
+
+	/**
+	 * Returns whether the locator has found all it is looking for, i.e. further files do not need to be searched. By
+	 * default, all files are searched.
+	 */
+	default boolean isDone() {
+		return false;
+	}
 }
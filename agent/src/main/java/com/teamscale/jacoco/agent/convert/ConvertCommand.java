@@ -92,6 +92,12 @@ public class ConvertCommand implements ICommand {
 			"testwise coverage should be split into multiple reports (Default is 5000).")
 	private int splitAfter = 5000;
 
+	/** File in which the analysis results of the class files are cached across invocations. */
+	@Parameter(names = {"--probes-cache-file"}, required = false, arity = 1, description = "File in which the " +
+			"analysis results of the class files are cached across invocations for testwise coverage. " +
+			"Speeds up repeated conversions of the same class files.")
+	private String probesCacheFile = null;
+
 	/** @see #classDirectoriesOrZips */
 	public List<File> getClassDirectoriesOrZips() throws IOException {
 		return ClasspathUtils
@@ -124,6 +130,14 @@ public class ConvertCommand implements ICommand {
 		return splitAfter;
 	}
 
+	/** @see #probesCacheFile */
+	public File getProbesCacheFile() {
+		if (probesCacheFile == null) {
+			return null;
+		}
+		return new File(probesCacheFile);
+	}
+
 	/** @see #duplicateClassFileBehavior */
 	public EDuplicateClassFileBehavior getDuplicateClassFileBehavior() {
 		return duplicateClassFileBehavior;
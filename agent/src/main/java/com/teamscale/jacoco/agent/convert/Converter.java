@@ -68,7 +68,8 @@ public class Converter {
 				arguments.getClassDirectoriesOrZips(),
 				getWildcardIncludeExcludeFilter(),
 				arguments.getDuplicateClassFileBehavior(),
-				logger
+				logger,
+				arguments.getProbesCacheFile()
 		);
 
 		TestInfoFactory testInfoFactory = new TestInfoFactory(testDetails, testExecutions);
@@ -0,0 +1,360 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.pipeline.StageLatency;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.slf4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects metrics about dumping, converting and uploading coverage. They are exposed in the Prometheus text format via
+ * the HTTP server of the agent (see {@link #toPrometheusText()}) and optionally via JMX (see {@link #registerMBean()}).
+ * <p>
+ * There is one instance per JVM, since uploaders record their metrics independently of the agent that created them.
+ * All methods are thread-safe.
+ */
+public class AgentMetrics implements AgentMetricsMBean {
+
+	/** The name under which the metrics are registered in JMX. */
+	public static final String OBJECT_NAME = "com.teamscale.jacoco.agent:type=Metrics";
+
+	private static final AgentMetrics INSTANCE = new AgentMetrics();
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final StageLatency dumpLatency = new StageLatency("dump");
+
+	private final StageLatency conversionLatency = new StageLatency("conversion");
+
+	private final StageLatency uploadLatency = new StageLatency("upload");
+
+	private final AtomicLong lastDumpClasses = new AtomicLong();
+
+	private final AtomicLong lastDumpHitProbes = new AtomicLong();
+
+	private final AtomicLong lastConvertedClasses = new AtomicLong();
+
+	private final AtomicLong convertedClasses = new AtomicLong();
+
+	private final AtomicLong uploadedBytes = new AtomicLong();
+
+	private final AtomicLong uploadFailures = new AtomicLong();
+
+	/** The reports that the upload retry worker still has to upload. */
+	private final AtomicLong pendingRetries = new AtomicLong();
+
+	private final AtomicLong completedRetries = new AtomicLong();
+
+	private final AtomicLong abandonedRetries = new AtomicLong();
+
+	/**
+	 * The upload retry markers of the reports that wait for an upload retry by this agent, by their absolute path. These
+	 * are the markers that this agent wrote and the leftovers of previous runs that its upload retry worker took over.
+	 * Tracking the paths instead of counting them keeps the backlog correct if the same marker is recorded twice.
+	 */
+	private final Set<String> retryMarkers = ConcurrentHashMap.newKeySet();
+
+	/** Estimates the heap held by each cache, by name of the cache. */
+	private final Map<String, LongSupplier> cacheSizes = new ConcurrentSkipListMap<>();
+
+	/** Constructor for tests. Use {@link #getInstance()} otherwise. */
+	/* package */ AgentMetrics() {
+	}
+
+	/** Returns the metrics of this JVM. */
+	public static AgentMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/** Records a dump that started at the given {@link System#nanoTime()}. */
+	public void recordDump(long startNanos, ExecutionDataStore store) {
+		dumpLatency.recordSince(startNanos);
+		long classes = 0;
+		long hitProbes = 0;
+		for (ExecutionData data : store.getContents()) {
+			classes++;
+			for (boolean probe : data.getProbes()) {
+				if (probe) {
+					hitProbes++;
+				}
+			}
+		}
+		lastDumpClasses.set(classes);
+		lastDumpHitProbes.set(hitProbes);
+	}
+
+	/** Records a conversion of the given number of classes that started at the given {@link System#nanoTime()}. */
+	public void recordConversion(long startNanos, int classes) {
+		conversionLatency.recordSince(startNanos);
+		lastConvertedClasses.set(classes);
+		convertedClasses.addAndGet(classes);
+	}
+
+	/** Records an upload of a report with the given size that started at the given {@link System#nanoTime()}. */
+	public void recordUpload(long startNanos, long bytes, boolean successful) {
+		uploadLatency.recordSince(startNanos);
+		if (successful) {
+			uploadedBytes.addAndGet(bytes);
+		} else {
+			uploadFailures.incrementAndGet();
+		}
+	}
+
+	/** Records that the given number of reports are queued for an upload retry in the background. */
+	public void recordRetriesQueued(int reports) {
+		pendingRetries.addAndGet(reports);
+	}
+
+	/**
+	 * Records that the upload retry of the given number of reports finished. Unsuccessful retries are left for the next
+	 * start of the agent.
+	 */
+	public void recordRetriesFinished(int reports, boolean successful) {
+		pendingRetries.addAndGet(-reports);
+		if (successful) {
+			completedRetries.addAndGet(reports);
+		} else {
+			abandonedRetries.addAndGet(reports);
+		}
+	}
+
+	/** Records that the given upload retry marker was written or taken over from a previous run. */
+	public void recordRetryMarkerWritten(File marker) {
+		retryMarkers.add(getKey(marker));
+	}
+
+	/** Records that the given upload retry marker was deleted. Markers that were never recorded are ignored. */
+	public void recordRetryMarkerDeleted(File marker) {
+		retryMarkers.remove(getKey(marker));
+	}
+
+	/**
+	 * Records that the given upload retry marker was moved, e.g. because its report was compressed. The target is only
+	 * recorded if the source was, so the markers of other agents are not counted.
+	 */
+	public void recordRetryMarkerMoved(File source, File target) {
+		if (retryMarkers.remove(getKey(source))) {
+			retryMarkers.add(getKey(target));
+		}
+	}
+
+	/**
+	 * Records that the given upload retry marker was copied, e.g. for a merged report. The target is only recorded if
+	 * the source was, so the markers of other agents are not counted.
+	 */
+	public void recordRetryMarkerCopied(File source, File target) {
+		if (retryMarkers.contains(getKey(source))) {
+			retryMarkers.add(getKey(target));
+		}
+	}
+
+	private static String getKey(File marker) {
+		return marker.toPath().toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * Registers a cache whose size is reported. The estimate is computed whenever the metrics are read, so it must be
+	 * cheap. Replaces a previously registered cache with the same name.
+	 */
+	public void registerCache(String name, LongSupplier estimatedBytes) {
+		cacheSizes.put(name, estimatedBytes);
+	}
+
+	/**
+	 * Makes the metrics available via JMX. This is not done by default, since creating the platform MBean server early
+	 * breaks the logging of some application servers, e.g. WildFly.
+	 */
+	public void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			logger.warn("Could not register the agent metrics in JMX", e);
+		}
+	}
+
+	/** Returns all metrics in the Prometheus text exposition format. */
+	public String toPrometheusText() {
+		StringBuilder text = new StringBuilder();
+		appendLatency(text, "dump", "Duration of dumping the coverage from the JaCoCo runtime.", dumpLatency);
+		appendGauge(text, "last_dump_classes", "Number of classes with hits in the most recent dump.",
+				lastDumpClasses.get());
+		appendGauge(text, "last_dump_hit_probes", "Number of hit probes in the most recent dump.",
+				lastDumpHitProbes.get());
+		appendLatency(text, "conversion", "Duration of converting a dump to a report.", conversionLatency);
+		appendGauge(text, "last_converted_classes", "Number of classes converted by the most recent conversion.",
+				lastConvertedClasses.get());
+		appendCounter(text, "converted_classes_total", "Number of classes converted by all conversions.",
+				convertedClasses.get());
+		appendLatency(text, "upload", "Duration of uploading a report, including failed uploads.", uploadLatency);
+		appendCounter(text, "uploaded_bytes_total", "Size of all successfully uploaded reports.",
+				uploadedBytes.get());
+		appendCounter(text, "upload_failures_total", "Number of failed uploads.", uploadFailures.get());
+		appendGauge(text, "upload_retry_backlog", "Number of reports waiting for an upload retry.",
+				getRetryBacklog());
+		appendGauge(text, "upload_retries_pending", "Number of reports that are being retried in the background.",
+				pendingRetries.get());
+		appendCounter(text, "upload_retries_completed_total", "Number of reports whose retried upload succeeded.",
+				completedRetries.get());
+		appendCounter(text, "upload_retries_abandoned_total",
+				"Number of reports whose retried upload failed and that are left for the next start.",
+				abandonedRetries.get());
+
+		String cacheMetric = "teamscale_agent_cache_heap_bytes";
+		appendHeader(text, cacheMetric, "Estimated heap held by the caches of the agent.", "gauge");
+		for (Map.Entry<String, LongSupplier> cache : cacheSizes.entrySet()) {
+			text.append(cacheMetric).append("{cache=\"").append(cache.getKey()).append("\"} ")
+					.append(cache.getValue().getAsLong()).append('\n');
+		}
+		return text.toString();
+	}
+
+	private static void appendLatency(StringBuilder text, String stage, String help, StageLatency latency) {
+		String metric = "teamscale_agent_" + stage + "_duration_seconds";
+		appendHeader(text, metric, help, "summary");
+		text.append(metric).append("_count ").append(latency.getCount()).append('\n');
+		text.append(metric).append("_sum ").append(toSeconds(latency.getTotalNanos())).append('\n');
+		appendGauge(text, "max_" + stage + "_duration_seconds", "Longest " + stage + " duration.",
+				toSeconds(latency.getMaxNanos()));
+		appendGauge(text, "last_" + stage + "_duration_seconds", "Most recent " + stage + " duration.",
+				toSeconds(latency.getLastNanos()));
+	}
+
+	private static void appendGauge(StringBuilder text, String name, String help, Object value) {
+		appendHeader(text, "teamscale_agent_" + name, help, "gauge");
+		text.append("teamscale_agent_").append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendCounter(StringBuilder text, String name, String help, long value) {
+		appendHeader(text, "teamscale_agent_" + name, help, "counter");
+		text.append("teamscale_agent_").append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendHeader(StringBuilder text, String metric, String help, String type) {
+		text.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+	}
+
+	private static double toSeconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	@Override
+	public long getDumpCount() {
+		return dumpLatency.getCount();
+	}
+
+	@Override
+	public long getLastDumpMillis() {
+		return toMillis(dumpLatency.getLastNanos());
+	}
+
+	@Override
+	public long getMaxDumpMillis() {
+		return toMillis(dumpLatency.getMaxNanos());
+	}
+
+	@Override
+	public long getLastDumpClasses() {
+		return lastDumpClasses.get();
+	}
+
+	@Override
+	public long getLastDumpHitProbes() {
+		return lastDumpHitProbes.get();
+	}
+
+	@Override
+	public long getConversionCount() {
+		return conversionLatency.getCount();
+	}
+
+	@Override
+	public long getLastConversionMillis() {
+		return toMillis(conversionLatency.getLastNanos());
+	}
+
+	@Override
+	public long getMaxConversionMillis() {
+		return toMillis(conversionLatency.getMaxNanos());
+	}
+
+	@Override
+	public long getLastConvertedClasses() {
+		return lastConvertedClasses.get();
+	}
+
+	@Override
+	public long getUploadCount() {
+		return uploadLatency.getCount();
+	}
+
+	@Override
+	public long getLastUploadMillis() {
+		return toMillis(uploadLatency.getLastNanos());
+	}
+
+	@Override
+	public long getMaxUploadMillis() {
+		return toMillis(uploadLatency.getMaxNanos());
+	}
+
+	@Override
+	public long getUploadedBytes() {
+		return uploadedBytes.get();
+	}
+
+	@Override
+	public long getUploadFailures() {
+		return uploadFailures.get();
+	}
+
+	@Override
+	public long getRetryBacklog() {
+		return retryMarkers.size();
+	}
+
+	@Override
+	public long getPendingRetries() {
+		return pendingRetries.get();
+	}
+
+	@Override
+	public long getCompletedRetries() {
+		return completedRetries.get();
+	}
+
+	@Override
+	public long getAbandonedRetries() {
+		return abandonedRetries.get();
+	}
+
+	@Override
+	public long getCacheHeapBytes() {
+		long bytes = 0;
+		for (LongSupplier cacheSize : cacheSizes.values()) {
+			bytes += cacheSize.getAsLong();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,65 @@
+package com.teamscale.jacoco.agent.metrics;
+
+/** JMX view of the {@link AgentMetrics}. Durations are in milliseconds and sizes in bytes. */
+public interface AgentMetricsMBean {
+
+	/** The number of dumps taken. */
+	long getDumpCount();
+
+	/** The duration of the most recent dump. */
+	long getLastDumpMillis();
+
+	/** The longest duration of a dump. */
+	long getMaxDumpMillis();
+
+	/** The number of classes with hits in the most recent dump. */
+	long getLastDumpClasses();
+
+	/** The number of hit probes in the most recent dump. */
+	long getLastDumpHitProbes();
+
+	/** The number of dumps converted to reports. */
+	long getConversionCount();
+
+	/** The duration of the most recent conversion. */
+	long getLastConversionMillis();
+
+	/** The longest duration of a conversion. */
+	long getMaxConversionMillis();
+
+	/** The number of classes converted by the most recent conversion. */
+	long getLastConvertedClasses();
+
+	/** The number of uploads, including failed ones. */
+	long getUploadCount();
+
+	/** The duration of the most recent upload. */
+	long getLastUploadMillis();
+
+	/** The longest duration of an upload. */
+	long getMaxUploadMillis();
+
+	/** The total size of all successfully uploaded reports. */
+	long getUploadedBytes();
+
+	/** The number of failed uploads. */
+	long getUploadFailures();
+
+	/**
+	 * The number of reports that wait for an upload retry by this agent, including the leftovers of previous runs that
+	 * it retries.
+	 */
+	long getRetryBacklog();
+
+	/** The number of reports that are being retried in the background. */
+	long getPendingRetries();
+
+	/** The number of reports whose retried upload succeeded. */
+	long getCompletedRetries();
+
+	/** The number of reports whose retried upload failed and that are left for the next start. */
+	long getAbandonedRetries();
+
+	/** The estimated heap used by the caches of the agent. */
+	long getCacheHeapBytes();
+}
@@ -11,16 +11,24 @@ import com.teamscale.client.ProxySystemProperties;
 import com.teamscale.client.StringUtils;
 import com.teamscale.client.TeamscaleClient;
 import com.teamscale.client.TeamscaleServer;
+import com.teamscale.jacoco.agent.aggregator.AggregationKey;
+import com.teamscale.jacoco.agent.aggregator.CoveragePush;
 import com.teamscale.jacoco.agent.commandline.Validator;
+import com.teamscale.jacoco.agent.commit_resolution.CommitResolvingTransformer;
+import com.teamscale.jacoco.agent.commit_resolution.ICodeLocationHandler;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.CommitInfo;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitMultiProjectPropertiesLocator;
-import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocatingTransformer;
+import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocatingHandler;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitPropertiesLocatorUtils;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.GitSingleProjectPropertiesLocator;
-import com.teamscale.jacoco.agent.commit_resolution.sapnwdi.NwdiMarkerClassLocatingTransformer;
+import com.teamscale.jacoco.agent.commit_resolution.sapnwdi.NwdiMarkerClassLocatingHandler;
 import com.teamscale.jacoco.agent.configuration.ConfigurationViaTeamscale;
 import com.teamscale.jacoco.agent.options.sapnwdi.DelayedSapNwdiMultiUploader;
 import com.teamscale.jacoco.agent.options.sapnwdi.SapNwdiApplication;
+import com.teamscale.jacoco.agent.pipeline.DumpPipeline;
+import com.teamscale.jacoco.agent.pipeline.DumpScheduler;
+import com.teamscale.jacoco.agent.pipeline.EBackpressurePolicy;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
 import com.teamscale.jacoco.agent.upload.IUploader;
 import com.teamscale.jacoco.agent.upload.LocalDiskUploader;
 import com.teamscale.jacoco.agent.upload.UploaderException;
@@ -39,6 +47,7 @@ import com.teamscale.report.util.ILogger;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.conqat.lib.commons.assertion.CCSMAssert;
 import org.conqat.lib.commons.collections.PairList;
+import org.jacoco.core.data.ExecutionDataStore;
 import org.jacoco.core.runtime.WildcardMatcher;
 import org.jetbrains.annotations.NotNull;
 
@@ -48,14 +57,17 @@ import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -135,13 +147,151 @@ public class AgentOptions {
 	/* package */ EMode mode = EMode.NORMAL;
 
 	/**
-	 * The interval in minutes for dumping XML data.
+	 * The interval for dumping XML data. Zero disables dumping in intervals.
 	 */
-	/* package */ int dumpIntervalInMinutes = 480;
+	/* package */ Duration dumpInterval = Duration.ofMinutes(480);
+
+	/**
+	 * The maximum random delay that is added to each dump interval, so that JVMs that were started together don't dump
+	 * and upload at the same time.
+	 */
+	/* package */ Duration dumpIntervalJitter = Duration.ZERO;
+
+	/**
+	 * Whether to extend the dump interval while no coverage is collected. See {@link DumpScheduler}.
+	 */
+	/* package */ boolean dumpIntervalBackoff = false;
+
+	/** The number of probe hits since the last dump after which coverage is dumped early or 0 to disable this. */
+	/* package */ int dumpAfterNewProbes = 0;
+
+	/**
+	 * The CPU load of the process in percent above which interval dumps are postponed or 0 to always dump immediately.
+	 */
+	/* package */ int dumpMaxCpuLoad = 0;
 
 	/** Whether to dump coverage when the JVM shuts down. */
 	/* package */ boolean shouldDumpOnExit = true;
 
+	/**
+	 * Whether interval dumps should be converted and uploaded in the background via a {@link DumpPipeline} instead of
+	 * synchronously on the timer thread.
+	 */
+	/* package */ boolean useDumpPipeline = false;
+
+	/** The maximum number of dumps and reports waiting in each queue of the {@link DumpPipeline}. */
+	/* package */ int dumpPipelineQueueSize = 2;
+
+	/** What the {@link DumpPipeline} does with new dumps if its queue is full. */
+	/* package */ EBackpressurePolicy dumpPipelineBackpressure = EBackpressurePolicy.MERGE;
+
+	/**
+	 * Whether dumps copy the probes of classes with new hits instead of resetting all probes, so that dumping does not
+	 * write to the probes while the application runs. See
+	 * {@link com.teamscale.jacoco.agent.JacocoRuntimeController#enableProbeSnapshots()}.
+	 */
+	/* package */ boolean snapshotProbes = false;
+
+	/**
+	 * Whether to remove the probes from classes once all of them have been hit. See
+	 * {@link com.teamscale.jacoco.agent.ClassDeinstrumenter}.
+	 */
+	/* package */ boolean deinstrumentCoveredClasses = false;
+
+	/**
+	 * The port of the {@link com.teamscale.jacoco.agent.aggregator.AggregatorServer} on the same host to which dumps are
+	 * pushed instead of converting and uploading them or null to convert and upload them in this JVM.
+	 */
+	/* package */ Integer aggregatorPort = null;
+
+	/**
+	 * The file with the {@link com.teamscale.jacoco.agent.aggregator.AggregatorToken} that authenticates the pushes
+	 * to the aggregator. Required if the {@link #aggregatorPort} is set.
+	 */
+	/* package */ Path aggregatorTokenFile = null;
+
+	/**
+	 * The number of batches of previously unsuccessful uploads that the
+	 * {@link com.teamscale.jacoco.agent.upload.UploadRetryWorker} uploads in parallel.
+	 */
+	/* package */ int uploadRetryParallelism = 2;
+
+	/** The maximum number of upload retries started per minute or 0 for no limit. */
+	/* package */ int uploadRetryMaxPerMinute = 0;
+
+	/**
+	 * How often the upload of a batch of previously unsuccessful uploads is attempted before it is left for the next
+	 * start.
+	 */
+	/* package */ int uploadRetryAttempts = 5;
+
+	/**
+	 * The maximum size in megabytes of the reports in the output directory that wait for an upload retry or are kept
+	 * on disk or 0 for no limit. See {@link com.teamscale.jacoco.agent.upload.SpoolManager}.
+	 */
+	/* package */ int outputMaxMb = 0;
+
+	/** The maximum age of the reports in the output directory or null for no limit. */
+	/* package */ Duration outputMaxAge = null;
+
+	/**
+	 * Whether to keep the execution data of failed uploads instead of the reports, so that the upload retry converts
+	 * all execution data for the same target into one report.
+	 */
+	/* package */ boolean spoolExecutionData = false;
+
+	/** Whether to compress the reports in the output directory with gzip. */
+	/* package */ boolean compressOutput = false;
+
+	/** Whether to merge the compact coverage reports in the output directory that wait for the same upload. */
+	/* package */ boolean compactOutput = false;
+
+	/**
+	 * Whether to register the {@link com.teamscale.jacoco.agent.metrics.AgentMetrics} in JMX. They are always available
+	 * via the HTTP server.
+	 */
+	/* package */ boolean metricsJmx = false;
+
+	/**
+	 * Whether to upload only classes that gained new probe hits since the last upload and to skip uploads without new
+	 * coverage. See {@link com.teamscale.jacoco.agent.pipeline.CumulativeProbeStore}.
+	 */
+	/* package */ boolean uploadNewCoverageOnly = false;
+
+	/**
+	 * The format of the reports created from dumps in interval mode, either {@link EReportFormat#JACOCO} or
+	 * {@link EReportFormat#TEAMSCALE_COMPACT_COVERAGE}. Compact coverage is converted with the cached analysis of the
+	 * class files, so its cost depends on the covered classes only.
+	 */
+	/* package */ EReportFormat reportFormat = EReportFormat.JACOCO;
+
+	/**
+	 * File in which the analysis results of the class files are cached across JVMs in testwise mode and for compact
+	 * coverage or null to analyze the class files on every start.
+	 */
+	/* package */ Path probesCacheFile = null;
+
+	/**
+	 * Directory in which instrumented class files are cached across JVMs or null to instrument all classes on every
+	 * start. See {@link com.teamscale.jacoco.agent.InstrumentedClassCache}.
+	 */
+	/* package */ Path instrumentationCacheDirectory = null;
+
+	/** The maximum size of the {@link #instrumentationCacheDirectory} in megabytes. */
+	/* package */ int instrumentationCacheMaxMb = 256;
+
+	/**
+	 * Whether to analyze the class files in the background in testwise mode and for compact coverage instead of
+	 * delaying the start of the JVM until all class files have been analyzed.
+	 */
+	/* package */ boolean analyzeClassesInBackground = false;
+
+	/**
+	 * The number of threads that compress large reports for uploads to Artifactory and Azure. See
+	 * {@link com.teamscale.jacoco.agent.upload.CoverageZipRequestBody}.
+	 */
+	/* package */ int uploadCompressionThreads = 1;
+
 	/**
 	 * Whether to search directories and jar files recursively for git.properties files
 	 */
@@ -152,6 +302,12 @@ public class AgentOptions {
 	 */
 	/* package */ boolean validateSsl = true;
 
+	/**
+	 * Whether to compress the reports, logs and test lists sent to Teamscale with gzip. Requires a Teamscale version
+	 * that accepts compressed requests.
+	 */
+	/* package */ boolean compressRequests = false;
+
 	/**
 	 * Whether to ignore duplicate, non-identical class files.
 	 */
@@ -189,6 +345,21 @@ public class AgentOptions {
 	 */
 	/* package */ Integer httpServerPort = null;
 
+	/**
+	 * The implementation of the HTTP server. The {@link EHttpServerType#JDK} server starts faster and needs less
+	 * memory and fewer threads than Jetty with Jersey.
+	 */
+	/* package */ EHttpServerType httpServerType = EHttpServerType.JETTY;
+
+	/** The number of threads handling requests to the {@link EHttpServerType#JDK} HTTP server. */
+	/* package */ int httpServerThreads = 10;
+
+	/**
+	 * Whether the {@link EHttpServerType#JDK} HTTP server handles each request in a new virtual thread. Requires Java
+	 * 21 or newer.
+	 */
+	/* package */ boolean httpServerVirtualThreads = false;
+
 	/**
 	 * Whether classes without coverage should be skipped from the XML report.
 	 */
@@ -290,6 +461,29 @@ public class AgentOptions {
 
 		validateSapNetWeaverConfig(validator);
 
+		validator.isTrue(dumpPipelineQueueSize > 0, "The option 'dump-pipeline-queue-size' must be at least 1.");
+		validator.isTrue(uploadCompressionThreads > 0, "The option 'upload-compression-threads' must be at least 1.");
+		validator.isTrue(instrumentationCacheMaxMb > 0, "The option 'instrumentation-cache-max-mb' must be at least 1.");
+		validator.isTrue(httpServerThreads > 0, "The option 'http-server-threads' must be at least 1.");
+		validator.isTrue(!spoolExecutionData || !useTestwiseCoverageMode(),
+				"The option 'spool-execution-data' is not supported in testwise mode.");
+		validator.isTrue(outputMaxMb >= 0, "The option 'output-max-mb' must not be negative.");
+		validator.isTrue(uploadRetryParallelism > 0, "The option 'upload-retry-parallelism' must be at least 1.");
+		validator.isTrue(uploadRetryMaxPerMinute >= 0,
+				"The option 'upload-retry-max-per-minute' must not be negative.");
+		validator.isTrue(uploadRetryAttempts > 0, "The option 'upload-retry-attempts' must be at least 1.");
+		validator.isTrue(dumpAfterNewProbes >= 0, "The option 'dump-after-new-probes' must not be negative.");
+		validator.isTrue(dumpMaxCpuLoad >= 0 && dumpMaxCpuLoad <= 100,
+				"The option 'dump-max-cpu-load' must be a percentage between 0 and 100.");
+		validator.isTrue(!snapshotProbes || !useTestwiseCoverageMode(),
+				"The option 'snapshot-probes' is not supported in testwise mode, which must reset the probes after each test.");
+		validator.isTrue(!deinstrumentCoveredClasses || !useTestwiseCoverageMode(),
+				"The option 'deinstrument-covered-classes' is not supported in testwise mode, which must record the coverage of each test.");
+		validateAggregatorConfig(validator);
+		validator.isTrue(
+				reportFormat == EReportFormat.JACOCO || reportFormat == EReportFormat.TEAMSCALE_COMPACT_COVERAGE,
+				"The option 'report-format' must be either 'jacoco' or 'teamscale-compact-coverage'.");
+
 		if (useTestwiseCoverageMode()) {
 			validateTestwiseCoverageConfig(validator);
 		}
@@ -318,8 +512,9 @@ public class AgentOptions {
 	}
 
 	private void validateTeamscaleUploadConfig(Validator validator) {
+		// the aggregator uploads with its own URL and credentials
 		validator.isTrue(
-				teamscaleServer.hasAllFieldsNull() || teamscaleServer.canConnectToTeamscale() || teamscaleServer.isConfiguredForSingleProjectTeamscaleUpload() || teamscaleServer.isConfiguredForMultiProjectUpload(),
+				teamscaleServer.hasAllFieldsNull() || teamscaleServer.canConnectToTeamscale() || teamscaleServer.isConfiguredForSingleProjectTeamscaleUpload() || teamscaleServer.isConfiguredForMultiProjectUpload() || aggregatorPort != null,
 				"You did provide some options prefixed with 'teamscale-', but not all required ones!");
 
 		validator.isFalse(teamscaleServer.isConfiguredForMultiProjectUpload() && (teamscaleServer.revision != null
@@ -376,6 +571,23 @@ public class AgentOptions {
 
 	}
 
+	private void validateAggregatorConfig(Validator validator) {
+		if (aggregatorPort == null) {
+			return;
+		}
+		validator.isTrue(aggregatorPort > 0 && aggregatorPort < 65536,
+				"The option 'aggregator-port' must be between 1 and 65535.");
+		validator.isTrue(aggregatorTokenFile != null,
+				"The option 'aggregator-port' requires 'aggregator-token-file', the token file of the aggregator.");
+		validator.isTrue(!useTestwiseCoverageMode(), "The option 'aggregator-port' is not supported in testwise mode.");
+		validator.isTrue(reportFormat == EReportFormat.JACOCO,
+				"The option 'aggregator-port' requires 'report-format=jacoco', since the aggregator creates JaCoCo XML reports.");
+		validator.isTrue(teamscaleServer.project != null && teamscaleServer.partition != null
+						&& teamscaleServer.hasCommitOrRevision(),
+				"The option 'aggregator-port' requires 'teamscale-project', 'teamscale-partition' and either"
+						+ " 'teamscale-commit' or 'teamscale-revision', which determine the coverage the aggregator merges.");
+	}
+
 	private void validateTestwiseCoverageConfig(Validator validator) {
 		validator.isTrue(httpServerPort != null,
 				"You use 'mode=testwise' but did not specify the required option 'http-server-port'!");
@@ -457,7 +669,7 @@ public class AgentOptions {
 				return createArtifactoryUploader(instrumentation);
 			case AZURE_FILE_STORAGE:
 				return new AzureFileStorageUploader(azureFileStorageConfig,
-						additionalMetaDataFiles);
+						additionalMetaDataFiles, uploadCompressionThreads);
 			case SAP_NWDI_TEAMSCALE: {
 				logger.info("NWDI configuration detected. The Agent will try and" +
 						" auto-detect commit information by searching all profiled Jar/War/Ear/... files.");
@@ -486,7 +698,7 @@ public class AgentOptions {
 			return createDelayedArtifactoryUploader(instrumentation);
 		}
 		return new ArtifactoryUploader(artifactoryConfig,
-				additionalMetaDataFiles, getReportFormat());
+				additionalMetaDataFiles, getReportFormat(), uploadCompressionThreads);
 	}
 
 	@NotNull
@@ -552,7 +764,7 @@ public class AgentOptions {
 		GitSingleProjectPropertiesLocator<ProjectAndCommit> locator = new GitSingleProjectPropertiesLocator<>(uploader,
 				GitPropertiesLocatorUtils::getProjectRevisionsFromGitProperties, this.searchGitPropertiesRecursively,
 				this.gitPropertiesCommitTimeFormat);
-		instrumentation.addTransformer(new GitPropertiesLocatingTransformer(locator, getLocationIncludeFilter()));
+		registerCommitResolvingTransformer(instrumentation, new GitPropertiesLocatingHandler(locator));
 	}
 
 	private DelayedUploader<ProjectAndCommit> createDelayedSingleProjectTeamscaleUploader() {
@@ -585,7 +797,7 @@ public class AgentOptions {
 			Instrumentation instrumentation) {
 		GitMultiProjectPropertiesLocator locator = new GitMultiProjectPropertiesLocator(uploader,
 				this.searchGitPropertiesRecursively, this.gitPropertiesCommitTimeFormat);
-		instrumentation.addTransformer(new GitPropertiesLocatingTransformer(locator, getLocationIncludeFilter()));
+		registerCommitResolvingTransformer(instrumentation, new GitPropertiesLocatingHandler(locator));
 	}
 
 	private IUploader createDelayedArtifactoryUploader(Instrumentation instrumentation) {
@@ -593,13 +805,13 @@ public class AgentOptions {
 				commitInfo -> {
 					artifactoryConfig.commitInfo = commitInfo;
 					return new ArtifactoryUploader(artifactoryConfig, additionalMetaDataFiles,
-							getReportFormat());
+							getReportFormat(), uploadCompressionThreads);
 				}, outputDirectory);
 		GitSingleProjectPropertiesLocator<CommitInfo> locator = new GitSingleProjectPropertiesLocator<>(
 				uploader,
 				GitPropertiesLocatorUtils::getCommitInfoFromGitProperties,
 				this.searchGitPropertiesRecursively, this.gitPropertiesCommitTimeFormat);
-		instrumentation.addTransformer(new GitPropertiesLocatingTransformer(locator, getLocationIncludeFilter()));
+		registerCommitResolvingTransformer(instrumentation, new GitPropertiesLocatingHandler(locator));
 		return uploader;
 	}
 
@@ -607,16 +819,26 @@ public class AgentOptions {
 		DelayedSapNwdiMultiUploader uploader = new DelayedSapNwdiMultiUploader(
 				(commit, application) -> new TeamscaleUploader(
 						teamscaleServer.withProjectAndCommit(application.getTeamscaleProject(), commit)));
-		instrumentation.addTransformer(new NwdiMarkerClassLocatingTransformer(uploader, getLocationIncludeFilter(),
-				sapNetWeaverJavaApplications));
+		registerCommitResolvingTransformer(instrumentation,
+				new NwdiMarkerClassLocatingHandler(uploader, sapNetWeaverJavaApplications));
 		return uploader;
 	}
 
-	private EReportFormat getReportFormat() {
+	/**
+	 * Registers a transformer that passes the locations of the loaded classes to the given handler until it has
+	 * resolved the commit.
+	 */
+	private void registerCommitResolvingTransformer(Instrumentation instrumentation, ICodeLocationHandler handler) {
+		instrumentation.addTransformer(new CommitResolvingTransformer(instrumentation, getLocationIncludeFilter(),
+				Collections.singletonList(handler)));
+	}
+
+	/** Returns the format of the uploaded reports. */
+	public EReportFormat getReportFormat() {
 		if (useTestwiseCoverageMode()) {
 			return EReportFormat.TESTWISE_COVERAGE;
 		}
-		return EReportFormat.JACOCO;
+		return reportFormat;
 	}
 
 	/**
@@ -681,10 +903,39 @@ public class AgentOptions {
 	}
 
 	/**
-	 * @see #dumpIntervalInMinutes
+	 * @see #dumpInterval
+	 */
+	public Duration getDumpInterval() {
+		return dumpInterval;
+	}
+
+	/**
+	 * Returns the dump interval in whole minutes.
+	 *
+	 * @see #dumpInterval
 	 */
-	public int getDumpIntervalInMinutes() {
-		return dumpIntervalInMinutes;
+	public long getDumpIntervalInMinutes() {
+		return dumpInterval.toMinutes();
+	}
+
+	/** @see #dumpIntervalJitter */
+	public Duration getDumpIntervalJitter() {
+		return dumpIntervalJitter;
+	}
+
+	/** @see #dumpIntervalBackoff */
+	public boolean shouldBackOffDumpInterval() {
+		return dumpIntervalBackoff;
+	}
+
+	/** @see #dumpAfterNewProbes */
+	public int getDumpAfterNewProbes() {
+		return dumpAfterNewProbes;
+	}
+
+	/** @see #dumpMaxCpuLoad */
+	public int getDumpMaxCpuLoad() {
+		return dumpMaxCpuLoad;
 	}
 
 	/**
@@ -706,6 +957,21 @@ public class AgentOptions {
 		return httpServerPort;
 	}
 
+	/** @see #httpServerType */
+	public EHttpServerType getHttpServerType() {
+		return httpServerType;
+	}
+
+	/** @see #httpServerThreads */
+	public int getHttpServerThreads() {
+		return httpServerThreads;
+	}
+
+	/** @see #httpServerVirtualThreads */
+	public boolean shouldUseHttpServerVirtualThreads() {
+		return httpServerVirtualThreads;
+	}
+
 	/**
 	 * @see #loggingConfig
 	 */
@@ -720,6 +986,13 @@ public class AgentOptions {
 		return validateSsl;
 	}
 
+	/**
+	 * @see #compressRequests
+	 */
+	public boolean shouldCompressRequests() {
+		return compressRequests;
+	}
+
 	/**
 	 * @see #obfuscateSecurityRelatedOutputs
 	 */
@@ -737,7 +1010,7 @@ public class AgentOptions {
 
 	/** Whether coverage should be dumped in regular intervals. */
 	public boolean shouldDumpInIntervals() {
-		return dumpIntervalInMinutes > 0;
+		return !dumpInterval.isZero();
 	}
 
 	/** Whether coverage should be dumped on JVM shutdown. */
@@ -745,10 +1018,131 @@ public class AgentOptions {
 		return shouldDumpOnExit;
 	}
 
+	/** @see #useDumpPipeline */
+	public boolean shouldUseDumpPipeline() {
+		return useDumpPipeline;
+	}
+
+	/** @see #dumpPipelineQueueSize */
+	public int getDumpPipelineQueueSize() {
+		return dumpPipelineQueueSize;
+	}
+
+	/** @see #dumpPipelineBackpressure */
+	public EBackpressurePolicy getDumpPipelineBackpressure() {
+		return dumpPipelineBackpressure;
+	}
+
 	public ETestwiseCoverageMode getTestwiseCoverageMode() {
 		return testwiseCoverageMode;
 	}
 
+	/** @see #analyzeClassesInBackground */
+	public boolean shouldAnalyzeClassesInBackground() {
+		return analyzeClassesInBackground;
+	}
+
+	/** @see #probesCacheFile */
+	public Path getProbesCacheFile() {
+		return probesCacheFile;
+	}
+
+	/** @see #instrumentationCacheDirectory */
+	public Path getInstrumentationCacheDirectory() {
+		return instrumentationCacheDirectory;
+	}
+
+	/** @see #instrumentationCacheMaxMb */
+	public long getInstrumentationCacheMaxBytes() {
+		return instrumentationCacheMaxMb * 1024L * 1024L;
+	}
+
+	/** @see #snapshotProbes */
+	public boolean shouldSnapshotProbes() {
+		return snapshotProbes;
+	}
+
+	/** @see #deinstrumentCoveredClasses */
+	public boolean shouldDeinstrumentCoveredClasses() {
+		return deinstrumentCoveredClasses;
+	}
+
+	/** @see #aggregatorPort */
+	public Integer getAggregatorPort() {
+		return aggregatorPort;
+	}
+
+	/** @see #aggregatorTokenFile */
+	public Path getAggregatorTokenFile() {
+		return aggregatorTokenFile;
+	}
+
+	/** @see #outputMaxMb */
+	public long getOutputMaxBytes() {
+		return outputMaxMb * 1024L * 1024L;
+	}
+
+	/** @see #outputMaxAge */
+	public Duration getOutputMaxAge() {
+		return outputMaxAge;
+	}
+
+	/** @see #spoolExecutionData */
+	public boolean shouldSpoolExecutionData() {
+		return spoolExecutionData;
+	}
+
+	/** @see #compressOutput */
+	public boolean shouldCompressOutput() {
+		return compressOutput;
+	}
+
+	/** @see #compactOutput */
+	public boolean shouldCompactOutput() {
+		return compactOutput;
+	}
+
+	/** Whether any limit or maintenance is configured for the reports in the output directory. */
+	public boolean shouldManageOutput() {
+		return outputMaxMb > 0 || outputMaxAge != null || compressOutput || compactOutput;
+	}
+
+	/** @see #uploadRetryParallelism */
+	public int getUploadRetryParallelism() {
+		return uploadRetryParallelism;
+	}
+
+	/** @see #uploadRetryMaxPerMinute */
+	public int getUploadRetryMaxPerMinute() {
+		return uploadRetryMaxPerMinute;
+	}
+
+	/** @see #uploadRetryAttempts */
+	public int getUploadRetryAttempts() {
+		return uploadRetryAttempts;
+	}
+
+	/**
+	 * Creates a push of the given execution data to the aggregator for the current upload target. Must only be called
+	 * if the {@link #aggregatorPort} is set.
+	 */
+	public CoveragePush createCoveragePush(ExecutionDataStore store) {
+		List<String> classDirectories = classDirectoriesOrZips.stream().map(File::getAbsolutePath)
+				.collect(Collectors.toList());
+		return new CoveragePush(AggregationKey.of(teamscaleServer), classDirectories, jacocoIncludes, jacocoExcludes,
+				ignoreUncoveredClasses, store);
+	}
+
+	/** @see #metricsJmx */
+	public boolean shouldRegisterMetricsInJmx() {
+		return metricsJmx;
+	}
+
+	/** @see #uploadNewCoverageOnly */
+	public boolean shouldUploadNewCoverageOnly() {
+		return uploadNewCoverageOnly;
+	}
+
 	/** @see #ignoreUncoveredClasses */
 	public boolean shouldIgnoreUncoveredClasses() {
 		return ignoreUncoveredClasses;
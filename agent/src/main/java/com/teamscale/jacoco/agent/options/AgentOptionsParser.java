@@ -6,6 +6,7 @@
 package com.teamscale.jacoco.agent.options;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.teamscale.client.EReportFormat;
 import com.teamscale.client.HttpUtils;
 import com.teamscale.client.ProxySystemProperties;
 import com.teamscale.client.StringUtils;
@@ -14,6 +15,8 @@ import com.teamscale.jacoco.agent.commandline.Validator;
 import com.teamscale.jacoco.agent.configuration.AgentOptionReceiveException;
 import com.teamscale.jacoco.agent.configuration.ConfigurationViaTeamscale;
 import com.teamscale.jacoco.agent.options.sapnwdi.SapNwdiApplication;
+import com.teamscale.jacoco.agent.pipeline.EBackpressurePolicy;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
 import com.teamscale.jacoco.agent.upload.artifactory.ArtifactoryConfig;
 import com.teamscale.jacoco.agent.upload.azure.AzureFileStorageConfig;
 import com.teamscale.jacoco.agent.upload.teamscale.TeamscaleConfig;
@@ -32,9 +35,13 @@ import java.io.IOException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.teamscale.jacoco.agent.upload.artifactory.ArtifactoryConfig.ARTIFACTORY_GIT_PROPERTIES_COMMIT_DATE_FORMAT_OPTION;
 import static com.teamscale.jacoco.agent.upload.artifactory.ArtifactoryConfig.ARTIFACTORY_GIT_PROPERTIES_JAR_OPTION;
@@ -54,6 +61,9 @@ public class AgentOptionsParser {
 	/** Character which starts a comment in the config file. */
 	private static final String COMMENT_PREFIX = "#";
 
+	/** A number with an optional unit of seconds, minutes or hours. */
+	private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*([smhSMH])?");
+
 	/** The name of the option that enables debug logging. */
 	public static final String DEBUG = "debug";
 
@@ -324,11 +334,26 @@ public class AgentOptionsParser {
 				options.loggingConfig = parsePath(filePatternResolver, key, value);
 				return true;
 			case "interval":
-				options.dumpIntervalInMinutes = parseInt(key, value);
+				options.dumpInterval = parseDuration(key, value, ChronoUnit.MINUTES);
+				return true;
+			case "interval-jitter":
+				options.dumpIntervalJitter = parseDuration(key, value, ChronoUnit.SECONDS);
+				return true;
+			case "interval-backoff":
+				options.dumpIntervalBackoff = Boolean.parseBoolean(value);
+				return true;
+			case "dump-after-new-probes":
+				options.dumpAfterNewProbes = parseInt(key, value);
+				return true;
+			case "dump-max-cpu-load":
+				options.dumpMaxCpuLoad = parseInt(key, value);
 				return true;
 			case "validate-ssl":
 				options.validateSsl = Boolean.parseBoolean(value);
 				return true;
+			case "compress-requests":
+				options.compressRequests = Boolean.parseBoolean(value);
+				return true;
 			case "out":
 				options.setParentOutputDirectory(parsePath(filePatternResolver, key, value));
 				return true;
@@ -351,6 +376,75 @@ public class AgentOptionsParser {
 			case "dump-on-exit":
 				options.shouldDumpOnExit = Boolean.parseBoolean(value);
 				return true;
+			case "dump-pipeline":
+				options.useDumpPipeline = Boolean.parseBoolean(value);
+				return true;
+			case "dump-pipeline-queue-size":
+				options.dumpPipelineQueueSize = parseInt(key, value);
+				return true;
+			case "dump-pipeline-backpressure":
+				options.dumpPipelineBackpressure = parseEnumValue(key, value, EBackpressurePolicy.class);
+				return true;
+			case "snapshot-probes":
+				options.snapshotProbes = Boolean.parseBoolean(value);
+				return true;
+			case "deinstrument-covered-classes":
+				options.deinstrumentCoveredClasses = Boolean.parseBoolean(value);
+				return true;
+			case "aggregator-port":
+				options.aggregatorPort = parseInt(key, value);
+				return true;
+			case "aggregator-token-file":
+				options.aggregatorTokenFile = parsePath(filePatternResolver, key, value);
+				return true;
+			case "output-max-mb":
+				options.outputMaxMb = parseInt(key, value);
+				return true;
+			case "output-max-age":
+				options.outputMaxAge = parseDuration(key, value, ChronoUnit.HOURS);
+				return true;
+			case "spool-execution-data":
+				options.spoolExecutionData = Boolean.parseBoolean(value);
+				return true;
+			case "output-compress":
+				options.compressOutput = Boolean.parseBoolean(value);
+				return true;
+			case "output-compact":
+				options.compactOutput = Boolean.parseBoolean(value);
+				return true;
+			case "upload-retry-parallelism":
+				options.uploadRetryParallelism = parseInt(key, value);
+				return true;
+			case "upload-retry-max-per-minute":
+				options.uploadRetryMaxPerMinute = parseInt(key, value);
+				return true;
+			case "upload-retry-attempts":
+				options.uploadRetryAttempts = parseInt(key, value);
+				return true;
+			case "metrics-jmx":
+				options.metricsJmx = Boolean.parseBoolean(value);
+				return true;
+			case "upload-new-coverage-only":
+				options.uploadNewCoverageOnly = Boolean.parseBoolean(value);
+				return true;
+			case "report-format":
+				options.reportFormat = parseEnumValue(key, value, EReportFormat.class);
+				return true;
+			case "probes-cache-file":
+				options.probesCacheFile = parsePath(filePatternResolver, key, value);
+				return true;
+			case "instrumentation-cache-dir":
+				options.instrumentationCacheDirectory = parsePath(filePatternResolver, key, value);
+				return true;
+			case "instrumentation-cache-max-mb":
+				options.instrumentationCacheMaxMb = parseInt(key, value);
+				return true;
+			case "analyze-classes-in-background":
+				options.analyzeClassesInBackground = Boolean.parseBoolean(value);
+				return true;
+			case "upload-compression-threads":
+				options.uploadCompressionThreads = parseInt(key, value);
+				return true;
 			case "search-git-properties-recursively":
 				options.searchGitPropertiesRecursively = Boolean.parseBoolean(value);
 				return true;
@@ -391,6 +485,15 @@ public class AgentOptionsParser {
 			case "http-server-port":
 				options.httpServerPort = parseInt(key, value);
 				return true;
+			case "http-server-type":
+				options.httpServerType = parseEnumValue(key, value, EHttpServerType.class);
+				return true;
+			case "http-server-threads":
+				options.httpServerThreads = parseInt(key, value);
+				return true;
+			case "http-server-virtual-threads":
+				options.httpServerVirtualThreads = Boolean.parseBoolean(value);
+				return true;
 			case "sap-nwdi-applications":
 				options.sapNetWeaverJavaApplications = SapNwdiApplication.parseApplications(value);
 				return true;
@@ -414,6 +517,7 @@ public class AgentOptionsParser {
 		}
 		// Set ssl validation option in case it needs to be off before trying to reach Teamscale.
 		HttpUtils.setShouldValidateSsl(options.shouldValidateSsl());
+		HttpUtils.setShouldCompressRequests(options.shouldCompressRequests());
 		ConfigurationViaTeamscale configuration = ConfigurationViaTeamscale.retrieve(logger,
 				options.teamscaleServer.configId,
 				options.teamscaleServer.url,
@@ -497,6 +601,31 @@ public class AgentOptionsParser {
 		}
 	}
 
+	/**
+	 * Parses a duration like "90s", "15m" or "2h". Numbers without a unit are interpreted in the given default unit.
+	 */
+	private static Duration parseDuration(String key, String value, ChronoUnit defaultUnit)
+			throws AgentOptionParseException {
+		Matcher matcher = DURATION_PATTERN.matcher(value.trim());
+		if (!matcher.matches()) {
+			throw new AgentOptionParseException(
+					"Invalid duration for option `" + key + "`: " + value + ". Expected e.g. 30s, 15m or 2h.");
+		}
+		long amount = Long.parseLong(matcher.group(1));
+		String unit = matcher.group(2);
+		if (unit == null) {
+			return Duration.of(amount, defaultUnit);
+		}
+		switch (unit.toLowerCase()) {
+			case "s":
+				return Duration.ofSeconds(amount);
+			case "m":
+				return Duration.ofMinutes(amount);
+			default:
+				return Duration.ofHours(amount);
+		}
+	}
+
 	/**
 	 * Interprets the given pattern as an Ant pattern and resolves it to one existing {@link Path}. If the given path is
 	 * relative, it is resolved relative to the current working directory. If more than one file matches the pattern,
@@ -5,8 +5,8 @@ import com.teamscale.jacoco.agent.upload.DelayedMultiUploaderBase;
 import com.teamscale.jacoco.agent.upload.IUploader;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 
@@ -22,8 +22,11 @@ public class DelayedSapNwdiMultiUploader extends DelayedMultiUploaderBase implem
 
 	private final BiFunction<CommitDescriptor, SapNwdiApplication, IUploader> uploaderFactory;
 
-	/** The wrapped uploader instances. */
-	private final Map<SapNwdiApplication, IUploader> uploaders = new HashMap<>();
+	/**
+	 * The wrapped uploader instances. Replaced while dumps upload to them whenever a redeployed application loads its
+	 * marker class again.
+	 */
+	private final Map<SapNwdiApplication, IUploader> uploaders = new ConcurrentHashMap<>();
 
 	/**
 	 * Visible for testing. Allows tests to control the {@link Executor} to test the asynchronous functionality of this
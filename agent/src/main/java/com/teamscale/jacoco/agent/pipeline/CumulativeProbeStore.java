@@ -0,0 +1,112 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the probes of all dumps and remembers which of them have already been uploaded. This allows to upload
+ * only the classes that gained new probe hits since the last upload and to skip uploads entirely if nothing new was
+ * covered.
+ * <p>
+ * Teamscale merges all uploads to the same partition and commit, so uploading only these classes yields the same
+ * coverage as uploading everything. Classes are uploaded with their accumulated probes, so coverage of a failed
+ * conversion is contained in the next delta.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class CumulativeProbeStore {
+
+	/** The probes of all dumps added since the last {@link #clear()}. */
+	private ExecutionDataStore collectedProbes = new ExecutionDataStore();
+
+	/** The probes that have been uploaded so far, by class ID. */
+	private final Map<Long, boolean[]> uploadedProbes = new HashMap<>();
+
+	/** The session info of the most recently added dump. */
+	private SessionInfo latestSessionInfo;
+
+	/** Adds the probes of the given dump. */
+	public synchronized void add(Dump dump) {
+		for (ExecutionData data : dump.getStore().getContents()) {
+			collectedProbes.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+		}
+		latestSessionInfo = dump.getInfo();
+	}
+
+	/**
+	 * Returns a dump with the accumulated probes of all classes that have probe hits which have not been uploaded yet
+	 * or <code>null</code> if there are no such classes. The returned dump does not share any state with this store.
+	 * Call {@link #markUploaded(Dump)} once it has been handed over for upload.
+	 */
+	public synchronized Dump getNewCoverage() {
+		ExecutionDataStore newCoverage = new ExecutionDataStore();
+		for (ExecutionData data : collectedProbes.getContents()) {
+			if (hasNewHits(data.getProbes(), uploadedProbes.get(data.getId()))) {
+				newCoverage.put(new ExecutionData(data.getId(), data.getName(), data.getProbes().clone()));
+			}
+		}
+		if (newCoverage.getContents().isEmpty()) {
+			return null;
+		}
+		return new Dump(latestSessionInfo, newCoverage);
+	}
+
+	/** Remembers the probes of the given dump as uploaded. */
+	public synchronized void markUploaded(Dump dump) {
+		for (ExecutionData data : dump.getStore().getContents()) {
+			boolean[] probes = data.getProbes();
+			boolean[] uploaded = uploadedProbes.get(data.getId());
+			if (uploaded == null || uploaded.length != probes.length) {
+				uploadedProbes.put(data.getId(), probes.clone());
+				continue;
+			}
+			for (int i = 0; i < probes.length; i++) {
+				uploaded[i] |= probes[i];
+			}
+		}
+	}
+
+	/**
+	 * Forgets all collected and uploaded probes. Must be called when the upload target changes, since the new target
+	 * has not received any coverage yet.
+	 */
+	public synchronized void clear() {
+		collectedProbes = new ExecutionDataStore();
+		uploadedProbes.clear();
+		latestSessionInfo = null;
+	}
+
+	/** Returns the number of bytes taken by the probes held by this store, not counting object overhead. */
+	public synchronized long estimateRetainedBytes() {
+		long bytes = 0;
+		for (ExecutionData data : collectedProbes.getContents()) {
+			bytes += data.getProbes().length;
+		}
+		for (boolean[] probes : uploadedProbes.values()) {
+			bytes += probes.length;
+		}
+		return bytes;
+	}
+
+	private static boolean hasNewHits(boolean[] probes, boolean[] uploaded) {
+		if (uploaded == null || uploaded.length != probes.length) {
+			for (boolean probe : probes) {
+				if (probe) {
+					return true;
+				}
+			}
+			return false;
+		}
+		for (int i = 0; i < probes.length; i++) {
+			if (probes[i] && !uploaded[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,335 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Splits dumping coverage into three stages: taking a snapshot of the execution data, converting it into a report and
+ * uploading the report. The snapshot is taken on the calling thread, conversion and upload each run on their own
+ * background thread. This way, a slow upload neither delays the next dump nor competes with the conversion.
+ * <p>
+ * Between the stages are bounded queues. If the upload queue is full, the conversion thread waits, so the backpressure
+ * ends up at the queue of pending dumps, where the configured {@link EBackpressurePolicy} decides what happens to a
+ * new dump.
+ * <p>
+ * All stage functions are expected to handle and log their own errors. The snapshot and conversion functions may
+ * return <code>null</code> to indicate that there is nothing to process further.
+ */
+public class DumpPipeline {
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** Takes a snapshot of the current execution data. */
+	private final Supplier<Dump> snapshotStage;
+
+	/** Converts a snapshot into a report. */
+	private final Function<Dump, CoverageFile> convertStage;
+
+	/** Uploads a report. */
+	private final Consumer<CoverageFile> uploadStage;
+
+	/** Maximum number of pending dumps. */
+	private final int queueSize;
+
+	/** What to do with new dumps if {@link #pendingDumps} is full. */
+	private final EBackpressurePolicy backpressurePolicy;
+
+	/** Dumps that have not been converted yet. Guarded by itself. */
+	private final Deque<PendingItem<Dump>> pendingDumps = new ArrayDeque<>();
+
+	/** Reports that have not been uploaded yet. */
+	private final BlockingQueue<PendingItem<CoverageFile>> pendingReports;
+
+	/** Runs the conversion stage. */
+	private final ExecutorService convertExecutor = Executors.newSingleThreadExecutor(
+			new DaemonThreadFactory(DumpPipeline.class, "convert thread"));
+
+	/** Runs the upload stage. */
+	private final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor(
+			new DaemonThreadFactory(DumpPipeline.class, "upload thread"));
+
+	/** Latency of the snapshot stage. */
+	private final StageLatency snapshotLatency = new StageLatency("snapshot");
+
+	/** Latency of the conversion stage. */
+	private final StageLatency convertLatency = new StageLatency("convert");
+
+	/** Latency of the upload stage. */
+	private final StageLatency uploadLatency = new StageLatency("upload");
+
+	/** Whether {@link #close()} was called. Guarded by {@link #pendingDumps}. */
+	private boolean closed = false;
+
+	/** Constructor. Starts the background threads. */
+	public DumpPipeline(Supplier<Dump> snapshotStage, Function<Dump, CoverageFile> convertStage,
+			Consumer<CoverageFile> uploadStage, int queueSize, EBackpressurePolicy backpressurePolicy) {
+		this.snapshotStage = snapshotStage;
+		this.convertStage = convertStage;
+		this.uploadStage = uploadStage;
+		this.queueSize = queueSize;
+		this.backpressurePolicy = backpressurePolicy;
+		this.pendingReports = new ArrayBlockingQueue<>(queueSize);
+		convertExecutor.execute(this::runConvertStage);
+		uploadExecutor.execute(this::runUploadStage);
+	}
+
+	/**
+	 * Takes a snapshot on the calling thread and hands it to the background stages.
+	 *
+	 * @return a future that completes once the snapshot has been uploaded, discarded or failed to be processed.
+	 */
+	public CompletableFuture<Void> dump() {
+		long start = System.nanoTime();
+		Dump dump = snapshotStage.get();
+		snapshotLatency.recordSince(start);
+		if (dump == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return enqueue(dump);
+	}
+
+	/**
+	 * Takes a snapshot and waits until it has been processed by all stages. Use this if subsequent actions must not
+	 * happen before the coverage recorded so far has been uploaded, e.g. changing the upload target.
+	 */
+	public void dumpAndWait() throws InterruptedException {
+		CompletableFuture<Void> completion = dump();
+		try {
+			completion.get();
+		} catch (ExecutionException e) {
+			// never completed exceptionally
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private CompletableFuture<Void> enqueue(Dump dump) {
+		PendingItem<Dump> newItem = new PendingItem<>(dump);
+		synchronized (pendingDumps) {
+			if (closed) {
+				logger.warn("Dump pipeline is already shut down. Discarding dump.");
+				newItem.complete();
+				return newItem.completion;
+			}
+			if (pendingDumps.size() >= queueSize) {
+				switch (backpressurePolicy) {
+					case DROP_OLDEST:
+						PendingItem<Dump> droppedItem = pendingDumps.removeFirst();
+						logger.warn("Coverage conversion and upload cannot keep up with the dump interval. " +
+								"Discarding the oldest pending dump. Pipeline latencies: {}", describeLatencies());
+						droppedItem.complete();
+						break;
+					case MERGE:
+						PendingItem<Dump> newestItem = pendingDumps.getLast();
+						logger.debug("Merging dump into the newest pending dump");
+						newestItem.payload = merge(newestItem.payload, dump);
+						newestItem.completions.add(newItem.completion);
+						return newItem.completion;
+					case BLOCK:
+						waitForCapacity();
+						if (closed) {
+							newItem.complete();
+							return newItem.completion;
+						}
+						break;
+					default:
+						throw new IllegalStateException("Unhandled backpressure policy " + backpressurePolicy);
+				}
+			}
+			pendingDumps.addLast(newItem);
+			pendingDumps.notifyAll();
+		}
+		return newItem.completion;
+	}
+
+	/** Blocks until there is room in {@link #pendingDumps}. Must be called while holding its lock. */
+	private void waitForCapacity() {
+		boolean interrupted = false;
+		while (pendingDumps.size() >= queueSize && !closed) {
+			try {
+				pendingDumps.wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Merges the newer dump into the older one. The older dump's store is reused. */
+	private static Dump merge(Dump olderDump, Dump newerDump) {
+		ExecutionDataStore store = olderDump.getStore();
+		for (ExecutionData data : newerDump.getStore().getContents()) {
+			store.put(data);
+		}
+		SessionInfo olderInfo = olderDump.getInfo();
+		SessionInfo newerInfo = newerDump.getInfo();
+		return new Dump(new SessionInfo(newerInfo.getId(), olderInfo.getStartTimeStamp(),
+				newerInfo.getDumpTimeStamp()), store);
+	}
+
+	private void runConvertStage() {
+		while (true) {
+			PendingItem<Dump> item;
+			synchronized (pendingDumps) {
+				while (pendingDumps.isEmpty() && !closed) {
+					try {
+						pendingDumps.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pendingDumps.isEmpty()) {
+					break;
+				}
+				item = pendingDumps.removeFirst();
+				pendingDumps.notifyAll();
+			}
+
+			CoverageFile coverageFile = null;
+			long start = System.nanoTime();
+			try {
+				coverageFile = convertStage.apply(item.payload);
+			} catch (Throwable t) {
+				// we want to catch anything in order to keep the pipeline alive
+				logger.error("Converting the dump failed with an exception", t);
+			} finally {
+				convertLatency.recordSince(start);
+			}
+
+			if (coverageFile == null) {
+				item.complete();
+				continue;
+			}
+			try {
+				pendingReports.put(item.withPayload(coverageFile));
+			} catch (InterruptedException e) {
+				item.complete();
+				return;
+			}
+		}
+
+		try {
+			pendingReports.put(PendingItem.endOfStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runUploadStage() {
+		while (true) {
+			PendingItem<CoverageFile> item;
+			try {
+				item = pendingReports.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (item.payload == null) {
+				return;
+			}
+
+			long start = System.nanoTime();
+			try {
+				uploadStage.accept(item.payload);
+			} catch (Throwable t) {
+				// we want to catch anything in order to keep the pipeline alive
+				logger.error("Uploading the report failed with an exception", t);
+			} finally {
+				uploadLatency.recordSince(start);
+				item.complete();
+			}
+			logger.debug("Dump pipeline latencies: {}", describeLatencies());
+		}
+	}
+
+	/** Processes all pending dumps and stops the background threads afterwards. */
+	public void close() {
+		synchronized (pendingDumps) {
+			closed = true;
+			pendingDumps.notifyAll();
+		}
+		convertExecutor.shutdown();
+		uploadExecutor.shutdown();
+		try {
+			convertExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			uploadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for pending coverage uploads to finish", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Returns the latency counters of the snapshot, convert and upload stage. */
+	public List<StageLatency> getLatencies() {
+		return Arrays.asList(snapshotLatency, convertLatency, uploadLatency);
+	}
+
+	private String describeLatencies() {
+		List<String> descriptions = new ArrayList<>();
+		for (StageLatency latency : getLatencies()) {
+			descriptions.add(latency.toString());
+		}
+		return String.join("; ", descriptions);
+	}
+
+	/** An item in one of the pipeline's queues together with the futures to complete once it is done. */
+	private static class PendingItem<T> {
+
+		/** The dump or report. <code>null</code> marks the end of the stream. */
+		private T payload;
+
+		/** The future returned for this item. */
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+		/** All futures to complete once this item is done, including the ones of dumps merged into it. */
+		private final List<CompletableFuture<Void>> completions;
+
+		private PendingItem(T payload) {
+			this.payload = payload;
+			this.completions = new ArrayList<>();
+			this.completions.add(completion);
+		}
+
+		private PendingItem(T payload, List<CompletableFuture<Void>> completions) {
+			this.payload = payload;
+			this.completions = completions;
+		}
+
+		/** Returns an item for the next stage that completes the same futures. */
+		private <U> PendingItem<U> withPayload(U newPayload) {
+			return new PendingItem<>(newPayload, completions);
+		}
+
+		private static <U> PendingItem<U> endOfStream() {
+			return new PendingItem<>(null, new ArrayList<>());
+		}
+
+		private void complete() {
+			for (CompletableFuture<Void> future : completions) {
+				future.complete(null);
+			}
+		}
+	}
+}
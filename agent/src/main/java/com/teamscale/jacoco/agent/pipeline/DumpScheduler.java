@@ -0,0 +1,233 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.options.AgentOptions;
+import com.teamscale.jacoco.agent.util.Timer;
+import org.slf4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when coverage is dumped in intervals. In addition to a plain interval, this supports
+ * <ul>
+ * <li>a random jitter that is added to every interval, so that JVMs that were started together quickly stop dumping
+ * and uploading at the same time,</li>
+ * <li>dumping early once a given number of probes has been hit since the last dump,</li>
+ * <li>backing off up to {@link #MAX_BACKOFF_FACTOR} times the interval while nothing is covered, in which case dumps
+ * are skipped, and</li>
+ * <li>postponing dumps by up to half an interval while the CPU load of the process is high, since converting the dump
+ * competes with the application for CPU time.</li>
+ * </ul>
+ * The schedule is evaluated every {@link #TICK} on a daemon thread.
+ */
+public class DumpScheduler {
+
+	/** How often the schedule is evaluated. */
+	private static final Duration TICK = Duration.ofSeconds(1);
+
+	/** How often the hit probes are counted, since this requires a pass over all probes. */
+	/* package */ static final Duration ACTIVITY_CHECK_INTERVAL = Duration.ofSeconds(10);
+
+	/** The maximum factor by which the interval is extended while nothing is covered. */
+	/* package */ static final int MAX_BACKOFF_FACTOR = 8;
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** The configured interval between two dumps. */
+	private final long intervalNanos;
+
+	/** The maximum random delay added to each interval. */
+	private final long jitterNanos;
+
+	/** Whether to extend the interval while nothing is covered. */
+	private final boolean backoff;
+
+	/** The number of hit probes after which coverage is dumped early or 0 to disable this. */
+	private final int dumpAfterNewProbes;
+
+	/** The CPU load in percent above which dumps are postponed or 0 to disable this. */
+	private final int maxCpuLoad;
+
+	/** Dumps coverage. Expected to handle and log its own errors. */
+	private final Runnable dump;
+
+	/**
+	 * Counts the probes hit since the last dump. May return a negative number if the count is unknown, in which case
+	 * coverage is assumed.
+	 */
+	private final IntSupplier hitProbesCounter;
+
+	/** Returns the CPU load of the process between 0 and 1 or a negative number if it is not available. */
+	private final DoubleSupplier cpuLoad;
+
+	/** Returns the current time in nanoseconds. */
+	private final LongSupplier nanoTime;
+
+	private final Random random;
+
+	/** The current interval, which is longer than {@link #intervalNanos} while backing off. */
+	private long currentIntervalNanos;
+
+	/** When the next regular dump is due. */
+	private long nextDumpNanos;
+
+	/** When the hit probes are counted next. */
+	private long nextActivityCheckNanos;
+
+	/** Whether a dump is due but was postponed. */
+	private boolean isDumpDue = false;
+
+	/** Since when a postponed dump is due. */
+	private long dumpDueSinceNanos;
+
+	/** Evaluates the schedule regularly once started. */
+	private Timer timer;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dump             Dumps coverage. Expected to handle and log its own errors.
+	 * @param hitProbesCounter Counts the probes hit since the last dump or returns a negative number if this fails.
+	 */
+	public DumpScheduler(AgentOptions options, Runnable dump, IntSupplier hitProbesCounter) {
+		this(options.getDumpInterval(), options.getDumpIntervalJitter(), options.shouldBackOffDumpInterval(),
+				options.getDumpAfterNewProbes(), options.getDumpMaxCpuLoad(), dump, hitProbesCounter,
+				DumpScheduler::getProcessCpuLoad, System::nanoTime, new Random());
+	}
+
+	/** Constructor for tests. */
+	/* package */ DumpScheduler(Duration interval, Duration jitter, boolean backoff, int dumpAfterNewProbes,
+			int maxCpuLoad, Runnable dump, IntSupplier hitProbesCounter, DoubleSupplier cpuLoad,
+			LongSupplier nanoTime, Random random) {
+		this.intervalNanos = interval.toNanos();
+		this.jitterNanos = jitter.toNanos();
+		this.backoff = backoff;
+		this.dumpAfterNewProbes = dumpAfterNewProbes;
+		this.maxCpuLoad = maxCpuLoad;
+		this.dump = dump;
+		this.hitProbesCounter = hitProbesCounter;
+		this.cpuLoad = cpuLoad;
+		this.nanoTime = nanoTime;
+		this.random = random;
+
+		long now = nanoTime.getAsLong();
+		currentIntervalNanos = intervalNanos;
+		nextDumpNanos = now + intervalNanos + randomJitterNanos();
+		nextActivityCheckNanos = now + ACTIVITY_CHECK_INTERVAL.toNanos();
+	}
+
+	/** Starts evaluating the schedule in the background. */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		timer = new Timer(this::tickSafely, TICK);
+		timer.start();
+		logger.info("Dumping every {} seconds{}.", Duration.ofNanos(intervalNanos).getSeconds(), describeOptions());
+	}
+
+	private String describeOptions() {
+		StringBuilder description = new StringBuilder();
+		if (jitterNanos > 0) {
+			description.append(", delayed randomly by up to ").append(Duration.ofNanos(jitterNanos).getSeconds())
+					.append(" seconds");
+		}
+		if (dumpAfterNewProbes > 0) {
+			description.append(", early after ").append(dumpAfterNewProbes).append(" probe hits");
+		}
+		if (backoff) {
+			description.append(", less often while nothing is covered");
+		}
+		if (maxCpuLoad > 0) {
+			description.append(", postponed while the CPU load is above ").append(maxCpuLoad).append("%");
+		}
+		return description.toString();
+	}
+
+	/** Stops evaluating the schedule. A dump that is currently running is not aborted. */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.stop();
+			timer = null;
+		}
+	}
+
+	/** The {@link Timer} aborts on exceptions, so they must not escape. */
+	private void tickSafely() {
+		try {
+			tick();
+		} catch (Throwable t) {
+			logger.error("Evaluating the dump schedule failed", t);
+		}
+	}
+
+	/** Dumps coverage if this is due according to the schedule. */
+	/* package */ synchronized void tick() {
+		long now = nanoTime.getAsLong();
+		if (!isDumpDue) {
+			if (now - nextDumpNanos < 0 && !hasEnoughNewProbes(now)) {
+				return;
+			}
+			isDumpDue = true;
+			dumpDueSinceNanos = now;
+		}
+
+		if (isCpuBusy() && now - dumpDueSinceNanos < intervalNanos / 2) {
+			return;
+		}
+		isDumpDue = false;
+
+		if (!backoff || hitProbesCounter.getAsInt() != 0) {
+			currentIntervalNanos = intervalNanos;
+			dump.run();
+		} else {
+			currentIntervalNanos = Math.min(currentIntervalNanos * 2, intervalNanos * MAX_BACKOFF_FACTOR);
+			logger.debug("Nothing was covered since the last dump. Skipping the dump and waiting {} seconds.",
+					Duration.ofNanos(currentIntervalNanos).getSeconds());
+		}
+
+		now = nanoTime.getAsLong();
+		nextDumpNanos = now + currentIntervalNanos + randomJitterNanos();
+		nextActivityCheckNanos = now + ACTIVITY_CHECK_INTERVAL.toNanos();
+	}
+
+	/** Whether enough probes have been hit to dump early. Counts the probes at most every activity check interval. */
+	private boolean hasEnoughNewProbes(long now) {
+		if (dumpAfterNewProbes <= 0 || now - nextActivityCheckNanos < 0) {
+			return false;
+		}
+		nextActivityCheckNanos = now + ACTIVITY_CHECK_INTERVAL.toNanos();
+		int hitProbes = hitProbesCounter.getAsInt();
+		if (hitProbes < dumpAfterNewProbes) {
+			return false;
+		}
+		logger.debug("{} probes were hit since the last dump. Dumping early.", hitProbes);
+		return true;
+	}
+
+	private boolean isCpuBusy() {
+		return maxCpuLoad > 0 && cpuLoad.getAsDouble() * 100 > maxCpuLoad;
+	}
+
+	private long randomJitterNanos() {
+		if (jitterNanos <= 0) {
+			return 0;
+		}
+		return (long) (random.nextDouble() * jitterNanos);
+	}
+
+	/** Returns the CPU load of this process or a negative number if the JVM does not provide it. */
+	private static double getProcessCpuLoad() {
+		OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuLoad();
+		}
+		return -1;
+	}
+}
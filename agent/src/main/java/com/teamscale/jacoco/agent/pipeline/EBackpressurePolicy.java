@@ -0,0 +1,14 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+/** Decides what the {@link DumpPipeline} does with a new dump if its queue of pending dumps is full. */
+public enum EBackpressurePolicy {
+
+	/** Discards the oldest pending dump to make room for the new one. The coverage of the discarded dump is lost. */
+	DROP_OLDEST,
+
+	/** Merges the new dump into the newest pending dump. No coverage is lost, but it is uploaded as one report. */
+	MERGE,
+
+	/** Blocks the dumping thread until the pipeline has processed a pending dump. */
+	BLOCK
+}
@@ -0,0 +1,71 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Thread-safe latency counters for a single stage of the {@link DumpPipeline}. */
+public class StageLatency {
+
+	/** Human-readable name of the stage. */
+	private final String stageName;
+
+	/** How often the stage ran. */
+	private final AtomicLong count = new AtomicLong();
+
+	/** Sum of all measured durations in nanoseconds. */
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	/** Longest measured duration in nanoseconds. */
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/** Most recently measured duration in nanoseconds. */
+	private final AtomicLong lastNanos = new AtomicLong();
+
+	/** Constructor. */
+	public StageLatency(String stageName) {
+		this.stageName = stageName;
+	}
+
+	/** Records a run of the stage that started at the given {@link System#nanoTime()}. */
+	public void recordSince(long startNanos) {
+		long duration = System.nanoTime() - startNanos;
+		count.incrementAndGet();
+		totalNanos.addAndGet(duration);
+		lastNanos.set(duration);
+		maxNanos.accumulateAndGet(duration, Math::max);
+	}
+
+	/** @see #stageName */
+	public String getStageName() {
+		return stageName;
+	}
+
+	/** @see #count */
+	public long getCount() {
+		return count.get();
+	}
+
+	/** @see #totalNanos */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/** @see #maxNanos */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/** @see #lastNanos */
+	public long getLastNanos() {
+		return lastNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		long runs = count.get();
+		long averageMillis = runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / runs);
+		return stageName + ": " + runs + " runs, last " + TimeUnit.NANOSECONDS.toMillis(
+				lastNanos.get()) + "ms, avg " + averageMillis + "ms, max " + TimeUnit.NANOSECONDS.toMillis(
+				maxNanos.get()) + "ms";
+	}
+}
@@ -0,0 +1,11 @@
+package com.teamscale.jacoco.agent.server;
+
+/** The implementations of the {@link IControlServer}. */
+public enum EHttpServerType {
+
+	/** Jetty with Jersey, see {@link JettyControlServer}. */
+	JETTY,
+
+	/** The HTTP server built into the JDK, see {@link JdkControlServer}. */
+	JDK
+}
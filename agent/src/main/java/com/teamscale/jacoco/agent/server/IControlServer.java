@@ -0,0 +1,8 @@
+package com.teamscale.jacoco.agent.server;
+
+/** The HTTP server that allows to control the agent, e.g. to change the partition or to dump coverage. */
+public interface IControlServer {
+
+	/** Stops the server and releases its port and threads. */
+	void stop() throws Exception;
+}
@@ -0,0 +1,183 @@
+package com.teamscale.jacoco.agent.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.teamscale.jacoco.agent.ResourceBase;
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the endpoints of a {@link ResourceBase} with the HTTP server built into the JDK. Compared to the
+ * {@link JettyControlServer}, this starts faster and needs less metaspace and fewer threads, since neither Jetty nor
+ * Jersey with its dependency injection are loaded.
+ * <p>
+ * The JAX-RS annotations of the resource are evaluated directly, see {@link ResourceRoute} for the supported subset.
+ * Responses mirror those of Jersey with the {@link com.teamscale.jacoco.agent.GenericExceptionMapper}, i.e. methods
+ * without a result answer with status 204 and all exceptions result in status 500 with the exception message as plain
+ * text. The resources must not create a JAX-RS <code>Response</code> or <code>WebApplicationException</code>, since
+ * that looks up the JAX-RS <code>RuntimeDelegate</code>, which loads Jersey.
+ */
+public class JdkControlServer implements IControlServer {
+
+	private static final String TEXT_PLAIN = "text/plain; charset=UTF-8";
+
+	private static final String APPLICATION_JSON = "application/json";
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** Reads and writes JSON like the Jackson provider of Jersey does, e.g. including null values. */
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final List<ResourceRoute> routes;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private JdkControlServer(List<ResourceRoute> routes, HttpServer server, ExecutorService executor) {
+		this.routes = routes;
+		this.server = server;
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts a server on the given port that serves the endpoints of the given resource.
+	 *
+	 * @param threads        The number of threads handling requests.
+	 * @param virtualThreads Whether to handle each request in a new virtual thread instead. Falls back to the given
+	 *                       number of threads on JVMs older than Java 21.
+	 */
+	public static JdkControlServer start(int port, ResourceBase resource, int threads,
+			boolean virtualThreads) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		ExecutorService executor = createExecutor(threads, virtualThreads);
+		server.setExecutor(executor);
+		JdkControlServer controlServer = new JdkControlServer(ResourceRoute.findRoutes(resource), server, executor);
+		server.createContext("/", controlServer::handle);
+		startOnDaemonThread(server);
+		return controlServer;
+	}
+
+	private static ExecutorService createExecutor(int threads, boolean virtualThreads) {
+		if (virtualThreads) {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				LoggingUtils.getLogger(JdkControlServer.class).warn(
+						"Virtual threads require Java 21 or newer. The HTTP server uses {} threads instead.", threads);
+			}
+		}
+		return Executors.newFixedThreadPool(threads, new DaemonThreadFactory(JdkControlServer.class, "request thread"));
+	}
+
+	/**
+	 * The dispatcher thread of the server inherits whether it is a daemon from the thread that starts the server. Like
+	 * the threads of Jetty, it must not prevent the JVM from terminating.
+	 */
+	private static void startOnDaemonThread(HttpServer server) throws IOException {
+		Thread thread = new DaemonThreadFactory(JdkControlServer.class, "start thread").newThread(server::start);
+		thread.start();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while starting the HTTP server", e);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String[] path = ResourceRoute.splitPath(exchange.getRequestURI().getRawPath());
+			boolean isPathKnown = false;
+			for (ResourceRoute route : routes) {
+				Map<String, String> pathParameters = route.match(path);
+				if (pathParameters == null) {
+					continue;
+				}
+				isPathKnown = true;
+				if (route.getHttpMethod().equals(exchange.getRequestMethod())) {
+					handle(exchange, route, pathParameters);
+					return;
+				}
+			}
+			if (isPathKnown) {
+				send(exchange, 405, TEXT_PLAIN, "Method not allowed");
+			} else {
+				send(exchange, 404, TEXT_PLAIN, "Not found");
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handle(HttpExchange exchange, ResourceRoute route, Map<String, String> pathParameters)
+			throws IOException {
+		Object result;
+		try {
+			result = route.invoke(pathParameters, UrlEncoding.decodeQuery(exchange.getRequestURI().getRawQuery()),
+					readBody(exchange), objectMapper);
+		} catch (InvocationTargetException e) {
+			send(exchange, 500, TEXT_PLAIN, "Message: " + e.getCause().getMessage());
+			return;
+		} catch (Exception e) {
+			logger.error("Failed to handle {} request for {}", exchange.getRequestMethod(), exchange.getRequestURI(),
+					e);
+			send(exchange, 500, TEXT_PLAIN, "Message: " + e.getMessage());
+			return;
+		}
+
+		if (result == null) {
+			send(exchange, 204, null, null);
+			return;
+		}
+		String mediaType = route.getProducedMediaType();
+		if (result instanceof String) {
+			send(exchange, 200, mediaType == null ? TEXT_PLAIN : mediaType, (String) result);
+		} else {
+			send(exchange, 200, mediaType == null ? APPLICATION_JSON : mediaType,
+					objectMapper.writeValueAsString(result));
+		}
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (InputStream input = exchange.getRequestBody()) {
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = input.read(buffer)) != -1) {
+				body.write(buffer, 0, length);
+			}
+		}
+		return body.toByteArray();
+	}
+
+	private static void send(HttpExchange exchange, int status, String mediaType, String body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", mediaType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	@Override
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
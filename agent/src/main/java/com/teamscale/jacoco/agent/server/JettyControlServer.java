@@ -0,0 +1,54 @@
+package com.teamscale.jacoco.agent.server;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+/** Serves the resources of the agent with Jetty and Jersey. */
+public class JettyControlServer implements IControlServer {
+
+	private final Server server;
+
+	private JettyControlServer(Server server) {
+		this.server = server;
+	}
+
+	/** Starts a server on the given port that serves the resources of the given {@link ResourceConfig}. */
+	public static JettyControlServer start(int port, ResourceConfig resourceConfig) throws Exception {
+		// Jersey Implementation
+		ServletContextHandler handler = buildUsingResourceConfig(resourceConfig);
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		threadPool.setMaxThreads(10);
+		threadPool.setDaemon(true);
+
+		// Create a server instance and set the thread pool
+		Server server = new Server(threadPool);
+		// Create a server connector, set the port and add it to the server
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(port);
+		server.addConnector(connector);
+		server.setHandler(handler);
+		server.start();
+		return new JettyControlServer(server);
+	}
+
+	private static ServletContextHandler buildUsingResourceConfig(ResourceConfig resourceConfig) {
+		ServletContextHandler handler = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		handler.setContextPath("/");
+		handler.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), "/*");
+		return handler;
+	}
+
+	@Override
+	public void stop() throws Exception {
+		try {
+			server.stop();
+		} finally {
+			server.destroy();
+		}
+	}
+}
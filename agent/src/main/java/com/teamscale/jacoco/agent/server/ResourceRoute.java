@@ -0,0 +1,167 @@
+package com.teamscale.jacoco.agent.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A resource method annotated with JAX-RS annotations, e.g. {@code @POST @Path("/test/start/{testId}")}. Supports
+ * {@link PathParam}s that span a whole path segment, {@link QueryParam}s with an optional {@link DefaultValue} and an
+ * unannotated parameter for the request body, which is either passed as string or deserialized from JSON.
+ */
+/* package */ class ResourceRoute {
+
+	private final Object resource;
+
+	private final Method method;
+
+	private final String httpMethod;
+
+	/** The segments of the path, where path parameters are given as "{name}". */
+	private final String[] pathTemplate;
+
+	private ResourceRoute(Object resource, Method method, String httpMethod, String path) {
+		this.resource = resource;
+		this.method = method;
+		this.httpMethod = httpMethod;
+		this.pathTemplate = splitPath(path);
+	}
+
+	/** Returns the routes of all resource methods of the given resource. */
+	public static List<ResourceRoute> findRoutes(Object resource) {
+		Path classPath = resource.getClass().getAnnotation(Path.class);
+		String basePath = classPath == null ? "" : classPath.value();
+		List<ResourceRoute> routes = new ArrayList<>();
+		for (Method method : resource.getClass().getMethods()) {
+			String httpMethod = getHttpMethod(method);
+			Path methodPath = method.getAnnotation(Path.class);
+			if (httpMethod == null || methodPath == null) {
+				continue;
+			}
+			routes.add(new ResourceRoute(resource, method, httpMethod, basePath + "/" + methodPath.value()));
+		}
+		return routes;
+	}
+
+	private static String getHttpMethod(Method method) {
+		for (Annotation annotation : method.getAnnotations()) {
+			HttpMethod httpMethod = annotation.annotationType().getAnnotation(HttpMethod.class);
+			if (httpMethod != null) {
+				return httpMethod.value();
+			}
+		}
+		return null;
+	}
+
+	/** Splits the given raw or template path into its non-empty segments. */
+	public static String[] splitPath(String path) {
+		List<String> segments = new ArrayList<>();
+		for (String segment : path.split("/")) {
+			if (!segment.isEmpty()) {
+				segments.add(segment);
+			}
+		}
+		return segments.toArray(new String[0]);
+	}
+
+	/** Returns the HTTP method of this route, e.g. "GET". */
+	public String getHttpMethod() {
+		return httpMethod;
+	}
+
+	/** Returns the media type declared via {@link Produces} or null. */
+	public String getProducedMediaType() {
+		Produces produces = method.getAnnotation(Produces.class);
+		if (produces == null || produces.value().length == 0) {
+			return null;
+		}
+		return produces.value()[0];
+	}
+
+	/**
+	 * Matches the given still encoded path segments against the path of this route and returns the decoded path
+	 * parameters or null if the path does not match.
+	 */
+	public Map<String, String> match(String[] rawPathSegments) {
+		if (rawPathSegments.length != pathTemplate.length) {
+			return null;
+		}
+		Map<String, String> pathParameters = new HashMap<>();
+		for (int i = 0; i < pathTemplate.length; i++) {
+			String templateSegment = pathTemplate[i];
+			if (templateSegment.startsWith("{") && templateSegment.endsWith("}")) {
+				pathParameters.put(templateSegment.substring(1, templateSegment.length() - 1),
+						UrlEncoding.decodePathSegment(rawPathSegments[i]));
+			} else if (!templateSegment.equals(UrlEncoding.decodePathSegment(rawPathSegments[i]))) {
+				return null;
+			}
+		}
+		return pathParameters;
+	}
+
+	/** Calls the resource method with the given parameters and returns its result. */
+	public Object invoke(Map<String, String> pathParameters, Map<String, String> queryParameters, byte[] body,
+			ObjectMapper objectMapper) throws Exception {
+		Parameter[] parameters = method.getParameters();
+		Object[] arguments = new Object[parameters.length];
+		for (int i = 0; i < parameters.length; i++) {
+			Parameter parameter = parameters[i];
+			PathParam pathParam = parameter.getAnnotation(PathParam.class);
+			QueryParam queryParam = parameter.getAnnotation(QueryParam.class);
+			if (pathParam != null) {
+				arguments[i] = convert(pathParameters.get(pathParam.value()), parameter.getType());
+			} else if (queryParam != null) {
+				String value = queryParameters.get(queryParam.value());
+				DefaultValue defaultValue = parameter.getAnnotation(DefaultValue.class);
+				if (value == null && defaultValue != null) {
+					value = defaultValue.value();
+				}
+				arguments[i] = convert(value, parameter.getType());
+			} else {
+				arguments[i] = readBody(body, parameter, objectMapper);
+			}
+		}
+		return method.invoke(resource, arguments);
+	}
+
+	private static Object readBody(byte[] body, Parameter parameter, ObjectMapper objectMapper) throws IOException {
+		if (parameter.getType() == String.class) {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+		if (body.length == 0) {
+			return null;
+		}
+		return objectMapper.readValue(body, objectMapper.getTypeFactory().constructType(
+				parameter.getParameterizedType()));
+	}
+
+	private static Object convert(String value, Class<?> type) {
+		if (type == boolean.class || type == Boolean.class) {
+			if (value == null) {
+				return type == boolean.class ? false : null;
+			}
+			return Boolean.parseBoolean(value);
+		}
+		if (type == int.class || type == Integer.class) {
+			if (value == null) {
+				return type == int.class ? 0 : null;
+			}
+			return Integer.parseInt(value);
+		}
+		return value;
+	}
+}
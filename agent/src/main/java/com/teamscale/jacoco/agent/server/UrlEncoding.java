@@ -0,0 +1,51 @@
+package com.teamscale.jacoco.agent.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Decodes the parts of request URIs. */
+/* package */ class UrlEncoding {
+
+	private UrlEncoding() {
+		// utility class
+	}
+
+	/**
+	 * Decodes a single segment of a path. In contrast to query parameters, a "+" stands for itself. Encoded slashes
+	 * are decoded as well, which allows path parameters like test IDs to contain slashes.
+	 */
+	public static String decodePathSegment(String segment) {
+		return decode(segment.replace("+", "%2B"));
+	}
+
+	/** Returns the decoded parameters of the given raw query string, which may be null. */
+	public static Map<String, String> decodeQuery(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+		for (String parameter : rawQuery.split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int separator = parameter.indexOf('=');
+			if (separator < 0) {
+				parameters.putIfAbsent(decode(parameter), "");
+			} else {
+				parameters.putIfAbsent(decode(parameter.substring(0, separator)),
+						decode(parameter.substring(separator + 1)));
+			}
+		}
+		return parameters;
+	}
+
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError("UTF-8 is always supported", e);
+		}
+	}
+}
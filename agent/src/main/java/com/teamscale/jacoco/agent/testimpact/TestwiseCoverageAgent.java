@@ -7,6 +7,7 @@ package com.teamscale.jacoco.agent.testimpact;
 
 import com.teamscale.jacoco.agent.AgentBase;
 import com.teamscale.jacoco.agent.GenericExceptionMapper;
+import com.teamscale.jacoco.agent.ResourceBase;
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.report.testwise.jacoco.JaCoCoTestwiseReportGenerator;
@@ -15,6 +16,7 @@ import org.glassfish.jersey.server.ServerProperties;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * A wrapper around the JaCoCo Java agent that starts a HTTP server and listens for test events.
@@ -29,9 +31,12 @@ public class TestwiseCoverageAgent extends AgentBase {
 	/** Creates a {@link TestwiseCoverageAgent} based on the given options. */
 	public static TestwiseCoverageAgent create(AgentOptions agentOptions) throws IOException {
 		Logger logger = LoggingUtils.getLogger(JaCoCoTestwiseReportGenerator.class);
+		Path probesCacheFile = agentOptions.getProbesCacheFile();
 		JaCoCoTestwiseReportGenerator reportGenerator = new JaCoCoTestwiseReportGenerator(
 				agentOptions.getClassDirectoriesOrZips(), agentOptions.getLocationIncludeFilter(),
-				agentOptions.getDuplicateClassFileBehavior(), LoggingUtils.wrap(logger));
+				agentOptions.getDuplicateClassFileBehavior(), LoggingUtils.wrap(logger),
+				probesCacheFile == null ? null : probesCacheFile.toFile(),
+				agentOptions.shouldAnalyzeClassesInBackground());
 		return new TestwiseCoverageAgent(agentOptions,
 				new TestExecutionWriter(agentOptions.createNewFileInOutputDirectory("test-execution", "json")),
 				reportGenerator);
@@ -68,6 +73,12 @@ public class TestwiseCoverageAgent extends AgentBase {
 		return resourceConfig.register(TestwiseCoverageResource.class).register(GenericExceptionMapper.class);
 	}
 
+	@Override
+	protected ResourceBase initResource() {
+		TestwiseCoverageResource.setAgent(this);
+		return new TestwiseCoverageResource();
+	}
+
 	@Override
 	public void dumpReport() {
 		// Dumping via the API is not supported in testwise mode. Ending the test run dumps automatically
@@ -11,7 +11,6 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
 
 import com.teamscale.client.ClusteredTestDetails;
 import com.teamscale.client.PrioritizableTestCluster;
@@ -52,7 +51,7 @@ public class TestwiseCoverageResource extends ResourceBase {
 	/** Handles the start of a new test case by setting the session ID. */
 	@POST
 	@Path("/test/start/{" + TEST_ID_PARAMETER + "}")
-	public Response handleTestStart(@PathParam(TEST_ID_PARAMETER) String testId) {
+	public void handleTestStart(@PathParam(TEST_ID_PARAMETER) String testId) {
 		if (testId == null || testId.isEmpty()) {
 			handleBadRequest("Test name is missing!");
 		}
@@ -60,7 +59,6 @@ public class TestwiseCoverageResource extends ResourceBase {
 		logger.debug("Start test " + testId);
 
 		testwiseCoverageAgent.testEventHandler.testStart(testId);
-		return Response.noContent().build();
 	}
 
 	/** Handles the end of a test case by resetting the session ID. */
@@ -99,9 +97,8 @@ public class TestwiseCoverageResource extends ResourceBase {
 	/** Handles the end of a new testrun. */
 	@POST
 	@Path("/testrun/end")
-	public Response handleTestRunEnd(
+	public void handleTestRunEnd(
 			@DefaultValue("false") @QueryParam("partial") boolean partial) throws IOException, CoverageGenerationException {
 		testwiseCoverageAgent.testEventHandler.testRunEnd(partial);
-		return Response.noContent().build();
 	}
 }
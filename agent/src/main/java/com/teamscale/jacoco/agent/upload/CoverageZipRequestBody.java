@@ -0,0 +1,145 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Request body with a zip of a coverage report and additional metadata files. The zip is compressed while the request
+ * is written, so neither a temporary zip file is needed nor are the metadata files read into memory.
+ * <p>
+ * The zip is created anew from the files on disk whenever the body is written, so OkHttp can retry the request and the
+ * report remains on disk for a later retry if the upload fails. Every time, the zip has the same content.
+ */
+public class CoverageZipRequestBody extends RequestBody {
+
+	/** Reports of at least this size are compressed in parallel if more than one compression thread is configured. */
+	/* package */ static final long PARALLEL_COMPRESSION_THRESHOLD = 16 * 1024 * 1024;
+
+	private static final MediaType ZIP = MediaType.parse("application/zip");
+
+	private final CoverageFile coverageFile;
+
+	/** The name of the coverage report in the zip. */
+	private final String coverageEntryName;
+
+	private final List<Path> additionalFiles;
+
+	private final int compressionThreads;
+
+	/** The modification time of all zip entries, so that the zip is identical each time. */
+	private final long entryTime = System.currentTimeMillis();
+
+	/** The length of the zip or -1 if it was not computed. */
+	private long contentLength = -1;
+
+	/** Constructor. */
+	public CoverageZipRequestBody(CoverageFile coverageFile, String coverageEntryName, List<Path> additionalFiles,
+			int compressionThreads) {
+		this.coverageFile = coverageFile;
+		this.coverageEntryName = coverageEntryName;
+		this.additionalFiles = additionalFiles;
+		this.compressionThreads = compressionThreads;
+	}
+
+	/** @see #coverageFile */
+	public CoverageFile getCoverageFile() {
+		return coverageFile;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return ZIP;
+	}
+
+	/** Returns the length of the zip if {@link #computeContentLength()} was called before, otherwise -1. */
+	@Override
+	public long contentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Computes the length of the zip by compressing it once without storing it. Only needed for APIs that require the
+	 * size up front. Otherwise, the request is sent with chunked transfer encoding.
+	 */
+	public long computeContentLength() throws IOException {
+		if (contentLength < 0) {
+			CountingOutputStream counter = new CountingOutputStream();
+			writeZip(counter);
+			contentLength = counter.count;
+		}
+		return contentLength;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		// The sink is closed by OkHttp, so the zip must only be finished
+		writeZip(sink.outputStream());
+		sink.flush();
+	}
+
+	private void writeZip(OutputStream outputStream) throws IOException {
+		if (compressionThreads > 1 && coverageFile.getLength() >= PARALLEL_COMPRESSION_THRESHOLD) {
+			ParallelDeflatingZipOutputStream zip = new ParallelDeflatingZipOutputStream(outputStream,
+					compressionThreads);
+			try {
+				writeEntries(zip, name -> zip.putNextEntry(name, entryTime));
+				zip.finish();
+			} finally {
+				zip.stopCompressionThreads();
+			}
+			return;
+		}
+
+		ZipOutputStream zip = new ZipOutputStream(outputStream);
+		writeEntries(zip, name -> {
+			ZipEntry entry = new ZipEntry(name);
+			entry.setTime(entryTime);
+			zip.putNextEntry(entry);
+		});
+		zip.finish();
+	}
+
+	private void writeEntries(OutputStream zip, IEntryStarter startEntry) throws IOException {
+		startEntry.start(coverageEntryName);
+		coverageFile.copyStream(zip);
+
+		for (Path additionalFile : additionalFiles) {
+			startEntry.start(additionalFile.getFileName().toString());
+			Files.copy(additionalFile, zip);
+		}
+	}
+
+	/** Starts a new zip entry. */
+	@FunctionalInterface
+	private interface IEntryStarter {
+
+		/** Starts a new entry with the given name. */
+		void start(String name) throws IOException;
+	}
+
+	/** Discards all data and only counts it. */
+	private static class CountingOutputStream extends OutputStream {
+
+		private long count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			count += length;
+		}
+	}
+}
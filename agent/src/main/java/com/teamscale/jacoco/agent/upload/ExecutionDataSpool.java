@@ -0,0 +1,120 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.EmptyReportException;
+import com.teamscale.report.jacoco.dump.Dump;
+import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.tools.ExecFileLoader;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+
+/**
+ * Keeps the execution data of reports whose upload failed instead of the reports themselves. The execution data is
+ * written next to each report before its upload. If the upload fails, the execution data takes over the upload retry
+ * marker and the report is deleted. The {@link UploadRetryWorker} merges all execution data waiting for the same
+ * upload and converts it into one report, so that a backlog of failed uploads needs only one conversion and one
+ * upload.
+ * <p>
+ * The execution data is converted with the class files at the time of the retry. Classes that changed in the meantime
+ * do not match the execution data anymore and are reported without coverage.
+ */
+public class ExecutionDataSpool {
+
+	/** The file extension of spooled execution data. */
+	public static final String EXECUTION_DATA_EXTENSION = ".exec";
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final IDumpConverter converter;
+
+	/** Constructor. */
+	public ExecutionDataSpool(IDumpConverter converter) {
+		this.converter = converter;
+	}
+
+	/** Writes the execution data of the given dump next to the report it was converted into. */
+	public void write(Dump dump, CoverageFile report) {
+		File executionDataFile = getExecutionDataFile(report.getFile());
+		try (OutputStream output = Files.newOutputStream(executionDataFile.toPath())) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(output);
+			writer.visitSessionInfo(dump.getInfo());
+			dump.getStore().accept(writer);
+		} catch (IOException e) {
+			logger.warn("Writing the execution data of {} failed. The report is kept if its upload fails.", report, e);
+			executionDataFile.delete();
+		}
+	}
+
+	/**
+	 * Replaces the given report by its execution data if the upload failed and marked the report for retry. Deletes
+	 * the execution data otherwise.
+	 */
+	public void replaceFailedUpload(CoverageFile report) {
+		File executionDataFile = getExecutionDataFile(report.getFile());
+		if (!executionDataFile.exists()) {
+			return;
+		}
+		File retryFile = getRetryFile(report.getFile());
+		try {
+			if (!retryFile.exists()) {
+				Files.delete(executionDataFile.toPath());
+				return;
+			}
+			SpoolManager.moveRetryFile(retryFile, getRetryFile(executionDataFile));
+			Files.delete(report.getFile().toPath());
+			logger.info("Kept the execution data {} instead of the report for the upload retry.", executionDataFile);
+		} catch (IOException e) {
+			logger.warn("Replacing the report {} by its execution data failed.", report, e);
+		}
+	}
+
+	/**
+	 * Merges the given execution data files and converts them into one report. The files are not modified.
+	 *
+	 * @throws EmptyReportException if the execution data does not cover any of the current classes.
+	 */
+	public CoverageFile convert(Collection<File> executionDataFiles)
+			throws IOException, EmptyReportException, CoverageGenerationException {
+		ExecFileLoader loader = new ExecFileLoader();
+		for (File executionDataFile : executionDataFiles) {
+			loader.load(executionDataFile);
+		}
+		Dump dump = new Dump(loader.getSessionInfoStore().getMerged("merged"), loader.getExecutionDataStore());
+		return converter.convert(dump);
+	}
+
+	/** Returns whether the given file contains spooled execution data. */
+	public static boolean isExecutionData(File file) {
+		return file.getName().endsWith(EXECUTION_DATA_EXTENSION);
+	}
+
+	private static File getExecutionDataFile(File report) {
+		String name = report.getName();
+		int extensionStart = name.lastIndexOf('.');
+		if (extensionStart > 0) {
+			name = name.substring(0, extensionStart);
+		}
+		return new File(report.getParentFile(), name + EXECUTION_DATA_EXTENSION);
+	}
+
+	private static File getRetryFile(File file) {
+		return new File(file.getPath() + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+
+	/** Converts the execution data of spooled dumps into a report. */
+	@FunctionalInterface
+	public interface IDumpConverter {
+
+		/** Writes the report of the given dump to a new file. */
+		CoverageFile convert(Dump dump) throws IOException, EmptyReportException, CoverageGenerationException;
+	}
+}
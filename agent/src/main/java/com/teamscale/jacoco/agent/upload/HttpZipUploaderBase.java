@@ -1,20 +1,16 @@
 package com.teamscale.jacoco.agent.upload;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
-import org.conqat.lib.commons.filesystem.FileSystemUtils;
 import org.slf4j.Logger;
 
+import com.teamscale.client.EReportFormat;
 import com.teamscale.client.HttpUtils;
 import com.teamscale.jacoco.agent.util.Benchmark;
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
 import com.teamscale.report.jacoco.CoverageFile;
 
 import okhttp3.HttpUrl;
@@ -23,7 +19,10 @@ import okhttp3.ResponseBody;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 
-/** Base class for uploading the coverage zip to a provided url */
+/**
+ * Base class for uploading the coverage zip to a provided url. The zip is compressed while it is uploaded, see
+ * {@link CoverageZipRequestBody}.
+ */
 public abstract class HttpZipUploaderBase<T> implements IUploader {
 
 	/** The logger. */
@@ -38,13 +37,18 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 	/** The API class. */
 	private final Class<T> apiClass;
 
+	/** The number of threads that compress large reports. */
+	private final int compressionThreads;
+
 	/** The API which performs the upload */
 	private T api;
 
 	/** Constructor. */
-	public HttpZipUploaderBase(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles, Class<T> apiClass) {
+	public HttpZipUploaderBase(HttpUrl uploadUrl, List<Path> additionalMetaDataFiles, int compressionThreads,
+			Class<T> apiClass) {
 		this.uploadUrl = uploadUrl;
 		this.additionalMetaDataFiles = additionalMetaDataFiles;
+		this.compressionThreads = compressionThreads;
 		this.apiClass = apiClass;
 	}
 
@@ -64,13 +68,17 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 	}
 
 	/** Uploads the coverage zip to the server */
-	protected abstract Response<ResponseBody> uploadCoverageZip(File coverageFile)
+	protected abstract Response<ResponseBody> uploadCoverageZip(CoverageZipRequestBody coverageZip)
 			throws IOException, UploaderException;
 
 	@Override
 	public void upload(CoverageFile coverageFile) {
 		try (Benchmark ignored = new Benchmark("Uploading report via HTTP")) {
-			if (tryUpload(coverageFile)) {
+			long startNanos = System.nanoTime();
+			long bytes = coverageFile.getLength();
+			boolean successful = tryUpload(coverageFile);
+			AgentMetrics.getInstance().recordUpload(startNanos, bytes, successful);
+			if (successful) {
 				coverageFile.delete();
 			} else {
 				logger.warn("Failed to upload coverage to Teamscale. "
@@ -89,16 +97,10 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 	protected boolean tryUpload(CoverageFile coverageFile) {
 		logger.debug("Uploading coverage to {}", uploadUrl);
 
-		File zipFile;
+		CoverageZipRequestBody coverageZip = new CoverageZipRequestBody(coverageFile,
+				getZipEntryCoverageFileName(coverageFile), additionalMetaDataFiles, compressionThreads);
 		try {
-			zipFile = createZipFile(coverageFile);
-		} catch (IOException e) {
-			logger.error("Failed to compile coverage zip file for upload to {}", uploadUrl, e);
-			return false;
-		}
-
-		try {
-			Response<ResponseBody> response = uploadCoverageZip(zipFile);
+			Response<ResponseBody> response = uploadCoverageZip(coverageZip);
 			if (response.isSuccessful()) {
 				return true;
 			}
@@ -117,41 +119,13 @@ public abstract class HttpZipUploaderBase<T> implements IUploader {
 		} catch (UploaderException e) {
 			logger.error("Failed to upload coverage to {}. The configuration is probably incorrect", uploadUrl, e);
 			return false;
-		} finally {
-			zipFile.delete();
-		}
-	}
-
-	/**
-	 * Creates the zip file in the system temp directory to upload which includes
-	 * the given coverage XML and all {@link #additionalMetaDataFiles}. The file is
-	 * marked to be deleted on exit.
-	 */
-	private File createZipFile(CoverageFile coverageFile) throws IOException {
-		File zipFile = Files.createTempFile(coverageFile.getNameWithoutExtension(), ".zip").toFile();
-		zipFile.deleteOnExit();
-		try (FileOutputStream fileOutputStream = new FileOutputStream(zipFile);
-				ZipOutputStream zipOutputStream = new ZipOutputStream(fileOutputStream)) {
-			fillZipFile(zipOutputStream, coverageFile);
-			return zipFile;
-		}
-	}
-
-	/**
-	 * Fills the upload zip file with the given coverage XML and all
-	 * {@link #additionalMetaDataFiles}.
-	 */
-	private void fillZipFile(ZipOutputStream zipOutputStream, CoverageFile coverageFile) throws IOException {
-		zipOutputStream.putNextEntry(new ZipEntry(getZipEntryCoverageFileName(coverageFile)));
-		coverageFile.copyStream(zipOutputStream);
-
-		for (Path additionalFile : additionalMetaDataFiles) {
-			zipOutputStream.putNextEntry(new ZipEntry(additionalFile.getFileName().toString()));
-			zipOutputStream.write(FileSystemUtils.readFileBinary(additionalFile.toFile()));
 		}
 	}
 
 	protected String getZipEntryCoverageFileName(CoverageFile coverageFile) {
+		if (coverageFile.getReportFormat() == EReportFormat.TEAMSCALE_COMPACT_COVERAGE) {
+			return "coverage.json";
+		}
 		return "coverage.xml";
 	}
 }
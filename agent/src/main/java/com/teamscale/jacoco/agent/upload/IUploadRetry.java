@@ -1,5 +1,10 @@
 package com.teamscale.jacoco.agent.upload;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import com.teamscale.report.jacoco.CoverageFile;
@@ -20,4 +25,28 @@ public interface IUploadRetry {
 	 * Retries previously unsuccessful coverage uploads with the given properties.
 	 */
 	void reupload(CoverageFile coverageFile, Properties properties);
+
+	/**
+	 * Splits previously unsuccessful coverage uploads into batches that can be retried independently of each other
+	 * with {@link #reuploadBatch(Map)}. Uploaders may combine the uploads to the same destination. By default, each
+	 * upload is its own batch.
+	 */
+	default List<Map<CoverageFile, Properties>> groupRetries(Map<CoverageFile, Properties> retries) {
+		List<Map<CoverageFile, Properties>> batches = new ArrayList<>();
+		retries.forEach((coverageFile, properties) -> batches.add(Collections.singletonMap(coverageFile, properties)));
+		return batches;
+	}
+
+	/**
+	 * Retries one batch of {@link #groupRetries(Map)} and deletes its coverage files if the upload succeeds. The
+	 * caller treats coverage files that still exist afterwards as failed uploads and keeps them marked for retry. By
+	 * default, retries each upload with {@link #reupload(CoverageFile, Properties)}, which handles failed uploads
+	 * itself.
+	 *
+	 * @throws IOException if the upload failed. The coverage files are kept and the caller decides about another
+	 *                     retry.
+	 */
+	default void reuploadBatch(Map<CoverageFile, Properties> batch) throws IOException {
+		batch.forEach(this::reupload);
+	}
 }
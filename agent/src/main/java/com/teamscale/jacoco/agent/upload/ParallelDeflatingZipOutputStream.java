@@ -0,0 +1,307 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file whose entries are deflated by multiple threads, similar to pigz. The data of an entry is split into
+ * blocks that are compressed independently, each primed with the last 32 KiB of the previous block as dictionary, and
+ * written in order. All blocks but the last end with a sync flush, so they form a single valid deflate stream.
+ * <p>
+ * Entries are written with a data descriptor, since their CRC and sizes are only known at the end. ZIP64 is not
+ * supported, so the zip must be smaller than 4 GiB. Call {@link #finish()} to write the central directory, which does
+ * not close the underlying stream, and {@link #stopCompressionThreads()} once the stream is no longer used.
+ */
+/* package */ class ParallelDeflatingZipOutputStream extends OutputStream {
+
+	/** Size of the blocks that are compressed independently. */
+	private static final int BLOCK_SIZE = 128 * 1024;
+
+	/** Size of the deflate window, i.e. how far back-references may reach. */
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	/** General purpose flags: sizes in data descriptor, UTF-8 names. */
+	private static final int FLAGS = 0x0808;
+
+	private static final int VERSION = 20;
+
+	private static final int DEFLATED = 8;
+
+	private final OutputStream out;
+
+	/** Number of bytes written to {@link #out}. */
+	private long written = 0;
+
+	private final ExecutorService executor;
+
+	/** Maximum number of blocks that are compressed or wait to be written, which bounds the memory usage. */
+	private final int maxPendingBlocks;
+
+	/** Compressed blocks in the order in which they must be written. */
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+	private final List<Entry> entries = new ArrayList<>();
+
+	/** The entry that is currently written or null. */
+	private Entry currentEntry;
+
+	private final CRC32 crc = new CRC32();
+
+	private byte[] block = new byte[BLOCK_SIZE];
+
+	private int blockLength = 0;
+
+	/** The end of the previous block of the current entry or null for the first block. */
+	private byte[] dictionary;
+
+	/** Constructor. */
+	public ParallelDeflatingZipOutputStream(OutputStream out, int threads) {
+		this.out = out;
+		this.executor = Executors.newFixedThreadPool(threads,
+				new DaemonThreadFactory(ParallelDeflatingZipOutputStream.class, "Compression"));
+		this.maxPendingBlocks = threads * 2;
+	}
+
+	/** Closes the current entry and starts a new one with the given name and modification time. */
+	public void putNextEntry(String name, long time) throws IOException {
+		closeEntry();
+		currentEntry = new Entry(name.getBytes(StandardCharsets.UTF_8), toDosTime(time), written);
+		crc.reset();
+		dictionary = null;
+
+		writeInt(0x04034b50);
+		writeShort(VERSION);
+		writeShort(FLAGS);
+		writeShort(DEFLATED);
+		writeInt(currentEntry.dosTime);
+		// CRC and sizes follow in the data descriptor
+		writeInt(0);
+		writeInt(0);
+		writeInt(0);
+		writeShort(currentEntry.name.length);
+		writeShort(0);
+		writeBytes(currentEntry.name);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		if (currentEntry == null) {
+			throw new IOException("No current zip entry");
+		}
+		while (length > 0) {
+			if (blockLength == BLOCK_SIZE) {
+				submitBlock(false);
+			}
+			int copied = Math.min(length, BLOCK_SIZE - blockLength);
+			System.arraycopy(bytes, offset, block, blockLength, copied);
+			blockLength += copied;
+			offset += copied;
+			length -= copied;
+		}
+	}
+
+	/** Writes the remaining data of the current entry and its data descriptor. */
+	public void closeEntry() throws IOException {
+		if (currentEntry == null) {
+			return;
+		}
+		submitBlock(true);
+		while (!pendingBlocks.isEmpty()) {
+			writeNextBlock();
+		}
+		currentEntry.crc = crc.getValue();
+
+		writeInt(0x08074b50);
+		writeInt(currentEntry.crc);
+		writeInt(currentEntry.compressedSize);
+		writeInt(currentEntry.size);
+		entries.add(currentEntry);
+		currentEntry = null;
+	}
+
+	/** Closes the current entry and writes the central directory. */
+	public void finish() throws IOException {
+		closeEntry();
+		long centralDirectoryOffset = written;
+		for (Entry entry : entries) {
+			writeInt(0x02014b50);
+			writeShort(VERSION);
+			writeShort(VERSION);
+			writeShort(FLAGS);
+			writeShort(DEFLATED);
+			writeInt(entry.dosTime);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+			writeShort(entry.name.length);
+			// extra field length, comment length, disk number, internal and external attributes
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeInt(0);
+			writeInt(entry.localHeaderOffset);
+			writeBytes(entry.name);
+		}
+		long centralDirectorySize = written - centralDirectoryOffset;
+
+		writeInt(0x06054b50);
+		writeShort(0);
+		writeShort(0);
+		writeShort(entries.size());
+		writeShort(entries.size());
+		writeInt(centralDirectorySize);
+		writeInt(centralDirectoryOffset);
+		writeShort(0);
+		out.flush();
+	}
+
+	/** Stops the compression threads. Must be called even if writing the zip failed. */
+	public void stopCompressionThreads() {
+		executor.shutdownNow();
+	}
+
+	/** Finishes the zip, closes the underlying stream and stops the compression threads. */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+			out.close();
+		} finally {
+			stopCompressionThreads();
+		}
+	}
+
+	/** Hands the current block over to the compression threads and waits if too many blocks are pending. */
+	private void submitBlock(boolean isLast) throws IOException {
+		byte[] data = block;
+		int length = blockLength;
+		byte[] blockDictionary = dictionary;
+		crc.update(data, 0, length);
+		currentEntry.size += length;
+		if (!isLast) {
+			// All blocks but the last are full and thus larger than the dictionary
+			dictionary = Arrays.copyOfRange(data, length - DICTIONARY_SIZE, length);
+		}
+		pendingBlocks.add(executor.submit(() -> deflate(data, length, blockDictionary, isLast)));
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+
+		while (pendingBlocks.size() > maxPendingBlocks) {
+			writeNextBlock();
+		}
+	}
+
+	private void writeNextBlock() throws IOException {
+		try {
+			byte[] compressed = pendingBlocks.remove().get();
+			writeBytes(compressed);
+			currentEntry.compressedSize += compressed.length;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing the zip", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Compressing the zip failed", e.getCause());
+		}
+	}
+
+	private static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean isLast) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data, 0, length);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			if (isLast) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					compressed.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				// A completely filled buffer means that there may be more output
+				int bytes;
+				do {
+					bytes = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, bytes);
+				} while (bytes == buffer.length);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static int toDosTime(long time) {
+		LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if (dateTime.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (dateTime.getYear() - 1980) << 25 | dateTime.getMonthValue() << 21 | dateTime.getDayOfMonth() << 16
+				| dateTime.getHour() << 11 | dateTime.getMinute() << 5 | dateTime.getSecond() >> 1;
+	}
+
+	private void writeShort(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+		written += 2;
+	}
+
+	private void writeInt(long value) throws IOException {
+		writeShort((int) (value & 0xffff));
+		writeShort((int) ((value >>> 16) & 0xffff));
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		out.write(bytes);
+		written += bytes.length;
+	}
+
+	/** The data of an entry that is needed for the central directory. */
+	private static class Entry {
+
+		/** The UTF-8 encoded name. */
+		private final byte[] name;
+
+		/** The modification time in MS-DOS format. */
+		private final int dosTime;
+
+		private final long localHeaderOffset;
+
+		private long crc;
+
+		private long size;
+
+		private long compressedSize;
+
+		private Entry(byte[] name, int dosTime, long localHeaderOffset) {
+			this.name = name;
+			this.dosTime = dosTime;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+}
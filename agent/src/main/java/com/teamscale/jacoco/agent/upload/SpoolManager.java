@@ -0,0 +1,504 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProperties;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import com.teamscale.jacoco.agent.util.FileSystemUtilsClone;
+import com.teamscale.report.compact.TeamscaleCompactCoverageReport;
+import org.conqat.lib.commons.string.StringUtils;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.tools.ExecFileLoader;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+
+/**
+ * Bounds the disk space taken by the reports in the output directory that wait for an upload retry or, for the
+ * {@link LocalDiskUploader}, are kept forever. Periodically
+ * <ol>
+ *     <li>deletes reports older than the age limit,</li>
+ *     <li>merges the compact coverage reports and the execution data of the {@link ExecutionDataSpool} waiting for
+ *     an upload to the same target,</li>
+ *     <li>compresses the reports with gzip, which the {@link UploadRetryWorker} reverts before the upload, and</li>
+ *     <li>deletes the oldest reports until they fit into the quota.</li>
+ * </ol>
+ * JaCoCo XML reports cannot be merged without the class files, so they are only compressed. Spooling their
+ * execution data instead makes them mergeable.
+ * <p>
+ * Reports that cannot be read or merged are quarantined: they are renamed so they are neither uploaded nor merged
+ * again, but still count towards the limits. Other failures only skip the affected reports until the next maintenance.
+ */
+public class SpoolManager {
+
+	/** The file extension of compressed reports. */
+	public static final String GZIP_EXTENSION = ".gz";
+
+	/** The file extension of quarantined reports, which are kept for inspection but not uploaded. */
+	private static final String QUARANTINE_EXTENSION = ".corrupt";
+
+	/**
+	 * The reports and spooled execution data written by the agent, see {@link com.teamscale.jacoco.agent.Agent}.
+	 */
+	private static final Pattern REPORT_NAME_PATTERN = Pattern.compile(
+			"(jacoco|compact-coverage)-.*\\.(xml|json|exec)(\\.gz)?(\\.corrupt)?");
+
+	/** Younger reports are left alone, since they may still be written or uploaded. */
+	private static final Duration MIN_REPORT_AGE = Duration.ofMinutes(1);
+
+	private static final Duration MAINTENANCE_INTERVAL = Duration.ofMinutes(5);
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	/** The directory that is searched recursively for reports. */
+	private final Path directory;
+
+	/** The maximum size of all reports or 0 for no limit. */
+	private final long maxBytes;
+
+	/** The maximum age of a report or null for no limit. */
+	private final Duration maxAge;
+
+	private final boolean compress;
+
+	private final boolean compact;
+
+	/** Whether all reports are kept instead of only those marked for upload retry. */
+	private final boolean managesAllReports;
+
+	/** Whether the reports may be modified now, e.g. because the upload retries of the previous run are done. */
+	private final BooleanSupplier canModifyReports;
+
+	private ScheduledExecutorService executor;
+
+	/** Constructor. */
+	public SpoolManager(Path directory, long maxBytes, Duration maxAge, boolean compress, boolean compact,
+			boolean managesAllReports, BooleanSupplier canModifyReports) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.maxAge = maxAge;
+		this.compress = compress;
+		this.compact = compact;
+		this.managesAllReports = managesAllReports;
+		this.canModifyReports = canModifyReports;
+	}
+
+	/** Starts maintaining the reports in the background. */
+	public void start() {
+		executor = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory(SpoolManager.class, "maintenance thread"));
+		executor.scheduleWithFixedDelay(this::maintainSafely, MIN_REPORT_AGE.toMillis(),
+				MAINTENANCE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops maintaining the reports. */
+	public void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void maintainSafely() {
+		if (!canModifyReports.getAsBoolean()) {
+			return;
+		}
+		try {
+			maintain(System.currentTimeMillis());
+		} catch (Throwable t) {
+			// the next maintenance may succeed
+			logger.error("Maintaining the reports in {} failed", directory, t);
+		}
+	}
+
+	/** Applies the limits to the reports, compacts and compresses them. */
+	/* package */ void maintain(long nowMillis) {
+		List<File> reports = listReports(nowMillis);
+		if (maxAge != null) {
+			reports = deleteReportsOlderThan(reports, nowMillis - maxAge.toMillis());
+		}
+		if (compact) {
+			reports = compactReports(reports);
+		}
+		if (compress) {
+			reports = compressReports(reports);
+		}
+		if (maxBytes > 0) {
+			deleteReportsExceedingQuota(reports);
+		}
+	}
+
+	/** Lists the managed reports that are old enough to be modified, oldest first. */
+	private List<File> listReports(long nowMillis) {
+		long youngestModification = nowMillis - MIN_REPORT_AGE.toMillis();
+		List<File> reports = FileSystemUtilsClone.listFilesRecursively(directory.toFile(),
+				file -> REPORT_NAME_PATTERN.matcher(file.getName()).matches()
+						&& file.lastModified() <= youngestModification
+						&& (managesAllReports || isQuarantined(file) || getRetryFile(file).exists()));
+		reports.sort(Comparator.comparingLong(File::lastModified));
+		return reports;
+	}
+
+	private List<File> deleteReportsOlderThan(List<File> reports, long oldestModification) {
+		List<File> remainingReports = new ArrayList<>();
+		int deletedReports = 0;
+		for (File report : reports) {
+			if (report.lastModified() < oldestModification) {
+				delete(report);
+				deletedReports++;
+			} else {
+				remainingReports.add(report);
+			}
+		}
+		if (deletedReports > 0) {
+			logger.warn("Deleted {} reports that were older than {} hours and could not be uploaded.",
+					deletedReports, maxAge.toHours());
+		}
+		return remainingReports;
+	}
+
+	/**
+	 * Merges the compact coverage reports and the execution data that are marked for upload retry to the same target
+	 * into one file per target.
+	 */
+	private List<File> compactReports(List<File> reports) {
+		Map<List<Object>, List<File>> reportsByTarget = new LinkedHashMap<>();
+		List<File> remainingReports = new ArrayList<>();
+		for (File report : reports) {
+			String extension = getMergeableExtension(report);
+			File retryFile = getRetryFile(report);
+			if (extension == null || !retryFile.exists()) {
+				remainingReports.add(report);
+				continue;
+			}
+			try {
+				reportsByTarget.computeIfAbsent(Arrays.asList(extension, getTarget(readProperties(retryFile))),
+						target -> new ArrayList<>()).add(report);
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Reading the upload retry file of {} failed. Not merging it.", report, e);
+				remainingReports.add(report);
+			}
+		}
+
+		for (List<File> targetReports : reportsByTarget.values()) {
+			if (targetReports.size() == 1) {
+				remainingReports.add(targetReports.get(0));
+				continue;
+			}
+			remainingReports.addAll(merge(targetReports));
+		}
+		remainingReports.sort(Comparator.comparingLong(File::lastModified));
+		return remainingReports;
+	}
+
+	/**
+	 * Merges the given reports, which wait for an upload to the same target, into one file and returns the remaining
+	 * reports. Reports that cannot be read or merged are quarantined. If writing the merged report fails, the reports
+	 * are kept as they are.
+	 */
+	private List<File> merge(List<File> reports) {
+		// the newest report determines the location, the upload message and the age of the merged report
+		File newestReport = reports.get(reports.size() - 1);
+		boolean isExecutionData = ExecutionDataSpool.EXECUTION_DATA_EXTENSION.equals(
+				getMergeableExtension(newestReport));
+		File mergedReport;
+		if (isExecutionData) {
+			mergedReport = new File(newestReport.getParentFile(), "jacoco-compacted-" + UUID.randomUUID()
+					+ ExecutionDataSpool.EXECUTION_DATA_EXTENSION);
+		} else {
+			mergedReport = new File(newestReport.getParentFile(),
+					"compact-coverage-compacted-" + UUID.randomUUID() + ".json");
+		}
+
+		List<File> remainingReports = new ArrayList<>();
+		try {
+			List<File> mergedReports;
+			if (isExecutionData) {
+				mergedReports = mergeExecutionData(reports, mergedReport, remainingReports);
+			} else {
+				mergedReports = mergeCompactCoverageReports(reports, mergedReport, remainingReports);
+			}
+			if (mergedReports.size() < 2) {
+				Files.deleteIfExists(mergedReport.toPath());
+				remainingReports.addAll(mergedReports);
+				return remainingReports;
+			}
+			File newestMergedReport = mergedReports.get(mergedReports.size() - 1);
+			mergedReport.setLastModified(newestMergedReport.lastModified());
+			Files.copy(getRetryFile(newestMergedReport).toPath(), getRetryFile(mergedReport).toPath());
+			AgentMetrics.getInstance().recordRetryMarkerCopied(getRetryFile(newestMergedReport),
+					getRetryFile(mergedReport));
+			mergedReports.forEach(this::delete);
+			logger.info("Merged {} reports waiting for an upload into {}", mergedReports.size(), mergedReport);
+			remainingReports.add(mergedReport);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Merging {} reports waiting for an upload into {} failed. Keeping them as they are.",
+					reports.size(), mergedReport, e);
+			delete(mergedReport);
+			// the remaining reports only contain the quarantined reports so far
+			reports.stream().filter(File::exists).forEach(remainingReports::add);
+		}
+		return remainingReports;
+	}
+
+	/**
+	 * Merges the readable compact coverage reports among the given ones into the merged report, quarantines the others
+	 * and adds them to the remaining reports. Returns the merged reports, oldest first.
+	 */
+	private List<File> mergeCompactCoverageReports(List<File> reports, File mergedReport,
+			List<File> remainingReports) throws IOException {
+		List<File> mergedReports = new ArrayList<>();
+		List<TeamscaleCompactCoverageReport> parsedReports = new ArrayList<>();
+		for (File report : reports) {
+			try (InputStream input = openReport(report)) {
+				parsedReports.add(TeamscaleCompactCoverageReport.readFrom(input));
+				mergedReports.add(report);
+			} catch (IOException | RuntimeException e) {
+				remainingReports.add(quarantine(report, e));
+			}
+		}
+		if (mergedReports.size() < 2) {
+			return mergedReports;
+		}
+		try (OutputStream output = Files.newOutputStream(mergedReport.toPath())) {
+			TeamscaleCompactCoverageReport.merge(parsedReports).writeTo(output);
+		}
+		return mergedReports;
+	}
+
+	/**
+	 * Merges the readable execution data among the given files into the merged report, quarantines the others and
+	 * adds them to the remaining reports. Returns the merged files, oldest first.
+	 * <p>
+	 * Execution data of a class that changed in the meantime has a different number of probes and cannot be merged.
+	 * The newest execution data wins, since it matches the class files that the {@link UploadRetryWorker} converts
+	 * it with.
+	 */
+	private List<File> mergeExecutionData(List<File> reports, File mergedReport,
+			List<File> remainingReports) throws IOException {
+		List<File> mergedReports = new ArrayList<>();
+		ExecFileLoader mergedLoader = new ExecFileLoader();
+		for (int i = reports.size() - 1; i >= 0; i--) {
+			File report = reports.get(i);
+			ExecFileLoader loader = new ExecFileLoader();
+			try (InputStream input = openReport(report)) {
+				loader.load(input);
+				checkCompatibility(loader.getExecutionDataStore(), mergedLoader.getExecutionDataStore());
+			} catch (IOException | RuntimeException e) {
+				remainingReports.add(quarantine(report, e));
+				continue;
+			}
+			loader.getExecutionDataStore().accept(mergedLoader.getExecutionDataStore());
+			loader.getSessionInfoStore().accept(mergedLoader.getSessionInfoStore());
+			mergedReports.add(0, report);
+		}
+		if (mergedReports.size() < 2) {
+			return mergedReports;
+		}
+		mergedLoader.save(mergedReport, false);
+		return mergedReports;
+	}
+
+	/** Throws if the execution data cannot be merged into the store, because the classes do not match. */
+	private static void checkCompatibility(ExecutionDataStore executionData, ExecutionDataStore store) {
+		for (ExecutionData data : executionData.getContents()) {
+			ExecutionData existingData = store.get(data.getId());
+			if (existingData != null) {
+				existingData.assertCompatibility(data.getId(), data.getName(), data.getProbes().length);
+			}
+		}
+	}
+
+	/**
+	 * Renames the report, so it is neither uploaded nor merged again, but kept for inspection until the limits delete
+	 * it. Returns the renamed report.
+	 */
+	private File quarantine(File report, Exception cause) {
+		File quarantinedReport = new File(report.getPath() + QUARANTINE_EXTENSION);
+		try {
+			Files.move(report.toPath(), quarantinedReport.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			deleteRetryFile(report);
+			logger.error("The report {} waiting for an upload cannot be read or merged. It is not uploaded, but kept"
+					+ " as {} for inspection.", report, quarantinedReport, cause);
+			return quarantinedReport;
+		} catch (IOException e) {
+			logger.error("The report {} waiting for an upload cannot be read or merged and quarantining it failed.",
+					report, e);
+			return report;
+		}
+	}
+
+	/** Compresses the given reports. Reports that cannot be compressed are kept as they are. */
+	private List<File> compressReports(List<File> reports) {
+		List<File> compressedReports = new ArrayList<>();
+		for (File report : reports) {
+			if (report.getName().endsWith(GZIP_EXTENSION) || isQuarantined(report)) {
+				compressedReports.add(report);
+				continue;
+			}
+			File compressedReport = new File(report.getPath() + GZIP_EXTENSION);
+			try {
+				try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressedReport.toPath()))) {
+					Files.copy(report.toPath(), output);
+				}
+				compressedReport.setLastModified(report.lastModified());
+				File retryFile = getRetryFile(report);
+				if (retryFile.exists()) {
+					moveRetryFile(retryFile, getRetryFile(compressedReport));
+				}
+				Files.delete(report.toPath());
+				compressedReports.add(compressedReport);
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Compressing {} failed", report, e);
+				if (getRetryFile(compressedReport).exists()) {
+					// the compressed report is complete and took over the marker, only deleting the original failed
+					compressedReports.add(compressedReport);
+					continue;
+				}
+				try {
+					Files.deleteIfExists(compressedReport.toPath());
+				} catch (IOException deletionException) {
+					logger.warn("Could not delete {}", compressedReport, deletionException);
+				}
+				compressedReports.add(report);
+			}
+		}
+		return compressedReports;
+	}
+
+	private void deleteReportsExceedingQuota(List<File> reports) {
+		long totalBytes = reports.stream().mapToLong(File::length).sum();
+		int deletedReports = 0;
+		for (File report : reports) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+			totalBytes -= report.length();
+			delete(report);
+			deletedReports++;
+		}
+		if (deletedReports > 0) {
+			logger.warn("Deleted the {} oldest reports that could not be uploaded, since all reports exceeded {} MB.",
+					deletedReports, maxBytes / 1024 / 1024);
+		}
+	}
+
+	/**
+	 * Replaces the given compressed report that is marked for upload retry by the uncompressed report, which is marked
+	 * for upload retry instead. Returns the uncompressed report.
+	 */
+	public static File decompress(File report) throws IOException {
+		File decompressedReport = new File(StringUtils.stripSuffix(report.getPath(), GZIP_EXTENSION));
+		try (InputStream input = new GZIPInputStream(Files.newInputStream(report.toPath()))) {
+			Files.copy(input, decompressedReport.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(decompressedReport.toPath());
+			throw e;
+		}
+		File retryFile = getRetryFile(report);
+		if (retryFile.exists()) {
+			moveRetryFile(retryFile, getRetryFile(decompressedReport));
+		}
+		Files.delete(report.toPath());
+		return decompressedReport;
+	}
+
+	private static InputStream openReport(File report) throws IOException {
+		InputStream input = Files.newInputStream(report.toPath());
+		if (report.getName().endsWith(GZIP_EXTENSION)) {
+			return new GZIPInputStream(input);
+		}
+		return input;
+	}
+
+	/**
+	 * Returns the extension of the given report if reports of its kind can be merged without the class files or null
+	 * otherwise.
+	 */
+	private static String getMergeableExtension(File report) {
+		String name = StringUtils.stripSuffix(report.getName(), GZIP_EXTENSION);
+		if (name.endsWith(".json")) {
+			return ".json";
+		}
+		if (name.endsWith(ExecutionDataSpool.EXECUTION_DATA_EXTENSION)) {
+			return ExecutionDataSpool.EXECUTION_DATA_EXTENSION;
+		}
+		return null;
+	}
+
+	/** Returns the upload target of the given retry properties, which is everything but the upload message. */
+	private static Map<String, String> getTarget(Properties properties) {
+		Map<String, String> target = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (!key.equals(ETeamscaleServerProperties.MESSAGE.name())) {
+				target.put(key, properties.getProperty(key));
+			}
+		}
+		return target;
+	}
+
+	private static Properties readProperties(File file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStreamReader reader = new InputStreamReader(Files.newInputStream(file.toPath()),
+				StandardCharsets.UTF_8)) {
+			properties.load(reader);
+		}
+		return properties;
+	}
+
+	private static boolean isQuarantined(File report) {
+		return report.getName().endsWith(QUARANTINE_EXTENSION);
+	}
+
+	private static File getRetryFile(File report) {
+		return new File(report.getPath() + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+
+	/** Moves the upload retry marker and records the move in the {@link AgentMetrics}. */
+	/* package */ static void moveRetryFile(File retryFile, File targetRetryFile) throws IOException {
+		Files.move(retryFile.toPath(), targetRetryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		AgentMetrics.getInstance().recordRetryMarkerMoved(retryFile, targetRetryFile);
+	}
+
+	private static void deleteRetryFile(File report) throws IOException {
+		File retryFile = getRetryFile(report);
+		Files.deleteIfExists(retryFile.toPath());
+		AgentMetrics.getInstance().recordRetryMarkerDeleted(retryFile);
+	}
+
+	private void delete(File report) {
+		try {
+			deleteRetryFile(report);
+			Files.deleteIfExists(report.toPath());
+		} catch (IOException e) {
+			logger.warn("Could not delete the report {}", report, e);
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.client.HttpStatusException;
+import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.util.DaemonThreadFactory;
+import com.teamscale.jacoco.agent.util.FileSystemUtilsClone;
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.EmptyReportException;
+import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException;
+import org.conqat.lib.commons.string.StringUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+
+/**
+ * Retries the uploads that failed in earlier runs of the agent in the background, so that a large backlog or a slow
+ * server does not delay the start of the application.
+ * <p>
+ * The reports are grouped into batches with {@link IUploadRetry#groupRetries(Map)}, and a bounded number of threads
+ * uploads the batches, optionally limited to a number of uploads per minute. Failed batches are retried with
+ * exponential backoff, but not earlier than the server asks for with a <code>Retry-After</code> header. Batches that
+ * still fail stay marked for retry, so the next start of the agent tries again.
+ * <p>
+ * Execution data spooled by the {@link ExecutionDataSpool} is merged per batch and converted into one report right
+ * before the upload. The execution data is only deleted once the report was uploaded.
+ */
+public class UploadRetryWorker {
+
+	/** The backoff after the first failed attempt, which doubles with every further attempt. */
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(5);
+
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+
+	/** Longer <code>Retry-After</code> values are capped, so a misconfigured server cannot stall the retries. */
+	private static final Duration MAX_RETRY_AFTER = Duration.ofHours(1);
+
+	private final Logger logger = LoggingUtils.getLogger(this);
+
+	private final IUploadRetry uploader;
+
+	/** Converts spooled execution data into reports or null if spooled execution data cannot be uploaded. */
+	private final ExecutionDataSpool executionDataSpool;
+
+	/** The directory that is searched recursively for reports marked for retry. */
+	private final Path directory;
+
+	private final int maxAttempts;
+
+	/** The minimum time between the start of two uploads or 0 if uploads are not rate-limited. */
+	private final long uploadIntervalNanos;
+
+	private final ScheduledExecutorService executor;
+
+	/** The earliest {@link System#nanoTime()} at which the next upload may start. Guarded by this. */
+	private long nextUploadNanos = System.nanoTime();
+
+	private final AtomicInteger totalReports = new AtomicInteger();
+
+	private final AtomicInteger finishedReports = new AtomicInteger();
+
+	private final AtomicInteger failedReports = new AtomicInteger();
+
+	/** Counts the batches that are not finished yet, plus one until the scan has been done. */
+	private final AtomicInteger pendingBatches = new AtomicInteger(1);
+
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	/** Constructor. */
+	public UploadRetryWorker(IUploadRetry uploader, ExecutionDataSpool executionDataSpool, Path directory,
+			int parallelism, int maxUploadsPerMinute, int maxAttempts) {
+		this.uploader = uploader;
+		this.executionDataSpool = executionDataSpool;
+		this.directory = directory;
+		this.maxAttempts = maxAttempts;
+		if (maxUploadsPerMinute > 0) {
+			this.uploadIntervalNanos = TimeUnit.MINUTES.toNanos(1) / maxUploadsPerMinute;
+		} else {
+			this.uploadIntervalNanos = 0;
+		}
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(parallelism,
+				new DaemonThreadFactory(UploadRetryWorker.class, "upload thread"));
+		executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+	}
+
+	/** Searches the directory for reports marked for retry and uploads them in the background. */
+	public void start() {
+		executor.execute(this::scan);
+	}
+
+	/** Waits until all retries are finished and returns false if the timeout passed before. */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		return finished.await(timeout, unit);
+	}
+
+	/** Returns whether all retries are finished. */
+	public boolean isFinished() {
+		return finished.getCount() == 0;
+	}
+
+	/** Cancels all retries that have not started yet. Their reports stay marked for retry. */
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	private void scan() {
+		try {
+			Map<CoverageFile, Properties> retries = readRetries();
+			if (retries.isEmpty()) {
+				return;
+			}
+			List<Map<CoverageFile, Properties>> batches = uploader.groupRetries(retries);
+			totalReports.set(retries.size());
+			AgentMetrics.getInstance().recordRetriesQueued(retries.size());
+			logger.info("Retrying {} previously unsuccessful coverage uploads in {} batches in the background.",
+					retries.size(), batches.size());
+			pendingBatches.addAndGet(batches.size());
+			for (Map<CoverageFile, Properties> batch : batches) {
+				schedule(batch, 1, 0);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Searching for previously unsuccessful coverage uploads failed", e);
+		} finally {
+			batchFinished();
+		}
+	}
+
+	private Map<CoverageFile, Properties> readRetries() {
+		List<File> retryFiles = FileSystemUtilsClone.listFilesRecursively(directory.toFile(),
+				file -> file.getName().endsWith(RETRY_UPLOAD_FILE_SUFFIX));
+		Map<CoverageFile, Properties> retries = new LinkedHashMap<>();
+		for (File retryFile : retryFiles) {
+			try (InputStreamReader reader = new InputStreamReader(Files.newInputStream(retryFile.toPath()),
+					StandardCharsets.UTF_8)) {
+				Properties properties = new Properties();
+				properties.load(reader);
+				File coverageFile = new File(StringUtils.stripSuffix(retryFile.getAbsolutePath(),
+						RETRY_UPLOAD_FILE_SUFFIX));
+				if (!coverageFile.exists()) {
+					// the JVM exited after deleting the uploaded report, but before deleting its marker
+					deleteRetryFile(new CoverageFile(coverageFile));
+					continue;
+				}
+				retries.put(new CoverageFile(coverageFile), properties);
+				AgentMetrics.getInstance().recordRetryMarkerWritten(retryFile);
+			} catch (IOException e) {
+				logger.error("Reading the upload retry file {} failed", retryFile, e);
+			}
+		}
+		return retries;
+	}
+
+	/** Schedules the given attempt to upload the batch after the given delay and the rate limit. */
+	private void schedule(Map<CoverageFile, Properties> batch, int attempt, long delayNanos) {
+		long startNanos = reserveUploadSlot(System.nanoTime() + delayNanos);
+		executor.schedule(() -> upload(batch, attempt), startNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	/** Returns the earliest time that is not before the given one and respects the rate limit. */
+	private synchronized long reserveUploadSlot(long earliestNanos) {
+		long startNanos = Math.max(earliestNanos, nextUploadNanos);
+		nextUploadNanos = startNanos + uploadIntervalNanos;
+		return startNanos;
+	}
+
+	private void upload(Map<CoverageFile, Properties> spooledBatch, int attempt) {
+		Map<CoverageFile, Properties> batch = decompress(spooledBatch);
+		if (batch.isEmpty()) {
+			batchFinished();
+			return;
+		}
+		Map<CoverageFile, Properties> reports;
+		try {
+			reports = convertExecutionData(batch);
+		} catch (IOException | EmptyReportException | CoverageGenerationException | RuntimeException e) {
+			logger.error("Converting the execution data of {} previously unsuccessful coverage uploads failed. They"
+					+ " are retried at the next start of the agent.", batch.size(), e);
+			reportProgress(batch, false);
+			return;
+		}
+		try {
+			if (!reports.isEmpty()) {
+				uploader.reuploadBatch(reports);
+			}
+		} catch (IOException | RuntimeException e) {
+			// the markers stay in place until the upload succeeded, so an exit of the JVM cannot lose the batch
+			deleteConvertedReports(batch, reports);
+			HttpStatusException statusException = HttpStatusException.findIn(e);
+			boolean retryable = statusException == null || statusException.isRetryable();
+			if (retryable && attempt < maxAttempts) {
+				Duration backoff = getBackoff(attempt, statusException);
+				logger.warn("Retrying the upload of {} reports failed (attempt {} of {}). Trying again in {} seconds.",
+						batch.size(), attempt, maxAttempts, backoff.getSeconds(), e);
+				schedule(batch, attempt + 1, backoff.toNanos());
+				return;
+			}
+			logger.error("Retrying the upload of {} reports failed (attempt {} of {}). They are retried at the next"
+					+ " start of the agent.", batch.size(), attempt, maxAttempts, e);
+			reportProgress(batch, false);
+			return;
+		}
+		finishUploads(batch, reports);
+	}
+
+	/**
+	 * Deletes the reports of the batch that were uploaded together with their markers. Uploaders delete the reports
+	 * they uploaded successfully, so a report that still exists failed and stays marked for retry. Spooled execution
+	 * data counts as uploaded once the report converted from it is gone.
+	 */
+	private void finishUploads(Map<CoverageFile, Properties> batch, Map<CoverageFile, Properties> reports) {
+		boolean convertedReportsUploaded = reports.keySet().stream()
+				.filter(coverageFile -> !batch.containsKey(coverageFile))
+				.noneMatch(coverageFile -> coverageFile.getFile().exists());
+		deleteConvertedReports(batch, reports);
+		int uploadedReports = 0;
+		for (CoverageFile coverageFile : batch.keySet()) {
+			boolean uploaded;
+			if (reports.containsKey(coverageFile)) {
+				uploaded = !coverageFile.getFile().exists();
+			} else {
+				uploaded = convertedReportsUploaded;
+			}
+			if (uploaded) {
+				// the report goes first, so a marker left behind by an exit in between is recognizably stale
+				deleteFile(coverageFile);
+				deleteRetryFile(coverageFile);
+				uploadedReports++;
+			}
+		}
+		if (uploadedReports > 0) {
+			reportProgress(uploadedReports, true);
+		}
+		if (uploadedReports < batch.size()) {
+			reportProgress(batch.size() - uploadedReports, false);
+		}
+		batchFinished();
+	}
+
+	/**
+	 * Deletes the reports converted from spooled execution data and any markers the uploader wrote for them. The
+	 * execution data itself is kept and converted again for the next attempt.
+	 */
+	private void deleteConvertedReports(Map<CoverageFile, Properties> batch, Map<CoverageFile, Properties> reports) {
+		reports.keySet().stream().filter(coverageFile -> !batch.containsKey(coverageFile)).forEach(coverageFile -> {
+			deleteFile(coverageFile);
+			deleteRetryFile(coverageFile);
+		});
+	}
+
+	/**
+	 * Replaces the spooled execution data in the batch by one report, which is uploaded with the properties of the
+	 * newest execution data. Leaves the execution data out if it does not cover any of the current classes.
+	 */
+	private Map<CoverageFile, Properties> convertExecutionData(Map<CoverageFile, Properties> batch)
+			throws IOException, EmptyReportException, CoverageGenerationException {
+		Map<CoverageFile, Properties> reports = new LinkedHashMap<>();
+		List<File> executionDataFiles = new ArrayList<>();
+		Properties newestProperties = null;
+		long newestModification = Long.MIN_VALUE;
+		for (Map.Entry<CoverageFile, Properties> entry : batch.entrySet()) {
+			File file = entry.getKey().getFile();
+			if (!ExecutionDataSpool.isExecutionData(file)) {
+				reports.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			executionDataFiles.add(file);
+			if (file.lastModified() >= newestModification) {
+				newestModification = file.lastModified();
+				newestProperties = entry.getValue();
+			}
+		}
+		if (executionDataFiles.isEmpty()) {
+			return reports;
+		}
+		if (executionDataSpool == null) {
+			throw new IOException("No converter for spooled execution data is available");
+		}
+
+		try {
+			reports.put(executionDataSpool.convert(executionDataFiles), newestProperties);
+			logger.info("Converted the execution data of {} previously unsuccessful coverage uploads into one report.",
+					executionDataFiles.size());
+		} catch (EmptyReportException e) {
+			logger.warn("The execution data of {} previously unsuccessful coverage uploads does not cover any of the"
+					+ " current classes. Skipping it.", executionDataFiles.size(), e);
+		}
+		return reports;
+	}
+
+	/**
+	 * Replaces the reports that the {@link SpoolManager} compressed by the uncompressed reports. Reports that cannot be
+	 * decompressed stay marked for retry and are left out.
+	 */
+	private Map<CoverageFile, Properties> decompress(Map<CoverageFile, Properties> batch) {
+		Map<CoverageFile, Properties> decompressedBatch = new LinkedHashMap<>();
+		batch.forEach((coverageFile, properties) -> {
+			if (!coverageFile.getName().endsWith(SpoolManager.GZIP_EXTENSION)) {
+				decompressedBatch.put(coverageFile, properties);
+				return;
+			}
+			try {
+				decompressedBatch.put(new CoverageFile(SpoolManager.decompress(coverageFile.getFile())), properties);
+			} catch (IOException e) {
+				logger.error("Decompressing {} failed. It is retried at the next start of the agent.", coverageFile, e);
+				reportProgress(1, false);
+			}
+		});
+		return decompressedBatch;
+	}
+
+	/** Doubles the backoff with every attempt, but waits at least as long as the server asked for. */
+	/* package */ static Duration getBackoff(int attempt, HttpStatusException statusException) {
+		Duration backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(attempt - 1, 16));
+		if (backoff.compareTo(MAX_BACKOFF) > 0) {
+			backoff = MAX_BACKOFF;
+		}
+		if (statusException != null && statusException.getRetryAfter() != null) {
+			Duration retryAfter = statusException.getRetryAfter();
+			if (retryAfter.compareTo(MAX_RETRY_AFTER) > 0) {
+				retryAfter = MAX_RETRY_AFTER;
+			}
+			if (retryAfter.compareTo(backoff) > 0) {
+				backoff = retryAfter;
+			}
+		}
+		return backoff;
+	}
+
+	private void reportProgress(Map<CoverageFile, Properties> batch, boolean successful) {
+		reportProgress(batch.size(), successful);
+		batchFinished();
+	}
+
+	private void reportProgress(int reports, boolean successful) {
+		AgentMetrics.getInstance().recordRetriesFinished(reports, successful);
+		if (!successful) {
+			failedReports.addAndGet(reports);
+		}
+		logger.info("Retried {} of {} previously unsuccessful coverage uploads, {} of them failed.",
+				finishedReports.addAndGet(reports), totalReports.get(), failedReports.get());
+	}
+
+	private void batchFinished() {
+		if (pendingBatches.decrementAndGet() == 0) {
+			finished.countDown();
+			executor.shutdown();
+		}
+	}
+
+	private static File getRetryFile(CoverageFile coverageFile) {
+		return new File(coverageFile + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+
+	private void deleteFile(CoverageFile coverageFile) {
+		try {
+			Files.deleteIfExists(coverageFile.getFile().toPath());
+		} catch (IOException e) {
+			logger.warn("Deleting {} failed", coverageFile, e);
+		}
+	}
+
+	private void deleteRetryFile(CoverageFile coverageFile) {
+		File retryFile = getRetryFile(coverageFile);
+		try {
+			Files.deleteIfExists(retryFile.toPath());
+			AgentMetrics.getInstance().recordRetryMarkerDeleted(retryFile);
+		} catch (IOException e) {
+			logger.warn("Deleting the upload retry file of {} failed", coverageFile, e);
+		}
+	}
+}
@@ -6,6 +6,8 @@ import com.teamscale.client.EReportFormat;
 import com.teamscale.client.HttpUtils;
 import com.teamscale.client.StringUtils;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.CommitInfo;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.CoverageZipRequestBody;
 import com.teamscale.jacoco.agent.upload.HttpZipUploaderBase;
 import com.teamscale.jacoco.agent.upload.IUploadRetry;
 import com.teamscale.report.jacoco.CoverageFile;
@@ -44,8 +46,8 @@ public class ArtifactoryUploader extends HttpZipUploaderBase<IArtifactoryUploadA
 
 	/** Constructor. */
 	public ArtifactoryUploader(ArtifactoryConfig config, List<Path> additionalMetaDataFiles,
-							   EReportFormat reportFormat) {
-		super(config.url, additionalMetaDataFiles, IArtifactoryUploadApi.class);
+							   EReportFormat reportFormat, int compressionThreads) {
+		super(config.url, additionalMetaDataFiles, compressionThreads, IArtifactoryUploadApi.class);
 		this.artifactoryConfig = config;
 		this.coverageFormat = reportFormat.name().toLowerCase();
 	}
@@ -58,6 +60,7 @@ public class ArtifactoryUploader extends HttpZipUploaderBase<IArtifactoryUploadA
 		Properties properties = createArtifactoryProperties();
 		try (FileWriter writer = new FileWriter(uploadMetadataFile)) {
 			properties.store(writer, null);
+			AgentMetrics.getInstance().recordRetryMarkerWritten(uploadMetadataFile);
 		} catch (IOException e) {
 			logger.warn(
 					"Failed to create metadata file for automatic upload retry of {}. Please manually retry the coverage upload to Azure.",
@@ -128,8 +131,8 @@ public class ArtifactoryUploader extends HttpZipUploaderBase<IArtifactoryUploadA
 	}
 
 	@Override
-	protected Response<ResponseBody> uploadCoverageZip(File zipFile) throws IOException {
-		return getApi().uploadCoverageZip(uploadPath, zipFile);
+	protected Response<ResponseBody> uploadCoverageZip(CoverageZipRequestBody coverageZip) throws IOException {
+		return getApi().uploadCoverageZip(uploadPath, coverageZip);
 	}
 
 	@Override
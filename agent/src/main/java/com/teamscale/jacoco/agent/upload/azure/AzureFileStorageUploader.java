@@ -24,6 +24,8 @@ import java.util.regex.Pattern;
 import org.conqat.lib.commons.filesystem.FileSystemUtils;
 
 import com.teamscale.client.EReportFormat;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.jacoco.agent.upload.CoverageZipRequestBody;
 import com.teamscale.jacoco.agent.upload.HttpZipUploaderBase;
 import com.teamscale.jacoco.agent.upload.IUploadRetry;
 import com.teamscale.jacoco.agent.upload.UploaderException;
@@ -32,6 +34,7 @@ import com.teamscale.report.jacoco.CoverageFile;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
 import retrofit2.Response;
 
 /** Uploads the coverage archive to a provided azure file storage. */
@@ -48,9 +51,9 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	private final String account;
 
 	/** Constructor. */
-	public AzureFileStorageUploader(AzureFileStorageConfig config, List<Path> additionalMetaDataFiles)
-			throws UploaderException {
-		super(config.url, additionalMetaDataFiles, IAzureUploadApi.class);
+	public AzureFileStorageUploader(AzureFileStorageConfig config, List<Path> additionalMetaDataFiles,
+			int compressionThreads) throws UploaderException {
+		super(config.url, additionalMetaDataFiles, compressionThreads, IAzureUploadApi.class);
 		this.accessKey = config.accessKey;
 		this.account = getAccount();
 
@@ -64,6 +67,7 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 				coverageFile.getName() + RETRY_UPLOAD_FILE_SUFFIX));
 		try {
 			uploadMetadataFile.createNewFile();
+			AgentMetrics.getInstance().recordRetryMarkerWritten(uploadMetadataFile);
 		} catch (IOException e) {
 			logger.warn(
 					"Failed to create metadata file for automatic upload retry of {}. Please manually retry the coverage upload to Azure.",
@@ -99,13 +103,16 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	@Override
-	protected Response<ResponseBody> uploadCoverageZip(File zipFile) throws IOException, UploaderException {
-		String fileName = createFileName();
+	protected Response<ResponseBody> uploadCoverageZip(CoverageZipRequestBody coverageZip)
+			throws IOException, UploaderException {
+		String fileName = createFileName(coverageZip.getCoverageFile().getReportFormat());
 		if (checkFile(fileName).isSuccessful()) {
 			logger.warn(String.format("The file %s does already exists at %s", fileName, uploadUrl));
 		}
 
-		return createAndFillFile(zipFile, fileName);
+		// the file must be created with its final size
+		long zipLength = coverageZip.computeContentLength();
+		return createAndFillFile(coverageZip, zipLength, fileName);
 	}
 
 	/**
@@ -149,8 +156,8 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	/** Creates a file name for the zip-archive containing the coverage. */
-	private String createFileName() {
-		return String.format("%s-%s.zip", EReportFormat.JACOCO.name().toLowerCase(), System.currentTimeMillis());
+	private String createFileName(EReportFormat reportFormat) {
+		return String.format("%s-%s.zip", reportFormat.name().toLowerCase(), System.currentTimeMillis());
 	}
 
 	/** Checks if the file with the given name exists */
@@ -199,25 +206,24 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 	}
 
 	/** Creates and fills a file with the given data and name. */
-	private Response<ResponseBody> createAndFillFile(File zipFile, String fileName)
+	private Response<ResponseBody> createAndFillFile(RequestBody coverageZip, long zipLength, String fileName)
 			throws UploaderException, IOException {
-		Response<ResponseBody> response = createFile(zipFile, fileName);
+		Response<ResponseBody> response = createFile(zipLength, fileName);
 		if (response.isSuccessful()) {
-			return fillFile(zipFile, fileName);
+			return fillFile(coverageZip, zipLength, fileName);
 		}
 		logger.error(String.format("Creation of file '%s' was unsuccessful.", fileName));
 		return response;
 	}
 
 	/**
-	 * Creates an empty file with the given name. The size is defined by the length
-	 * of the given byte array.
+	 * Creates an empty file with the given name and size.
 	 */
-	private Response<ResponseBody> createFile(File zipFile, String fileName) throws IOException, UploaderException {
+	private Response<ResponseBody> createFile(long zipLength, String fileName) throws IOException, UploaderException {
 		String filePath = uploadUrl.url().getPath() + fileName;
 
 		Map<String, String> headers = AzureFileStorageHttpUtils.getBaseHeaders();
-		headers.put(X_MS_CONTENT_LENGTH, String.valueOf(zipFile.length()));
+		headers.put(X_MS_CONTENT_LENGTH, String.valueOf(zipLength));
 		headers.put(X_MS_TYPE, "file");
 
 		Map<String, String> queryParameters = new HashMap<>();
@@ -231,20 +237,21 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 
 	/**
 	 * Fills the file defined by the name with the given data. Should be used with
-	 * {@link #createFile(File, String)}, because the request only writes exactly
+	 * {@link #createFile(long, String)}, because the request only writes exactly
 	 * the length of the given data, so the file should be exactly as big as the
 	 * data, otherwise it will be partially filled or is not big enough.
 	 */
-	private Response<ResponseBody> fillFile(File zipFile, String fileName) throws IOException, UploaderException {
+	private Response<ResponseBody> fillFile(RequestBody coverageZip, long zipLength, String fileName)
+			throws IOException, UploaderException {
 		String filePath = uploadUrl.url().getPath() + fileName;
 
-		String range = "bytes=0-" + (zipFile.length() - 1);
+		String range = "bytes=0-" + (zipLength - 1);
 		String contentType = "application/octet-stream";
 
 		Map<String, String> headers = AzureFileStorageHttpUtils.getBaseHeaders();
 		headers.put(X_MS_WRITE, "update");
 		headers.put(X_MS_RANGE, range);
-		headers.put(CONTENT_LENGTH, String.valueOf(zipFile.length()));
+		headers.put(CONTENT_LENGTH, String.valueOf(zipLength));
 		headers.put(CONTENT_TYPE, contentType);
 
 		Map<String, String> queryParameters = new HashMap<>();
@@ -253,7 +260,22 @@ public class AzureFileStorageUploader extends HttpZipUploaderBase<IAzureUploadAp
 		String auth = AzureFileStorageHttpUtils.getAuthorizationString(PUT, account, accessKey, filePath, headers,
 				queryParameters);
 		headers.put(AUTHORIZATION, auth);
-		RequestBody content = RequestBody.create(MediaType.parse(contentType), zipFile);
+		RequestBody content = new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return MediaType.parse(contentType);
+			}
+
+			@Override
+			public long contentLength() {
+				return zipLength;
+			}
+
+			@Override
+			public void writeTo(BufferedSink sink) throws IOException {
+				coverageZip.writeTo(sink);
+			}
+		};
 		return getApi().putData(filePath, headers, queryParameters, content).execute();
 	}
 }
@@ -5,22 +5,35 @@ import com.teamscale.client.CommitDescriptor;
 import com.teamscale.client.EReportFormat;
 import com.teamscale.client.ITeamscaleService;
 import com.teamscale.client.ITeamscaleServiceKt;
+import com.teamscale.client.TeamscaleClient;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.client.TeamscaleServiceGenerator;
 import com.teamscale.jacoco.agent.upload.IUploadRetry;
 import com.teamscale.jacoco.agent.upload.IUploader;
 import com.teamscale.jacoco.agent.util.Benchmark;
 import com.teamscale.jacoco.agent.logging.LoggingUtils;
+import com.teamscale.jacoco.agent.metrics.AgentMetrics;
+import com.teamscale.report.compact.TeamscaleCompactCoverageReport;
 import com.teamscale.report.jacoco.CoverageFile;
 import org.conqat.lib.commons.filesystem.FileSystemUtils;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProperties.COMMIT;
 import static com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProperties.MESSAGE;
@@ -29,7 +42,7 @@ import static com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProper
 import static com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProperties.REPOSITORY;
 import static com.teamscale.jacoco.agent.upload.teamscale.ETeamscaleServerProperties.REVISION;
 
-/** Uploads XML Coverage to a Teamscale instance. */
+/** Uploads XML or compact coverage to a Teamscale instance. */
 public class TeamscaleUploader implements IUploader, IUploadRetry {
 
 	/**
@@ -59,6 +72,25 @@ public class TeamscaleUploader implements IUploader, IUploadRetry {
 
 	@Override
 	public void reupload(CoverageFile coverageFile, Properties reuploadProperties) {
+		doUpload(coverageFile, createServer(reuploadProperties));
+	}
+
+	/**
+	 * Groups the retried reports that target the same project, commit, revision, repository and partition, so that
+	 * each group is uploaded in one upload session.
+	 */
+	@Override
+	public List<Map<CoverageFile, Properties>> groupRetries(Map<CoverageFile, Properties> retries) {
+		Map<List<String>, Map<CoverageFile, Properties>> retriesByTarget = new LinkedHashMap<>();
+		retries.forEach((coverageFile, properties) -> retriesByTarget.computeIfAbsent(Arrays.asList(
+						properties.getProperty(PROJECT.name()), properties.getProperty(COMMIT.name()),
+						properties.getProperty(REVISION.name()), properties.getProperty(REPOSITORY.name()),
+						properties.getProperty(PARTITION.name())), target -> new LinkedHashMap<>())
+				.put(coverageFile, properties));
+		return new ArrayList<>(retriesByTarget.values());
+	}
+
+	private TeamscaleServer createServer(Properties reuploadProperties) {
 		TeamscaleServer server = new TeamscaleServer();
 		server.project = reuploadProperties.getProperty(PROJECT.name());
 		server.commit = CommitDescriptor.parse(reuploadProperties.getProperty(COMMIT.name()));
@@ -69,31 +101,129 @@ public class TeamscaleUploader implements IUploader, IUploadRetry {
 		server.userName = teamscaleServer.userName;
 		server.url = teamscaleServer.url;
 		server.setMessage(reuploadProperties.getProperty(MESSAGE.name()));
-		doUpload(coverageFile, server);
+		return server;
 	}
 
 	private void doUpload(CoverageFile coverageFile, TeamscaleServer teamscaleServer) {
 		try (Benchmark benchmark = new Benchmark("Uploading report to Teamscale")) {
-			if (tryUploading(coverageFile, teamscaleServer)) {
+			long startNanos = System.nanoTime();
+			long bytes = coverageFile.getLength();
+			boolean successful = tryUploading(coverageFile, teamscaleServer);
+			AgentMetrics.getInstance().recordUpload(startNanos, bytes, successful);
+			if (successful) {
 				deleteCoverageFile(coverageFile);
 			} else {
 				logger.warn("Failed to upload coverage to Teamscale. "
 						+ "Won't delete local file {} so that the upload can automatically be retried upon profiler restart. "
 						+ "Upload can also be retried manually.", coverageFile);
-				markFileForUploadRetry(coverageFile);
+				markFileForUploadRetry(coverageFile, createServerProperties(teamscaleServer));
 			}
 		}
 	}
 
+	/**
+	 * Uploads a group of {@link #groupRetries(Map)} in one upload session. Compact coverage reports are merged into
+	 * one report before the upload.
+	 */
+	@Override
+	public void reuploadBatch(Map<CoverageFile, Properties> batch) throws IOException {
+		TeamscaleServer server = createServer(batch.values().iterator().next());
+		try (Benchmark benchmark = new Benchmark("Uploading " + batch.size() + " reports to Teamscale")) {
+			long startNanos = System.nanoTime();
+			long bytes = batch.keySet().stream().mapToLong(CoverageFile::getLength).sum();
+			boolean successful = false;
+			try {
+				if (batch.size() == 1) {
+					uploadReport(batch.keySet().iterator().next(), server);
+				} else {
+					uploadInOneSession(batch.keySet(), server);
+				}
+				successful = true;
+			} finally {
+				AgentMetrics.getInstance().recordUpload(startNanos, bytes, successful);
+			}
+			batch.keySet().forEach(this::deleteCoverageFile);
+		}
+	}
+
+	private void uploadInOneSession(Collection<CoverageFile> coverageFiles,
+			TeamscaleServer teamscaleServer) throws IOException {
+		File mergedCompactReport = mergeCompactCoverageReports(coverageFiles);
+		Map<String, Collection<File>> reports = new LinkedHashMap<>();
+		for (CoverageFile coverageFile : coverageFiles) {
+			if (mergedCompactReport == null
+					|| coverageFile.getReportFormat() != EReportFormat.TEAMSCALE_COMPACT_COVERAGE) {
+				reports.computeIfAbsent(coverageFile.getReportFormat().name(), format -> new ArrayList<>())
+						.add(coverageFile.getFile());
+			}
+		}
+		if (mergedCompactReport != null) {
+			reports.computeIfAbsent(EReportFormat.TEAMSCALE_COMPACT_COVERAGE.name(), format -> new ArrayList<>())
+					.add(mergedCompactReport);
+		}
+
+		logger.debug("Uploading {} reports to {}", coverageFiles.size(), teamscaleServer);
+		try {
+			TeamscaleClient client = new TeamscaleClient(teamscaleServer.url.toString(), teamscaleServer.userName,
+					teamscaleServer.userAccessToken, teamscaleServer.project);
+			client.uploadReports(reports, teamscaleServer.commit, teamscaleServer.revision,
+					teamscaleServer.repository, teamscaleServer.partition, teamscaleServer.getMessage());
+		} finally {
+			if (mergedCompactReport != null) {
+				mergedCompactReport.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges all compact coverage reports among the given files into one temporary file, which must be deleted after
+	 * the upload. Returns null if there are less than two such reports or they cannot be merged, in which case they
+	 * are uploaded one by one.
+	 */
+	private File mergeCompactCoverageReports(Collection<CoverageFile> coverageFiles) {
+		List<CoverageFile> compactReports = coverageFiles.stream()
+				.filter(coverageFile -> coverageFile.getReportFormat() == EReportFormat.TEAMSCALE_COMPACT_COVERAGE)
+				.collect(Collectors.toList());
+		if (compactReports.size() < 2) {
+			return null;
+		}
+
+		File mergedFile = new File(compactReports.get(0).getFile().getParentFile(),
+				"merged-" + UUID.randomUUID() + ".json");
+		try {
+			List<TeamscaleCompactCoverageReport> reports = new ArrayList<>();
+			for (CoverageFile compactReport : compactReports) {
+				try (InputStream input = Files.newInputStream(compactReport.getFile().toPath())) {
+					reports.add(TeamscaleCompactCoverageReport.readFrom(input));
+				}
+			}
+			try (OutputStream output = Files.newOutputStream(mergedFile.toPath())) {
+				TeamscaleCompactCoverageReport.merge(reports).writeTo(output);
+			}
+			logger.debug("Merged {} compact coverage reports into {}", compactReports.size(), mergedFile);
+			return mergedFile;
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to merge {} compact coverage reports. Uploading them one by one.",
+					compactReports.size(), e);
+			mergedFile.delete();
+			return null;
+		}
+	}
+
 	@Override
 	public void markFileForUploadRetry(CoverageFile coverageFile) {
+		markFileForUploadRetry(coverageFile, createServerProperties(teamscaleServer));
+	}
+
+	/** Stores the given properties so that the upload of the coverage file is retried at the next start. */
+	private void markFileForUploadRetry(CoverageFile coverageFile, Properties serverProperties) {
 		File uploadMetadataFile = new File(FileSystemUtils.replaceFilePathFilenameWith(
 				com.teamscale.client.FileSystemUtils.normalizeSeparators(coverageFile.toString()),
 				coverageFile.getName() + RETRY_UPLOAD_FILE_SUFFIX));
-		Properties serverProperties = this.createServerProperties();
 		try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(uploadMetadataFile.toPath()),
 				StandardCharsets.UTF_8)) {
 			serverProperties.store(writer, null);
+			AgentMetrics.getInstance().recordRetryMarkerWritten(uploadMetadataFile);
 		} catch (IOException e) {
 			logger.warn(
 					"Failed to create metadata file for automatic upload retry of {}. Please manually retry the coverage upload to Teamscale.",
@@ -105,7 +235,7 @@ public class TeamscaleUploader implements IUploader, IUploadRetry {
 	/**
 	 * Creates server properties to be written in a properties file.
 	 */
-	private Properties createServerProperties() {
+	private static Properties createServerProperties(TeamscaleServer teamscaleServer) {
 		Properties serverProperties = new Properties();
 		serverProperties.setProperty(PROJECT.name(), teamscaleServer.project);
 		serverProperties.setProperty(PARTITION.name(), teamscaleServer.partition);
@@ -129,16 +259,8 @@ public class TeamscaleUploader implements IUploader, IUploadRetry {
 
 	/** Performs the upload and returns <code>true</code> if successful. */
 	private boolean tryUploading(CoverageFile coverageFile, TeamscaleServer teamscaleServer) {
-		logger.debug("Uploading JaCoCo artifact to {}", teamscaleServer);
-
 		try {
-			// Cannot be executed in the constructor as this causes issues in WildFly server
-			// (See #100)
-			ITeamscaleService api = TeamscaleServiceGenerator.createService(ITeamscaleService.class,
-					teamscaleServer.url, teamscaleServer.userName, teamscaleServer.userAccessToken);
-			ITeamscaleServiceKt.uploadReport(api, teamscaleServer.project, teamscaleServer.commit, teamscaleServer.revision,
-					teamscaleServer.repository, teamscaleServer.partition, EReportFormat.JACOCO,
-					teamscaleServer.getMessage(), coverageFile.createFormRequestBody());
+			uploadReport(coverageFile, teamscaleServer);
 			return true;
 		} catch (IOException e) {
 			logger.error("Failed to upload coverage to {}", teamscaleServer, e);
@@ -146,6 +268,18 @@ public class TeamscaleUploader implements IUploader, IUploadRetry {
 		}
 	}
 
+	private void uploadReport(CoverageFile coverageFile, TeamscaleServer teamscaleServer) throws IOException {
+		logger.debug("Uploading JaCoCo artifact to {}", teamscaleServer);
+
+		// Cannot be executed in the constructor as this causes issues in WildFly server
+		// (See #100)
+		ITeamscaleService api = TeamscaleServiceGenerator.createService(ITeamscaleService.class,
+				teamscaleServer.url, teamscaleServer.userName, teamscaleServer.userAccessToken);
+		ITeamscaleServiceKt.uploadReport(api, teamscaleServer.project, teamscaleServer.commit, teamscaleServer.revision,
+				teamscaleServer.repository, teamscaleServer.partition, coverageFile.getReportFormat(),
+				teamscaleServer.getMessage(), coverageFile.createFormRequestBody());
+	}
+
 	@Override
 	public String describe() {
 		return "Uploading to " + teamscaleServer;
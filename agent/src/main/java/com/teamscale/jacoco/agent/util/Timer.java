@@ -47,7 +47,7 @@ public class Timer {
 			return;
 		}
 
-		job = executor.scheduleAtFixedRate(runnable, duration.toMinutes(), duration.toMinutes(), TimeUnit.MINUTES);
+		job = executor.scheduleAtFixedRate(runnable, duration.toMillis(), duration.toMillis(), TimeUnit.MILLISECONDS);
 	}
 
 	/** Stops the regular job, possibly aborting it. */
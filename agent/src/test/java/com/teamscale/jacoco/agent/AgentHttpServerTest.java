@@ -3,6 +3,7 @@ package com.teamscale.jacoco.agent;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.options.TestAgentOptionsBuilder;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -35,6 +36,7 @@ public class AgentHttpServerTest {
 	public void setup() throws Exception {
 		AgentOptions options = new TestAgentOptionsBuilder()
 				.withHttpServerPort(httpServerPort)
+				.withHttpServerType(getHttpServerType())
 				.withTeamscaleMessage(defaultCommitMessage)
 				.withTeamscalePartition(defaultPartition)
 				.create();
@@ -42,6 +44,11 @@ public class AgentHttpServerTest {
 		agent = new Agent(options, null);
 	}
 
+	/** Returns the implementation of the http server under test. */
+	protected EHttpServerType getHttpServerType() {
+		return EHttpServerType.JETTY;
+	}
+
 	/** Stops the http server */
 	@AfterEach
 	public void teardown() {
@@ -0,0 +1,63 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.jacoco.agent.server.EHttpServerType;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Runs the tests of the {@link AgentHttpServerTest} against the server built into the JDK. */
+public class AgentJdkHttpServerTest extends AgentHttpServerTest {
+
+	private final OkHttpClient client = new OkHttpClient();
+
+	public AgentJdkHttpServerTest() throws Exception {
+		super();
+	}
+
+	@Override
+	protected EHttpServerType getHttpServerType() {
+		return EHttpServerType.JDK;
+	}
+
+	/** Tests that the metrics are served with the content type of the Prometheus text format. */
+	@Test
+	public void testGettingMetrics() throws Exception {
+		try (Response response = client.newCall(new Request.Builder().url(url("/metrics")).build()).execute()) {
+			assertThat(response.code()).isEqualTo(200);
+			assertThat(response.header("Content-Type")).isEqualTo("text/plain; version=0.0.4");
+			assertThat(response.body().string()).contains("teamscale_agent_dump_duration_seconds_count");
+		}
+	}
+
+	/** Tests the responses for unknown paths and unsupported methods. */
+	@Test
+	public void testUnknownEndpoints() throws Exception {
+		try (Response response = client.newCall(new Request.Builder().url(url("/unknown")).build()).execute()) {
+			assertThat(response.code()).isEqualTo(404);
+		}
+		Request deleteRequest = new Request.Builder().url(url("/partition")).delete().build();
+		try (Response response = client.newCall(deleteRequest).execute()) {
+			assertThat(response.code()).isEqualTo(405);
+		}
+	}
+
+	/** Tests that errors of the resource are reported like with Jersey. */
+	@Test
+	public void testBadRequest() throws Exception {
+		Request request = new Request.Builder().url(url("/partition"))
+				.put(RequestBody.create(MediaType.parse("text/plain; charset=utf-8"), new byte[0])).build();
+		try (Response response = client.newCall(request).execute()) {
+			assertThat(response.code()).isEqualTo(500);
+			assertThat(response.body().string()).startsWith("Message: The new partition name is missing");
+		}
+	}
+
+	private static String url(String path) {
+		return "http://localhost:8081" + path;
+	}
+}
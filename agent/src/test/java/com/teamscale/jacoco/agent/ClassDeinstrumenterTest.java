@@ -0,0 +1,78 @@
+package com.teamscale.jacoco.agent;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Tests the {@link ClassDeinstrumenter}. */
+public class ClassDeinstrumenterTest {
+
+	private static final String CLASS_NAME = ClassDeinstrumenterTest.class.getName().replace('.', '/');
+
+	private final Instrumentation instrumentation = mock(Instrumentation.class);
+
+	private ClassDeinstrumenter deinstrumenter;
+
+	@BeforeEach
+	public void setUp() {
+		when(instrumentation.getAllLoadedClasses())
+				.thenReturn(new Class<?>[]{String.class, ClassDeinstrumenterTest.class});
+		when(instrumentation.isModifiableClass(any())).thenReturn(true);
+		deinstrumenter = ClassDeinstrumenter.register(instrumentation);
+	}
+
+	@Test
+	public void registersRetransformingTransformer() {
+		verify(instrumentation).addTransformer(any(ClassFileTransformer.class), eq(true));
+	}
+
+	@Test
+	public void deinstrumentsClassOnceAllProbesWereHitAcrossDumps() throws Exception {
+		deinstrumenter.add(store(true, false));
+		verify(instrumentation, never()).retransformClasses(any());
+		assertThat(deinstrumenter.isDeinstrumentedClassName(CLASS_NAME)).isFalse();
+
+		deinstrumenter.add(store(false, true));
+		verify(instrumentation).retransformClasses(ClassDeinstrumenterTest.class);
+		assertThat(deinstrumenter.isDeinstrumentedClassName(CLASS_NAME)).isTrue();
+		assertThat(deinstrumenter.isDeinstrumentedClassId(1)).isTrue();
+
+		// already de-instrumented classes are not retransformed again
+		deinstrumenter.add(store(true, true));
+		verify(instrumentation, times(1)).retransformClasses(any());
+	}
+
+	@Test
+	public void reinstrumentsClassesAndForgetsCollectedProbes() throws Exception {
+		deinstrumenter.add(store(true, true));
+		deinstrumenter.reinstrumentAll();
+
+		verify(instrumentation, times(2)).retransformClasses(ClassDeinstrumenterTest.class);
+		assertThat(deinstrumenter.isDeinstrumentedClassId(1)).isFalse();
+
+		deinstrumenter.add(store(true, false));
+		deinstrumenter.reinstrumentAll();
+		deinstrumenter.add(store(false, true));
+		assertThat(deinstrumenter.isDeinstrumentedClassId(1)).isFalse();
+		assertThat(deinstrumenter.estimateRetainedBytes()).isEqualTo(2);
+	}
+
+	private static ExecutionDataStore store(boolean... probes) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		store.put(new ExecutionData(1, CLASS_NAME, probes));
+		return store;
+	}
+}
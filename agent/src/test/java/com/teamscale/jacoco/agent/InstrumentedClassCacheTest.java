@@ -0,0 +1,88 @@
+package com.teamscale.jacoco.agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link InstrumentedClassCache}. */
+public class InstrumentedClassCacheTest {
+
+	private static final byte[] ORIGINAL = {1, 2, 3};
+
+	private static final byte[] INSTRUMENTED = {1, 2, 3, 4, 5};
+
+	@TempDir
+	Path cacheDirectory;
+
+	@Test
+	public void returnsCachedClassesToOtherInstancesWithTheSameConfiguration() {
+		new InstrumentedClassCache(cacheDirectory, 1024, "config").put("com/example/A", ORIGINAL, INSTRUMENTED);
+
+		assertThat(new InstrumentedClassCache(cacheDirectory, 1024, "config").get("com/example/A", ORIGINAL))
+				.containsExactly(INSTRUMENTED);
+		assertThat(new InstrumentedClassCache(cacheDirectory, 1024, "other").get("com/example/A", ORIGINAL)).isNull();
+	}
+
+	@Test
+	public void ignoresEntriesOfOtherClasses() {
+		InstrumentedClassCache cache = new InstrumentedClassCache(cacheDirectory, 1024, "config");
+		cache.put("com/example/A", ORIGINAL, INSTRUMENTED);
+
+		assertThat(cache.get("com/example/B", ORIGINAL)).isNull();
+		assertThat(cache.get("com/example/A", new byte[]{3, 2, 1})).isNull();
+	}
+
+	@Test
+	public void ignoresCorruptEntries() throws IOException {
+		InstrumentedClassCache cache = new InstrumentedClassCache(cacheDirectory, 1024, "config");
+		cache.put("com/example/A", ORIGINAL, INSTRUMENTED);
+		Path entry = listEntries().get(0);
+		byte[] content = Files.readAllBytes(entry);
+		Files.write(entry, Arrays.copyOf(content, content.length - 1));
+
+		assertThat(cache.get("com/example/A", ORIGINAL)).isNull();
+	}
+
+	@Test
+	public void stopsWritingWhenTheLimitIsReached() {
+		InstrumentedClassCache cache = new InstrumentedClassCache(cacheDirectory, 8, "config");
+		cache.put("com/example/A", ORIGINAL, INSTRUMENTED);
+		cache.put("com/example/B", new byte[]{4}, INSTRUMENTED);
+
+		assertThat(cache.get("com/example/A", ORIGINAL)).containsExactly(INSTRUMENTED);
+		assertThat(cache.get("com/example/B", new byte[]{4})).isNull();
+	}
+
+	@Test
+	public void evictsOldestEntriesOfAllConfigurations() throws IOException {
+		new InstrumentedClassCache(cacheDirectory, 1024, "old").put("com/example/A", ORIGINAL, INSTRUMENTED);
+		Path oldEntry = listEntries().get(0);
+		Files.setLastModifiedTime(oldEntry, FileTime.fromMillis(0));
+		InstrumentedClassCache cache = new InstrumentedClassCache(cacheDirectory, 1024, "new");
+		cache.put("com/example/A", ORIGINAL, INSTRUMENTED);
+		long entrySize = Files.size(oldEntry);
+
+		new InstrumentedClassCache(cacheDirectory, 2 * entrySize - 1, "new").evictOldEntries();
+
+		assertThat(oldEntry).doesNotExist();
+		assertThat(cache.get("com/example/A", ORIGINAL)).containsExactly(INSTRUMENTED);
+	}
+
+	private List<Path> listEntries() {
+		try (Stream<Path> files = Files.walk(cacheDirectory)) {
+			return files.filter(Files::isRegularFile).collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
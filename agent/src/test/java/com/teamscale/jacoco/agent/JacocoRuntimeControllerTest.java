@@ -0,0 +1,103 @@
+package com.teamscale.jacoco.agent;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.agent.rt.internal_0e20598.Agent;
+import org.jacoco.agent.rt.internal_0e20598.IExceptionLogger;
+import org.jacoco.agent.rt.internal_0e20598.core.runtime.AgentOptions;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the {@link JacocoRuntimeController} against JaCoCo's own agent, whose runtime data it accesses directly.
+ */
+public class JacocoRuntimeControllerTest {
+
+	private Agent agent;
+	private JacocoRuntimeController controller;
+
+	/**
+	 * Creates a separate agent instead of using {@link Agent#getInstance}, since the tests themselves may run with
+	 * JaCoCo's agent attached and must not reset its data.
+	 */
+	@BeforeEach
+	public void setUp() throws Exception {
+		Constructor<Agent> constructor = Agent.class.getDeclaredConstructor(AgentOptions.class,
+				IExceptionLogger.class);
+		constructor.setAccessible(true);
+		agent = constructor.newInstance(new AgentOptions(), IExceptionLogger.SYSTEM_ERR);
+		agent.setSessionId("session");
+		controller = new JacocoRuntimeController(agent);
+	}
+
+	@Test
+	public void dumpCopiesTheProbesOfClassesWithHits() throws Exception {
+		boolean[] hitProbes = registerClass(1, "com/example/Hit", 3);
+		hitProbes[0] = true;
+		hitProbes[2] = true;
+		boolean[] unhitProbes = registerClass(2, "com/example/NotHit", 2);
+
+		Dump dump = controller.dumpAndReset();
+
+		assertThat(dump.getInfo().getId()).isEqualTo("session");
+		assertThat(dump.getStore().getContents()).extracting(ExecutionData::getName)
+				.containsExactly("com/example/Hit");
+		ExecutionData data = dump.getStore().get(1);
+		// the reset clears the live probes in place, so the dump must not alias them
+		assertThat(hitProbes).containsExactly(false, false, false);
+		assertThat(data.getProbes()).containsExactly(true, false, true).isNotSameAs(hitProbes);
+		assertThat(unhitProbes).containsExactly(false, false);
+
+		hitProbes[1] = true;
+		assertThat(data.getProbes()).containsExactly(true, false, true);
+		assertThat(controller.dumpAndReset().getStore().get(1).getProbes()).containsExactly(false, true, false);
+	}
+
+	@Test
+	public void dumpToFileAppendsReadableExecutionData(@TempDir File directory) throws Exception {
+		File file = new File(directory, "coverage.exec");
+		boolean[] probes = registerClass(1, "com/example/Hit", 2);
+		probes[0] = true;
+		controller.dumpToFileAndReset(file);
+		assertThat(probes).containsExactly(false, false);
+
+		probes[1] = true;
+		controller.dumpToFileAndReset(file);
+
+		ExecutionDataStore store = new ExecutionDataStore();
+		List<SessionInfo> sessionInfos = new ArrayList<>();
+		readExecFile(file, store, sessionInfos);
+		assertThat(sessionInfos).extracting(SessionInfo::getId).containsExactly("session", "session");
+		assertThat(store.getContents()).extracting(ExecutionData::getName).containsExactly("com/example/Hit");
+		assertThat(store.get(1).getProbes()).containsExactly(true, true);
+	}
+
+	/** Registers a class with the runtime like an instrumented class does and returns its live probes. */
+	private boolean[] registerClass(long id, String name, int probeCount) {
+		return agent.getData().getExecutionData(id, name, probeCount).getProbes();
+	}
+
+	private static void readExecFile(File file, ExecutionDataStore store,
+									 List<SessionInfo> sessionInfos) throws IOException {
+		try (InputStream inputStream = new FileInputStream(file)) {
+			ExecutionDataReader reader = new ExecutionDataReader(inputStream);
+			reader.setExecutionDataVisitor(store::put);
+			reader.setSessionInfoVisitor(sessionInfos::add);
+			reader.read();
+		}
+	}
+}
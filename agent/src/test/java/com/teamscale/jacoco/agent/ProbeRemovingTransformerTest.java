@@ -0,0 +1,118 @@
+package com.teamscale.jacoco.agent;
+
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfoStore;
+import org.jacoco.core.instr.Instrumenter;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.runtime.LoggerRuntime;
+import org.jacoco.core.runtime.RuntimeData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.IntUnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link ProbeRemovingTransformer}. */
+public class ProbeRemovingTransformerTest {
+
+	private final LoggerRuntime runtime = new LoggerRuntime();
+
+	private final RuntimeData data = new RuntimeData();
+
+	private byte[] originalClassFile;
+
+	private byte[] instrumentedClassFile;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		runtime.startup(data);
+		try (InputStream input = Target.class.getResourceAsStream(Target.class.getSimpleName() + ".class")) {
+			originalClassFile = input.readAllBytes();
+		}
+		instrumentedClassFile = new Instrumenter(runtime).instrument(originalClassFile, Target.class.getName());
+	}
+
+	@AfterEach
+	public void tearDown() {
+		runtime.shutdown();
+	}
+
+	@Test
+	public void instrumentedClassSetsProbes() throws Exception {
+		IntUnaryOperator target = load(instrumentedClassFile);
+
+		assertThat(target.applyAsInt(3)).isEqualTo(6);
+		assertThat(collectProbes()).contains(true);
+	}
+
+	@Test
+	public void removesAllProbesWithoutChangingTheBehavior() throws Exception {
+		long classId = CRC64.classId(originalClassFile);
+		byte[] classFile = ProbeRemovingTransformer.removeProbes(instrumentedClassFile, id -> id == classId);
+
+		assertThat(classFile).isNotNull();
+		IntUnaryOperator target = load(classFile);
+		assertThat(target.applyAsInt(3)).isEqualTo(6);
+		assertThat(target.applyAsInt(-3)).isEqualTo(3);
+		// the probe array still exists, so the probes can be restored by retransforming the class again
+		assertThat(collectProbes()).isNotEmpty().containsOnly(false);
+	}
+
+	@Test
+	public void keepsProbesOfOtherClasses() {
+		assertThat(ProbeRemovingTransformer.removeProbes(instrumentedClassFile, id -> false)).isNull();
+		assertThat(ProbeRemovingTransformer.removeProbes(originalClassFile, id -> true)).isNull();
+	}
+
+	private boolean[] collectProbes() {
+		ExecutionDataStore store = new ExecutionDataStore();
+		data.collect(store, new SessionInfoStore(), false);
+		return store.get(CRC64.classId(originalClassFile)).getProbes();
+	}
+
+	private static IntUnaryOperator load(byte[] classFile) throws ReflectiveOperationException {
+		return (IntUnaryOperator) new TargetClassLoader(classFile).loadClass(Target.class.getName())
+				.getDeclaredConstructor().newInstance();
+	}
+
+	/** The class whose probes are removed. */
+	public static class Target implements IntUnaryOperator {
+
+		@Override
+		public int applyAsInt(int value) {
+			if (value > 0) {
+				return value * 2;
+			}
+			return -value;
+		}
+	}
+
+	/** Defines the given class file for {@link Target} instead of delegating to the parent. */
+	private static class TargetClassLoader extends ClassLoader {
+
+		private final byte[] classFile;
+
+		private TargetClassLoader(byte[] classFile) {
+			super(ProbeRemovingTransformerTest.class.getClassLoader());
+			this.classFile = classFile;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(Target.class.getName())) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> loadedClass = findLoadedClass(name);
+				if (loadedClass == null) {
+					loadedClass = defineClass(name, classFile, 0, classFile.length);
+				}
+				return loadedClass;
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.teamscale.jacoco.agent;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link ProbeSnapshots}. */
+public class ProbeSnapshotsTest {
+
+	private final ProbeSnapshots snapshots = new ProbeSnapshots();
+
+	@Test
+	public void reportsOnlyClassesWithNewHitsWithoutResettingProbes() {
+		boolean[] first = {true, false};
+		boolean[] second = {false, false};
+		List<ProbeSnapshots.LiveProbes> classes = Arrays.asList(live(1, first), live(2, second));
+
+		ExecutionDataStore firstSnapshot = snapshots.snapshot(classes);
+		assertThat(firstSnapshot.getContents()).extracting(ExecutionData::getId).containsExactly(1L);
+		assertThat(first).containsExactly(true, false);
+
+		second[1] = true;
+		assertThat(snapshots.countNewHits(classes)).isEqualTo(1);
+		ExecutionDataStore secondSnapshot = snapshots.snapshot(classes);
+		assertThat(secondSnapshot.getContents()).extracting(ExecutionData::getId).containsExactly(2L);
+
+		assertThat(snapshots.countNewHits(classes)).isEqualTo(0);
+		assertThat(snapshots.snapshot(classes).getContents()).isEmpty();
+	}
+
+	@Test
+	public void reportsAllProbesOfClassesWithNewHits() {
+		boolean[] probes = {true, false, false};
+		List<ProbeSnapshots.LiveProbes> classes = Collections.singletonList(live(1, probes));
+		snapshots.snapshot(classes);
+
+		probes[2] = true;
+		ExecutionDataStore snapshot = snapshots.snapshot(classes);
+
+		assertThat(snapshot.get(1).getProbes()).containsExactly(true, false, true);
+	}
+
+	@Test
+	public void snapshotIsIndependentOfLiveProbes() {
+		boolean[] probes = {true, false};
+		ExecutionDataStore snapshot = snapshots.snapshot(Collections.singletonList(live(1, probes)));
+
+		probes[1] = true;
+
+		assertThat(snapshot.get(1).getProbes()).containsExactly(true, false);
+	}
+
+	@Test
+	public void clearReportsAllHitsAgain() {
+		List<ProbeSnapshots.LiveProbes> classes = Collections.singletonList(live(1, new boolean[]{true, true}));
+		snapshots.snapshot(classes);
+
+		snapshots.clear();
+
+		assertThat(snapshots.countNewHits(classes)).isEqualTo(2);
+		assertThat(snapshots.snapshot(classes).getContents()).extracting(ExecutionData::getId).containsExactly(1L);
+	}
+
+	private static ProbeSnapshots.LiveProbes live(long id, boolean[] probes) {
+		return new ProbeSnapshots.LiveProbes(id, "Class" + id, probes);
+	}
+}
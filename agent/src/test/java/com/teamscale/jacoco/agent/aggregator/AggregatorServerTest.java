@@ -0,0 +1,106 @@
+package com.teamscale.jacoco.agent.aggregator;
+
+import com.teamscale.client.TeamscaleServer;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** Tests the {@link AggregatorServer} together with the {@link AggregatorClient}. */
+public class AggregatorServerTest {
+
+	private static final AggregationKey KEY = new AggregationKey("project", "master:1000", null, null, "unit");
+
+	@TempDir
+	public Path outputDirectory;
+
+	@TempDir
+	public Path tokenDirectory;
+
+	private Path tokenFile;
+
+	private CoverageAggregator aggregator;
+
+	private AggregatorServer server;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		tokenFile = tokenDirectory.resolve("aggregator.token");
+		aggregator = new CoverageAggregator(new TeamscaleServer(), outputDirectory);
+		server = AggregatorServer.start(aggregator, 0, AggregatorToken.create(tokenFile), 2);
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void mergesPushesForTheSameKey() throws IOException {
+		AggregatorClient client = new AggregatorClient(server.getPort(), tokenFile);
+
+		client.push(push(KEY, true, false));
+		client.push(push(KEY, false, true));
+		AggregationKey otherPartition = new AggregationKey("project", "master:1000", null, null, "other");
+		client.push(push(otherPartition, true, false));
+
+		assertThat(aggregator.getCoverage(KEY).get(1).getProbes()).containsExactly(true, true);
+		assertThat(aggregator.getCoverage(otherPartition).get(1).getProbes()).containsExactly(true, false);
+	}
+
+	@Test
+	public void rejectsPushesWithMismatchingProbes() throws IOException {
+		AggregatorClient client = new AggregatorClient(server.getPort(), tokenFile);
+		client.push(push(KEY, true, false));
+
+		assertThatThrownBy(() -> client.push(push(KEY, true))).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	public void failsIfNoAggregatorIsRunning() throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		assertThatThrownBy(() -> new AggregatorClient(port, tokenFile).push(push(KEY, true)))
+				.isInstanceOf(IOException.class);
+	}
+
+	@Test
+	public void rejectsPushesWithoutTheToken() throws IOException {
+		Path wrongTokenFile = tokenDirectory.resolve("other.token");
+		Files.write(wrongTokenFile, Collections.singletonList("guessed"));
+
+		assertThatThrownBy(() -> new AggregatorClient(server.getPort(), wrongTokenFile).push(push(KEY, true)))
+				.isInstanceOf(IOException.class);
+		assertThat(aggregator.getCoverage(KEY)).isNull();
+	}
+
+	@Test
+	@EnabledOnOs({OS.LINUX, OS.MAC})
+	public void onlyTheOwnerCanReadTheToken() throws IOException {
+		assertThat(Files.getPosixFilePermissions(tokenFile))
+				.containsExactlyInAnyOrder(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+	}
+
+	private static CoveragePush push(AggregationKey key, boolean... probes) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		store.put(new ExecutionData(1, "com/example/Foo", probes));
+		return new CoveragePush(key, Collections.singletonList("/app/classes"), "com.example.*", null, false, store);
+	}
+}
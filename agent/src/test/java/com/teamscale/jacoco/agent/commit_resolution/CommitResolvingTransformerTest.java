@@ -0,0 +1,112 @@
+package com.teamscale.jacoco.agent.commit_resolution;
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/** Tests the {@link CommitResolvingTransformer}. */
+public class CommitResolvingTransformerTest {
+
+	private final Instrumentation instrumentation = mock(Instrumentation.class);
+
+	private final RecordingHandler handler = new RecordingHandler();
+
+	private final CommitResolvingTransformer transformer = new CommitResolvingTransformer(instrumentation,
+			new ClasspathWildcardIncludeFilter("com.example.*", null), Collections.singletonList(handler));
+
+	@Test
+	public void passesEachLocationOnlyOnce() throws Exception {
+		ProtectionDomain app = createProtectionDomain("app.jar");
+		ProtectionDomain lib = createProtectionDomain("lib.jar");
+
+		transform("com/example/A", app);
+		transform("com/example/B", app);
+		transform("com/example/C", lib);
+
+		assertThat(handler.handledClasses).containsExactly("com/example/A", "com/example/C");
+	}
+
+	@Test
+	public void alwaysPassesRelevantClasses() throws Exception {
+		ProtectionDomain app = createProtectionDomain("app.jar");
+		handler.relevantClass = "com/example/Marker";
+
+		transform("com/example/A", app);
+		transform("com/example/Marker", app);
+
+		assertThat(handler.handledClasses).containsExactly("com/example/A", "com/example/Marker");
+	}
+
+	@Test
+	public void ignoresJdkAndExcludedClasses() throws Exception {
+		ProtectionDomain app = createProtectionDomain("app.jar");
+
+		transform("java/sql/Driver", app);
+		transform("org/other/A", app);
+		transform("com/example/A", null);
+
+		assertThat(handler.handledClasses).isEmpty();
+	}
+
+	@Test
+	public void removesItselfOnceAllHandlersAreDone() throws Exception {
+		ProtectionDomain app = createProtectionDomain("app.jar");
+		transform("com/example/A", app);
+		verify(instrumentation, never()).removeTransformer(transformer);
+
+		handler.done = true;
+		transform("com/example/B", createProtectionDomain("lib.jar"));
+
+		verify(instrumentation).removeTransformer(transformer);
+		assertThat(handler.handledClasses).containsExactly("com/example/A");
+	}
+
+	private void transform(String className, ProtectionDomain protectionDomain) {
+		assertThat(transformer.transform(null, className, null, protectionDomain, new byte[0])).isNull();
+	}
+
+	private static ProtectionDomain createProtectionDomain(String jarName) throws MalformedURLException {
+		URL location = new File(jarName).toURI().toURL();
+		return new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null);
+	}
+
+	/** Records the classes it handles. */
+	private static class RecordingHandler implements ICodeLocationHandler {
+
+		private final List<String> handledClasses = new ArrayList<>();
+
+		private String relevantClass;
+
+		private volatile boolean done;
+
+		@Override
+		public boolean isRelevantClass(String className) {
+			return className.equals(relevantClass);
+		}
+
+		@Override
+		public void handle(String className, URL location) {
+			handledClasses.add(className);
+		}
+
+		@Override
+		public boolean isDone() {
+			return done;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.teamscale.jacoco.agent.commit_resolution.sapnwdi;
+
+import com.teamscale.client.CommitDescriptor;
+import com.teamscale.jacoco.agent.commit_resolution.CommitResolvingTransformer;
+import com.teamscale.jacoco.agent.options.sapnwdi.DelayedSapNwdiMultiUploader;
+import com.teamscale.jacoco.agent.options.sapnwdi.SapNwdiApplication;
+import com.teamscale.jacoco.agent.upload.IUploader;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/** Tests the {@link NwdiMarkerClassLocatingHandler}. */
+public class NwdiMarkerClassLocatingHandlerTest {
+
+	@Test
+	public void updatesTheCommitWhenTheApplicationIsRedeployed(@TempDir Path directory) throws Exception {
+		List<CommitDescriptor> commits = new ArrayList<>();
+		DelayedSapNwdiMultiUploader uploader = new DelayedSapNwdiMultiUploader((commit, application) -> {
+			commits.add(commit);
+			return mock(IUploader.class);
+		});
+		SapNwdiApplication application = SapNwdiApplication.parseApplications("com.example.Marker:project").get(0);
+		Instrumentation instrumentation = mock(Instrumentation.class);
+		CommitResolvingTransformer transformer = new CommitResolvingTransformer(instrumentation,
+				new ClasspathWildcardIncludeFilter(null, null), Collections.singletonList(
+				new NwdiMarkerClassLocatingHandler(uploader, Collections.singletonList(application))));
+
+		Path jar = Files.createFile(directory.resolve("app.jar"));
+		Files.setLastModifiedTime(jar, FileTime.fromMillis(1000));
+		transformer.transform(null, "com/example/Marker", null, createProtectionDomain(jar.toFile()), new byte[0]);
+
+		// the redeployed application is loaded from the same location by a new class loader
+		Files.setLastModifiedTime(jar, FileTime.fromMillis(2000));
+		transformer.transform(null, "com/example/Marker", null, createProtectionDomain(jar.toFile()), new byte[0]);
+
+		assertThat(commits).containsExactly(new CommitDescriptor("master", 1000),
+				new CommitDescriptor("master", 2000));
+		verify(instrumentation, never()).removeTransformer(any());
+	}
+
+	private static ProtectionDomain createProtectionDomain(File jar) throws Exception {
+		return new ProtectionDomain(new CodeSource(jar.toURI().toURL(), (Certificate[]) null), null);
+	}
+}
@@ -0,0 +1,94 @@
+package com.teamscale.jacoco.agent.metrics;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link AgentMetrics}. */
+public class AgentMetricsTest {
+
+	private final AgentMetrics metrics = new AgentMetrics();
+
+	@Test
+	public void recordsDumpsConversionsAndUploads() {
+		ExecutionDataStore store = new ExecutionDataStore();
+		store.put(new ExecutionData(1, "A", new boolean[]{true, false, true}));
+		store.put(new ExecutionData(2, "B", new boolean[]{true}));
+
+		metrics.recordDump(System.nanoTime(), store);
+		metrics.recordConversion(System.nanoTime(), 2);
+		metrics.recordUpload(System.nanoTime(), 100, true);
+		metrics.recordUpload(System.nanoTime(), 50, false);
+
+		assertThat(metrics.getDumpCount()).isEqualTo(1);
+		assertThat(metrics.getLastDumpClasses()).isEqualTo(2);
+		assertThat(metrics.getLastDumpHitProbes()).isEqualTo(3);
+		assertThat(metrics.getConversionCount()).isEqualTo(1);
+		assertThat(metrics.getLastConvertedClasses()).isEqualTo(2);
+		assertThat(metrics.getUploadCount()).isEqualTo(2);
+		assertThat(metrics.getUploadedBytes()).isEqualTo(100);
+		assertThat(metrics.getUploadFailures()).isEqualTo(1);
+	}
+
+	@Test
+	public void recordsTheProgressOfUploadRetries() {
+		metrics.recordRetriesQueued(5);
+		metrics.recordRetriesFinished(2, true);
+		metrics.recordRetriesFinished(1, false);
+
+		assertThat(metrics.getPendingRetries()).isEqualTo(2);
+		assertThat(metrics.getCompletedRetries()).isEqualTo(2);
+		assertThat(metrics.getAbandonedRetries()).isEqualTo(1);
+		assertThat(metrics.toPrometheusText()).contains("teamscale_agent_upload_retries_pending 2\n",
+				"teamscale_agent_upload_retries_completed_total 2\n");
+	}
+
+	@Test
+	public void tracksTheUploadRetryMarkersOfThisAgent() {
+		File marker = new File("report.json_upload-retry.properties");
+		File compressedMarker = new File("report.json.gz_upload-retry.properties");
+		File mergedMarker = new File("merged.json_upload-retry.properties");
+
+		metrics.recordRetryMarkerWritten(marker);
+		metrics.recordRetryMarkerWritten(marker.getAbsoluteFile());
+		assertThat(metrics.getRetryBacklog()).isEqualTo(1);
+
+		metrics.recordRetryMarkerMoved(marker, compressedMarker);
+		metrics.recordRetryMarkerCopied(compressedMarker, mergedMarker);
+		assertThat(metrics.getRetryBacklog()).isEqualTo(2);
+
+		// markers of other agents are not counted, even if this agent moves or deletes them
+		metrics.recordRetryMarkerMoved(new File("other.json_upload-retry.properties"),
+				new File("other.json.gz_upload-retry.properties"));
+		metrics.recordRetryMarkerDeleted(new File("unknown.json_upload-retry.properties"));
+		assertThat(metrics.getRetryBacklog()).isEqualTo(2);
+
+		metrics.recordRetryMarkerDeleted(compressedMarker);
+		metrics.recordRetryMarkerDeleted(mergedMarker);
+		assertThat(metrics.getRetryBacklog()).isZero();
+	}
+
+	@Test
+	public void writesPrometheusTextFormat() {
+		metrics.recordUpload(System.nanoTime(), 100, true);
+		metrics.recordRetryMarkerWritten(new File("a.xml_upload-retry.properties"));
+		metrics.recordRetryMarkerWritten(new File("b.xml_upload-retry.properties"));
+		metrics.recordRetryMarkerWritten(new File("c.xml_upload-retry.properties"));
+		metrics.registerCache("probes", () -> 1024);
+		metrics.registerCache("bytecode", () -> 2048);
+
+		String text = metrics.toPrometheusText();
+
+		assertThat(text).contains("# TYPE teamscale_agent_upload_duration_seconds summary\n",
+				"teamscale_agent_upload_duration_seconds_count 1\n", "teamscale_agent_uploaded_bytes_total 100\n",
+				"teamscale_agent_upload_retry_backlog 3\n",
+				"teamscale_agent_cache_heap_bytes{cache=\"bytecode\"} 2048\n",
+				"teamscale_agent_cache_heap_bytes{cache=\"probes\"} 1024\n");
+		assertThat(text).endsWith("\n");
+		assertThat(metrics.getCacheHeapBytes()).isEqualTo(3072);
+	}
+}
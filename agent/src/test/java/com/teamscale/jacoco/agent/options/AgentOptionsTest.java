@@ -1,12 +1,15 @@
 package com.teamscale.jacoco.agent.options;
 
 import com.teamscale.client.CommitDescriptor;
+import com.teamscale.client.EReportFormat;
 import com.teamscale.client.JsonUtils;
 import com.teamscale.client.ProfilerConfiguration;
 import com.teamscale.client.ProfilerRegistration;
 import com.teamscale.client.ProxySystemProperties;
 import com.teamscale.client.TeamscaleProxySystemProperties;
 import com.teamscale.client.TeamscaleServer;
+import com.teamscale.jacoco.agent.aggregator.AggregationKey;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
 import com.teamscale.jacoco.agent.upload.artifactory.ArtifactoryConfig;
 import com.teamscale.jacoco.agent.util.TestUtils;
 import com.teamscale.report.util.CommandLineLogger;
@@ -14,6 +17,7 @@ import okhttp3.HttpUrl;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import org.jacoco.core.data.ExecutionDataStore;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,6 +29,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.function.Predicate;
 
@@ -77,6 +82,109 @@ public class AgentOptionsTest {
 		agentOptions = parseAndMaybeThrow("interval=30");
 		assertThat(agentOptions.shouldDumpInIntervals()).isEqualTo(true);
 		assertThat(agentOptions.getDumpIntervalInMinutes()).isEqualTo(30);
+		agentOptions = parseAndMaybeThrow("interval=90s,interval-jitter=2m");
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofSeconds(90));
+		assertThat(agentOptions.getDumpIntervalJitter()).isEqualTo(Duration.ofMinutes(2));
+		agentOptions = parseAndMaybeThrow("interval=2h,interval-jitter=45");
+		assertThat(agentOptions.getDumpInterval()).isEqualTo(Duration.ofHours(2));
+		assertThat(agentOptions.getDumpIntervalJitter()).isEqualTo(Duration.ofSeconds(45));
+		assertThatThrownBy(() -> parseAndMaybeThrow("interval=5 days")).isInstanceOf(AgentOptionParseException.class);
+	}
+
+	/** Tests the report format of interval dumps. */
+	@Test
+	public void testReportFormat() throws Exception {
+		assertThat(parseAndMaybeThrow("").getReportFormat()).isEqualTo(EReportFormat.JACOCO);
+		assertThat(parseAndMaybeThrow("report-format=teamscale-compact-coverage").getReportFormat())
+				.isEqualTo(EReportFormat.TEAMSCALE_COMPACT_COVERAGE);
+		assertThatThrownBy(() -> parseAndMaybeThrow("report-format=junit"))
+				.hasMessageContaining("'report-format' must be either");
+	}
+
+	/** Tests the options for the instrumentation cache. */
+	@Test
+	public void testInstrumentationCacheOptions() throws Exception {
+		assertThat(parseAndMaybeThrow("").getInstrumentationCacheDirectory()).isNull();
+
+		AgentOptions options = parseAndMaybeThrow(
+				"instrumentation-cache-dir=" + testFolder.getAbsolutePath() + ",instrumentation-cache-max-mb=2");
+		assertThat(options.getInstrumentationCacheDirectory()).isEqualTo(testFolder.toPath());
+		assertThat(options.getInstrumentationCacheMaxBytes()).isEqualTo(2 * 1024 * 1024);
+
+		assertThatThrownBy(() -> parseAndMaybeThrow("instrumentation-cache-max-mb=0"))
+				.hasMessageContaining("'instrumentation-cache-max-mb' must be at least 1");
+	}
+
+	/** Tests the options for pushing dumps to the aggregator. */
+	@Test
+	public void testAggregatorOptions() throws Exception {
+		assertThat(parseAndMaybeThrow("").getAggregatorPort()).isNull();
+
+		AgentOptions options = parseAndMaybeThrow("aggregator-port=7000,aggregator-token-file=aggregator.token,"
+				+ "teamscale-project=p,teamscale-partition=unit,teamscale-commit=master:1000");
+		assertThat(options.getAggregatorPort()).isEqualTo(7000);
+		assertThat(options.getAggregatorTokenFile().getFileName().toString()).isEqualTo("aggregator.token");
+		assertThat(options.createCoveragePush(new ExecutionDataStore()).getKey())
+				.isEqualTo(new AggregationKey("p", "master:1000", null, null, "unit"));
+
+		assertThatThrownBy(() -> parseAndMaybeThrow("aggregator-port=7000,teamscale-project=p"))
+				.hasMessageContaining("'aggregator-port' requires 'teamscale-project', 'teamscale-partition'")
+				.hasMessageContaining("'aggregator-port' requires 'aggregator-token-file'");
+	}
+
+	/** Tests the options for retrying unsuccessful uploads. */
+	@Test
+	public void testUploadRetryOptions() throws Exception {
+		AgentOptions defaultOptions = parseAndMaybeThrow("");
+		assertThat(defaultOptions.getUploadRetryParallelism()).isEqualTo(2);
+		assertThat(defaultOptions.getUploadRetryMaxPerMinute()).isEqualTo(0);
+		assertThat(defaultOptions.getUploadRetryAttempts()).isEqualTo(5);
+
+		AgentOptions options = parseAndMaybeThrow(
+				"upload-retry-parallelism=4,upload-retry-max-per-minute=30,upload-retry-attempts=1");
+		assertThat(options.getUploadRetryParallelism()).isEqualTo(4);
+		assertThat(options.getUploadRetryMaxPerMinute()).isEqualTo(30);
+		assertThat(options.getUploadRetryAttempts()).isEqualTo(1);
+
+		assertThatThrownBy(() -> parseAndMaybeThrow("upload-retry-parallelism=0"))
+				.hasMessageContaining("'upload-retry-parallelism' must be at least 1");
+	}
+
+	/** Tests the options that limit the reports in the output directory. */
+	@Test
+	public void testOutputLimitOptions() throws Exception {
+		AgentOptions defaultOptions = parseAndMaybeThrow("");
+		assertThat(defaultOptions.shouldManageOutput()).isFalse();
+		assertThat(defaultOptions.shouldSpoolExecutionData()).isFalse();
+		assertThat(parseAndMaybeThrow("spool-execution-data=true").shouldSpoolExecutionData()).isTrue();
+
+		AgentOptions options = parseAndMaybeThrow(
+				"output-max-mb=100,output-max-age=48,output-compress=true,output-compact=true");
+		assertThat(options.shouldManageOutput()).isTrue();
+		assertThat(options.getOutputMaxBytes()).isEqualTo(100L * 1024 * 1024);
+		assertThat(options.getOutputMaxAge()).isEqualTo(Duration.ofHours(48));
+		assertThat(options.shouldCompressOutput()).isTrue();
+		assertThat(options.shouldCompactOutput()).isTrue();
+
+		assertThatThrownBy(() -> parseAndMaybeThrow("output-max-mb=-1"))
+				.hasMessageContaining("'output-max-mb' must not be negative");
+	}
+
+	/** Tests the options for the HTTP server implementation. */
+	@Test
+	public void testHttpServerType() throws Exception {
+		AgentOptions defaultOptions = parseAndMaybeThrow("");
+		assertThat(defaultOptions.getHttpServerType()).isEqualTo(EHttpServerType.JETTY);
+		assertThat(defaultOptions.getHttpServerThreads()).isEqualTo(10);
+
+		AgentOptions options = parseAndMaybeThrow(
+				"http-server-type=jdk,http-server-threads=2,http-server-virtual-threads=true");
+		assertThat(options.getHttpServerType()).isEqualTo(EHttpServerType.JDK);
+		assertThat(options.getHttpServerThreads()).isEqualTo(2);
+		assertThat(options.shouldUseHttpServerVirtualThreads()).isTrue();
+
+		assertThatThrownBy(() -> parseAndMaybeThrow("http-server-threads=0"))
+				.hasMessageContaining("'http-server-threads' must be at least 1");
 	}
 
 	/** Tests the options for uploading coverage to teamscale. */
@@ -3,6 +3,7 @@ package com.teamscale.jacoco.agent.options;
 import com.teamscale.client.CommitDescriptor;
 import com.teamscale.client.TeamscaleServer;
 import com.teamscale.jacoco.agent.commit_resolution.git_properties.CommitInfo;
+import com.teamscale.jacoco.agent.server.EHttpServerType;
 import com.teamscale.jacoco.agent.upload.artifactory.ArtifactoryConfig;
 import com.teamscale.report.util.ILogger;
 import okhttp3.HttpUrl;
@@ -15,6 +16,7 @@ import static org.mockito.Mockito.mock;
 public class TestAgentOptionsBuilder {
 
 	private Integer httpServerPort;
+	private EHttpServerType httpServerType = EHttpServerType.JETTY;
 	private final ArtifactoryConfig artifactoryConfig = new ArtifactoryConfig();
 	private final TeamscaleServer teamscaleServer = new TeamscaleServer();
 
@@ -27,6 +29,15 @@ public class TestAgentOptionsBuilder {
 		return this;
 	}
 
+	/**
+	 * Ensures that the {@link AgentOptions} are {@linkplain #create() built} with the given
+	 * {@linkplain AgentOptions#httpServerType HTTP server type}.
+	 */
+	public TestAgentOptionsBuilder withHttpServerType(EHttpServerType httpServerType) {
+		this.httpServerType = httpServerType;
+		return this;
+	}
+
 	/**
 	 * Ensures that the {@link AgentOptions} are {@linkplain #create() built} with the given
 	 * {@linkplain com.teamscale.client.TeamscaleServer#partition Teamscale partition}.
@@ -109,6 +120,7 @@ public class TestAgentOptionsBuilder {
 		AgentOptions agentOptions = new AgentOptions(mock(ILogger.class));
 		agentOptions.teamscaleServer = teamscaleServer;
 		agentOptions.httpServerPort = httpServerPort;
+		agentOptions.httpServerType = httpServerType;
 		agentOptions.artifactoryConfig = artifactoryConfig;
 		return agentOptions;
 	}
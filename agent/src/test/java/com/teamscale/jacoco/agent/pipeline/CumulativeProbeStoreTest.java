@@ -0,0 +1,75 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link CumulativeProbeStore}. */
+public class CumulativeProbeStoreTest {
+
+	private final CumulativeProbeStore store = new CumulativeProbeStore();
+
+	@Test
+	public void returnsOnlyClassesWithNewHits() {
+		store.add(dump(data(1, true, false), data(2, false, true)));
+		Dump firstUpload = store.getNewCoverage();
+		assertThat(firstUpload.getStore().getContents()).extracting(ExecutionData::getId).containsExactlyInAnyOrder(1L,
+				2L);
+		store.markUploaded(firstUpload);
+
+		store.add(dump(data(1, true, false), data(2, true, false)));
+		Dump secondUpload = store.getNewCoverage();
+		assertThat(secondUpload.getStore().getContents()).extracting(ExecutionData::getId).containsExactly(2L);
+		assertThat(secondUpload.getStore().get(2).getProbes()).containsExactly(true, true);
+		store.markUploaded(secondUpload);
+
+		store.add(dump(data(1, true, false), data(2, true, true)));
+		assertThat(store.getNewCoverage()).isNull();
+	}
+
+	@Test
+	public void keepsNewCoverageUntilMarkedAsUploaded() {
+		store.add(dump(data(1, true, false)));
+		assertThat(store.getNewCoverage()).isNotNull();
+
+		store.add(dump(data(1, false, false)));
+		Dump newCoverage = store.getNewCoverage();
+		assertThat(newCoverage.getStore().get(1).getProbes()).containsExactly(true, false);
+	}
+
+	@Test
+	public void returnedDumpIsIndependentOfStore() {
+		store.add(dump(data(1, true, false)));
+		Dump newCoverage = store.getNewCoverage();
+		newCoverage.getStore().get(1).getProbes()[1] = true;
+
+		assertThat(store.getNewCoverage().getStore().get(1).getProbes()).containsExactly(true, false);
+	}
+
+	@Test
+	public void clearForgetsUploadedCoverage() {
+		store.add(dump(data(1, true, false)));
+		store.markUploaded(store.getNewCoverage());
+		store.clear();
+		assertThat(store.getNewCoverage()).isNull();
+
+		store.add(dump(data(1, true, false)));
+		assertThat(store.getNewCoverage()).isNotNull();
+	}
+
+	private static Dump dump(ExecutionData... data) {
+		ExecutionDataStore executionDataStore = new ExecutionDataStore();
+		for (ExecutionData executionData : data) {
+			executionDataStore.put(executionData);
+		}
+		return new Dump(new SessionInfo("session", 0, 1), executionDataStore);
+	}
+
+	private static ExecutionData data(long id, boolean... probes) {
+		return new ExecutionData(id, "Class" + id, probes);
+	}
+}
@@ -0,0 +1,111 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link DumpPipeline}. */
+public class DumpPipelineTest {
+
+	/** Unblocks the first conversion. */
+	private final CountDownLatch releaseConversion = new CountDownLatch(1);
+
+	/** Counted down once the first conversion started. */
+	private final CountDownLatch conversionStarted = new CountDownLatch(1);
+
+	/** The class IDs contained in each converted dump. */
+	private final List<Set<Long>> convertedClassIds = new CopyOnWriteArrayList<>();
+
+	/** The uploaded reports. */
+	private final List<CoverageFile> uploadedFiles = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void mergesDumpsIfQueueIsFull() throws Exception {
+		DumpPipeline pipeline = createPipeline(EBackpressurePolicy.MERGE, 1, 2, 3);
+
+		CompletableFuture<Void> first = pipeline.dump();
+		assertThat(conversionStarted.await(10, TimeUnit.SECONDS)).isTrue();
+		CompletableFuture<Void> second = pipeline.dump();
+		CompletableFuture<Void> third = pipeline.dump();
+		releaseConversion.countDown();
+		pipeline.close();
+
+		assertThat(convertedClassIds).containsExactly(set(1L), set(2L, 3L));
+		assertThat(uploadedFiles).hasSize(2);
+		assertThat(first).isDone();
+		assertThat(second).isDone();
+		assertThat(third).isDone();
+	}
+
+	@Test
+	public void dropsOldestDumpIfQueueIsFull() throws Exception {
+		DumpPipeline pipeline = createPipeline(EBackpressurePolicy.DROP_OLDEST, 1, 2, 3);
+
+		pipeline.dump();
+		assertThat(conversionStarted.await(10, TimeUnit.SECONDS)).isTrue();
+		CompletableFuture<Void> dropped = pipeline.dump();
+		pipeline.dump();
+		assertThat(dropped).isDone();
+		releaseConversion.countDown();
+		pipeline.close();
+
+		assertThat(convertedClassIds).containsExactly(set(1L), set(3L));
+		assertThat(uploadedFiles).hasSize(2);
+	}
+
+	@Test
+	public void collectsStageLatencies() throws Exception {
+		releaseConversion.countDown();
+		DumpPipeline pipeline = createPipeline(EBackpressurePolicy.BLOCK, 1, 2);
+
+		pipeline.dumpAndWait();
+		pipeline.dumpAndWait();
+		pipeline.close();
+
+		assertThat(pipeline.getLatencies()).extracting(StageLatency::getCount).containsExactly(2L, 2L, 2L);
+		assertThat(uploadedFiles).hasSize(2);
+	}
+
+	private DumpPipeline createPipeline(EBackpressurePolicy policy, long... classIds) {
+		Deque<Dump> dumps = new ArrayDeque<>();
+		for (long classId : classIds) {
+			ExecutionDataStore store = new ExecutionDataStore();
+			store.put(new ExecutionData(classId, "Class" + classId, new boolean[]{true}));
+			dumps.add(new Dump(new SessionInfo("session", 1, 2), store));
+		}
+		return new DumpPipeline(dumps::removeFirst, this::convert, uploadedFiles::add, 1, policy);
+	}
+
+	private CoverageFile convert(Dump dump) {
+		conversionStarted.countDown();
+		try {
+			releaseConversion.await();
+		} catch (InterruptedException e) {
+			throw new AssertionError(e);
+		}
+		convertedClassIds.add(dump.getStore().getContents().stream().map(ExecutionData::getId)
+				.collect(Collectors.toSet()));
+		return new CoverageFile(new File("coverage-" + convertedClassIds.size() + ".xml"));
+	}
+
+	private static Set<Long> set(Long... classIds) {
+		return Arrays.stream(classIds).collect(Collectors.toSet());
+	}
+}
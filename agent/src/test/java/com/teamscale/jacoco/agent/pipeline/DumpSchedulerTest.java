@@ -0,0 +1,141 @@
+package com.teamscale.jacoco.agent.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link DumpScheduler}. */
+public class DumpSchedulerTest {
+
+	private static final Duration INTERVAL = Duration.ofMinutes(10);
+
+	/** The simulated current time in nanoseconds. */
+	private long now = 0;
+
+	private int dumps = 0;
+
+	private int hitProbes = 0;
+
+	private double cpuLoad = 0;
+
+	private DumpScheduler scheduler;
+
+	@Test
+	public void dumpsAfterIntervalWithSecondPrecision() {
+		createScheduler(Duration.ofSeconds(30), Duration.ZERO, false, 0, 0);
+
+		advanceAndTick(Duration.ofSeconds(29));
+		assertThat(dumps).isEqualTo(0);
+		advanceAndTick(Duration.ofSeconds(1));
+		assertThat(dumps).isEqualTo(1);
+		advanceAndTick(Duration.ofSeconds(30));
+		assertThat(dumps).isEqualTo(2);
+	}
+
+	@Test
+	public void addsJitterToTheInterval() {
+		Random random = new Random() {
+			@Override
+			public double nextDouble() {
+				return 0.5;
+			}
+		};
+		scheduler = new DumpScheduler(INTERVAL, Duration.ofMinutes(2), false, 0, 0, () -> dumps++,
+				() -> hitProbes, () -> cpuLoad, () -> now, random);
+
+		advance(INTERVAL);
+		scheduler.tick();
+		assertThat(dumps).isEqualTo(0);
+		advance(Duration.ofMinutes(1));
+		scheduler.tick();
+		assertThat(dumps).isEqualTo(1);
+	}
+
+	@Test
+	public void dumpsEarlyOnceEnoughProbesWereHit() {
+		createScheduler(INTERVAL, Duration.ZERO, false, 100, 0);
+
+		hitProbes = 99;
+		advanceAndTick(DumpScheduler.ACTIVITY_CHECK_INTERVAL);
+		assertThat(dumps).isEqualTo(0);
+
+		hitProbes = 100;
+		advanceAndTick(Duration.ofSeconds(1));
+		assertThat(dumps).describedAs("probes are only counted once per check interval").isEqualTo(0);
+		advanceAndTick(DumpScheduler.ACTIVITY_CHECK_INTERVAL);
+		assertThat(dumps).isEqualTo(1);
+	}
+
+	@Test
+	public void backsOffWhileNothingIsCovered() {
+		createScheduler(INTERVAL, Duration.ZERO, true, 0, 0);
+
+		advanceAndTick(INTERVAL);
+		assertThat(dumps).describedAs("dumps without coverage are skipped").isEqualTo(0);
+		hitProbes = 1;
+		advanceAndTick(INTERVAL);
+		assertThat(dumps).describedAs("the interval was doubled").isEqualTo(0);
+		advanceAndTick(INTERVAL);
+		assertThat(dumps).isEqualTo(1);
+		hitProbes = 1;
+		advanceAndTick(INTERVAL);
+		assertThat(dumps).describedAs("the interval is reset after coverage was found").isEqualTo(2);
+	}
+
+	@Test
+	public void backOffIsLimited() {
+		createScheduler(INTERVAL, Duration.ZERO, true, 0, 0);
+
+		for (int i = 0; i < 20; i++) {
+			advanceAndTick(INTERVAL.multipliedBy(DumpScheduler.MAX_BACKOFF_FACTOR));
+		}
+		hitProbes = 1;
+		advanceAndTick(INTERVAL.multipliedBy(DumpScheduler.MAX_BACKOFF_FACTOR));
+		assertThat(dumps).isEqualTo(1);
+	}
+
+	@Test
+	public void postponesDumpWhileCpuIsBusy() {
+		createScheduler(INTERVAL, Duration.ZERO, false, 0, 50);
+
+		cpuLoad = 0.8;
+		advanceAndTick(INTERVAL);
+		assertThat(dumps).isEqualTo(0);
+		cpuLoad = 0.2;
+		advanceAndTick(Duration.ofSeconds(1));
+		assertThat(dumps).isEqualTo(1);
+	}
+
+	@Test
+	public void postponesDumpByAtMostHalfAnInterval() {
+		createScheduler(INTERVAL, Duration.ZERO, false, 0, 50);
+
+		cpuLoad = 0.8;
+		advanceAndTick(INTERVAL);
+		advanceAndTick(INTERVAL.dividedBy(2).minusSeconds(1));
+		assertThat(dumps).isEqualTo(0);
+		advanceAndTick(Duration.ofSeconds(1));
+		assertThat(dumps).isEqualTo(1);
+	}
+
+	private void createScheduler(Duration interval, Duration jitter, boolean backoff, int dumpAfterNewProbes,
+			int maxCpuLoad) {
+		scheduler = new DumpScheduler(interval, jitter, backoff, dumpAfterNewProbes, maxCpuLoad,
+				() -> {
+					dumps++;
+					hitProbes = 0;
+				}, () -> hitProbes, () -> cpuLoad, () -> now, new Random());
+	}
+
+	private void advance(Duration duration) {
+		now += duration.toNanos();
+	}
+
+	private void advanceAndTick(Duration duration) {
+		advance(duration);
+		scheduler.tick();
+	}
+}
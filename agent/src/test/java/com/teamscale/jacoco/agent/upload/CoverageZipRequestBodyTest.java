@@ -0,0 +1,120 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link CoverageZipRequestBody}. */
+public class CoverageZipRequestBodyTest {
+
+	@Test
+	public void zipsReportAndMetadataFiles(@TempDir Path tempDir) throws IOException {
+		Path report = writeReport(tempDir, 1000);
+		Path metadata = Files.write(tempDir.resolve("metadata.json"), "{}".getBytes(StandardCharsets.UTF_8));
+
+		Map<String, byte[]> entries = writeAndUnzip(
+				new CoverageZipRequestBody(new CoverageFile(report.toFile()), "coverage.xml",
+						Collections.singletonList(metadata), 1));
+
+		assertThat(entries.keySet()).containsExactly("coverage.xml", "metadata.json");
+		assertThat(entries.get("coverage.xml")).isEqualTo(Files.readAllBytes(report));
+		assertThat(entries.get("metadata.json")).isEqualTo(Files.readAllBytes(metadata));
+	}
+
+	@Test
+	public void compressesLargeReportsInParallel(@TempDir Path tempDir) throws IOException {
+		Path report = writeReport(tempDir, 500_000);
+		assertThat(Files.size(report)).isGreaterThanOrEqualTo(CoverageZipRequestBody.PARALLEL_COMPRESSION_THRESHOLD);
+		Path metadata = Files.write(tempDir.resolve("metadata.json"), "{}".getBytes(StandardCharsets.UTF_8));
+
+		CoverageZipRequestBody body = new CoverageZipRequestBody(new CoverageFile(report.toFile()), "coverage.xml",
+				Collections.singletonList(metadata), 4);
+		Map<String, byte[]> entries = writeAndUnzip(body);
+
+		assertThat(entries.keySet()).containsExactly("coverage.xml", "metadata.json");
+		assertThat(entries.get("coverage.xml")).isEqualTo(Files.readAllBytes(report));
+		assertThat(entries.get("metadata.json")).isEqualTo(Files.readAllBytes(metadata));
+
+		Path zipFile = tempDir.resolve("coverage.zip");
+		try (OutputStream output = Files.newOutputStream(zipFile)) {
+			Buffer buffer = new Buffer();
+			body.writeTo(buffer);
+			buffer.writeTo(output);
+		}
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			assertThat(zip.size()).isEqualTo(2);
+			assertThat(zip.getEntry("coverage.xml").getSize()).isEqualTo(Files.size(report));
+		}
+	}
+
+	@Test
+	public void computedLengthMatchesWrittenZip(@TempDir Path tempDir) throws IOException {
+		Path report = writeReport(tempDir, 500_000);
+		for (int threads : new int[]{1, 4}) {
+			CoverageZipRequestBody body = new CoverageZipRequestBody(new CoverageFile(report.toFile()), "coverage.xml",
+					Collections.emptyList(), threads);
+			assertThat(body.contentLength()).isEqualTo(-1);
+
+			long length = body.computeContentLength();
+			Buffer buffer = new Buffer();
+			body.writeTo(buffer);
+
+			assertThat(body.contentLength()).isEqualTo(length);
+			assertThat(buffer.size()).isEqualTo(length);
+		}
+	}
+
+	private static Path writeReport(Path directory, int lines) throws IOException {
+		Path report = directory.resolve("coverage.xml");
+		try (Writer writer = Files.newBufferedWriter(report)) {
+			writer.write("<report>\n");
+			for (int i = 0; i < lines; i++) {
+				writer.write("<line nr=\"" + i + "\" mi=\"" + i % 7 + "\" ci=\"" + i % 3 + "\"/>\n");
+			}
+			writer.write("</report>\n");
+		}
+		return report;
+	}
+
+	private static Map<String, byte[]> writeAndUnzip(CoverageZipRequestBody body) throws IOException {
+		Buffer buffer = new Buffer();
+		body.writeTo(buffer);
+
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		try (ZipInputStream zip = new ZipInputStream(buffer.inputStream())) {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				entries.put(entry.getName(), readAll(zip));
+			}
+		}
+		return entries;
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+}
@@ -0,0 +1,97 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.jacoco.CoverageFile;
+import com.teamscale.report.jacoco.dump.Dump;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link ExecutionDataSpool}. */
+public class ExecutionDataSpoolTest {
+
+	@TempDir
+	public Path directory;
+
+	private final List<Dump> convertedDumps = new ArrayList<>();
+
+	private final ExecutionDataSpool spool = new ExecutionDataSpool(dump -> {
+		convertedDumps.add(dump);
+		Path report = directory.resolve("jacoco-converted.xml");
+		Files.write(report, Collections.singletonList("<report/>"));
+		return new CoverageFile(report.toFile());
+	});
+
+	@Test
+	public void replacesTheReportOfAFailedUploadByItsExecutionData() throws Exception {
+		CoverageFile report = writeReport("jacoco-1.xml");
+		spool.write(createDump(1, true, false), report);
+		Files.write(retryFile(report.getFile().toPath()), Collections.singletonList("PROJECT=project"));
+
+		spool.replaceFailedUpload(report);
+
+		Path executionData = directory.resolve("jacoco-1.exec");
+		assertThat(report.getFile()).doesNotExist();
+		assertThat(retryFile(report.getFile().toPath())).doesNotExist();
+		assertThat(executionData).exists();
+		assertThat(retryFile(executionData)).exists();
+	}
+
+	@Test
+	public void deletesTheExecutionDataOfASuccessfulUpload() throws Exception {
+		CoverageFile report = writeReport("jacoco-1.xml");
+		spool.write(createDump(1, true, false), report);
+		// successful uploads delete the report
+		Files.delete(report.getFile().toPath());
+
+		spool.replaceFailedUpload(report);
+
+		assertThat(directory.resolve("jacoco-1.exec")).doesNotExist();
+	}
+
+	@Test
+	public void mergesAllExecutionDataIntoOneReport() throws Exception {
+		CoverageFile first = writeReport("jacoco-1.xml");
+		spool.write(createDump(1, true, false), first);
+		CoverageFile second = writeReport("jacoco-2.xml");
+		spool.write(createDump(1, false, true), second);
+
+		CoverageFile report = spool.convert(Arrays.asList(directory.resolve("jacoco-1.exec").toFile(),
+				directory.resolve("jacoco-2.exec").toFile()));
+
+		assertThat(report.getFile()).exists();
+		assertThat(convertedDumps).hasSize(1);
+		assertThat(convertedDumps.get(0).getStore().get(1).getProbes()).containsExactly(true, true);
+		// the spooled execution data is only deleted once the report is uploaded
+		assertThat(directory.resolve("jacoco-1.exec")).exists();
+	}
+
+	private CoverageFile writeReport(String name) throws IOException {
+		File report = directory.resolve(name).toFile();
+		Files.write(report.toPath(), Collections.singletonList("<report/>"));
+		return new CoverageFile(report);
+	}
+
+	private static Dump createDump(long classId, boolean... probes) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		store.put(new ExecutionData(classId, "com/example/A", probes));
+		return new Dump(new SessionInfo("session", 1, 2), store);
+	}
+
+	private static Path retryFile(Path file) {
+		return file.resolveSibling(file.getFileName() + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+}
@@ -0,0 +1,234 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.report.compact.TeamscaleCompactCoverageReport;
+import com.teamscale.report.compact.TeamscaleCompactCoverageReport.CompactCoverageFileInfo;
+import com.teamscale.report.util.CompactLines;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.tools.ExecFileLoader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link SpoolManager}. */
+public class SpoolManagerTest {
+
+	private static final long NOW = System.currentTimeMillis();
+
+	private static final long HOUR = Duration.ofHours(1).toMillis();
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void deletesReportsOlderThanTheMaximumAge() throws Exception {
+		Path oldReport = writeReport("run1/jacoco-1.xml", "<report/>", NOW - 3 * HOUR, true);
+		Path newReport = writeReport("run2/jacoco-2.xml", "<report/>", NOW - HOUR, true);
+		Path notMarkedReport = writeReport("run1/jacoco-0.xml", "<report/>", NOW - 3 * HOUR, false);
+
+		createSpoolManager(0, Duration.ofHours(2), false, false).maintain(NOW);
+
+		assertThat(oldReport).doesNotExist();
+		assertThat(retryFile(oldReport)).doesNotExist();
+		assertThat(newReport).exists();
+		// reports that do not wait for an upload retry are left alone
+		assertThat(notMarkedReport).exists();
+	}
+
+	@Test
+	public void ignoresReportsThatMayStillBeWritten() throws Exception {
+		Path report = writeReport("run/jacoco-1.xml", "<report/>", NOW, true);
+
+		createSpoolManager(1, Duration.ZERO, true, false).maintain(NOW);
+
+		assertThat(report).exists();
+	}
+
+	@Test
+	public void deletesTheOldestReportsExceedingTheQuota() throws Exception {
+		String content = Stream.generate(() -> "x").limit(400_000).collect(Collectors.joining());
+		Path oldest = writeReport("run1/jacoco-1.xml", content, NOW - 3 * HOUR, true);
+		Path older = writeReport("run2/jacoco-2.xml", content, NOW - 2 * HOUR, true);
+		Path newest = writeReport("run3/jacoco-3.xml", content, NOW - HOUR, true);
+
+		createSpoolManager(1024 * 1024, null, false, false).maintain(NOW);
+
+		assertThat(oldest).doesNotExist();
+		assertThat(older).exists();
+		assertThat(newest).exists();
+	}
+
+	@Test
+	public void mergesCompactCoverageReportsForTheSameTarget() throws Exception {
+		writeCompactReport("run1/compact-coverage-1.json", "commit1", "first", NOW - 2 * HOUR,
+				new CompactLines(1, 2));
+		writeCompactReport("run2/compact-coverage-2.json", "commit1", "second", NOW - HOUR, new CompactLines(3));
+		Path otherCommit = writeCompactReport("run2/compact-coverage-3.json", "commit2", "third", NOW - HOUR,
+				new CompactLines(4));
+
+		createSpoolManager(0, null, false, true).maintain(NOW);
+
+		List<Path> reports = listReports();
+		assertThat(reports).hasSize(2).contains(otherCommit);
+		Path mergedReport = reports.stream().filter(report -> !report.equals(otherCommit)).findFirst().get();
+		assertThat(mergedReport.getParent().getFileName().toString()).isEqualTo("run2");
+		assertThat(mergedReport.toFile().lastModified()).isEqualTo(otherCommit.toFile().lastModified());
+		assertThat(new String(Files.readAllBytes(retryFile(mergedReport)), StandardCharsets.UTF_8))
+				.contains("MESSAGE=second");
+		try (InputStream input = Files.newInputStream(mergedReport)) {
+			assertThat(TeamscaleCompactCoverageReport.readFrom(input).getCoverage().get(0).getFullyCoveredLines())
+					.containsExactly(1, 2, 3);
+		}
+	}
+
+	@Test
+	public void mergesSpooledExecutionDataForTheSameTarget() throws Exception {
+		writeExecutionData("run1/jacoco-1.exec", NOW - 2 * HOUR, true, false);
+		writeExecutionData("run2/jacoco-2.exec", NOW - HOUR, false, true);
+
+		createSpoolManager(0, null, false, true).maintain(NOW);
+
+		List<Path> executionData;
+		try (Stream<Path> files = Files.walk(directory)) {
+			executionData = files.filter(file -> file.getFileName().toString().endsWith(".exec"))
+					.collect(Collectors.toList());
+		}
+		assertThat(executionData).hasSize(1);
+		assertThat(retryFile(executionData.get(0))).exists();
+		ExecFileLoader loader = new ExecFileLoader();
+		loader.load(executionData.get(0).toFile());
+		assertThat(loader.getExecutionDataStore().get(1).getProbes()).containsExactly(true, true);
+	}
+
+	@Test
+	public void quarantinesReportsThatCannotBeMergedAndAppliesTheLimits() throws Exception {
+		Path corruptReport = writeReport("run1/compact-coverage-1.json.gz", "not gzip", NOW - 3 * HOUR, true);
+		Files.write(retryFile(corruptReport), Arrays.asList("PROJECT=project", "COMMIT=commit1", "MESSAGE=corrupt"));
+		writeCompactReport("run1/compact-coverage-2.json", "commit1", "first", NOW - 3 * HOUR, new CompactLines(1));
+		writeCompactReport("run2/compact-coverage-3.json", "commit1", "second", NOW - 3 * HOUR, new CompactLines(2));
+		Path incompatibleExecutionData = writeExecutionData("run1/jacoco-1.exec", NOW - 3 * HOUR, true);
+		Path executionData = writeExecutionData("run2/jacoco-2.exec", NOW - HOUR, false, true);
+		Path oldReport = writeReport("run1/jacoco-0.xml", "<report/>", NOW - 5 * HOUR, true);
+
+		createSpoolManager(0, Duration.ofHours(4), false, true).maintain(NOW);
+
+		// the class of the older execution data has a different number of probes
+		Path quarantinedExecutionData = incompatibleExecutionData.resolveSibling("jacoco-1.exec.corrupt");
+		assertThat(incompatibleExecutionData).doesNotExist();
+		assertThat(quarantinedExecutionData).exists();
+		assertThat(retryFile(incompatibleExecutionData)).doesNotExist();
+		assertThat(retryFile(quarantinedExecutionData)).doesNotExist();
+		assertThat(executionData).exists();
+		assertThat(retryFile(executionData)).exists();
+
+		Path quarantinedReport = corruptReport.resolveSibling("compact-coverage-1.json.gz.corrupt");
+		assertThat(quarantinedReport).exists();
+		assertThat(retryFile(corruptReport)).doesNotExist();
+		List<Path> reports = listReports().stream().filter(report -> !report.equals(quarantinedReport))
+				.collect(Collectors.toList());
+		assertThat(reports).hasSize(1);
+		try (InputStream input = Files.newInputStream(reports.get(0))) {
+			assertThat(TeamscaleCompactCoverageReport.readFrom(input).getCoverage().get(0).getFullyCoveredLines())
+					.containsExactly(1, 2);
+		}
+		assertThat(oldReport).doesNotExist();
+
+		// quarantined reports still count towards the quota
+		createSpoolManager(1, null, false, false).maintain(NOW);
+
+		assertThat(quarantinedReport).doesNotExist();
+		assertThat(quarantinedExecutionData).doesNotExist();
+	}
+
+	@Test
+	public void compressedReportsCanBeDecompressedForTheUpload() throws Exception {
+		Path report = writeReport("run/jacoco-1.xml", "<report/>", NOW - HOUR, true);
+
+		createSpoolManager(0, null, true, false).maintain(NOW);
+
+		Path compressedReport = report.resolveSibling("jacoco-1.xml" + SpoolManager.GZIP_EXTENSION);
+		assertThat(report).doesNotExist();
+		assertThat(compressedReport).exists();
+		assertThat(retryFile(compressedReport)).exists();
+
+		File decompressedReport = SpoolManager.decompress(compressedReport.toFile());
+
+		assertThat(decompressedReport.toPath()).isEqualTo(report).hasContent("<report/>");
+		assertThat(retryFile(report)).exists();
+		assertThat(compressedReport).doesNotExist();
+		assertThat(retryFile(compressedReport)).doesNotExist();
+	}
+
+	private SpoolManager createSpoolManager(long maxBytes, Duration maxAge, boolean compress, boolean compact) {
+		return new SpoolManager(directory, maxBytes, maxAge, compress, compact, false, () -> true);
+	}
+
+	private Path writeReport(String path, String content, long lastModified, boolean markForRetry)
+			throws IOException {
+		Path report = directory.resolve(path);
+		Files.createDirectories(report.getParent());
+		Files.write(report, content.getBytes(StandardCharsets.UTF_8));
+		report.toFile().setLastModified(lastModified);
+		if (markForRetry) {
+			Files.write(retryFile(report), Collections.singletonList("PROJECT=project"));
+		}
+		return report;
+	}
+
+	private Path writeCompactReport(String path, String commit, String message, long lastModified,
+			CompactLines fullyCoveredLines) throws IOException {
+		Path report = directory.resolve(path);
+		Files.createDirectories(report.getParent());
+		try (OutputStream output = Files.newOutputStream(report)) {
+			new TeamscaleCompactCoverageReport(1, Collections.singletonList(
+					new CompactCoverageFileInfo("com/example/A.java", fullyCoveredLines, new CompactLines(), null)))
+					.writeTo(output);
+		}
+		report.toFile().setLastModified(lastModified);
+		Files.write(retryFile(report),
+				Arrays.asList("PROJECT=project", "COMMIT=" + commit, "MESSAGE=" + message));
+		return report;
+	}
+
+	private Path writeExecutionData(String path, long lastModified, boolean... probes) throws IOException {
+		Path executionData = directory.resolve(path);
+		Files.createDirectories(executionData.getParent());
+		try (OutputStream output = Files.newOutputStream(executionData)) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(output);
+			writer.visitSessionInfo(new SessionInfo("session", 1, 2));
+			writer.visitClassExecution(new ExecutionData(1, "com/example/A", probes));
+		}
+		executionData.toFile().setLastModified(lastModified);
+		Files.write(retryFile(executionData), Collections.singletonList("PROJECT=project"));
+		return executionData;
+	}
+
+	private List<Path> listReports() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith("compact-coverage-")
+							&& !file.getFileName().toString().endsWith(RETRY_UPLOAD_FILE_SUFFIX))
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static Path retryFile(Path report) {
+		return report.resolveSibling(report.getFileName() + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+}
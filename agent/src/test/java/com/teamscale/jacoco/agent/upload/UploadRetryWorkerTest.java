@@ -0,0 +1,189 @@
+package com.teamscale.jacoco.agent.upload;
+
+import com.teamscale.client.HttpStatusException;
+import com.teamscale.report.jacoco.CoverageFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.teamscale.jacoco.agent.upload.teamscale.TeamscaleUploader.RETRY_UPLOAD_FILE_SUFFIX;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tests the {@link UploadRetryWorker}. */
+public class UploadRetryWorkerTest {
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void uploadsAllMarkedReportsInTheBackground() throws Exception {
+		Path first = markForRetry(directory.resolve("first.xml"));
+		Path second = markForRetry(directory.resolve("sub").resolve("second.xml"));
+		RecordingUploader uploader = new RecordingUploader(null);
+
+		UploadRetryWorker worker = new UploadRetryWorker(uploader, null, directory, 2, 0, 3);
+		worker.start();
+
+		assertThat(worker.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(uploader.uploadedFiles).containsExactlyInAnyOrder(first.toString(), second.toString());
+		assertThat(retryFile(first)).doesNotExist();
+		assertThat(retryFile(second)).doesNotExist();
+	}
+
+	@Test
+	public void keepsTheRetryFileIfTheUploadFailsPermanently() throws Exception {
+		Path report = markForRetry(directory.resolve("report.xml"));
+		RecordingUploader uploader = new RecordingUploader(new HttpStatusException(403, null, "Forbidden"));
+
+		UploadRetryWorker worker = new UploadRetryWorker(uploader, null, directory, 1, 0, 3);
+		worker.start();
+
+		assertThat(worker.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+		// client errors other than rate limits are not retried
+		assertThat(uploader.uploadedFiles).hasSize(1);
+		assertThat(report).exists();
+		assertThat(retryFile(report)).exists();
+	}
+
+	@Test
+	public void convertsSpooledExecutionDataIntoOneReport() throws Exception {
+		Path first = markForRetry(directory.resolve("jacoco-1.exec"));
+		Path second = markForRetry(directory.resolve("jacoco-2.exec"));
+		Path convertedReport = directory.resolve("jacoco-converted.xml");
+		List<List<File>> convertedFiles = new ArrayList<>();
+		ExecutionDataSpool spool = new ExecutionDataSpool(null) {
+			@Override
+			public CoverageFile convert(Collection<File> executionDataFiles) throws IOException {
+				convertedFiles.add(new ArrayList<>(executionDataFiles));
+				Files.write(convertedReport, Collections.singletonList("<report/>"));
+				return new CoverageFile(convertedReport.toFile());
+			}
+		};
+		RecordingUploader uploader = new RecordingUploader(null) {
+			@Override
+			public List<Map<CoverageFile, Properties>> groupRetries(Map<CoverageFile, Properties> retries) {
+				return Collections.singletonList(retries);
+			}
+		};
+
+		UploadRetryWorker worker = new UploadRetryWorker(uploader, spool, directory, 1, 0, 3);
+		worker.start();
+
+		assertThat(worker.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(convertedFiles).hasSize(1);
+		assertThat(convertedFiles.get(0)).hasSize(2);
+		assertThat(uploader.uploadedFiles).containsExactly(convertedReport.toString());
+		assertThat(first).doesNotExist();
+		assertThat(retryFile(first)).doesNotExist();
+		assertThat(second).doesNotExist();
+	}
+
+	@Test
+	public void keepsTheRetryFileOfReportsThatStillExistAfterTheUpload() throws Exception {
+		Path uploaded = markForRetry(directory.resolve("uploaded.xml"));
+		Path failed = markForRetry(directory.resolve("failed.xml"));
+		RecordingUploader uploader = new RecordingUploader(null) {
+			@Override
+			public void reuploadBatch(Map<CoverageFile, Properties> batch) throws IOException {
+				// uploaders that handle failures themselves keep the reports that were not uploaded
+				if (!batch.keySet().iterator().next().getFile().toPath().equals(failed)) {
+					super.reuploadBatch(batch);
+				}
+			}
+		};
+
+		UploadRetryWorker worker = new UploadRetryWorker(uploader, null, directory, 1, 0, 3);
+		worker.start();
+
+		assertThat(worker.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(uploaded).doesNotExist();
+		assertThat(retryFile(uploaded)).doesNotExist();
+		assertThat(failed).exists();
+		assertThat(retryFile(failed)).exists();
+	}
+
+	@Test
+	public void deletesStaleRetryFiles() throws Exception {
+		Path report = markForRetry(directory.resolve("report.xml"));
+		// the JVM exited after the upload deleted the report, but before its marker was deleted
+		Files.delete(report);
+		RecordingUploader uploader = new RecordingUploader(null);
+
+		UploadRetryWorker worker = new UploadRetryWorker(uploader, null, directory, 1, 0, 3);
+		worker.start();
+
+		assertThat(worker.awaitCompletion(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(uploader.uploadedFiles).isEmpty();
+		assertThat(retryFile(report)).doesNotExist();
+	}
+
+	@Test
+	public void backoffDoublesAndHonoursRetryAfter() {
+		assertThat(UploadRetryWorker.getBackoff(1, null)).isEqualTo(Duration.ofSeconds(5));
+		assertThat(UploadRetryWorker.getBackoff(3, null)).isEqualTo(Duration.ofSeconds(20));
+		assertThat(UploadRetryWorker.getBackoff(20, null)).isEqualTo(Duration.ofMinutes(5));
+		assertThat(UploadRetryWorker.getBackoff(1,
+				new HttpStatusException(429, Duration.ofMinutes(2), "Too Many Requests")))
+				.isEqualTo(Duration.ofMinutes(2));
+		assertThat(UploadRetryWorker.getBackoff(1,
+				new HttpStatusException(503, Duration.ofDays(1), "Service Unavailable")))
+				.isEqualTo(Duration.ofHours(1));
+	}
+
+	private static Path markForRetry(Path report) throws IOException {
+		Files.createDirectories(report.getParent());
+		Files.write(report, Collections.singletonList("<report/>"));
+		Files.write(retryFile(report), Collections.singletonList("PROJECT=project"));
+		return report;
+	}
+
+	private static Path retryFile(Path report) {
+		return report.resolveSibling(report.getFileName() + RETRY_UPLOAD_FILE_SUFFIX);
+	}
+
+	/** Records the uploaded files and fails every upload with the given exception, if any. */
+	private static class RecordingUploader implements IUploadRetry {
+
+		private final List<String> uploadedFiles = Collections.synchronizedList(new ArrayList<>());
+
+		private final IOException failure;
+
+		private RecordingUploader(IOException failure) {
+			this.failure = failure;
+		}
+
+		@Override
+		public void markFileForUploadRetry(CoverageFile coverageFile) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void reupload(CoverageFile coverageFile, Properties properties) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void reuploadBatch(Map<CoverageFile, Properties> batch) throws IOException {
+			batch.keySet().forEach(coverageFile -> uploadedFiles.add(coverageFile.toString()));
+			if (failure != null) {
+				throw failure;
+			}
+			// like the real uploaders, delete the uploaded reports
+			for (CoverageFile coverageFile : batch.keySet()) {
+				Files.delete(coverageFile.getFile().toPath());
+			}
+		}
+	}
+}
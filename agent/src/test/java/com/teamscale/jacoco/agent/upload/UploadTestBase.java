@@ -2,6 +2,7 @@ package com.teamscale.jacoco.agent.upload;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,6 +15,8 @@ import com.teamscale.report.jacoco.CoverageFile;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 /** Base class for tests regarding Teamscale/Artifactory uploads. */
 public class UploadTestBase {
 
@@ -42,11 +45,12 @@ public class UploadTestBase {
 	 * After unsuccessfully uploading coverage, this method starts the agent which
 	 * triggers the automatic upload retry of the remaining coverage.
 	 */
-	protected void startAgentAfterUploadFailure(AgentOptions options) throws UploaderException {
+	protected void startAgentAfterUploadFailure(AgentOptions options) throws UploaderException, InterruptedException {
 		options.setParentOutputDirectory(Paths.get(coverageFile.toString()).getParent());
 		mockWebServer.enqueue(new MockResponse().setResponseCode(200));
 		// Agent is started to check automatic upload retry.
-		new Agent(options, null);
+		Agent agent = new Agent(options, null);
+		assertThat(agent.awaitUploadRetries(10, TimeUnit.SECONDS)).isTrue();
 	}
 
 	/** Shuts down the mock server. */
@@ -28,7 +28,7 @@ public class ArtifactoryUploaderTest extends UploadTestBase {
 		HttpUrl serverUrl = mockWebServer.url("/artifactory/");
 		ArtifactoryConfig artifactoryConfig = generateBasicArtifactoryConfig(serverUrl);
 		artifactoryConfig.apiKey = "some_api_key";
-		uploader = new ArtifactoryUploader(artifactoryConfig, new ArrayList<>(), EReportFormat.JACOCO);
+		uploader = new ArtifactoryUploader(artifactoryConfig, new ArrayList<>(), EReportFormat.JACOCO, 1);
 	}
 
 	/**
@@ -51,7 +51,7 @@ public class ArtifactoryUploaderTest extends UploadTestBase {
 	 * Tests that an unsuccessful upload is automatically retried if the profiler is started.
 	 */
 	@Test
-	public void testAutomaticUploadRetry() throws UploaderException {
+	public void testAutomaticUploadRetry() throws UploaderException, InterruptedException {
 		mockWebServer.enqueue(new MockResponse().setResponseCode(400));
 		uploader.upload(coverageFile);
 		assertThat(Files.exists(Paths.get(coverageFile.toString()))).isEqualTo(true);
@@ -2,8 +2,15 @@ package com.teamscale.jacoco.agent.upload.teamscale;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import org.junit.jupiter.api.Test;
 
@@ -13,8 +20,10 @@ import com.teamscale.jacoco.agent.options.AgentOptions;
 import com.teamscale.jacoco.agent.options.TestAgentOptionsBuilder;
 import com.teamscale.jacoco.agent.upload.UploadTestBase;
 import com.teamscale.jacoco.agent.upload.UploaderException;
+import com.teamscale.report.jacoco.CoverageFile;
 
 import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
 
 /**
  * Tests that the automatic reupload of previously unsuccessful coverage uploads
@@ -27,7 +36,7 @@ public class TeamscaleAutomaticUploadRetryTest extends UploadTestBase {
 	 * leftover coverage on disk.
 	 */
 	@Test
-	void testAutomaticUploadRetry() throws UploaderException {
+	void testAutomaticUploadRetry() throws UploaderException, InterruptedException {
 		TeamscaleServer server = new TeamscaleServer();
 		server.url = mockWebServer.url(serverUrl);
 		server.project = "Fooproject";
@@ -48,4 +57,59 @@ public class TeamscaleAutomaticUploadRetryTest extends UploadTestBase {
 		// A deleted coverage file tells us that the upload was successful.
 		assertThat(Files.notExists(Paths.get(coverageFile.toString()))).isEqualTo(true);
 	}
+
+	/**
+	 * Retries several reports for the same commit and partition in one upload session and merges the compact
+	 * coverage reports among them.
+	 */
+	@Test
+	void testBatchedUploadRetry() throws IOException, InterruptedException {
+		TeamscaleServer server = new TeamscaleServer();
+		server.url = mockWebServer.url(serverUrl);
+		server.userName = "Foo";
+		server.userAccessToken = "Token";
+		TeamscaleUploader uploader = new TeamscaleUploader(server);
+
+		Properties properties = new Properties();
+		properties.setProperty(ETeamscaleServerProperties.PROJECT.name(), "Fooproject");
+		properties.setProperty(ETeamscaleServerProperties.PARTITION.name(), "Test");
+		properties.setProperty(ETeamscaleServerProperties.COMMIT.name(), "master:HEAD");
+		properties.setProperty(ETeamscaleServerProperties.REVISION.name(), "");
+		properties.setProperty(ETeamscaleServerProperties.REPOSITORY.name(), "");
+		properties.setProperty(ETeamscaleServerProperties.MESSAGE.name(), "Foobar");
+		Map<CoverageFile, Properties> retries = new LinkedHashMap<>();
+		retries.put(writeCoverageFile("first.json",
+				"{\"version\":1,\"coverage\":[{\"filePath\":\"Foo.java\",\"fullyCoveredLines\":\"1-2\"}]}"),
+				properties);
+		retries.put(writeCoverageFile("second.json",
+				"{\"version\":1,\"coverage\":[{\"filePath\":\"Foo.java\",\"fullyCoveredLines\":\"4\"}]}"),
+				properties);
+		retries.put(writeCoverageFile("third.xml", "<report/>"), properties);
+
+		mockWebServer.enqueue(new MockResponse().setBody("\"session\""));
+		mockWebServer.enqueue(new MockResponse());
+		mockWebServer.enqueue(new MockResponse());
+		mockWebServer.enqueue(new MockResponse());
+		List<Map<CoverageFile, Properties>> batches = uploader.groupRetries(retries);
+		assertThat(batches).hasSize(1);
+		uploader.reuploadBatch(batches.get(0));
+
+		assertThat(mockWebServer.getRequestCount()).isEqualTo(4);
+		assertThat(mockWebServer.takeRequest().getPath()).contains("/external-analysis/session?")
+				.contains("partition=Test");
+		assertThat(mockWebServer.takeRequest().getPath()).contains("/session/session/report?format=JACOCO");
+		RecordedRequest compactUpload = mockWebServer.takeRequest();
+		assertThat(compactUpload.getPath()).contains("/session/session/report?format=TEAMSCALE_COMPACT_COVERAGE");
+		assertThat(compactUpload.getBody().readUtf8()).contains("\"fullyCoveredLines\":\"1-2,4\"");
+		assertThat(mockWebServer.takeRequest().getPath()).endsWith("/session/session");
+		for (CoverageFile coverageFile : retries.keySet()) {
+			assertThat(coverageFile.getFile()).doesNotExist();
+		}
+	}
+
+	private CoverageFile writeCoverageFile(String name, String content) throws IOException {
+		File file = new File(coverageFile.getFile().getParentFile(), name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return new CoverageFile(file);
+	}
 }
@@ -10,6 +10,7 @@ dependencies {
 	implementation(plugin(libs.plugins.shadow))
 	implementation(plugin(libs.plugins.kotlinShadowRelocator))
 	implementation(plugin(libs.plugins.kotlinJvm))
+	implementation(plugin(libs.plugins.jmh))
 
 	implementation(libs.asm.core)
 	implementation(libs.asm.commons)
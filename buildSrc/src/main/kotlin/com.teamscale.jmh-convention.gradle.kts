@@ -0,0 +1,70 @@
+import groovy.json.JsonSlurper
+
+plugins {
+	java
+	id("me.champeau.jmh")
+}
+
+// Workaround until https://github.com/gradle/gradle/issues/15383 is fixed
+val catalogs = extensions.getByType<VersionCatalogsExtension>()
+val libs = catalogs.named("libs")
+
+jmh {
+	jmhVersion = libs.findVersion("jmh").get().requiredVersion
+	profilers.add("gc")
+	resultFormat = "JSON"
+	providers.gradleProperty("jmh.includes").orNull?.let { includes.add(it) }
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = providers.gradleProperty("jmh.baseline").map { layout.projectDirectory.file(it) }
+	.orElse(layout.buildDirectory.file("jmh-baseline.json"))
+val jmhTolerance = providers.gradleProperty("jmh.tolerance").map { it.toDouble() }.orElse(0.1)
+
+tasks.register("jmhSaveBaseline") {
+	description = "Stores the results of the last jmh run as the baseline for jmhCompare."
+	group = "benchmark"
+	val results = jmhResults
+	val baseline = jmhBaseline
+	doLast {
+		results.get().asFile.copyTo(baseline.get().asFile, overwrite = true)
+	}
+}
+
+tasks.register("jmhCompare") {
+	description = "Fails if a benchmark of the last jmh run got slower or allocates more than the baseline."
+	group = "benchmark"
+	val results = jmhResults
+	val baseline = jmhBaseline
+	val tolerance = jmhTolerance
+	doLast {
+		val expectedScores = readScores(baseline.get().asFile)
+		val regressions = readScores(results.get().asFile).mapNotNull { (metric, score) ->
+			val expected = expectedScores[metric] ?: return@mapNotNull null
+			if (score > expected * (1 + tolerance.get())) "$metric: $expected -> $score" else null
+		}
+		if (regressions.isNotEmpty()) {
+			throw GradleException(
+				"Benchmarks regressed by more than ${tolerance.get() * 100}%:\n" + regressions.joinToString("\n")
+			)
+		}
+	}
+}
+
+/**
+ * Reads the average time and the allocated bytes per operation of each benchmark and parameter combination from a
+ * JMH result file in the JSON format. Lower is better for both.
+ */
+fun readScores(file: File): Map<String, Double> {
+	@Suppress("UNCHECKED_CAST")
+	val runs = JsonSlurper().parse(file) as List<Map<String, Any?>>
+	return runs.flatMap { run ->
+		val name = "${run["benchmark"]}${run["params"] ?: ""}"
+		val primaryMetric = run["primaryMetric"] as Map<*, *>
+		val allocation = (run["secondaryMetrics"] as Map<*, *>?)?.get("gc.alloc.rate.norm") as Map<*, *>?
+		listOfNotNull(
+			"$name [${primaryMetric["scoreUnit"]}]" to (primaryMetric["score"] as Number).toDouble(),
+			allocation?.let { "$name [${it["scoreUnit"]}]" to (it["score"] as Number).toDouble() }
+		)
+	}.toMap()
+}
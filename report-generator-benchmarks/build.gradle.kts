@@ -0,0 +1,11 @@
+plugins {
+	com.teamscale.`java-convention`
+	com.teamscale.`jmh-convention`
+}
+
+dependencies {
+	jmhImplementation(project(":report-generator"))
+	jmhImplementation(project(":teamscale-client"))
+	jmhImplementation(libs.jacoco.core)
+	jmhImplementation(libs.asm.core)
+}
@@ -0,0 +1,66 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.testwise.jacoco.cache.AnalyzerCache;
+import com.teamscale.report.testwise.jacoco.cache.ProbesCache;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the analysis of a jar file with the {@code CachingClassAnalyzer}, i.e. what happens once per class file
+ * when testwise coverage is converted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ClassAnalysisBenchmark {
+
+	@Param({"1000", "10000"})
+	public int classCount;
+
+	private final NopLogger logger = new NopLogger();
+
+	private final ClasspathWildcardIncludeFilter includeAll = new ClasspathWildcardIncludeFilter(null, null);
+
+	private File directory;
+
+	private File jar;
+
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("class-analysis-benchmark").toFile();
+		jar = new SyntheticCodebase(classCount, 20, 42).writeJar(directory);
+	}
+
+	@TearDown
+	public void tearDown() {
+		jar.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public ProbesCache analyzeJar() throws IOException {
+		ProbesCache probesCache = new ProbesCache(logger, EDuplicateClassFileBehavior.IGNORE);
+		new AnalyzerCache(probesCache, includeAll, logger).analyzeAll(jar);
+		return probesCache;
+	}
+}
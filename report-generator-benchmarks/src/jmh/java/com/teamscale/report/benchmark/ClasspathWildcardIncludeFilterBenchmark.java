@@ -0,0 +1,84 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures matching class file paths against many include and exclude patterns, as done for every loaded and every
+ * analyzed class.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ClasspathWildcardIncludeFilterBenchmark {
+
+	/** Number of include patterns. There are half as many exclude patterns. */
+	@Param({"10", "500"})
+	public int patternCount;
+
+	private String includes;
+
+	private String excludes;
+
+	private final List<String> classFilePaths = new ArrayList<>();
+
+	private ClasspathWildcardIncludeFilter warmFilter;
+
+	@Setup
+	public void setUp() {
+		List<String> includePatterns = new ArrayList<>();
+		List<String> excludePatterns = new ArrayList<>();
+		for (int i = 0; i < patternCount; i++) {
+			includePatterns.add("com.example.generated.package" + i + ".*");
+			if (i % 2 == 0) {
+				excludePatterns.add("*.package" + i + ".*Generated?" + i);
+			}
+		}
+		includes = String.join(":", includePatterns);
+		excludes = String.join(":", excludePatterns);
+		for (String className : new SyntheticCodebase(10_000, 0, 42).getClassNames()) {
+			classFilePaths.add("/opt/app/lib/generated.jar@" + className + ".class");
+		}
+		warmFilter = new ClasspathWildcardIncludeFilter(includes, excludes);
+		filterWithCache();
+	}
+
+	/** Compiles the patterns and matches each class once, e.g. when analyzing class files. */
+	@Benchmark
+	public int filter() {
+		return countIncluded(new ClasspathWildcardIncludeFilter(includes, excludes));
+	}
+
+	/** Matches classes that were seen before, e.g. when classes are loaded repeatedly by several class loaders. */
+	@Benchmark
+	public int filterWithCache() {
+		return countIncluded(warmFilter);
+	}
+
+	private int countIncluded(ClasspathWildcardIncludeFilter filter) {
+		int included = 0;
+		for (String path : classFilePaths) {
+			if (filter.isIncluded(path)) {
+				included++;
+			}
+		}
+		return included;
+	}
+}
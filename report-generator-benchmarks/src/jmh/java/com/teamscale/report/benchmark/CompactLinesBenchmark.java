@@ -0,0 +1,78 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.util.CompactLines;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures the set operations on {@link CompactLines} that are used when merging and filtering coverage. */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CompactLinesBenchmark {
+
+	/** The highest line number, i.e. the length of the file. About half of the lines are contained. */
+	@Param({"100", "10000"})
+	public int lineCount;
+
+	private CompactLines lines;
+
+	private CompactLines otherLines;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		lines = randomLines(random);
+		otherLines = randomLines(random);
+	}
+
+	private CompactLines randomLines(Random random) {
+		CompactLines result = new CompactLines();
+		for (int line = 1; line <= lineCount; line++) {
+			if (random.nextBoolean()) {
+				result.add(line);
+			}
+		}
+		return result;
+	}
+
+	@Benchmark
+	public CompactLines add() {
+		CompactLines result = new CompactLines();
+		for (int line : lines) {
+			result.add(line);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public CompactLines merge() {
+		CompactLines result = CompactLines.Companion.compactLinesCopyOf(lines);
+		result.merge(otherLines);
+		return result;
+	}
+
+	@Benchmark
+	public CompactLines intersection() {
+		return lines.intersection(otherLines);
+	}
+
+	@Benchmark
+	public String serialize() {
+		return lines.toString();
+	}
+}
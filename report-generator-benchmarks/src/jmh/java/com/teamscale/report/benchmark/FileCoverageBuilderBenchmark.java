@@ -0,0 +1,77 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.testwise.model.FileCoverage;
+import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures collecting, merging and compacting the covered lines of a file. */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class FileCoverageBuilderBenchmark {
+
+	/** The length of the file. About half of the lines are covered in ranges of up to ten lines. */
+	@Param({"100", "10000"})
+	public int lineCount;
+
+	private int[] rangeStarts;
+
+	private int[] rangeEnds;
+
+	private FileCoverageBuilder coverage;
+
+	private FileCoverageBuilder otherCoverage;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		int rangeCount = lineCount / 10;
+		rangeStarts = new int[rangeCount];
+		rangeEnds = new int[rangeCount];
+		for (int i = 0; i < rangeCount; i++) {
+			rangeStarts[i] = i * 10 + 1;
+			rangeEnds[i] = rangeStarts[i] + random.nextInt(10);
+		}
+		coverage = addRanges();
+		otherCoverage = addRanges();
+		otherCoverage.addLine(lineCount + 1);
+	}
+
+	@Benchmark
+	public FileCoverageBuilder addRanges() {
+		FileCoverageBuilder result = new FileCoverageBuilder("com/example", "Example.java");
+		for (int i = 0; i < rangeStarts.length; i++) {
+			result.addLineRange(rangeStarts[i], rangeEnds[i]);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public FileCoverageBuilder merge() {
+		FileCoverageBuilder result = new FileCoverageBuilder("com/example", "Example.java");
+		result.merge(coverage);
+		result.merge(otherCoverage);
+		return result;
+	}
+
+	@Benchmark
+	public FileCoverage build() {
+		return coverage.build();
+	}
+}
@@ -0,0 +1,31 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.util.ILogger;
+
+/** Discards all log messages, so that logging does not distort the measurements. */
+public class NopLogger implements ILogger {
+
+	@Override
+	public void debug(String message) {
+	}
+
+	@Override
+	public void info(String message) {
+	}
+
+	@Override
+	public void warn(String message) {
+	}
+
+	@Override
+	public void warn(String message, Throwable throwable) {
+	}
+
+	@Override
+	public void error(Throwable throwable) {
+	}
+
+	@Override
+	public void error(String message, Throwable throwable) {
+	}
+}
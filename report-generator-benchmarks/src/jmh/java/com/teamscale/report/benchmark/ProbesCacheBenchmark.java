@@ -0,0 +1,68 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.testwise.jacoco.cache.AnalyzerCache;
+import com.teamscale.report.testwise.jacoco.cache.ProbesCache;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/** Measures looking up the covered lines of all classes of a dump in an already filled {@link ProbesCache}. */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ProbesCacheBenchmark {
+
+	@Param({"1000", "10000"})
+	public int classCount;
+
+	/** Probability that a class is covered by the dump. */
+	@Param({"0.1", "1.0"})
+	public double classHitRatio;
+
+	private final ClasspathWildcardIncludeFilter includeAll = new ClasspathWildcardIncludeFilter(null, null);
+
+	private ProbesCache probesCache;
+
+	private ExecutionDataStore executionData;
+
+	@Setup
+	public void setUp() throws IOException {
+		NopLogger logger = new NopLogger();
+		SyntheticCodebase codebase = new SyntheticCodebase(classCount, 20, 42);
+		File directory = Files.createTempDirectory("probes-cache-benchmark").toFile();
+		File jar = codebase.writeJar(directory);
+		probesCache = new ProbesCache(logger, EDuplicateClassFileBehavior.IGNORE);
+		new AnalyzerCache(probesCache, includeAll, logger).analyzeAll(jar);
+		jar.delete();
+		directory.delete();
+		executionData = codebase.createExecutionData(classHitRatio);
+	}
+
+	@Benchmark
+	public void getCoverage(Blackhole blackhole) throws Exception {
+		for (ExecutionData data : executionData.getContents()) {
+			blackhole.consume(probesCache.getCoverage(data, includeAll));
+		}
+	}
+}
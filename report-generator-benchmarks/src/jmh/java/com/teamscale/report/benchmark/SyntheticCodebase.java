@@ -0,0 +1,195 @@
+package com.teamscale.report.benchmark;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * A generated code base of classes with line numbers and branches, together with matching execution data. All
+ * contents are derived from a seed, so that runs with the same parameters process identical input.
+ */
+public class SyntheticCodebase {
+
+	/** Number of generated packages. Classes are distributed evenly among them. */
+	private static final int PACKAGE_COUNT = 50;
+
+	private final List<GeneratedClass> classes = new ArrayList<>();
+
+	private final Random random;
+
+	/** Generates the given number of classes, each with the given number of methods. */
+	public SyntheticCodebase(int classCount, int methodsPerClass, long seed) {
+		random = new Random(seed);
+		for (int i = 0; i < classCount; i++) {
+			String name = "com/example/generated/package" + (i % PACKAGE_COUNT) + "/Generated" + i;
+			byte[] bytes = createClass(name, methodsPerClass);
+			classes.add(new GeneratedClass(name, bytes, CRC64.classId(bytes), countProbes(bytes)));
+		}
+	}
+
+	/** Returns the internal names of all classes, e.g. "com/example/generated/package1/Generated1". */
+	public List<String> getClassNames() {
+		List<String> names = new ArrayList<>();
+		for (GeneratedClass generatedClass : classes) {
+			names.add(generatedClass.name);
+		}
+		return names;
+	}
+
+	/** Writes all classes to a jar file in the given directory and returns it. */
+	public File writeJar(File directory) throws IOException {
+		File jar = new File(directory, "generated.jar");
+		try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)))) {
+			for (GeneratedClass generatedClass : classes) {
+				out.putNextEntry(new JarEntry(generatedClass.name + ".class"));
+				out.write(generatedClass.bytes);
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	/**
+	 * Creates execution data in which each class is covered with the given probability. Half of the probes of a
+	 * covered class are hit.
+	 */
+	public ExecutionDataStore createExecutionData(double classHitRatio) {
+		ExecutionDataStore store = new ExecutionDataStore();
+		for (GeneratedClass generatedClass : classes) {
+			if (random.nextDouble() >= classHitRatio) {
+				continue;
+			}
+			boolean[] probes = new boolean[generatedClass.probeCount];
+			for (int i = 0; i < probes.length; i++) {
+				probes[i] = random.nextBoolean();
+			}
+			store.put(new ExecutionData(generatedClass.id, generatedClass.name, probes));
+		}
+		return store;
+	}
+
+	/**
+	 * Writes an exec file as the agent does in testwise mode, i.e. one session per test. See
+	 * {@link #createExecutionData(double)} for the coverage of each test.
+	 */
+	public File writeTestwiseExecFile(File directory, int testCount, double classHitRatio) throws IOException {
+		File execFile = new File(directory, "testwise.exec");
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(execFile))) {
+			ExecutionDataWriter writer = new ExecutionDataWriter(out);
+			for (int i = 0; i < testCount; i++) {
+				writer.visitSessionInfo(new SessionInfo(getTestName(i), i, i + 1));
+				createExecutionData(classHitRatio).accept(writer);
+			}
+		}
+		return execFile;
+	}
+
+	/** Returns the uniform path of the test with the given index in the exec file. */
+	public static String getTestName(int index) {
+		return "com/example/GeneratedTest/test" + index;
+	}
+
+	/**
+	 * Creates a class with a constructor and the given number of static methods. Each method spans three lines and
+	 * contains a branch, i.e. "if (x > 0) { x++; } return x;".
+	 */
+	private static byte[] createClass(String name, int methodCount) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+		writer.visitSource(name.substring(name.lastIndexOf('/') + 1) + ".java", null);
+
+		MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		constructor.visitCode();
+		visitLine(constructor, 1);
+		constructor.visitVarInsn(Opcodes.ALOAD, 0);
+		constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		constructor.visitInsn(Opcodes.RETURN);
+		constructor.visitMaxs(0, 0);
+		constructor.visitEnd();
+
+		for (int i = 0; i < methodCount; i++) {
+			int firstLine = 3 + i * 4;
+			MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "method" + i, "(I)I",
+					null, null);
+			method.visitCode();
+			visitLine(method, firstLine);
+			method.visitVarInsn(Opcodes.ILOAD, 0);
+			Label end = new Label();
+			method.visitJumpInsn(Opcodes.IFLE, end);
+			visitLine(method, firstLine + 1);
+			method.visitIincInsn(0, 1);
+			method.visitLabel(end);
+			method.visitLineNumber(firstLine + 2, end);
+			method.visitVarInsn(Opcodes.ILOAD, 0);
+			method.visitInsn(Opcodes.IRETURN);
+			method.visitMaxs(0, 0);
+			method.visitEnd();
+		}
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void visitLine(MethodVisitor method, int line) {
+		Label label = new Label();
+		method.visitLabel(label);
+		method.visitLineNumber(line, label);
+	}
+
+	/** Returns the number of probes JaCoCo inserts into the given class. */
+	private static int countProbes(byte[] bytes) {
+		int[] probeCount = new int[1];
+		ClassProbesVisitor visitor = new ClassProbesVisitor() {
+			@Override
+			public MethodProbesVisitor visitMethod(int access, String name, String descriptor, String signature,
+					String[] exceptions) {
+				return null;
+			}
+
+			@Override
+			public void visitTotalProbeCount(int count) {
+				probeCount[0] = count;
+			}
+		};
+		new ClassReader(bytes).accept(new ClassProbesAdapter(visitor, false), 0);
+		return probeCount[0];
+	}
+
+	private static class GeneratedClass {
+
+		private final String name;
+
+		private final byte[] bytes;
+
+		private final long id;
+
+		private final int probeCount;
+
+		private GeneratedClass(String name, byte[] bytes, long id, int probeCount) {
+			this.name = name;
+			this.bytes = bytes;
+			this.id = id;
+			this.probeCount = probeCount;
+		}
+	}
+}
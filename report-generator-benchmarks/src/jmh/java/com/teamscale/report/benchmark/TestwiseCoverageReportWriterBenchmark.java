@@ -0,0 +1,98 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.client.TestDetails;
+import com.teamscale.report.testwise.TestwiseCoverageReportWriter;
+import com.teamscale.report.testwise.model.ETestExecutionResult;
+import com.teamscale.report.testwise.model.TestExecution;
+import com.teamscale.report.testwise.model.builder.FileCoverageBuilder;
+import com.teamscale.report.testwise.model.builder.TestCoverageBuilder;
+import com.teamscale.report.testwise.model.factory.TestInfoFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Measures writing a testwise coverage report with the {@link TestwiseCoverageReportWriter}. */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class TestwiseCoverageReportWriterBenchmark {
+
+	@Param({"1000"})
+	public int testCount;
+
+	/** Number of files covered by each test. */
+	@Param({"10", "100"})
+	public int filesPerTest;
+
+	private final List<TestDetails> testDetails = new ArrayList<>();
+
+	private final List<TestExecution> testExecutions = new ArrayList<>();
+
+	private final List<TestCoverageBuilder> testCoverage = new ArrayList<>();
+
+	private File directory;
+
+	private File reportFile;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		for (int i = 0; i < testCount; i++) {
+			String uniformPath = SyntheticCodebase.getTestName(i);
+			testDetails.add(new TestDetails(uniformPath, uniformPath, null));
+			testExecutions.add(new TestExecution(uniformPath, 100, ETestExecutionResult.PASSED));
+			TestCoverageBuilder coverage = new TestCoverageBuilder(uniformPath);
+			for (int j = 0; j < filesPerTest; j++) {
+				FileCoverageBuilder fileCoverage = new FileCoverageBuilder("com/example/package" + random.nextInt(50),
+						"Generated" + random.nextInt(10_000) + ".java");
+				for (int line = 1; line < 500; line += 1 + random.nextInt(20)) {
+					fileCoverage.addLineRange(line, line + random.nextInt(5));
+				}
+				coverage.add(fileCoverage);
+			}
+			testCoverage.add(coverage);
+		}
+		directory = Files.createTempDirectory("testwise-writer-benchmark").toFile();
+		reportFile = new File(directory, "testwise.json");
+	}
+
+	@TearDown
+	public void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		TestInfoFactory testInfoFactory = new TestInfoFactory(testDetails, testExecutions);
+		try (TestwiseCoverageReportWriter writer = new TestwiseCoverageReportWriter(testInfoFactory, reportFile,
+				Integer.MAX_VALUE, null)) {
+			testCoverage.forEach(writer);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.teamscale.report.benchmark;
+
+import com.teamscale.report.EDuplicateClassFileBehavior;
+import com.teamscale.report.testwise.jacoco.JaCoCoTestwiseReportGenerator;
+import com.teamscale.report.testwise.model.TestwiseCoverage;
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a testwise exec file with {@link JaCoCoTestwiseReportGenerator#convert(File)} after the
+ * class files have been analyzed, i.e. reading the dumps and looking up their coverage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class TestwiseReportGeneratorBenchmark {
+
+	@Param({"5000"})
+	public int classCount;
+
+	@Param({"100", "1000"})
+	public int testCount;
+
+	private File directory;
+
+	private File jar;
+
+	private File execFile;
+
+	private JaCoCoTestwiseReportGenerator generator;
+
+	@Setup
+	public void setUp() throws IOException {
+		SyntheticCodebase codebase = new SyntheticCodebase(classCount, 20, 42);
+		directory = Files.createTempDirectory("testwise-report-generator-benchmark").toFile();
+		jar = codebase.writeJar(directory);
+		execFile = codebase.writeTestwiseExecFile(directory, testCount, 0.05);
+		generator = new JaCoCoTestwiseReportGenerator(Collections.singletonList(jar),
+				new ClasspathWildcardIncludeFilter(null, null), EDuplicateClassFileBehavior.IGNORE, new NopLogger());
+	}
+
+	@TearDown
+	public void tearDown() {
+		execFile.delete();
+		jar.delete();
+		directory.delete();
+	}
+
+	@Benchmark
+	public TestwiseCoverage convert() throws Exception {
+		return generator.convert(execFile);
+	}
+}
@@ -0,0 +1,79 @@
+package com.teamscale.report.compact
+
+import com.teamscale.report.EDuplicateClassFileBehavior
+import com.teamscale.report.jacoco.CoverageFile
+import com.teamscale.report.jacoco.EmptyReportException
+import com.teamscale.report.jacoco.JaCoCoBasedReportGenerator.Companion.MOST_LIKELY_CAUSE_MESSAGE
+import com.teamscale.report.jacoco.dump.Dump
+import com.teamscale.report.testwise.jacoco.CachingExecutionDataReader
+import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter
+import com.teamscale.report.util.ILogger
+import java.io.File
+import java.io.IOException
+
+/**
+ * Creates compact coverage reports from dumps with the [com.teamscale.report.testwise.jacoco.cache.ProbesCache] that is
+ * also used in testwise mode. Unlike the [CompactCoverageReportGenerator], which analyzes all class files for every
+ * report, the class files are analyzed once and each report only converts the classes with probe hits.
+ *
+ * Lines are marked as covered if any of their probes was hit, so all covered lines are reported as fully covered.
+ *
+ * @param codeDirectoriesOrArchives Directories and zip files that contain class files.
+ * @param locationIncludeFilter Include filter to apply to all locations during class file traversal.
+ * @param duplicateClassFileBehavior Whether to ignore non-identical duplicates of class files.
+ * @param logger The logger.
+ * @param probesCacheFile File in which the analysis results of the class files are cached across processes or null.
+ * @param analyzeInBackground Whether to analyze the class files in the background instead of in the constructor.
+ * Conversions wait until the classes they need have been analyzed.
+ */
+class CachingCompactCoverageReportGenerator @JvmOverloads constructor(
+	codeDirectoriesOrArchives: Collection<File>,
+	private val locationIncludeFilter: ClasspathWildcardIncludeFilter,
+	duplicateClassFileBehavior: EDuplicateClassFileBehavior,
+	logger: ILogger,
+	probesCacheFile: File? = null,
+	analyzeInBackground: Boolean = false
+) {
+	/** Holds the lookups from probes to lines of all analyzed classes. */
+	private val executionDataReader = CachingExecutionDataReader(
+		logger, codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior, probesCacheFile
+	)
+
+	init {
+		if (analyzeInBackground) {
+			executionDataReader.analyzeClassDirsInBackground()
+		} else {
+			executionDataReader.analyzeClassDirs()
+		}
+	}
+
+	/**
+	 * Creates the report and writes it to a file.
+	 *
+	 * @return The file object of the converted report.
+	 */
+	@Throws(IOException::class, EmptyReportException::class, CoverageGenerationException::class)
+	fun convertSingleDumpToReport(dump: Dump, outputFilePath: File): CoverageFile {
+		val report = createReport(dump)
+		if (report.coverage.isEmpty()) {
+			throw EmptyReportException("The generated coverage report is empty. $MOST_LIKELY_CAUSE_MESSAGE")
+		}
+		val coverageFile = CoverageFile(outputFilePath)
+		coverageFile.outputStream.use { report.writeTo(it) }
+		return coverageFile
+	}
+
+	/** Converts the covered classes of the dump into a report with one entry per source file. */
+	@Throws(CoverageGenerationException::class)
+	fun createReport(dump: Dump): TeamscaleCompactCoverageReport {
+		val coverage = executionDataReader.buildCoverage(dump.info.id, dump.store, locationIncludeFilter)
+		val files = coverage.files.map { file ->
+			val filePath = if (file.path.isNotEmpty()) "${file.path}/${file.fileName}" else file.fileName
+			TeamscaleCompactCoverageReport.CompactCoverageFileInfo(
+				filePath, file.coveredLines, partiallyCoveredLines = null
+			)
+		}
+		return TeamscaleCompactCoverageReport(1, files.sortedBy { it.filePath })
+	}
+}
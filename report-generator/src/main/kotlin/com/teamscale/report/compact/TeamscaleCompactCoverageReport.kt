@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize
 import com.teamscale.report.util.CompactLines
 import com.teamscale.report.util.LineRangeDeserializer
 import com.teamscale.report.util.LineRangeSerializer
+import java.io.InputStream
 import java.io.OutputStream
 
 /**
@@ -31,6 +32,45 @@ data class TeamscaleCompactCoverageReport @JsonCreator constructor(
 			.writeValue(output, this)
 	}
 
+	companion object {
+		/** Reads a JSON report as written by [writeTo]. */
+		@JvmStatic
+		fun readFrom(input: InputStream): TeamscaleCompactCoverageReport =
+			ObjectMapper().readValue(input, TeamscaleCompactCoverageReport::class.java)
+
+		/**
+		 * Merges reports of the same code into one report. A line is fully covered if any report fully covers it and
+		 * partially covered if no report fully covers it, but any report partially covers it.
+		 */
+		@JvmStatic
+		fun merge(reports: Collection<TeamscaleCompactCoverageReport>): TeamscaleCompactCoverageReport {
+			val fileInfos = reports.flatMap { it.coverage }.groupBy { it.filePath }.map { (filePath, infos) ->
+				val fullyCoveredLines = CompactLines()
+				val partiallyCoveredLines = CompactLines()
+				var uncoveredLines: CompactLines? = null
+				infos.forEach { info ->
+					fullyCoveredLines merge info.fullyCoveredLines
+					info.partiallyCoveredLines?.let { partiallyCoveredLines merge it }
+					info.uncoveredLines?.let { lines ->
+						uncoveredLines = (uncoveredLines ?: CompactLines()).apply { merge(lines) }
+					}
+				}
+				partiallyCoveredLines.removeAll(fullyCoveredLines)
+				uncoveredLines?.apply {
+					removeAll(fullyCoveredLines)
+					removeAll(partiallyCoveredLines)
+				}
+				CompactCoverageFileInfo(
+					filePath,
+					fullyCoveredLines,
+					partiallyCoveredLines,
+					uncoveredLines
+				)
+			}
+			return TeamscaleCompactCoverageReport(reports.maxOfOrNull { it.version } ?: 1, fileInfos)
+		}
+	}
+
 	/**
 	 * Describes the coverage data for a single file.
 	 * All lists of lines are represented by strings, possibly including ranges (denoted by '-').
@@ -0,0 +1,209 @@
+package com.teamscale.report.jacoco
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter
+import com.teamscale.report.util.ILogger
+import org.jacoco.core.analysis.IClassCoverage
+import org.jacoco.core.analysis.ICoverageVisitor
+import org.jacoco.core.data.ExecutionData
+import org.jacoco.core.data.ExecutionDataStore
+import org.jacoco.core.internal.data.CRC64
+import java.io.File
+import java.io.IOException
+
+/**
+ * Caches the analysis of class files across the reports of a [JaCoCoBasedReportGenerator].
+ *
+ * Analyzing the bytecode is by far the most expensive part of generating a report, but the class files usually don't
+ * change while the generator is in use. Therefore, the class files are only scanned for the first report. For each
+ * class ID, the cache keeps the coverage of the class without probe hits and the coverage for the probes of the most
+ * recent report. Later reports only analyze the classes whose probes changed. To avoid reading the class files again,
+ * the bytecode of classes that had coverage once is kept in memory.
+ *
+ * The class files are scanned again only if a class without bytecode in memory needs to be analyzed or if the execution
+ * data contains class IDs that were not found before, e.g. because an application was redeployed.
+ *
+ * @param codeDirectoriesOrArchives Directories and zip files that contain class files.
+ * @param locationIncludeFilter Include filter to apply to all locations during class file traversal.
+ * @param ignoreUncoveredClasses Whether uncovered classes are removed from the report anyway, so they need not be analyzed.
+ * @param logger The logger.
+ */
+internal class ClassAnalysisCache(
+	private val codeDirectoriesOrArchives: Collection<File>,
+	private val locationIncludeFilter: ClasspathWildcardIncludeFilter,
+	private val ignoreUncoveredClasses: Boolean,
+	private val logger: ILogger
+) {
+
+	/** All classes found in [codeDirectoriesOrArchives] in the order in which they were found. */
+	private var classes: List<CachedClass>? = null
+
+	/** IDs of all classes in [classes]. */
+	private val knownClassIds = mutableSetOf<Long>()
+
+	/** Class IDs from execution data that were not found in [codeDirectoriesOrArchives], e.g. library classes. */
+	private val unknownClassIds = mutableSetOf<Long>()
+
+	/**
+	 * The number of bytes of bytecode and probes kept in memory as of the most recent report. Can be read without
+	 * waiting for a running report.
+	 */
+	@Volatile
+	var retainedBytes = 0L
+		private set
+
+	/**
+	 * Passes the coverage of all classes for the given execution data to the given visitor. Classes are visited in the
+	 * same order as during a scan of [codeDirectoriesOrArchives].
+	 */
+	@Synchronized
+	@Throws(IOException::class)
+	fun visitCoverage(store: ExecutionDataStore, visitor: ICoverageVisitor) {
+		val cachedClasses = classes
+		if (cachedClasses == null || store.containsNewClassIds()) {
+			scan(store, visitor)
+		} else {
+			val classesWithoutBytecode = cachedClasses.filter { it.needsBytecode(store) }.groupBy { it.id }
+			if (classesWithoutBytecode.isNotEmpty()) {
+				logger.debug("Reading the bytecode of ${classesWithoutBytecode.size} classes that were not covered before")
+				loadBytecode(classesWithoutBytecode)
+			}
+			cachedClasses.forEach { it.visitCoverage(store, visitor) }
+		}
+		retainedBytes = classes.orEmpty().sumOf { it.retainedBytes }
+	}
+
+	private fun ExecutionDataStore.containsNewClassIds() =
+		contents.any { it.hasHits() && it.id !in knownClassIds && it.id !in unknownClassIds }
+
+	/** Analyzes all class files and fills the cache from scratch. */
+	@Throws(IOException::class)
+	private fun scan(store: ExecutionDataStore, visitor: ICoverageVisitor) {
+		val scannedClasses = mutableListOf<CachedClass>()
+		codeDirectoriesOrArchives.forEach { file ->
+			createBytecodeAnalyzer { bytecode, location ->
+				val cachedClass = CachedClass(CRC64.classId(bytecode), location)
+				scannedClasses.add(cachedClass)
+				cachedClass.bytecode = bytecode
+				cachedClass.visitCoverage(store, visitor)
+				if (cachedClass.coveredProbes == null) {
+					// only keep the bytecode of classes that are actually used
+					cachedClass.bytecode = null
+				}
+			}.analyzeAll(file)
+		}
+
+		classes = scannedClasses
+		knownClassIds.clear()
+		scannedClasses.mapTo(knownClassIds) { it.id }
+		unknownClassIds.clear()
+		store.contents.filter { it.id !in knownClassIds }.mapTo(unknownClassIds) { it.id }
+	}
+
+	/** Reads the bytecode of the given classes from [codeDirectoriesOrArchives] without analyzing any class. */
+	@Throws(IOException::class)
+	private fun loadBytecode(classesById: Map<Long, List<CachedClass>>) {
+		codeDirectoriesOrArchives.forEach { file ->
+			createBytecodeAnalyzer { bytecode, _ ->
+				classesById[CRC64.classId(bytecode)]?.forEach { it.bytecode = bytecode }
+			}.analyzeAll(file)
+		}
+	}
+
+	/** Creates an analyzer that passes the bytecode of every included class file to the given consumer. */
+	private fun createBytecodeAnalyzer(consumer: (ByteArray, String) -> Unit) =
+		object : FilteringAnalyzer(null, null, locationIncludeFilter, logger) {
+			@Throws(IOException::class)
+			override fun analyzeClass(buffer: ByteArray, location: String) {
+				consumer(buffer, location)
+			}
+		}
+
+	/** The cached analysis results of a single class file. */
+	private inner class CachedClass(
+		/** The class ID, see [CRC64.classId]. */
+		val id: Long,
+		/** The location of the class file, used in error messages. */
+		val location: String
+	) {
+
+		/** The bytecode of the class or null if it was not kept in memory. */
+		var bytecode: ByteArray? = null
+
+		/** Whether [uncoveredCoverage] has been computed. It may be null for classes that JaCoCo does not analyze. */
+		private var isUncoveredCoverageComputed = false
+
+		/** The coverage of this class without any probe hits. */
+		private var uncoveredCoverage: IClassCoverage? = null
+
+		/** The probes [coveredCoverage] was computed for or null if the class was never covered. */
+		var coveredProbes: BooleanArray? = null
+			private set
+
+		/** The coverage for [coveredProbes]. */
+		private var coveredCoverage: IClassCoverage? = null
+
+		/** The number of bytes of bytecode and probes kept in memory for this class. */
+		val retainedBytes: Long
+			get() = (bytecode?.size ?: 0).toLong() + (coveredProbes?.size ?: 0)
+
+		/** Whether the bytecode must be loaded to compute the coverage for the given execution data. */
+		fun needsBytecode(store: ExecutionDataStore): Boolean {
+			if (bytecode != null) {
+				return false
+			}
+			val probes = store.hitProbes()
+			if (probes == null) {
+				return !ignoreUncoveredClasses && !isUncoveredCoverageComputed
+			}
+			return !probes.contentEquals(coveredProbes)
+		}
+
+		/** Passes the coverage of this class for the given execution data to the given visitor. */
+		@Throws(IOException::class)
+		fun visitCoverage(store: ExecutionDataStore, visitor: ICoverageVisitor) {
+			val coverage = getCoverage(store) ?: return
+			try {
+				visitor.visitCoverage(coverage)
+			} catch (e: RuntimeException) {
+				throw IOException("Error while analyzing $location.", e)
+			}
+		}
+
+		@Throws(IOException::class)
+		private fun getCoverage(store: ExecutionDataStore): IClassCoverage? {
+			val probes = store.hitProbes()
+			if (probes == null) {
+				if (ignoreUncoveredClasses) {
+					return null
+				}
+				if (!isUncoveredCoverageComputed) {
+					uncoveredCoverage = analyze(null)
+					isUncoveredCoverageComputed = true
+				}
+				return uncoveredCoverage
+			}
+
+			if (!probes.contentEquals(coveredProbes)) {
+				coveredCoverage = analyze(probes)
+				coveredProbes = probes.clone()
+			}
+			return coveredCoverage
+		}
+
+		private fun ExecutionDataStore.hitProbes() = get(id)?.takeIf { it.hasHits() }?.probes
+
+		/** Analyzes the bytecode with the given probes. Returns null for classes that JaCoCo does not analyze. */
+		@Throws(IOException::class)
+		private fun analyze(probes: BooleanArray?): IClassCoverage? {
+			val classBytecode = bytecode ?: error("Bytecode of $location was not loaded")
+			val store = ExecutionDataStore()
+			if (probes != null) {
+				store.put(ExecutionData(id, location, probes))
+			}
+			var result: IClassCoverage? = null
+			FilteringAnalyzer(store, { result = it }, locationIncludeFilter, logger)
+				.analyzeClass(classBytecode, location)
+			return result
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package com.teamscale.report.jacoco
 
+import com.teamscale.client.EReportFormat
 import okhttp3.MultipartBody
 import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.asRequestBody
@@ -48,10 +49,25 @@ data class CoverageFile(private val coverageFile: File) {
 	val nameWithoutExtension: String
 		get() = coverageFile.nameWithoutExtension
 
+	/** The coverage file on disk. */
+	val file: File
+		get() = coverageFile
+
+	/** The size of the coverage file in bytes. */
+	val length: Long
+		get() = coverageFile.length()
+
 	/** Get the filename of the coverage file.  */
 	val name: String
 		get() = coverageFile.name
 
+	/**
+	 * The format of the report, derived from the file extension: JSON files are compact coverage reports, all others
+	 * JaCoCo XML reports. Since it is derived from the file, it is also known when retrying an upload after a restart.
+	 */
+	val reportFormat: EReportFormat
+		get() = if (coverageFile.extension == "json") EReportFormat.TEAMSCALE_COMPACT_COVERAGE else EReportFormat.JACOCO
+
 	/**
 	 * Delete the coverage file from disk
 	 */
@@ -10,14 +10,23 @@ import com.teamscale.report.util.ClasspathWildcardIncludeFilter
 import com.teamscale.report.util.ILogger
 import org.jacoco.core.analysis.ICoverageVisitor
 import org.jacoco.core.data.ExecutionDataStore
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
 import java.util.zip.ZipInputStream
 
 /**
  * [org.jacoco.core.analysis.Analyzer] that filters the analyzed class files based on a given predicate.
  *
+ * Archives on disk are read via their central directory, so class files rejected by the filter and entries that are
+ * known not to contain class files (e.g. resources) are skipped without inflating them. All other entries are detected
+ * by their header like JaCoCo does, so zip based containers with any extension (e.g. SAP's .sca and .sda files) are
+ * analyzed as well. Nested archives, Pack200 and gzip files as well as executable jars with a prepended shell script
+ * are read as a stream.
+ *
  * @param executionData The execution data store.
  * @param coverageVisitor The coverage visitor.
  * @param locationIncludeFilter The filter for the analyzed class files.
@@ -42,6 +51,67 @@ open class FilteringAnalyzer(
 		return super.analyzeAll(input, location)
 	}
 
+	/** {@inheritDoc}  */
+	@Throws(IOException::class)
+	override fun analyzeAll(file: File): Int {
+		if (!file.isFile) {
+			return super.analyzeAll(file)
+		}
+		// the extension decides, so only files with an unknown extension are opened to look for a zip header
+		return when {
+			ZIP_EXTENSIONS.any { file.name.endsWith(it, ignoreCase = true) } -> analyzeArchive(file)
+			CLASS_FILE_CONTAINER_EXTENSIONS.any { file.name.endsWith(it, ignoreCase = true) } -> super.analyzeAll(file)
+			file.startsWithZipHeader() -> analyzeArchive(file)
+			else -> super.analyzeAll(file)
+		}
+	}
+
+	/**
+	 * Analyzes the given archive with random access to its entries. Falls back to reading the archive as a stream if it
+	 * does not start with a zip header (e.g. executable jars) or cannot be opened as a [ZipFile].
+	 */
+	@Throws(IOException::class)
+	protected open fun analyzeArchive(file: File): Int {
+		if (!file.startsWithZipHeader()) {
+			return super.analyzeAll(file)
+		}
+		val zipFile = try {
+			ZipFile(file)
+		} catch (e: ZipException) {
+			logger.debug("Reading ${file.path} as a stream as it cannot be opened as zip file: ${e.message}")
+			return super.analyzeAll(file)
+		}
+		return zipFile.use { zip ->
+			zip.entries().asSequence()
+				.filter { !it.isDirectory }
+				.sumOf { entry -> analyzeArchiveEntry(zip, entry, "${file.path}@${entry.name}") }
+		}
+	}
+
+	@Throws(IOException::class)
+	private fun analyzeArchiveEntry(zip: ZipFile, entry: ZipEntry, location: String): Int {
+		if (location.endsWith(".class") && !locationIncludeFilter.isIncluded(location)) {
+			logger.debug("Excluding class file $location")
+			return 1
+		}
+		if (entry.name.isKnownNotToContainClassFiles()) {
+			return 0
+		}
+		// only the header of entries with other extensions is inflated to detect whether they contain class files
+		return zip.getInputStream(entry).use { input -> analyzeAll(input, location) }
+	}
+
+	/** Whether an archive entry with this name is known not to contain class files, e.g. because it is a resource. */
+	private fun String.isKnownNotToContainClassFiles() =
+		NON_CLASS_FILE_EXTENSIONS.any { endsWith(it, ignoreCase = true) }
+
+	/** Whether the file starts with the header of a local zip file entry. */
+	private fun File.startsWithZipHeader(): Boolean {
+		val header = ByteArray(ZIP_HEADER.size)
+		val bytesRead = inputStream().use { input -> input.read(header) }
+		return bytesRead == header.size && header.contentEquals(ZIP_HEADER)
+	}
+
 	@Throws(IOException::class)
 	override fun analyzeClass(buffer: ByteArray, location: String) {
 		try {
@@ -75,6 +145,24 @@ open class FilteringAnalyzer(
 				.sum()
 	}
 
+	companion object {
+		/** Header of a local zip file entry. */
+		private val ZIP_HEADER = byteArrayOf(0x50, 0x4B, 0x03, 0x04)
+
+		/** Extensions of files that JaCoCo can analyze, i.e. class files, archives and compressed files. */
+		private val CLASS_FILE_CONTAINER_EXTENSIONS = listOf(".class", ".jar", ".war", ".ear", ".zip", ".gz", ".pack")
+
+		/** Extensions of common archive entries that never contain class files. */
+		private val NON_CLASS_FILE_EXTENSIONS = listOf(
+			".properties", ".xml", ".mf", ".sf", ".rsa", ".dsa", ".txt", ".html", ".htm", ".css", ".js", ".json",
+			".png", ".gif", ".jpg", ".jpeg", ".svg", ".ico", ".java", ".jsp", ".xsd", ".wsdl", ".dtd", ".tld", ".yml",
+			".yaml"
+		)
+
+		/** Extensions of zip archives, which are read via their central directory. */
+		private val ZIP_EXTENSIONS = listOf(".jar", ".war", ".ear", ".zip")
+	}
+
 	/** Copied from [org.jacoco.core.analysis.Analyzer.nextEntry].  */
 	@Throws(IOException::class)
 	private fun ZipInputStream.nextEntry(location: String): ZipEntry? {
@@ -23,6 +23,7 @@ import java.io.OutputStream
  * @param locationIncludeFilter Include filter to apply to all locations during class file traversal.
  * @param ignoreUncoveredClasses Whether to remove uncovered classes from the report.
  * @param logger The logger.
+ * @param createCoverageVisitor Creates the coverage visitor which will be called with all the data found in a dump.
  */
 abstract class JaCoCoBasedReportGenerator<Visitor : ICoverageVisitor>(
 	private val codeDirectoriesOrArchives: Collection<File>,
@@ -30,10 +31,21 @@ abstract class JaCoCoBasedReportGenerator<Visitor : ICoverageVisitor>(
 	private val duplicateClassFileBehavior: EDuplicateClassFileBehavior,
 	private val ignoreUncoveredClasses: Boolean,
 	private val logger: ILogger,
-	/** The coverage visitor which will be called with all the data found in the exec files. */
-	protected val coverageVisitor: Visitor,
+	private val createCoverageVisitor: () -> Visitor,
 ) {
 
+	/** Caches the analysis of the class files across reports. */
+	private val classAnalysisCache = ClassAnalysisCache(
+		codeDirectoriesOrArchives, locationIncludeFilter, ignoreUncoveredClasses, logger
+	)
+
+	/**
+	 * The number of bytes of bytecode and probes that are cached across reports. Does not include the analysis results
+	 * themselves, whose size cannot be determined cheaply.
+	 */
+	val cachedBytes: Long
+		get() = classAnalysisCache.retainedBytes
+
 	/**
 	 * Creates the report and writes it to a file.
 	 *
@@ -43,9 +55,10 @@ abstract class JaCoCoBasedReportGenerator<Visitor : ICoverageVisitor>(
 	fun convertSingleDumpToReport(dump: Dump, outputFilePath: File): CoverageFile {
 		val coverageFile = CoverageFile(outputFilePath)
 		val mergedStore = dump.store
-		analyzeStructureAndAnnotateCoverage(mergedStore)
+		val coverageVisitor = createCoverageVisitor()
+		analyzeStructureAndAnnotateCoverage(mergedStore, coverageVisitor)
 		coverageFile.outputStream.use { outputStream ->
-			createReport(outputStream, dump.info, mergedStore)
+			createReport(outputStream, dump.info, mergedStore, coverageVisitor)
 		}
 		return coverageFile
 	}
@@ -67,7 +80,8 @@ abstract class JaCoCoBasedReportGenerator<Visitor : ICoverageVisitor>(
 	protected abstract fun createReport(
 		output: OutputStream,
 		sessionInfo: SessionInfo?,
-		store: ExecutionDataStore
+		store: ExecutionDataStore,
+		coverageVisitor: Visitor
 	)
 
 	/**
@@ -75,14 +89,11 @@ abstract class JaCoCoBasedReportGenerator<Visitor : ICoverageVisitor>(
 	 * report with the coverage in the given store.
 	 */
 	@Throws(IOException::class)
-	private fun analyzeStructureAndAnnotateCoverage(store: ExecutionDataStore) {
-		codeDirectoriesOrArchives.forEach { file ->
-			FilteringAnalyzer(store, EnhancedCoverageVisitor(), locationIncludeFilter, logger)
-				.analyzeAll(file)
-		}
+	private fun analyzeStructureAndAnnotateCoverage(store: ExecutionDataStore, coverageVisitor: Visitor) {
+		classAnalysisCache.visitCoverage(store, EnhancedCoverageVisitor(coverageVisitor))
 	}
 
-	private inner class EnhancedCoverageVisitor : ICoverageVisitor {
+	private inner class EnhancedCoverageVisitor(private val coverageVisitor: Visitor) : ICoverageVisitor {
 
 		private val classIdByClassName: MutableMap<String, Long> = mutableMapOf()
 
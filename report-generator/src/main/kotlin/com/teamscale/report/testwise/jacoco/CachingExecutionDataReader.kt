@@ -3,41 +3,91 @@ package com.teamscale.report.testwise.jacoco
 import com.teamscale.report.EDuplicateClassFileBehavior
 import com.teamscale.report.jacoco.dump.Dump
 import com.teamscale.report.testwise.jacoco.cache.AnalyzerCache
+import com.teamscale.report.testwise.jacoco.cache.CoverageGenerationException
+import com.teamscale.report.testwise.jacoco.cache.PersistentProbesCache
 import com.teamscale.report.testwise.jacoco.cache.ProbesCache
 import com.teamscale.report.testwise.model.builder.TestCoverageBuilder
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter
 import com.teamscale.report.util.ILogger
 import org.jacoco.core.data.ExecutionDataStore
 import java.io.File
+import java.util.concurrent.Executors
 import java.util.function.Consumer
+import kotlin.concurrent.thread
 
 /**
  * Helper class for analyzing class files, reading execution data, and converting them to coverage data.
+ *
+ * @param probesCacheFile File to load the analysis results of previous runs from and to store them in, or null to
+ * analyze all classes from scratch.
  */
-open class CachingExecutionDataReader(
+open class CachingExecutionDataReader @JvmOverloads constructor(
 	private val logger: ILogger,
 	private val classesDirectories: Collection<File>,
 	private val locationIncludeFilter: ClasspathWildcardIncludeFilter,
-	private val duplicateClassFileBehavior: EDuplicateClassFileBehavior
+	private val duplicateClassFileBehavior: EDuplicateClassFileBehavior,
+	private val probesCacheFile: File? = null
 ) {
 	private val probeCache: ProbesCache by lazy {
-		ProbesCache(logger, duplicateClassFileBehavior)
+		ProbesCache(
+			logger, duplicateClassFileBehavior,
+			probesCacheFile?.let { PersistentProbesCache.open(it, logger) }
+		)
 	}
 
 	/**
-	 * Analyzes class directories and creates a lookup of probes to methods.
+	 * Analyzes class directories and creates a lookup of probes to methods. The class files are read on the calling
+	 * thread and analyzed in parallel.
 	 */
 	fun analyzeClassDirs() {
+		probeCache.startAnalysis()
+		analyzeClassDirsAndFinish()
+	}
+
+	/**
+	 * Same as [analyzeClassDirs], but returns immediately. Coverage conversions wait until the classes they need have
+	 * been analyzed.
+	 */
+	fun analyzeClassDirsInBackground() {
+		probeCache.startAnalysis()
+		thread(isDaemon = true, name = "Class file analysis") {
+			analyzeClassDirsAndFinish()
+		}
+	}
+
+	private fun analyzeClassDirsAndFinish() {
 		if (classesDirectories.isEmpty()) {
+			probeCache.finishAnalysis()
 			logger.warn("No class directories found for caching.")
 			return
 		}
-		val analyzer = AnalyzerCache(probeCache, locationIncludeFilter, logger)
-		val classCount = classesDirectories
-			.filter { it.exists() }
-			.sumOf { analyzeDirectory(it, analyzer) }
+
+		val executor = Executors.newFixedThreadPool(ANALYSIS_THREAD_COUNT) { runnable ->
+			Thread(runnable, "Class file analysis worker").apply { isDaemon = true }
+		}
+		val classCount: Int
+		try {
+			val analyzer = AnalyzerCache(
+				probeCache, locationIncludeFilter, logger, executor, ANALYSIS_THREAD_COUNT * PENDING_ANALYSES_PER_THREAD
+			)
+			classCount = classesDirectories
+				.filter { it.exists() }
+				.sumOf { analyzeDirectory(it, analyzer) }
+			analyzer.awaitAnalyses()
+		} finally {
+			executor.shutdown()
+			probeCache.finishAnalysis()
+		}
 
 		validateAnalysisResult(classCount)
+		persistProbesCache()
+	}
+
+	/** Writes the analysis results to the [probesCacheFile] so that subsequent runs can reuse them. */
+	private fun persistProbesCache() {
+		val file = probesCacheFile ?: return
+		runCatching { probeCache.persist(file) }
+			.onFailure { e -> logger.warn("Failed to write probes cache $file", e) }
 	}
 
 	/**
@@ -95,23 +145,33 @@ open class CachingExecutionDataReader(
 				.onSuccess(nextConsumer::accept)
 				.onFailure { e -> logger.error("Failed to generate coverage for test $testId", e) }
 		}
+	}
 
-		/**
-		 * Builds coverage for a given test and store.
-		 */
-		private fun buildCoverage(
-			testId: String,
-			executionDataStore: ExecutionDataStore,
-			locationIncludeFilter: ClasspathWildcardIncludeFilter
-		): TestCoverageBuilder {
-			val testCoverage = TestCoverageBuilder(testId)
-			executionDataStore.contents.forEach { executionData ->
-				probeCache.getCoverage(executionData, locationIncludeFilter)?.let {
-					testCoverage.add(it)
-				}
+	/**
+	 * Builds the coverage of the given store with the cached lookups. Only the classes with probe hits are converted,
+	 * so this does not depend on the size of the analyzed class files.
+	 */
+	@Throws(CoverageGenerationException::class)
+	fun buildCoverage(
+		testId: String,
+		executionDataStore: ExecutionDataStore,
+		locationIncludeFilter: ClasspathWildcardIncludeFilter
+	): TestCoverageBuilder {
+		val testCoverage = TestCoverageBuilder(testId)
+		executionDataStore.contents.forEach { executionData ->
+			probeCache.getCoverage(executionData, locationIncludeFilter)?.let {
+				testCoverage.add(it)
 			}
-			probeCache.flushLogger()
-			return testCoverage
 		}
+		probeCache.flushLogger()
+		return testCoverage
+	}
+
+	companion object {
+		/** Number of threads that analyze class files in parallel. */
+		private val ANALYSIS_THREAD_COUNT = Runtime.getRuntime().availableProcessors().coerceAtLeast(1)
+
+		/** Class files per analyzing thread that may wait for their analysis, so the threads never run out of work. */
+		private const val PENDING_ANALYSES_PER_THREAD = 4
 	}
 }
@@ -24,21 +24,31 @@ import java.util.function.Consumer
  * Creates an XML report for an execution data store. The report is grouped by session.
  *
  * The class files under test must be compiled with debug information otherwise no coverage will be collected.
+ *
+ * @param probesCacheFile File in which the analysis results of the class files are cached across processes or null.
+ * @param analyzeInBackground Whether to analyze the class files in the background instead of in the constructor.
+ * Conversions wait until the classes they need have been analyzed.
  */
-open class JaCoCoTestwiseReportGenerator(
+open class JaCoCoTestwiseReportGenerator @JvmOverloads constructor(
 	codeDirectoriesOrArchives: Collection<File>,
 	private val locationIncludeFilter: ClasspathWildcardIncludeFilter,
 	duplicateClassFileBehavior: EDuplicateClassFileBehavior,
-	logger: ILogger
+	logger: ILogger,
+	probesCacheFile: File? = null,
+	analyzeInBackground: Boolean = false
 ) {
 	/** The execution data reader and converter. */
 	private val executionDataReader = CachingExecutionDataReader(
-		logger, codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior
+		logger, codeDirectoriesOrArchives, locationIncludeFilter, duplicateClassFileBehavior, probesCacheFile
 	)
 
 	init {
-		// This has to be unsafe as mockito does not support mocking final classes
-		updateClassDirCache()
+		if (analyzeInBackground) {
+			executionDataReader.analyzeClassDirsInBackground()
+		} else {
+			// This has to be unsafe as mockito does not support mocking final classes
+			updateClassDirCache()
+		}
 	}
 
 	/** Updates the probe cache of the [ExecutionDataReader]. */
@@ -9,23 +9,84 @@ import org.jacoco.core.internal.analysis.StringPool
 import org.jacoco.core.internal.data.CRC64
 import org.jacoco.core.internal.flow.ClassProbesAdapter
 import org.jacoco.core.internal.instr.InstrSupport
+import java.io.File
 import java.io.IOException
-import java.io.InputStream
 import java.nio.file.Files
-import java.nio.file.Paths
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
 
 /**
  * An [AnalyzerCache] instance processes a set of Java class/jar/war/... files and builds a cache for each of the classes.
  *
  * For every class that gets found, [analyzeClass] is called. A class is identified by its class ID, which
  * is a CRC64 checksum of the class file. We process each class with `CachingClassAnalyzer` to fill a cache.
+ *
+ * If an executor is given, the class files are still read on the calling thread, but analyzed by the executor. Call
+ * [awaitAnalyses] to wait until all classes found so far have been analyzed. At most [maxPendingAnalyses] class files
+ * wait for their analysis, so reading blocks if the executor falls behind instead of buffering all class files.
  */
-class AnalyzerCache(
+class AnalyzerCache @JvmOverloads constructor(
 	private val probesCache: ProbesCache,
 	locationIncludeFilter: ClasspathWildcardIncludeFilter,
-	logger: ILogger
+	private val logger: ILogger,
+	private val executor: ExecutorService? = null,
+	maxPendingAnalyses: Int = DEFAULT_MAX_PENDING_ANALYSES
 ) : FilteringAnalyzer(null, null, locationIncludeFilter, logger) {
-	private val stringPool = StringPool()
+
+	/** Shares strings between the analyzed classes. Not thread-safe, so there is one per analyzing thread. */
+	private val stringPool = ThreadLocal.withInitial { StringPool() }
+
+	/** Analyses submitted to the [executor] which may not be finished yet. */
+	private val pendingAnalyses = mutableListOf<Future<*>>()
+
+	/** Permits for the class files that were read but not analyzed yet. */
+	private val pendingAnalysisPermits = Semaphore(maxPendingAnalyses)
+
+	/**
+	 * Registers the class in the [probesCache] and analyzes it, unless it is already contained. Errors are logged, so
+	 * that a single broken class file does not prevent the analysis of all others.
+	 */
+	@Throws(IOException::class)
+	override fun analyzeClass(buffer: ByteArray, location: String) {
+		val classId = CRC64.classId(buffer)
+		if (!probesCache.startClassAnalysis(classId)) {
+			return
+		}
+		val analysis = Runnable {
+			try {
+				super.analyzeClass(buffer, location)
+			} catch (e: Exception) {
+				logger.error("Failed to analyze class file $location. Coverage for this class will be ignored.", e)
+			} finally {
+				probesCache.finishClassAnalysis(classId)
+			}
+		}
+		if (executor == null) {
+			analysis.run()
+			return
+		}
+		pendingAnalysisPermits.acquireUninterruptibly()
+		try {
+			pendingAnalyses.add(executor.submit(Runnable {
+				try {
+					analysis.run()
+				} finally {
+					pendingAnalysisPermits.release()
+				}
+			}))
+		} catch (e: RuntimeException) {
+			pendingAnalysisPermits.release()
+			probesCache.finishClassAnalysis(classId)
+			throw e
+		}
+	}
+
+	/** Waits until all classes passed to [analyzeClass] have been analyzed. */
+	fun awaitAnalyses() {
+		pendingAnalyses.forEach { it.get() }
+		pendingAnalyses.clear()
+	}
 
 	/**
 	 * Analyzes the given class. Instead of the original implementation in [Analyzer.analyzeClass] we
@@ -33,9 +94,6 @@ class AnalyzerCache(
 	 */
 	override fun analyzeClass(source: ByteArray) {
 		val classId = CRC64.classId(source)
-		if (probesCache.containsClassId(classId)) {
-			return
-		}
 		val reader = InstrSupport.classReaderFor(source)
 
 		// Dummy class coverage object that allows us to subclass ClassAnalyzer with CachingClassAnalyzer and reuse its
@@ -47,24 +105,29 @@ class AnalyzerCache(
 		val classAnalyzer = CachingClassAnalyzer(
 			probesCache.createClass(classId, reader.className),
 			dummyClassCoverage,
-			stringPool
+			stringPool.get()
 		)
 		val visitor = ClassProbesAdapter(classAnalyzer, false)
 		reader.accept(visitor, 0)
 	}
 
 	/**
-	 * Adds caching for jar files to the analyze jar functionality.
+	 * Adds caching for archive files to the analyze archive functionality.
 	 */
 	@Throws(IOException::class)
-	override fun analyzeJar(input: InputStream, location: String): Int {
-		val jarId = CRC64.classId(Files.readAllBytes(Paths.get(location)))
+	override fun analyzeArchive(file: File): Int {
+		val jarId = CRC64.classId(Files.readAllBytes(file.toPath()))
 		val probesCountForJarId = probesCache.countForJarId(jarId)
 		if (probesCountForJarId != 0) {
 			return probesCountForJarId
 		}
-		val count = super.analyzeJar(input, location)
+		val count = super.analyzeArchive(file)
 		probesCache.addJarId(jarId, count)
 		return count
 	}
+
+	companion object {
+		/** Bounds the memory of the read class files if the caller does not know the number of analyzing threads. */
+		private const val DEFAULT_MAX_PENDING_ANALYSES = 256
+	}
 }
@@ -18,11 +18,15 @@ import org.jacoco.core.data.ExecutionData
  * @param className Classname as stored in the bytecode e.g., com/company/Example
  */
 class ClassCoverageLookup internal constructor(
-	private val className: String
+	internal val className: String
 ) {
 	var sourceFileName: String? = null
 	private val probes = mutableMapOf<Int, CompactLines>()
 
+	/** The lines that belong to each probe ID. */
+	internal val probeLines: Map<Int, CompactLines>
+		get() = probes
+
 	/** Adds the probe with the given id to the method. */
 	fun addProbe(probeId: Int, lines: CompactLines) {
 		probes[probeId] = lines
@@ -0,0 +1,225 @@
+package com.teamscale.report.testwise.jacoco.cache
+
+import com.teamscale.report.util.CompactLines
+import com.teamscale.report.util.ILogger
+import org.jacoco.core.JaCoCo
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Read-only view of a [ProbesCache] that was written to disk by a previous process.
+ *
+ * The file is memory-mapped and individual classes are only read when they are requested, so opening even a large
+ * cache is cheap. Since classes are identified by their class ID (CRC64 of the class file), a cache file can be shared
+ * by all processes that analyze the same class files, e.g. forked test JVMs and report tasks. Processes add the classes
+ * they analyzed to the classes in the file, see [ProbesCache.persist]. Files written by a different format version or
+ * JaCoCo version are ignored, since JaCoCo's probe insertion may differ between versions.
+ *
+ * Windows does not allow replacing a file while any process has it memory-mapped, and mapped files are only released
+ * once they are garbage collected. Therefore, the file is read into memory on Windows instead, so that other processes
+ * can still add their classes to it.
+ *
+ * Format (all numbers big-endian):
+ * ```
+ * int     magic number
+ * int     format version
+ * string  JaCoCo version
+ * int     number of classes
+ * (long class ID, int record offset)*   sorted by class ID
+ * record*
+ * ```
+ * Each record consists of the class name, the source file name (may be null) and the number of probes, followed by the
+ * probe ID and covered lines of each probe. Strings are stored as their length in UTF-8 bytes (-1 for null) followed
+ * by the bytes, line sets as their size followed by the lines. Record offsets are relative to the first record.
+ */
+class PersistentProbesCache private constructor(
+	private val buffer: ByteBuffer,
+	/** The number of classes in the file. */
+	val classCount: Int,
+	private val indexStart: Int,
+	private val recordsStart: Int
+) {
+
+	/** Returns the IDs of all classes in the file. */
+	fun classIds() = List(classCount) { index -> buffer.getLong(indexStart + index * INDEX_ENTRY_SIZE) }
+
+	/** Returns the class name of the class with the given ID or null if it is not contained in the file. */
+	fun readClassName(classId: Long): String? {
+		val recordPosition = findRecord(classId) ?: return null
+		return buffer.duplicate().apply { position(recordPosition) }.readString()
+	}
+
+	/** Reads the lookup of the class with the given ID or returns null if it is not contained in the file. */
+	fun readClass(classId: Long): ClassCoverageLookup? {
+		val recordPosition = findRecord(classId) ?: return null
+		val record = buffer.duplicate().apply { position(recordPosition) }
+		val lookup = ClassCoverageLookup(record.readString()!!)
+		lookup.sourceFileName = record.readString()
+		repeat(record.int) {
+			val probeId = record.int
+			val lines = CompactLines()
+			repeat(record.int) { lines.add(record.int) }
+			lookup.addProbe(probeId, lines)
+		}
+		return lookup
+	}
+
+	/** Binary search in the sorted index. Returns the absolute position of the record of the class. */
+	private fun findRecord(classId: Long): Int? {
+		var low = 0
+		var high = classCount - 1
+		while (low <= high) {
+			val middle = (low + high) ushr 1
+			val entryPosition = indexStart + middle * INDEX_ENTRY_SIZE
+			val middleId = buffer.getLong(entryPosition)
+			when {
+				middleId < classId -> low = middle + 1
+				middleId > classId -> high = middle - 1
+				else -> return recordsStart + buffer.getInt(entryPosition + Long.SIZE_BYTES)
+			}
+		}
+		return null
+	}
+
+	companion object {
+
+		/** Identifies probes cache files. */
+		private const val MAGIC_NUMBER = 0x54535043
+
+		/** Must be increased whenever the format changes. */
+		private const val FORMAT_VERSION = 1
+
+		/** Size of a class ID and record offset in the index. */
+		private const val INDEX_ENTRY_SIZE = Long.SIZE_BYTES + Int.SIZE_BYTES
+
+		private val IS_WINDOWS = System.getProperty("os.name").startsWith("Windows")
+
+		/**
+		 * Opens the given cache file. Returns null if it does not exist or cannot be used, e.g. because it was
+		 * written by another JaCoCo version.
+		 */
+		@JvmStatic
+		fun open(file: File, logger: ILogger): PersistentProbesCache? {
+			if (!file.isFile) {
+				return null
+			}
+			try {
+				val buffer = FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel -> channel.readAll() }
+				if (buffer.int != MAGIC_NUMBER || buffer.int != FORMAT_VERSION || buffer.readString() != JaCoCo.VERSION) {
+					logger.info("Ignoring probes cache $file as it was written by a different version")
+					return null
+				}
+				val classCount = buffer.int
+				val indexStart = buffer.position()
+				val recordsStart = indexStart + classCount * INDEX_ENTRY_SIZE
+				if (classCount < 0 || recordsStart > buffer.limit()) {
+					logger.warn("Ignoring corrupt probes cache $file")
+					return null
+				}
+				return PersistentProbesCache(buffer, classCount, indexStart, recordsStart)
+			} catch (e: IOException) {
+				logger.warn("Could not read probes cache $file", e)
+			} catch (e: BufferUnderflowException) {
+				logger.warn("Ignoring corrupt probes cache $file", e)
+			}
+			return null
+		}
+
+		/** Memory-maps the whole file except on Windows, see [PersistentProbesCache]. */
+		private fun FileChannel.readAll(): ByteBuffer {
+			if (!IS_WINDOWS) {
+				return map(FileChannel.MapMode.READ_ONLY, 0, size())
+			}
+			val buffer = ByteBuffer.allocate(Math.toIntExact(size()))
+			while (buffer.hasRemaining() && read(buffer) >= 0) {
+				// read until the buffer is full
+			}
+			buffer.flip()
+			return buffer
+		}
+
+		/**
+		 * Writes the given class lookups to the given file. The file is replaced atomically if possible, so processes
+		 * that have the old file opened are not affected. Throws a [java.nio.file.FileSystemException] if the file
+		 * cannot be replaced, e.g. on Windows while another process has it memory-mapped.
+		 */
+		@JvmStatic
+		@Throws(IOException::class)
+		fun write(file: File, lookups: Map<Long, ClassCoverageLookup>) {
+			val sortedIds = lookups.keys.sorted()
+			val records = ByteArrayOutputStream()
+			val recordOffsets = IntArray(sortedIds.size)
+			DataOutputStream(records).use { output ->
+				sortedIds.forEachIndexed { index, classId ->
+					recordOffsets[index] = output.size()
+					output.writeRecord(lookups.getValue(classId))
+				}
+			}
+
+			val directory = file.absoluteFile.parentFile.toPath()
+			Files.createDirectories(directory)
+			val tempFile = Files.createTempFile(directory, file.name, ".tmp")
+			try {
+				DataOutputStream(BufferedOutputStream(Files.newOutputStream(tempFile))).use { output ->
+					output.writeInt(MAGIC_NUMBER)
+					output.writeInt(FORMAT_VERSION)
+					output.writeString(JaCoCo.VERSION)
+					output.writeInt(sortedIds.size)
+					sortedIds.forEachIndexed { index, classId ->
+						output.writeLong(classId)
+						output.writeInt(recordOffsets[index])
+					}
+					records.writeTo(output)
+				}
+				try {
+					Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+				} catch (e: AtomicMoveNotSupportedException) {
+					Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+				}
+			} finally {
+				Files.deleteIfExists(tempFile)
+			}
+		}
+
+		private fun DataOutputStream.writeRecord(lookup: ClassCoverageLookup) {
+			writeString(lookup.className)
+			writeString(lookup.sourceFileName)
+			writeInt(lookup.probeLines.size)
+			lookup.probeLines.forEach { (probeId, lines) ->
+				writeInt(probeId)
+				writeInt(lines.size)
+				lines.forEach { writeInt(it) }
+			}
+		}
+
+		private fun DataOutputStream.writeString(string: String?) {
+			if (string == null) {
+				writeInt(-1)
+				return
+			}
+			val bytes = string.toByteArray(Charsets.UTF_8)
+			writeInt(bytes.size)
+			write(bytes)
+		}
+
+		private fun ByteBuffer.readString(): String? {
+			val length = int
+			if (length < 0) {
+				return null
+			}
+			val bytes = ByteArray(length)
+			get(bytes)
+			return String(bytes, Charsets.UTF_8)
+		}
+	}
+}
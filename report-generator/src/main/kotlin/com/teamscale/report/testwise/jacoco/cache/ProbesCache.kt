@@ -6,27 +6,114 @@ import com.teamscale.report.util.ClasspathWildcardIncludeFilter
 import com.teamscale.report.util.ILogger
 import org.jacoco.core.data.ExecutionData
 import org.jacoco.report.JavaNames
+import java.io.File
+import java.io.IOException
+import java.nio.file.FileSystemException
 
 /**
  * Holds [ClassCoverageLookup]s for all analyzed classes.
  *
+ * All methods are thread-safe, so classes may be analyzed in parallel. While an analysis is running (see
+ * [startAnalysis]), [getCoverage] waits until the requested class has been analyzed or the analysis is finished.
+ *
  * @param logger The logger to use for logging.
  * @param duplicateClassFileBehavior Whether to ignore non-identical duplicates of class files.
+ * @param persistentCache Lookups written by a previous process, which are used instead of analyzing classes again.
  */
-class ProbesCache(
+class ProbesCache @JvmOverloads constructor(
 	private val logger: ILogger,
-	private val duplicateClassFileBehavior: EDuplicateClassFileBehavior
+	private val duplicateClassFileBehavior: EDuplicateClassFileBehavior,
+	private val persistentCache: PersistentProbesCache? = null
 ) {
 	/** A mapping from class ID (CRC64 of the class file) to [ClassCoverageLookup].  */
 	private val classCoverageLookups = hashMapOf<Long, ClassCoverageLookup>()
 
+	/** IDs of classes in the [persistentCache] whose [ClassCoverageLookup] has not been read yet. */
+	private val persistedClassIds = mutableSetOf<Long>()
+
+	/** Whether classes were added that are not contained in the [persistentCache]. */
+	private var hasNewClasses = false
+
+	/** IDs of classes that have been found, but whose analysis has not finished yet. */
+	private val classIdsInAnalysis = mutableSetOf<Long>()
+
+	/** Whether class files are currently searched, i.e. more classes may be added. */
+	private var isAnalysisRunning = false
+
 	/** Holds all fully qualified class names that are already contained in the cache.  */
 	private val containedClasses = mutableSetOf<String>()
 	private val containedJars = mutableMapOf<Long, Int>()
 	private val classNotFoundLogger = ClassNotFoundLogger(logger)
 
+	/** Marks the start of an analysis. Coverage lookups wait for classes found afterwards until [finishAnalysis]. */
+	@Synchronized
+	fun startAnalysis() {
+		isAnalysisRunning = true
+	}
+
+	/** Marks the end of an analysis after all found classes have been analyzed. */
+	@Synchronized
+	fun finishAnalysis() {
+		isAnalysisRunning = false
+		(this as Object).notifyAll()
+	}
+
+	/**
+	 * Registers that the class with the given ID was found and is about to be analyzed. Returns false if the class
+	 * does not need to be analyzed as it is already contained in the cache, contained in the [persistentCache] or
+	 * being analyzed. Otherwise, [finishClassAnalysis] must be called once the analysis is done.
+	 */
+	@Synchronized
+	fun startClassAnalysis(classId: Long): Boolean {
+		if (containsClassId(classId) || classIdsInAnalysis.contains(classId) || addPersistedClass(classId)) {
+			return false
+		}
+		classIdsInAnalysis.add(classId)
+		return true
+	}
+
+	/** Marks the analysis of the given class as done, see [startClassAnalysis]. */
+	@Synchronized
+	fun finishClassAnalysis(classId: Long) {
+		classIdsInAnalysis.remove(classId)
+		(this as Object).notifyAll()
+	}
+
+	/** Waits until the given class is analyzed or it is clear that it will not be found. */
+	private fun awaitClass(classId: Long) {
+		while (classIdsInAnalysis.contains(classId) || (isAnalysisRunning && !containsClassId(classId))) {
+			try {
+				(this as Object).wait()
+			} catch (e: InterruptedException) {
+				Thread.currentThread().interrupt()
+				return
+			}
+		}
+	}
+
 	/** Adds a new class entry to the cache and returns its [ClassCoverageLookup].  */
+	@Synchronized
 	fun createClass(classId: Long, className: String): ClassCoverageLookup {
+		addClassName(className)
+		hasNewClasses = true
+		val classCoverageLookup = ClassCoverageLookup(className)
+		classCoverageLookups[classId] = classCoverageLookup
+		return classCoverageLookup
+	}
+
+	/**
+	 * Adds the class with the given ID from the [persistentCache]. Its [ClassCoverageLookup] is only read once it is
+	 * needed. Returns false if the class is not contained in the [persistentCache] and must be analyzed.
+	 */
+	@Synchronized
+	fun addPersistedClass(classId: Long): Boolean {
+		val className = persistentCache?.readClassName(classId) ?: return false
+		addClassName(className)
+		persistedClassIds.add(classId)
+		return true
+	}
+
+	private fun addClassName(className: String) {
 		if (containedClasses.contains(className)) {
 			if (duplicateClassFileBehavior != EDuplicateClassFileBehavior.IGNORE) {
 				logger.warn(
@@ -41,24 +128,33 @@ class ProbesCache(
 			check(duplicateClassFileBehavior != EDuplicateClassFileBehavior.FAIL) { "Found non-identical class file for class $className. See logs for more details." }
 		}
 		containedClasses.add(className)
-		val classCoverageLookup = ClassCoverageLookup(className)
-		classCoverageLookups[classId] = classCoverageLookup
-		return classCoverageLookup
 	}
 
 	/** Returns whether a class with the given class ID has already been analyzed.  */
+	@Synchronized
 	fun containsClassId(classId: Long) =
-		classCoverageLookups.containsKey(classId)
+		classCoverageLookups.containsKey(classId) || persistedClassIds.contains(classId)
+
+	/** Returns the lookup of the given class, reading it from the [persistentCache] if necessary. */
+	private fun getClassCoverageLookup(classId: Long): ClassCoverageLookup? {
+		classCoverageLookups[classId]?.let { return it }
+		if (!persistedClassIds.remove(classId)) {
+			return null
+		}
+		return persistentCache?.readClass(classId)?.also { classCoverageLookups[classId] = it }
+	}
 
 	/**
 	 * Returns the number of found class files in a cached jar file. Otherwise 0.
 	 */
+	@Synchronized
 	fun countForJarId(jarId: Long) =
 		containedJars.getOrDefault(jarId, 0)
 
 	/**
 	 * Adds a jar id along with the count of class files found in the jar.
 	 */
+	@Synchronized
 	fun addJarId(jarId: Long, count: Int) {
 		containedJars[jarId] = count
 	}
@@ -67,12 +163,14 @@ class ProbesCache(
 	 * Converts the given [ExecutionData] to [FileCoverageBuilder] using the cached lookups or null if the
 	 * class file of this class has not been included in the analysis or was not covered.
 	 */
+	@Synchronized
 	@Throws(CoverageGenerationException::class)
 	fun getCoverage(
 		executionData: ExecutionData,
 		locationIncludeFilter: ClasspathWildcardIncludeFilter
 	): FileCoverageBuilder? {
 		val classId = executionData.id
+		awaitClass(classId)
 		if (!containsClassId(classId)) {
 			val fullyQualifiedClassName = JavaNames().getQualifiedClassName(executionData.name)
 			if (locationIncludeFilter.isIncluded("$fullyQualifiedClassName.class")) {
@@ -84,13 +182,48 @@ class ProbesCache(
 			return null
 		}
 
-		return classCoverageLookups[classId]?.getFileCoverage(executionData, logger)
+		return getClassCoverageLookup(classId)?.getFileCoverage(executionData, logger)
 	}
 
 	/** Returns true if the cache does not contain coverage for any class.  */
 	val isEmpty: Boolean
-		get() = classCoverageLookups.isEmpty()
+		@Synchronized get() = classCoverageLookups.isEmpty() && persistedClassIds.isEmpty()
+
+	/**
+	 * Adds the classes analyzed by this process to the given file. The classes that the file contains already are kept,
+	 * including those written by other processes since the [persistentCache] was opened. This way, processes with
+	 * different class files can share the file without replacing each other's classes. Does nothing if the file
+	 * contains all analyzed classes already.
+	 */
+	@Synchronized
+	@Throws(IOException::class)
+	fun persist(file: File) {
+		if (!hasNewClasses) {
+			return
+		}
+		val currentCache = PersistentProbesCache.open(file, logger)
+		val newClassCount = classCoverageLookups.keys.count { currentCache?.readClassName(it) == null }
+		if (newClassCount == 0) {
+			return
+		}
+
+		val lookups = HashMap(classCoverageLookups)
+		listOfNotNull(persistentCache, currentCache).forEach { cache ->
+			cache.classIds().filter { !lookups.containsKey(it) }.forEach { classId ->
+				cache.readClass(classId)?.let { lookups[classId] = it }
+			}
+		}
+		try {
+			PersistentProbesCache.write(file, lookups)
+		} catch (e: FileSystemException) {
+			// e.g. another process is reading the file on Windows, which does not allow replacing open files
+			logger.info("Could not add $newClassCount classes to probes cache $file as it is in use: ${e.message}")
+			return
+		}
+		logger.debug("Added $newClassCount classes to probes cache $file, which now contains ${lookups.size} classes")
+	}
 
+	@Synchronized
 	fun flushLogger() {
 		classNotFoundLogger.flush()
 	}
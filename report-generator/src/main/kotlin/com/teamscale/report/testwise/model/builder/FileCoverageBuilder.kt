@@ -15,7 +15,7 @@ class FileCoverageBuilder(
 	/**
 	 * A set of line numbers that have been covered. Ensures order and uniqueness.
 	 */
-	private val coveredLines = compactLinesOf()
+	internal val coveredLines = compactLinesOf()
 
 	/** Adds a line as covered.  */
 	fun addLine(line: Int) = coveredLines.add(line)
@@ -0,0 +1,119 @@
+package com.teamscale.report.util
+
+/**
+ * Matches fully qualified class names against wildcard patterns with the same semantics as JaCoCo's
+ * [org.jacoco.core.runtime.WildcardMatcher]: `*` matches any number of characters, `?` matches zero or one character
+ * and multiple patterns are separated by colons.
+ *
+ * [org.jacoco.core.runtime.WildcardMatcher] compiles all patterns into one regular expression with an alternative per
+ * pattern, which the regex engine tries one after the other. Instead, the patterns are compiled once into a set of
+ * exact class names, a trie of prefixes for the common `com.example.*` form and a list of the remaining patterns. Thus,
+ * the cost of a match mostly depends on the length of the class name and not on the number of patterns.
+ */
+internal class ClassNameMatcher(expression: String) {
+
+	/** Patterns without wildcards. */
+	private val exactNames = HashSet<String>()
+
+	/**
+	 * Patterns whose only wildcards are trailing and contain a `*`, without those wildcards. Since `?` may match no
+	 * character, such a pattern matches the same names as its prefix followed by a single `*`.
+	 */
+	private val prefixes = PrefixTrie()
+
+	/** All other patterns. */
+	private val wildcardPatterns = mutableListOf<String>()
+
+	init {
+		// Like String.split in Java, which is used by the WildcardMatcher, drop trailing empty patterns
+		expression.split(':').dropLastWhile { it.isEmpty() }.ifEmpty { listOf("") }.forEach { pattern ->
+			val firstWildcard = pattern.indexOfFirst { it.isWildcard() }
+			when {
+				firstWildcard < 0 -> exactNames.add(pattern)
+				pattern.drop(firstWildcard).all { it.isWildcard() } && pattern.indexOf('*', firstWildcard) >= 0 ->
+					prefixes.add(pattern.take(firstWildcard))
+
+				else -> wildcardPatterns.add(pattern)
+			}
+		}
+	}
+
+	/** Whether the given class name matches any of the patterns. */
+	fun matches(className: String) =
+		className in exactNames
+				|| prefixes.containsPrefixOf(className)
+				|| wildcardPatterns.any { matchesWildcardPattern(it, className) }
+
+	/**
+	 * Matches the name against a pattern with `*` and `?` wildcards, where `?` matches zero or one character. Tracks
+	 * the set of pattern positions that the name read so far can reach, like a regex engine without backtracking, so
+	 * this runs in O(pattern length * name length) in the worst case.
+	 */
+	private fun matchesWildcardPattern(pattern: String, name: String): Boolean {
+		var states = BooleanArray(pattern.length + 1)
+		var nextStates = BooleanArray(pattern.length + 1)
+		states[0] = true
+		skipWildcards(pattern, states)
+		for (character in name) {
+			nextStates.fill(false)
+			var anyState = false
+			for (patternIndex in pattern.indices) {
+				if (!states[patternIndex]) {
+					continue
+				}
+				when (pattern[patternIndex]) {
+					'*' -> nextStates[patternIndex] = true
+					'?' -> nextStates[patternIndex + 1] = true
+					character -> nextStates[patternIndex + 1] = true
+					else -> continue
+				}
+				anyState = true
+			}
+			if (!anyState) {
+				return false
+			}
+			skipWildcards(pattern, nextStates)
+			states = nextStates.also { nextStates = states }
+		}
+		return states[pattern.length]
+	}
+
+	/** Adds the positions reachable by letting wildcards match no character. */
+	private fun skipWildcards(pattern: String, states: BooleanArray) {
+		for (patternIndex in pattern.indices) {
+			if (states[patternIndex] && pattern[patternIndex].isWildcard()) {
+				states[patternIndex + 1] = true
+			}
+		}
+	}
+
+	private fun Char.isWildcard() = this == '*' || this == '?'
+
+	/** Trie that answers whether any of its strings is a prefix of a given string. */
+	private class PrefixTrie {
+
+		private class Node {
+			val children = HashMap<Char, Node>()
+			var isEnd = false
+		}
+
+		private val root = Node()
+
+		fun add(prefix: String) {
+			var node = root
+			prefix.forEach { node = node.children.getOrPut(it) { Node() } }
+			node.isEnd = true
+		}
+
+		fun containsPrefixOf(string: String): Boolean {
+			var node = root
+			string.forEach { character ->
+				if (node.isEnd) {
+					return true
+				}
+				node = node.children[character] ?: return false
+			}
+			return node.isEnd
+		}
+	}
+}
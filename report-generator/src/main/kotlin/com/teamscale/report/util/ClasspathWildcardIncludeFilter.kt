@@ -3,13 +3,15 @@ package com.teamscale.report.util
 import com.teamscale.client.FileSystemUtils
 import com.teamscale.client.StringUtils
 import org.jacoco.core.runtime.WildcardMatcher
-import org.jacoco.report.JavaNames
-import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 
 /***
  * Tests given class file paths against call name patterns.
  * E.g. "/some/file/path/test.jar@my/package/Test.class" matches "my/package/ *" or "my/package/Test"
+ *
+ * The patterns are compiled into a [ClassNameMatcher] once and the verdict for each class name is cached, since the
+ * filter is consulted for every loaded class and every analyzed class file. This class is thread-safe.
  */
 open class ClasspathWildcardIncludeFilter(
 	locationIncludeFilters: String?,
@@ -18,12 +20,15 @@ open class ClasspathWildcardIncludeFilter(
 	/**
 	 * Include patterns to apply during JaCoCo's traversal of class files. If null then everything is included.
 	 */
-	private var locationIncludeFilters: WildcardMatcher? = null
+	private var locationIncludeFilters: ClassNameMatcher? = null
 
 	/**
 	 * Exclude patterns to apply during JaCoCo's traversal of class files. If null then nothing is excluded.
 	 */
-	private var locationExcludeFilters: WildcardMatcher? = null
+	private var locationExcludeFilters: ClassNameMatcher? = null
+
+	/** Cached results of [isIncluded] by class name. */
+	private val verdicts = ConcurrentHashMap<String, Boolean>()
 
 	/**
 	 * Constructor.
@@ -35,10 +40,10 @@ open class ClasspathWildcardIncludeFilter(
 	 */
 	init {
 		if (!locationIncludeFilters.isNullOrEmpty()) {
-			this.locationIncludeFilters = WildcardMatcher(locationIncludeFilters)
+			this.locationIncludeFilters = ClassNameMatcher(locationIncludeFilters)
 		}
 		if (!locationExcludeFilters.isNullOrEmpty()) {
-			this.locationExcludeFilters = WildcardMatcher(locationExcludeFilters)
+			this.locationExcludeFilters = ClassNameMatcher(locationExcludeFilters)
 		}
 	}
 
@@ -47,6 +52,15 @@ open class ClasspathWildcardIncludeFilter(
 	 */
 	fun isIncluded(path: String): Boolean {
 		val className = getClassName(path)
+		verdicts[className]?.let { return it }
+		val isIncluded = matches(className)
+		if (verdicts.size < MAX_CACHED_VERDICTS) {
+			verdicts[className] = isIncluded
+		}
+		return isIncluded
+	}
+
+	private fun matches(className: String): Boolean {
 		// first check includes
 		if (locationIncludeFilters != null && locationIncludeFilters?.matches(className) == false) {
 			return false
@@ -57,24 +71,26 @@ open class ClasspathWildcardIncludeFilter(
 
 
 	companion object {
+		/** Upper bound for the number of cached verdicts to limit memory usage, e.g. for generated classes. */
+		private const val MAX_CACHED_VERDICTS = 100_000
+
 		/**
 		 * Returns the normalized class name of the given class file's path. I.e. turns something like
 		 * "/opt/deploy/some.jar@com/teamscale/Class.class" into something like "com.teamscale.Class".
 		 */
 		@JvmStatic
 		fun getClassName(path: String): String {
-			val parts = FileSystemUtils.normalizeSeparators(path)
-				.split("@".toRegex()).dropLastWhile { it.isEmpty() }
-				.toTypedArray()
-			if (parts.isEmpty()) {
+			val normalizedPath = FileSystemUtils.normalizeSeparators(path).trimEnd('@')
+			if (normalizedPath.isEmpty()) {
 				return ""
 			}
 
-			var pathInsideJar = parts[parts.size - 1]
-			if (path.lowercase(Locale.getDefault()).endsWith(".class")) {
+			var pathInsideJar = normalizedPath.substringAfterLast('@')
+			if (path.endsWith(".class", ignoreCase = true)) {
 				pathInsideJar = StringUtils.removeLastPart(pathInsideJar, '.')
 			}
-			return JavaNames().getQualifiedClassName(pathInsideJar)
+			// Same as JavaNames.getQualifiedClassName
+			return pathInsideJar.replace('/', '.').replace('$', '.')
 		}
 	}
 }
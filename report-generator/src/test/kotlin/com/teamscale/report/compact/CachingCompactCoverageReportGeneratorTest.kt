@@ -0,0 +1,75 @@
+package com.teamscale.report.compact
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.teamscale.report.EDuplicateClassFileBehavior
+import com.teamscale.report.jacoco.EmptyReportException
+import com.teamscale.report.jacoco.dump.Dump
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter
+import com.teamscale.report.util.CommandLineLogger
+import com.teamscale.test.TestDataBase
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.jacoco.core.data.ExecutionDataStore
+import org.jacoco.core.data.SessionInfo
+import org.jacoco.core.tools.ExecFileLoader
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+/** Tests the [CachingCompactCoverageReportGenerator]. */
+class CachingCompactCoverageReportGeneratorTest : TestDataBase() {
+
+	private val classes = useTestFile("jacoco/sample/classes.zip")
+
+	@Test
+	fun coversTheSameLinesAsTheFullAnalysis(@TempDir tempDir: File) {
+		val dump = loadDump()
+		val reportFile = File(tempDir, "expected.json")
+		CompactCoverageReportGenerator(
+			listOf(classes), ClasspathWildcardIncludeFilter(null, null), EDuplicateClassFileBehavior.IGNORE,
+			CommandLineLogger()
+		).convertSingleDumpToReport(dump, reportFile)
+		val expected = ObjectMapper().readValue(reportFile, TeamscaleCompactCoverageReport::class.java)
+
+		val report = createGenerator().createReport(dump)
+
+		assertThat(report.coverage).isNotEmpty
+		assertThat(report.coverage.map { it.filePath }).containsExactlyElementsOf(expected.coverage.map { it.filePath })
+		report.coverage.zip(expected.coverage).forEach { (file, expectedFile) ->
+			val expectedLines = expectedFile.fullyCoveredLines + (expectedFile.partiallyCoveredLines ?: emptyList())
+			assertThat(file.fullyCoveredLines).containsExactlyInAnyOrderElementsOf(expectedLines)
+			assertThat(file.partiallyCoveredLines).isNull()
+		}
+	}
+
+	@Test
+	fun reusesTheAnalysisForSubsequentDumps(@TempDir tempDir: File) {
+		val generator = createGenerator()
+		val first = File(tempDir, "first.json")
+		val second = File(tempDir, "second.json")
+
+		generator.convertSingleDumpToReport(loadDump(), first)
+		generator.convertSingleDumpToReport(loadDump(), second)
+
+		assertThat(second).hasSameTextualContentAs(first)
+	}
+
+	@Test
+	fun throwsForDumpWithoutCoverage(@TempDir tempDir: File) {
+		val emptyDump = Dump(SessionInfo("", 0, 0), ExecutionDataStore())
+
+		assertThatThrownBy { createGenerator().convertSingleDumpToReport(emptyDump, File(tempDir, "empty.json")) }
+			.isInstanceOf(EmptyReportException::class.java)
+	}
+
+	private fun createGenerator() = CachingCompactCoverageReportGenerator(
+		listOf(classes), ClasspathWildcardIncludeFilter(null, null), EDuplicateClassFileBehavior.IGNORE,
+		CommandLineLogger()
+	)
+
+	private fun loadDump(): Dump {
+		val loader = ExecFileLoader()
+		loader.load(useTestFile("jacoco/sample/coverage.exec"))
+		return Dump(loader.sessionInfoStore.getMerged("merged"), loader.executionDataStore)
+	}
+}
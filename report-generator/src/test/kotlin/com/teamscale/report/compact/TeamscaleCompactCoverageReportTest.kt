@@ -0,0 +1,44 @@
+package com.teamscale.report.compact
+
+import com.teamscale.report.compact.TeamscaleCompactCoverageReport.CompactCoverageFileInfo
+import com.teamscale.report.util.CompactLines
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+class TeamscaleCompactCoverageReportTest {
+
+	@Test
+	fun `merge unites the lines of all reports`() {
+		val first = TeamscaleCompactCoverageReport(
+			1, listOf(
+				CompactCoverageFileInfo("com/example/A.java", CompactLines(1, 2), CompactLines(3)),
+				CompactCoverageFileInfo("com/example/B.java", CompactLines(5), CompactLines())
+			)
+		)
+		val second = TeamscaleCompactCoverageReport(
+			1, listOf(CompactCoverageFileInfo("com/example/A.java", CompactLines(3), CompactLines(2, 4)))
+		)
+
+		val merged = TeamscaleCompactCoverageReport.merge(listOf(first, second))
+
+		assertThat(merged.coverage.map { it.filePath }).containsExactly("com/example/A.java", "com/example/B.java")
+		assertThat(merged.coverage[0].fullyCoveredLines).containsExactly(1, 2, 3)
+		assertThat(merged.coverage[0].partiallyCoveredLines).containsExactly(4)
+		assertThat(merged.coverage[1].fullyCoveredLines).containsExactly(5)
+	}
+
+	@Test
+	fun `readFrom reads what writeTo wrote`() {
+		val report = TeamscaleCompactCoverageReport(
+			1, listOf(CompactCoverageFileInfo("com/example/A.java", CompactLines(1, 2, 3, 7), CompactLines(5)))
+		)
+		val output = ByteArrayOutputStream()
+
+		report.writeTo(output)
+
+		assertThat(TeamscaleCompactCoverageReport.readFrom(ByteArrayInputStream(output.toByteArray())))
+			.isEqualTo(report)
+	}
+}
@@ -0,0 +1,93 @@
+package com.teamscale.report.jacoco
+
+import com.teamscale.report.util.ClasspathWildcardIncludeFilter
+import com.teamscale.report.util.CommandLineLogger
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/** Tests the [FilteringAnalyzer]. */
+internal class FilteringAnalyzerTest {
+
+	private val jarFile = File(javaClass.getResource("/com/teamscale/report/util/normal.jar")!!.toURI())
+
+	@Test
+	@Throws(IOException::class)
+	fun analyzesOnlyIncludedClassesOfJarFile() {
+		val analyzedLocations = analyze(jarFile, "org.conqat.lib.simulink.builder.*")
+
+		assertThat(analyzedLocations).hasSize(29)
+			.allMatch { it.startsWith(jarFile.path + "@org/conqat/lib/simulink/builder/") }
+	}
+
+	@Test
+	@Throws(IOException::class)
+	fun randomAccessAndStreamingFindTheSameClasses() {
+		val streamedLocations = mutableListOf<String>()
+		jarFile.inputStream().use { input ->
+			createAnalyzer("*.model.*", streamedLocations).analyzeAll(input, jarFile.path)
+		}
+
+		assertThat(analyze(jarFile, "*.model.*")).isNotEmpty.containsExactlyInAnyOrderElementsOf(streamedLocations)
+	}
+
+	@Test
+	@Throws(IOException::class)
+	fun analyzesNestedJarsAndFallsBackToStreamingForExecutableJars(@TempDir tempDir: Path) {
+		val war = tempDir.resolve("app.war").toFile()
+		ZipOutputStream(Files.newOutputStream(war.toPath())).use { zip ->
+			zip.putNextEntry(ZipEntry("WEB-INF/lib/normal.jar"))
+			zip.write(jarFile.readBytes())
+		}
+		val executableJar = tempDir.resolve("executable.jar").toFile()
+		executableJar.writeBytes("#!/bin/bash\nexit 0\n".toByteArray() + jarFile.readBytes())
+
+		assertThat(analyze(war, "*.builder.*")).hasSize(29)
+			.allMatch { it.startsWith(war.path + "@WEB-INF/lib/normal.jar@") }
+		assertThat(analyze(executableJar, "*.builder.*")).hasSize(29)
+	}
+
+	@Test
+	@Throws(IOException::class)
+	fun detectsArchivesWithUnknownExtensionsByTheirHeader(@TempDir tempDir: Path) {
+		val archive = tempDir.resolve("library.bin").toFile()
+		jarFile.copyTo(archive)
+
+		assertThat(analyze(archive, "*.builder.*")).hasSize(29)
+			.allMatch { it.startsWith(archive.path + "@org/conqat/lib/simulink/builder/") }
+	}
+
+	@Test
+	@Throws(IOException::class)
+	fun analyzesNestedArchivesWithUnknownExtensions(@TempDir tempDir: Path) {
+		val archive = tempDir.resolve("app.zip").toFile()
+		ZipOutputStream(Files.newOutputStream(archive.toPath())).use { zip ->
+			zip.putNextEntry(ZipEntry("META-INF/MANIFEST.MF"))
+			zip.write("Manifest-Version: 1.0\n".toByteArray())
+			zip.putNextEntry(ZipEntry("component.sca"))
+			zip.write(jarFile.readBytes())
+		}
+
+		assertThat(analyze(archive, "*.builder.*")).hasSize(29)
+			.allMatch { it.startsWith(archive.path + "@component.sca@org/conqat/lib/simulink/builder/") }
+	}
+
+	private fun analyze(file: File, includes: String): List<String> {
+		val analyzedLocations = mutableListOf<String>()
+		createAnalyzer(includes, analyzedLocations).analyzeAll(file)
+		return analyzedLocations
+	}
+
+	private fun createAnalyzer(includes: String, analyzedLocations: MutableList<String>) =
+		object : FilteringAnalyzer(null, null, ClasspathWildcardIncludeFilter(includes, null), CommandLineLogger()) {
+			override fun analyzeClass(buffer: ByteArray, location: String) {
+				analyzedLocations.add(location)
+			}
+		}
+}
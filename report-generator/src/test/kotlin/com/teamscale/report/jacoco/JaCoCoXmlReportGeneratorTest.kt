@@ -139,6 +139,38 @@ class JaCoCoXmlReportGeneratorTest : TestDataBase() {
 		assertThat(xmlString).contains("TestClassTwo")
 	}
 
+	/** Ensures that reusing a generator reflects the coverage of each dump and not of previous ones.  */
+	@Test
+	fun testReusedGeneratorReportsCurrentCoverage() {
+		val testFolderName = "ignore-uncovered-classes"
+		val classId = calculateClassId(testFolderName, "TestClass.class")
+		val generator = JaCoCoXmlReportGenerator(
+			listOf(useTestFile(testFolderName)),
+			ClasspathWildcardIncludeFilter(null, null),
+			EDuplicateClassFileBehavior.FAIL,
+			false,
+			Mockito.mock()
+		)
+
+		val firstReport = generator.convertToString(createDummyDump(classId))
+		val secondReport = generator.convertToString(createDummyDump(classId))
+		assertThat(secondReport).isEqualTo(firstReport)
+
+		assertThatThrownBy { generator.convertToString(createDummyDump()) }
+			.isExactlyInstanceOf(EmptyReportException::class.java)
+	}
+
+	private fun JaCoCoXmlReportGenerator.convertToString(dump: Dump): String {
+		val stream = ByteArrayOutputStream()
+		val outputFile = Files.createTempFile("test-coverage", ".xml").toFile()
+		try {
+			convertSingleDumpToReport(dump, outputFile).copyStream(stream)
+		} finally {
+			outputFile.delete()
+		}
+		return stream.toString(StandardCharsets.UTF_8.name())
+	}
+
 	@Throws(IOException::class)
 	private fun calculateClassId(testFolderName: String, classFileName: String): Long {
 		val classFile = useTestFile(testFolderName + File.separator + classFileName)
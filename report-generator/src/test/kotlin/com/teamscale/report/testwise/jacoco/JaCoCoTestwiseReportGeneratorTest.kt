@@ -3,6 +3,7 @@ package com.teamscale.report.testwise.jacoco
 import com.teamscale.client.TestDetails
 import com.teamscale.report.EDuplicateClassFileBehavior
 import com.teamscale.report.ReportUtils.getTestwiseCoverageReportAsString
+import com.teamscale.report.testwise.jacoco.cache.PersistentProbesCache
 import com.teamscale.report.testwise.model.ETestExecutionResult
 import com.teamscale.report.testwise.model.TestExecution
 import com.teamscale.report.testwise.model.TestwiseCoverage
@@ -10,11 +11,14 @@ import com.teamscale.report.testwise.model.TestwiseCoverageReport
 import com.teamscale.report.testwise.model.builder.TestwiseCoverageReportBuilder.Companion.createFrom
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter
 import com.teamscale.test.TestDataBase
+import org.assertj.core.api.Assertions.assertThat
 import org.conqat.lib.commons.filesystem.FileSystemUtils
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mockito
 import org.skyscreamer.jsonassert.JSONAssert
 import org.skyscreamer.jsonassert.JSONCompareMode
+import java.io.File
 
 /** Tests for the [JaCoCoTestwiseReportGenerator] class.  */
 class JaCoCoTestwiseReportGeneratorTest : TestDataBase() {
@@ -39,14 +43,68 @@ class JaCoCoTestwiseReportGeneratorTest : TestDataBase() {
 		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT)
 	}
 
+	@Test
+	fun reusesPersistedProbesCache(@TempDir tempDir: File) {
+		val probesCacheFile = File(tempDir, "probes.cache")
+		val expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/sample/report.json.expected"))
+
+		val firstReport = runReportGenerator("jacoco/sample/classes.zip", "jacoco/sample/coverage.exec", probesCacheFile)
+		assertThat(probesCacheFile).exists()
+		val lastModified = probesCacheFile.lastModified()
+		val secondReport = runReportGenerator("jacoco/sample/classes.zip", "jacoco/sample/coverage.exec", probesCacheFile)
+
+		JSONAssert.assertEquals(expected, firstReport, JSONCompareMode.STRICT)
+		JSONAssert.assertEquals(expected, secondReport, JSONCompareMode.STRICT)
+		assertThat(probesCacheFile.lastModified()).isEqualTo(lastModified)
+	}
+
+	@Test
+	fun keepsClassesOfOtherProcessesInPersistedProbesCache(@TempDir tempDir: File) {
+		val probesCacheFile = File(tempDir, "probes.cache")
+		runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", probesCacheFile)
+		val cqddlClassIds = PersistentProbesCache.open(probesCacheFile, Mockito.mock())!!.classIds()
+
+		val sampleReport = runReportGenerator("jacoco/sample/classes.zip", "jacoco/sample/coverage.exec", probesCacheFile)
+		val sharedClassIds = PersistentProbesCache.open(probesCacheFile, Mockito.mock())!!.classIds()
+		assertThat(sharedClassIds).containsAll(cqddlClassIds).hasSizeGreaterThan(cqddlClassIds.size)
+
+		val lastModified = probesCacheFile.lastModified()
+		val cqddlReport = runReportGenerator("jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", probesCacheFile)
+		assertThat(probesCacheFile.lastModified()).isEqualTo(lastModified)
+		JSONAssert.assertEquals(
+			FileSystemUtils.readFileUTF8(useTestFile("jacoco/sample/report.json.expected")), sampleReport,
+			JSONCompareMode.STRICT
+		)
+		JSONAssert.assertEquals(
+			FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected")), cqddlReport,
+			JSONCompareMode.STRICT
+		)
+	}
+
+	@Test
+	fun testwiseReportGenerationWithBackgroundAnalysis() {
+		val report = runReportGenerator(
+			"jacoco/cqddl/classes.zip", "jacoco/cqddl/coverage.exec", analyzeInBackground = true
+		)
+		val expected = FileSystemUtils.readFileUTF8(useTestFile("jacoco/cqddl/report.json.expected"))
+		JSONAssert.assertEquals(expected, report, JSONCompareMode.STRICT)
+	}
+
 	@Throws(Exception::class)
-	private fun runReportGenerator(testDataFolder: String, execFileName: String): String {
+	private fun runReportGenerator(
+		testDataFolder: String,
+		execFileName: String,
+		probesCacheFile: File? = null,
+		analyzeInBackground: Boolean = false
+	): String {
 		val classFileFolder = useTestFile(testDataFolder)
 		val includeFilter = ClasspathWildcardIncludeFilter(null, null)
 		val testwiseCoverage = JaCoCoTestwiseReportGenerator(
 			listOf(classFileFolder),
 			includeFilter, EDuplicateClassFileBehavior.IGNORE,
-			Mockito.mock()
+			Mockito.mock(),
+			probesCacheFile,
+			analyzeInBackground
 		).convert(useTestFile(execFileName))
 		return getTestwiseCoverageReportAsString(testwiseCoverage.generateDummyReport())
 	}
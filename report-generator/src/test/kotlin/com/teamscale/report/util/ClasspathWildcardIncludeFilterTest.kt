@@ -3,6 +3,7 @@ package com.teamscale.report.util
 import com.teamscale.report.util.ClasspathWildcardIncludeFilter.Companion.getClassName
 import org.assertj.core.api.Assertions
 import org.assertj.core.api.Assertions.assertThat
+import org.jacoco.core.runtime.WildcardMatcher
 import org.junit.jupiter.api.Test
 
 class ClasspathWildcardIncludeFilterTest {
@@ -33,4 +34,52 @@ class ClasspathWildcardIncludeFilterTest {
 				.isIncluded("org/junit/platform/commons/util/ModuleUtils\$ModuleReferenceScanner.class")
 		).isFalse()
 	}
-}
\ No newline at end of file
+
+	@Test
+	fun testQuestionMarkMatchesZeroOrOneCharacter() {
+		val filter = ClasspathWildcardIncludeFilter("org.?unit.*", null)
+		assertThat(filter.isIncluded("org/unit/Foo.class")).isTrue()
+		assertThat(filter.isIncluded("org/junit/Foo.class")).isTrue()
+		assertThat(filter.isIncluded("org/xxunit/Foo.class")).isFalse()
+	}
+
+	@Test
+	fun testMatchingIsConsistentWithWildcardMatcher() {
+		val patterns = (0 until 300).map { "com.company.module$it.*" } +
+				listOf(
+					"*Test", "org.?unit.*", "org.junit?", "com.company.*?", "*.internal.*Impl*", "java.lang.String",
+					"a*b*c", "a?b?c", "*"
+				)
+		val classNames = listOf(
+			"com.company.module42.Foo", "com.company.module4", "com.company.module300.Foo", "com.company.FooTest",
+			"org.junit.Test", "org.jjunit.Test", "org.unit.Foo", "org.xxunit.Foo", "org.junit", "org.junitX",
+			"com.x.internal.ServiceImpl", "com.x.internal.Service",
+			"java.lang.String", "java.lang.StringBuilder", "abc", "aXbYc", "aXbYcZ", "acb", ""
+		)
+		patterns.forEach { pattern ->
+			val matcher = WildcardMatcher(pattern)
+			val filter = ClasspathWildcardIncludeFilter(pattern, null)
+			classNames.forEach { className ->
+				assertThat(filter.isIncluded(className)).describedAs("$pattern matches $className")
+					.isEqualTo(matcher.matches(className))
+			}
+		}
+
+		val combinedPattern = patterns.dropLast(1).joinToString(":")
+		val matcher = WildcardMatcher(combinedPattern)
+		val filter = ClasspathWildcardIncludeFilter(combinedPattern, "*.internal.*")
+		classNames.forEach { className ->
+			assertThat(filter.isIncluded(className)).describedAs(className)
+				.isEqualTo(matcher.matches(className) && !className.contains(".internal."))
+		}
+	}
+
+	@Test
+	fun testCachedVerdictsDependOnClassNameOnly() {
+		val filter = ClasspathWildcardIncludeFilter("com.foo.*", null)
+		assertThat(filter.isIncluded("a.jar@com/foo/Bar.class")).isTrue()
+		assertThat(filter.isIncluded("b.jar@com/foo/Bar.class")).isTrue()
+		assertThat(filter.isIncluded("b.jar@com/goo/Bar.class")).isFalse()
+		assertThat(filter.isIncluded("com/foo/Bar")).isTrue()
+	}
+}
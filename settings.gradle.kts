@@ -15,7 +15,9 @@ plugins {
 }
 
 include(":agent")
+include(":agent-benchmarks")
 include(":report-generator")
+include(":report-generator-benchmarks")
 include(":teamscale-gradle-plugin")
 include(":teamscale-client")
 include(":sample-app")
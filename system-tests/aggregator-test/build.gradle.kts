@@ -0,0 +1,24 @@
+plugins {
+	com.teamscale.`kotlin-convention`
+	com.teamscale.`system-test-convention`
+}
+
+tasks.test {
+	/** The aggregator is started by the AggregatorSystemTest class. */
+	val aggregatorPort = ports.pickFreePort()
+	systemProperty("aggregatorPort", aggregatorPort)
+	val aggregatorTokenFile = temporaryDir.resolve("aggregator.token").absolutePath
+	systemProperty("aggregatorTokenFile", aggregatorTokenFile)
+
+	teamscaleAgent(
+		mapOf(
+			"http-server-port" to "$agentPort",
+			"aggregator-port" to "$aggregatorPort",
+			"aggregator-token-file" to aggregatorTokenFile,
+			"teamscale-project" to "p",
+			"teamscale-partition" to "aggregated",
+			"teamscale-commit" to "master:12345",
+			"includes" to "**SystemUnderTest**",
+		)
+	)
+}
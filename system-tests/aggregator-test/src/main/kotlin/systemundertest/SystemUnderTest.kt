@@ -0,0 +1,5 @@
+package systemundertest
+
+class SystemUnderTest {
+	fun foo() = 2
+}
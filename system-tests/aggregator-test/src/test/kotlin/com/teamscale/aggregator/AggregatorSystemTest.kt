@@ -0,0 +1,72 @@
+package com.teamscale.aggregator
+
+import com.teamscale.client.EReportFormat
+import com.teamscale.test.commons.SystemTestUtils
+import com.teamscale.test.commons.TeamscaleMockServer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import systemundertest.SystemUnderTest
+import java.io.IOException
+import java.net.InetAddress
+import java.net.Socket
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+
+/**
+ * Starts the aggregator from the agent jar, lets the agent of the test JVM push its coverage to it and checks that
+ * the aggregator uploads the coverage to our [TeamscaleMockServer] when it is stopped.
+ */
+class AggregatorSystemTest {
+	@Test
+	fun systemTest() {
+		val teamscaleMockServer = TeamscaleMockServer(SystemTestUtils.TEAMSCALE_PORT).acceptingReportUploads()
+		val aggregator = startAggregator()
+		try {
+			SystemUnderTest().foo()
+			SystemTestUtils.dumpCoverage(SystemTestUtils.AGENT_PORT)
+		} finally {
+			// stopping the aggregator uploads the remaining coverage
+			aggregator.destroy()
+			assertThat(aggregator.waitFor(1, TimeUnit.MINUTES)).isTrue()
+		}
+
+		val session = teamscaleMockServer.onlySession
+		assertThat(session.partition).isEqualTo("aggregated")
+		assertThat(session.getOnlyReport(EReportFormat.JACOCO))
+			.contains("<line nr=\"$METHOD_FOO_COVERABLE_LINE\" mi=\"0\"")
+	}
+
+	private fun startAggregator(): Process {
+		val java = Paths.get(System.getProperty("java.home"), "bin", "java").toString()
+		val process = ProcessBuilder(
+			java, "-cp", System.getenv("AGENT_PATH"), "com.teamscale.jacoco.agent.Main", "aggregate",
+			"--port", "$AGGREGATOR_PORT",
+			"--token-file", AGGREGATOR_TOKEN_FILE,
+			"--teamscale-server-url", "http://localhost:${SystemTestUtils.TEAMSCALE_PORT}",
+			"--teamscale-user", "fake",
+			"--teamscale-access-token", "fake"
+		).inheritIO().start()
+		waitUntilListening(process)
+		return process
+	}
+
+	private fun waitUntilListening(process: Process) {
+		repeat(300) {
+			check(process.isAlive) { "The aggregator terminated with exit code ${process.exitValue()}" }
+			try {
+				Socket(InetAddress.getLoopbackAddress(), AGGREGATOR_PORT).close()
+				return
+			} catch (e: IOException) {
+				Thread.sleep(100)
+			}
+		}
+		process.destroy()
+		error("The aggregator did not start listening on port $AGGREGATOR_PORT")
+	}
+
+	companion object {
+		private const val METHOD_FOO_COVERABLE_LINE = 4
+		private val AGGREGATOR_PORT = Integer.getInteger("aggregatorPort")
+		private val AGGREGATOR_TOKEN_FILE = System.getProperty("aggregatorTokenFile")
+	}
+}
@@ -0,0 +1,61 @@
+package com.teamscale.client
+
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okhttp3.Response
+import okio.BufferedSink
+import okio.GzipSink
+import okio.buffer
+import retrofit2.Invocation
+
+/**
+ * Marks service methods whose request body may be large and compresses well, like reports, logs and test lists. The
+ * [GzipRequestInterceptor] compresses their request bodies.
+ */
+@Target(AnnotationTarget.FUNCTION)
+@Retention(AnnotationRetention.RUNTIME)
+annotation class GzipRequestBody
+
+/**
+ * Compresses the request bodies of service methods annotated with [GzipRequestBody] with gzip, if enabled via
+ * [HttpUtils.setShouldCompressRequests]. The compressed body is streamed and its length is unknown, so this must be
+ * registered as an application interceptor. OkHttp then sends the body with chunked transfer encoding instead of a
+ * `Content-Length`.
+ */
+object GzipRequestInterceptor : Interceptor {
+
+	/** Whether request bodies are compressed. Off by default, since not every server accepts compressed requests. */
+	@Volatile
+	var isEnabled = false
+
+	override fun intercept(chain: Interceptor.Chain): Response {
+		val request = chain.request()
+		val body = request.body
+		if (!isEnabled || body == null || request.header("Content-Encoding") != null
+			|| request.tag(Invocation::class.java)?.method()?.isAnnotationPresent(GzipRequestBody::class.java) != true
+		) {
+			return chain.proceed(request)
+		}
+
+		return chain.proceed(
+			request.newBuilder()
+				.header("Content-Encoding", "gzip")
+				.method(request.method, GzipRequestBodyWrapper(body))
+				.build()
+		)
+	}
+
+	private class GzipRequestBodyWrapper(private val body: RequestBody) : RequestBody() {
+		override fun contentType(): MediaType? = body.contentType()
+
+		/** The compressed length is not known in advance. */
+		override fun contentLength() = -1L
+
+		override fun isOneShot() = body.isOneShot()
+
+		override fun writeTo(sink: BufferedSink) {
+			GzipSink(sink).buffer().use { body.writeTo(it) }
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.teamscale.client
+
+import retrofit2.Response
+import java.io.IOException
+import java.time.Duration
+import java.time.Instant
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+import java.time.format.DateTimeParseException
+
+/**
+ * Thrown when Teamscale answers a request with an error status code. Keeps the status code and the `Retry-After`
+ * header, so callers can decide whether and when to retry the request.
+ */
+class HttpStatusException @JvmOverloads constructor(
+	/** The HTTP status code of the response. */
+	val statusCode: Int,
+	/** How long the server asked to wait before retrying or null if it did not say. */
+	val retryAfter: Duration?,
+	message: String,
+	cause: Throwable? = null
+) : IOException(message, cause) {
+
+	/**
+	 * Whether retrying the request later may succeed. This is the case for server errors, timeouts and rate limits,
+	 * but not for other client errors like missing permissions.
+	 */
+	val isRetryable: Boolean
+		get() = statusCode >= 500 || statusCode == 408 || statusCode == 429
+
+	companion object {
+
+		/** Creates the exception for the given unsuccessful response. */
+		@JvmStatic
+		fun <T> of(response: Response<T>, message: String) =
+			HttpStatusException(
+				response.code(), parseRetryAfter(response.headers()["Retry-After"], Instant.now()), message
+			)
+
+		/**
+		 * Parses the value of a `Retry-After` header, which is either a number of seconds or an HTTP date. Returns
+		 * null if the value is missing or invalid.
+		 */
+		@JvmStatic
+		fun parseRetryAfter(value: String?, now: Instant): Duration? {
+			if (value.isNullOrBlank()) {
+				return null
+			}
+			value.trim().toLongOrNull()?.let { seconds ->
+				return Duration.ofSeconds(seconds.coerceAtLeast(0))
+			}
+			return try {
+				val date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+				Duration.between(now, date).takeUnless { it.isNegative } ?: Duration.ZERO
+			} catch (e: DateTimeParseException) {
+				null
+			}
+		}
+
+		/** Returns the [HttpStatusException] that caused the given exception or null if there is none. */
+		@JvmStatic
+		fun findIn(throwable: Throwable?): HttpStatusException? =
+			generateSequence(throwable) { it.cause }.filterIsInstance<HttpStatusException>().firstOrNull()
+	}
+}
@@ -3,7 +3,9 @@ package com.teamscale.client
 import okhttp3.Authenticator
 import okhttp3.Credentials.basic
 import okhttp3.Interceptor
+import okhttp3.OkHttpClient
 import okhttp3.OkHttpClient.Builder
+import okhttp3.Protocol
 import org.slf4j.LoggerFactory
 import retrofit2.Retrofit
 import java.io.IOException
@@ -50,6 +52,24 @@ object HttpUtils {
 		HttpUtils.shouldValidateSsl = shouldValidateSsl
 	}
 
+	/** Controls whether the [GzipRequestInterceptor] compresses request bodies. */
+	@JvmStatic
+	fun setShouldCompressRequests(shouldCompressRequests: Boolean) {
+		GzipRequestInterceptor.isEnabled = shouldCompressRequests
+	}
+
+	/**
+	 * The client from which all [okhttp3.OkHttpClient]s of this process are derived with [OkHttpClient.newBuilder],
+	 * so that they share one connection pool and dispatcher. This way, connections and TLS sessions to the same
+	 * server are reused across components, and HTTP/2 is used where the server supports it.
+	 */
+	@JvmStatic
+	val sharedClient: OkHttpClient by lazy {
+		OkHttpClient.Builder()
+			.protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+			.build()
+	}
+
 	/**
 	 * Creates a new [Retrofit] with proper defaults. The instance and the corresponding [okhttp3.OkHttpClient] can
 	 * be customized with the given action. Timeouts for reading and writing can be customized.
@@ -57,6 +77,9 @@ object HttpUtils {
 	/**
 	 * Creates a new [Retrofit] with proper defaults. The instance and the corresponding [okhttp3.OkHttpClient] can
 	 * be customized with the given action. Read and write timeouts are set according to the default values.
+	 *
+	 * The client is a view of the [sharedClient] with its own timeouts, interceptors and proxy settings, which is
+	 * cheap to create.
 	 */
 	@JvmOverloads
 	@JvmStatic
@@ -65,12 +88,15 @@ object HttpUtils {
 		okHttpBuilderAction: Consumer<Builder>, readTimeout: Duration = DEFAULT_READ_TIMEOUT,
 		writeTimeout: Duration = DEFAULT_WRITE_TIMEOUT
 	): Retrofit {
-		val httpClientBuilder = Builder().apply {
+		val httpClientBuilder = sharedClient.newBuilder().apply {
 			setTimeouts(readTimeout, writeTimeout)
 			setUpSslValidation()
 			setUpProxyServer()
 		}
 		okHttpBuilderAction.accept(httpClientBuilder)
+		// an application interceptor, so that OkHttp frames the compressed body with chunked transfer encoding. Added
+		// last, so that logging interceptors see the uncompressed body
+		httpClientBuilder.addInterceptor(GzipRequestInterceptor)
 
 		val builder = Retrofit.Builder().client(httpClientBuilder.build())
 		retrofitBuilderAction.accept(builder)
@@ -24,6 +24,7 @@ interface ITeamscaleService {
 	 * for details.
 	 */
 	@Multipart
+	@GzipRequestBody
 	@POST("api/v2024.7.0/projects/{projectId}/external-analysis/session/auto-create/report")
 	fun uploadExternalReport(
 		@Path("projectId") projectId: String,
@@ -40,6 +41,7 @@ interface ITeamscaleService {
 	 * Add multiple files into an existing session.
 	 */
 	@Multipart
+	@GzipRequestBody
 	@POST("api/v2024.7.0/projects/{projectId}/external-analysis/session/{sessionId}/report")
 	fun uploadExternalReports(
 		@Path("projectId") projectId: String,
@@ -50,6 +52,7 @@ interface ITeamscaleService {
 
 	/** Uploads reports in an auto-create session. */
 	@Multipart
+	@GzipRequestBody
 	@POST("api/v2024.7.0/projects/{projectId}/external-analysis/session/auto-create/report")
 	fun uploadExternalReports(
 		@Path("projectId") projectId: String,
@@ -87,6 +90,7 @@ interface ITeamscaleService {
 	 * @see uploadExternalReport
 	 */
 	@Multipart
+	@GzipRequestBody
 	@POST("api/v2024.7.0/projects/{projectId}/external-analysis/session/auto-create/report")
 	fun uploadExternalReports(
 		@Path("projectId") projectId: String,
@@ -101,6 +105,7 @@ interface ITeamscaleService {
 
 	/** Retrieve clustered impacted tests based on the given available tests and baseline timestamp. */
 	@PUT("api/v2024.7.0/projects/{projectId}/impacted-tests")
+	@GzipRequestBody
 	fun getImpactedTests(
 		@Path("projectId") projectId: String,
 		@Query("baseline") baseline: String?,
@@ -157,6 +162,7 @@ interface ITeamscaleService {
 
 	/** Send logs to Teamscale  */
 	@POST("api/v2024.7.0/profilers/{profilerId}/logs")
+	@GzipRequestBody
 	fun postProfilerLog(
 		@Path("profilerId") profilerId: String,
 		@Body logEntries: List<ProfilerLogEntry?>?
@@ -196,7 +202,9 @@ fun ITeamscaleService.uploadReport(
 		}
 
 		val errorBody = HttpUtils.getErrorBodyStringSafe(response)
-		throw IOException("Request failed with error code ${response.code()}. Response body: $errorBody")
+		throw HttpStatusException.of(
+			response, "Request failed with error code ${response.code()}. Response body: $errorBody"
+		)
 	} catch (e: IOException) {
 		throw IOException("Failed to upload report. ${e.message}", e)
 	}
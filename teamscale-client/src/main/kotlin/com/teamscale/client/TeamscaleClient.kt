@@ -213,29 +213,38 @@ open class TeamscaleClient {
 		).executeOrThrow()
 	}
 
-	/** Uploads multiple reports to Teamscale within one session.  */
+	/**
+	 * Uploads multiple reports to Teamscale within one session. The reports of each format are sent in requests with
+	 * at most [maxReportsPerRequest] multipart parts, so that many reports only need a few requests.
+	 */
 	@Throws(IOException::class)
+	@JvmOverloads
 	fun uploadReports(
 		reports: Map<String, Collection<File>>,
 		commitDescriptor: CommitDescriptor?,
 		revision: String?,
 		repository: String?,
 		partition: String,
-		message: String
+		message: String,
+		maxReportsPerRequest: Int = DEFAULT_MAX_REPORTS_PER_REQUEST
 	) {
 		require(projectId != null) { "Project ID must not be null!" }
+		require(maxReportsPerRequest > 0) { "At least one report must be sent per request!" }
+		// when uploading to a revision, Teamscale does not need the commit
+		val commit = if (revision.isNullOrBlank()) commitDescriptor else null
 		val sessionId =
-			service.createSession(projectId, commitDescriptor, revision, repository, partition, message)
+			service.createSession(projectId, commit, revision, repository, partition, message)
 				.executeOrThrow()
 		require(sessionId != null) { "Session ID was null" }
 
 		for ((reportFormat, files) in reports) {
-			val partList = files.map { file ->
-				val requestBody = file.asRequestBody(FORM)
-				MultipartBody.Part.createFormData("report", file.name, requestBody)
+			files.chunked(maxReportsPerRequest).forEach { chunk ->
+				val partList = chunk.map { file ->
+					val requestBody = file.asRequestBody(FORM)
+					MultipartBody.Part.createFormData("report", file.name, requestBody)
+				}
+				service.uploadExternalReports(projectId, sessionId, reportFormat, partList).executeOrThrow()
 			}
-
-			service.uploadExternalReports(projectId, sessionId, reportFormat, partList).executeOrThrow()
 		}
 		service.commitSession(projectId, sessionId).executeOrThrow()
 	}
@@ -266,6 +275,9 @@ open class TeamscaleClient {
 	}
 
 	companion object {
+		/** Limits the size of a single request when uploading many reports in one session. */
+		const val DEFAULT_MAX_REPORTS_PER_REQUEST = 50
+
 		private fun wrapInCluster(
 			testListResponse: Response<List<PrioritizableTest>>
 		): Response<List<PrioritizableTestCluster>?> {
@@ -297,7 +309,9 @@ open class TeamscaleClient {
 fun <T> Call<T>.executeOrThrow(): T? {
 	val response = execute()
 	if (!response.isSuccessful) {
-		throw IOException("HTTP request " + request() + " failed: " + HttpUtils.getErrorBodyStringSafe(response))
+		throw HttpStatusException.of(
+			response, "HTTP request " + request() + " failed: " + HttpUtils.getErrorBodyStringSafe(response)
+		)
 	}
 	return response.body()
 }
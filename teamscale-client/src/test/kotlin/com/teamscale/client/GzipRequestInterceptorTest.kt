@@ -0,0 +1,85 @@
+package com.teamscale.client
+
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.GzipSource
+import okio.buffer
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+
+internal class GzipRequestInterceptorTest {
+
+	private val server = MockWebServer()
+
+	private lateinit var service: ITeamscaleService
+
+	@BeforeEach
+	fun setUp() {
+		server.start()
+		service = TeamscaleServiceGenerator.createService(
+			ITeamscaleService::class.java, server.url("/"), "user", "token"
+		)
+		HttpUtils.setShouldCompressRequests(true)
+	}
+
+	@AfterEach
+	fun tearDown() {
+		HttpUtils.setShouldCompressRequests(false)
+		server.shutdown()
+	}
+
+	@Test
+	fun `compresses the request bodies of annotated methods`() {
+		server.enqueue(MockResponse())
+
+		service.postProfilerLog("profiler", listOf(ProfilerLogEntry(1, "message", null, "INFO"))).execute()
+
+		val request = server.takeRequest()
+		assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip")
+		assertThat(GzipSource(request.body).buffer().readUtf8()).contains("\"message\":\"message\"")
+	}
+
+	@Test
+	fun `sends compressed multipart reports with chunked encoding`() {
+		server.enqueue(MockResponse())
+
+		service.uploadExternalReport(
+			"project", "JACOCO", null, "revision", null, "partition", "message",
+			"<report/>".toRequestBody("application/xml".toMediaType())
+		).execute()
+
+		val request = server.takeRequest()
+		assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip")
+		assertThat(request.getHeader("Transfer-Encoding")).isEqualTo("chunked")
+		assertThat(request.getHeader("Content-Length")).isNull()
+		assertThat(request.chunkSizes).isNotEmpty()
+		assertThat(GzipSource(request.body).buffer().readUtf8()).contains("<report/>")
+			.contains("Content-Disposition: form-data; name=\"report\"")
+	}
+
+	@Test
+	fun `leaves the request bodies of other methods alone`() {
+		server.enqueue(MockResponse())
+
+		service.registerProfiler("config", ProcessInformation("host", "1", 2)).execute()
+
+		val request = server.takeRequest()
+		assertThat(request.getHeader("Content-Encoding")).isNull()
+		assertThat(request.body.readUtf8()).contains("\"hostname\":\"host\"")
+	}
+
+	@Test
+	fun `derived clients share the connection pool`() {
+		val first = HttpUtils.createRetrofit({ it.baseUrl(server.url("/")) }, {}).callFactory()
+		val second = HttpUtils.createRetrofit({ it.baseUrl(server.url("/")) }, {}).callFactory()
+
+		assertThat((first as OkHttpClient).connectionPool)
+			.isSameAs((second as OkHttpClient).connectionPool)
+			.isSameAs(HttpUtils.sharedClient.connectionPool)
+	}
+}
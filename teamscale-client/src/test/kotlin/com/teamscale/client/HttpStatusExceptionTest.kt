@@ -0,0 +1,34 @@
+package com.teamscale.client
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.time.Duration
+import java.time.Instant
+
+internal class HttpStatusExceptionTest {
+
+	private val now = Instant.parse("2015-10-21T07:28:00Z")
+
+	@Test
+	fun `parses Retry-After in seconds and as HTTP date`() {
+		assertThat(HttpStatusException.parseRetryAfter("120", now)).isEqualTo(Duration.ofMinutes(2))
+		assertThat(HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:29:00 GMT", now))
+			.isEqualTo(Duration.ofMinutes(1))
+		assertThat(HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:27:00 GMT", now))
+			.isEqualTo(Duration.ZERO)
+		assertThat(HttpStatusException.parseRetryAfter("soon", now)).isNull()
+		assertThat(HttpStatusException.parseRetryAfter(null, now)).isNull()
+	}
+
+	@Test
+	fun `finds the exception among the causes`() {
+		val statusException = HttpStatusException(503, null, "Service Unavailable")
+		val wrapped = IOException("Failed to upload report", statusException)
+
+		assertThat(HttpStatusException.findIn(wrapped)).isSameAs(statusException)
+		assertThat(HttpStatusException.findIn(IOException("Connection refused"))).isNull()
+		assertThat(statusException.isRetryable).isTrue()
+		assertThat(HttpStatusException(403, null, "Forbidden").isRetryable).isFalse()
+	}
+}
@@ -1,10 +1,10 @@
 package com.teamscale.tia.client
 
 import com.teamscale.client.ClusteredTestDetails
+import com.teamscale.client.HttpUtils
 import com.teamscale.client.PrioritizableTestCluster
 import com.teamscale.report.testwise.model.TestExecution
 import okhttp3.HttpUrl
-import okhttp3.OkHttpClient
 import okhttp3.ResponseBody
 import retrofit2.Call
 import retrofit2.Retrofit
@@ -84,7 +84,7 @@ interface ITestwiseCoverageAgentApi {
 		 */
 		@JvmStatic
 		fun createService(baseUrl: HttpUrl): ITestwiseCoverageAgentApi {
-			val httpClientBuilder = OkHttpClient.Builder().apply {
+			val httpClientBuilder = HttpUtils.sharedClient.newBuilder().apply {
 				connectTimeout(60, TimeUnit.SECONDS)
 				readTimeout(120, TimeUnit.SECONDS)
 				writeTimeout(60, TimeUnit.SECONDS)